@@ -3,9 +3,11 @@ package jp.co.broadcom.tanzu.springenterpriseproxy;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
 @EnableConfigurationProperties(SpringEnterpriseProxyProperties.class)
+@EnableScheduling
 class SpringEnterpriseProxy {
 
 	public static void main(String[] args) {
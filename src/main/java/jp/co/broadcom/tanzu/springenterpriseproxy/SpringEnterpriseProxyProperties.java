@@ -1,9 +1,14 @@
 package jp.co.broadcom.tanzu.springenterpriseproxy;
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
 
+import java.nio.file.Path;
 import java.security.interfaces.RSAPrivateKey;
 import java.security.interfaces.RSAPublicKey;
+import java.time.Duration;
+import java.util.List;
 
 @ConfigurationProperties(prefix = "spring.enterprise.proxy")
 public record SpringEnterpriseProxyProperties(
@@ -15,7 +20,360 @@ public record SpringEnterpriseProxyProperties(
 		boolean oauthEnabled,
 		RSAPrivateKey jwtPrivateKey,
 		RSAPublicKey jwtPublicKey,
-		boolean statsdMetricsEnabled
+		boolean statsdMetricsEnabled,
+		@DefaultValue Streaming streaming,
+		@DefaultValue Coalescing coalescing,
+		@DefaultValue MemoryCache memoryCache,
+		@DefaultValue ContentStore contentStore,
+		@DefaultValue ZeroCopy zeroCopy,
+		@DefaultValue NegativeCache negativeCache,
+		@DefaultValue Freshness freshness,
+		@DefaultValue CircuitBreaker circuitBreaker,
+		@DefaultValue Upstream upstream,
+		@DefaultValue RedirectCache redirectCache,
+		@DefaultValue Prefetch prefetch,
+		@DefaultValue WarmUp warmUp,
+		@DefaultValue Seed seed,
+		@DefaultValue Snapshot snapshot,
+		@DefaultValue Eviction eviction,
+		@DefaultValue Compression compression,
+		@DefaultValue WriteBehind writeBehind,
+		@DefaultValue Admin admin
 		//@formatter:on
 ) {
+
+	/**
+	 * How artifact bodies fetched from the remote repository are relayed to the client.
+	 *
+	 * @param bufferThreshold upstream responses whose {@code Content-Length} is at most
+	 * this size are read fully into memory and cached; larger or unknown-length bodies
+	 * are streamed to the client as they arrive
+	 */
+	public record Streaming(@DefaultValue("10MB") DataSize bufferThreshold) {
+	}
+
+	/**
+	 * How concurrent cache misses for the same path share a single upstream fetch.
+	 *
+	 * @param joinTimeout how long a request waits for an in-flight fetch of the same path
+	 * before fetching it from the remote itself, without caching, and how long a request
+	 * reading along with a streamed fetch waits for more of the body
+	 * @param leaderLease how long an in-flight fetch is advertised to other requests at
+	 * most, so that a fetch whose response is never consumed cannot block the path
+	 */
+	public record Coalescing(@DefaultValue("30s") Duration joinTimeout, @DefaultValue("10m") Duration leaderLease) {
+	}
+
+	/**
+	 * In-process cache of small, hot artifacts in front of the database.
+	 *
+	 * @param enabled whether the memory cache is used at all
+	 * @param maxSize total size of the cached artifact bodies
+	 * @param maxEntrySize artifacts larger than this are never held in memory, so that a
+	 * few large jars cannot flush the many small POMs and checksum files
+	 */
+	public record MemoryCache(@DefaultValue("true") boolean enabled, @DefaultValue("64MB") DataSize maxSize,
+			@DefaultValue("1MB") DataSize maxEntrySize) {
+	}
+
+	/**
+	 * Where artifact bodies are kept. Metadata always stays in the database.
+	 *
+	 * @param type {@code database} to keep bodies in the {@code artifact_chunk} table,
+	 * {@code filesystem} to keep them as files under {@code directory}
+	 * @param directory root of the sharded file tree used by the {@code filesystem} store
+	 * @param chunkSize size of the chunk rows bodies are split into by the
+	 * {@code database} store; must fit the BLOB type of the database (64KB on MySQL)
+	 * @param prefetchChunks how many chunk rows are read per query when a body is served
+	 * from the database; the next batch is loaded in the background while the current one
+	 * is sent (0 reads one chunk at a time without prefetching)
+	 * @param migration moving of bodies still held in the database to the
+	 * {@code filesystem} store
+	 */
+	public record ContentStore(@DefaultValue("database") Type type, @DefaultValue("artifact-store") Path directory,
+			@DefaultValue("60KB") DataSize chunkSize, @DefaultValue("4") int prefetchChunks,
+			@DefaultValue Migration migration) {
+
+		public enum Type {
+
+			DATABASE, FILESYSTEM
+
+		}
+
+		/**
+		 * @param enabled whether bodies held in the database are moved to the file system
+		 * in the background
+		 * @param batchSize how many artifacts are moved per run
+		 * @param interval delay between two runs
+		 */
+		public record Migration(@DefaultValue("true") boolean enabled, @DefaultValue("20") int batchSize,
+				@DefaultValue("1m") Duration interval) {
+		}
+
+	}
+
+	/**
+	 * Serving of artifacts held by the {@code filesystem} content store.
+	 *
+	 * @param enabled whether file-backed artifacts are handed to the servlet container's
+	 * sendfile support instead of being copied through the heap
+	 * @param minSize smaller files are copied, since sendfile only pays off once the
+	 * transfer outweighs its setup
+	 */
+	public record ZeroCopy(@DefaultValue("true") boolean enabled, @DefaultValue("48KB") DataSize minSize) {
+	}
+
+	/**
+	 * Remembering paths the remote repository answered with 404, so that build tools
+	 * probing for optional artifacts (sources, javadoc, ...) are answered locally.
+	 *
+	 * @param enabled whether upstream 404s are remembered
+	 * @param ttl how long a path is answered with 404 locally before the remote is asked
+	 * again
+	 * @param maxEntries how many paths are held in memory; the database keeps every path
+	 * until it expires
+	 * @param cleanupInterval delay between two removals of expired paths from the
+	 * database
+	 */
+	public record NegativeCache(@DefaultValue("true") boolean enabled, @DefaultValue("10m") Duration ttl,
+			@DefaultValue("100000") long maxEntries, @DefaultValue("10m") Duration cleanupInterval) {
+	}
+
+	/**
+	 * How long cached copies of mutable artifacts are served before they are revalidated
+	 * against the remote repository with a conditional request. Release artifacts are
+	 * immutable and never revalidated.
+	 *
+	 * @param metadataTtl freshness of {@code maven-metadata.xml} and its checksum files
+	 * @param snapshotTtl freshness of files under a {@code -SNAPSHOT} version directory
+	 * @param rules path patterns ({@code AntPathMatcher} syntax, e.g.
+	 * {@code /com/example/**}) with their own freshness, checked in order before the
+	 * built-in rules; a rule without a {@code ttl} marks matching paths immutable
+	 * @param staleWhileRevalidate how long past its freshness a cached copy is still
+	 * served immediately while it is revalidated in the background; older copies are
+	 * revalidated before they are served
+	 * @param revalidationThreads threads revalidating stale copies in the background
+	 * @param revalidationQueueCapacity background revalidations waiting for a thread at
+	 * most; stale copies served while the queue is full are revalidated by a later
+	 * request
+	 */
+	public record Freshness(@DefaultValue("5m") Duration metadataTtl, @DefaultValue("5m") Duration snapshotTtl,
+			@DefaultValue List<Rule> rules, @DefaultValue("1h") Duration staleWhileRevalidate,
+			@DefaultValue("4") int revalidationThreads, @DefaultValue("100") int revalidationQueueCapacity) {
+
+		/**
+		 * @param pattern path pattern the rule applies to
+		 * @param ttl freshness of matching paths, or {@code null} if they never change
+		 */
+		public record Rule(String pattern, Duration ttl) {
+		}
+
+	}
+
+	/**
+	 * Circuit breaker around the remote repository. Once too many of the most recent
+	 * calls failed or were slow, cache misses fail fast with 503 and cached copies are
+	 * served even past their freshness, until a few trial calls show the remote has
+	 * recovered.
+	 *
+	 * @param enabled whether calls to the remote are guarded at all
+	 * @param failureRateThreshold percentage of failed calls (I/O errors and 5xx
+	 * responses) in the window that opens the circuit
+	 * @param slowCallRateThreshold percentage of slow calls in the window that opens the
+	 * circuit
+	 * @param slowCallDuration how long the remote may take to send response headers
+	 * before a call counts as slow
+	 * @param slidingWindowSize number of most recent calls the rates are computed over
+	 * @param minimumCalls calls the window has to hold before the rates are evaluated
+	 * @param waitInOpenState how long the circuit stays open before trial calls are let
+	 * through
+	 * @param permittedCallsInHalfOpenState trial calls that decide whether the circuit
+	 * closes again
+	 */
+	public record CircuitBreaker(@DefaultValue("true") boolean enabled, @DefaultValue("50") int failureRateThreshold,
+			@DefaultValue("80") int slowCallRateThreshold, @DefaultValue("10s") Duration slowCallDuration,
+			@DefaultValue("20") int slidingWindowSize, @DefaultValue("10") int minimumCalls,
+			@DefaultValue("30s") Duration waitInOpenState, @DefaultValue("3") int permittedCallsInHalfOpenState) {
+	}
+
+	/**
+	 * The HTTP client used for the remote repository. Connections are kept alive and
+	 * reused by the JDK client; with HTTP/2 concurrent requests to a host share one
+	 * connection.
+	 *
+	 * @param connectTimeout how long establishing a connection may take
+	 * @param readTimeout how long the remote may take to send the response headers
+	 * @param totalTimeout how long a whole exchange, including reading the body, may take
+	 * before the transfer is aborted
+	 * @param http2 whether to negotiate HTTP/2, falling back to HTTP/1.1 where the remote
+	 * does not support it
+	 * @param maxConcurrentRequestsPerHost requests (including any redirect they follow)
+	 * that may be open against a host at the same time
+	 * @param acquireTimeout how long a request waits for one of those slots before it
+	 * fails
+	 */
+	public record Upstream(@DefaultValue("5s") Duration connectTimeout, @DefaultValue("30s") Duration readTimeout,
+			@DefaultValue("30m") Duration totalTimeout, @DefaultValue("true") boolean http2,
+			@DefaultValue("64") int maxConcurrentRequestsPerHost, @DefaultValue("10s") Duration acquireTimeout) {
+	}
+
+	/**
+	 * Where the remote repository redirected artifact paths to (e.g. signed CDN URLs), so
+	 * that fetching the same path again goes straight to that location.
+	 *
+	 * @param enabled whether redirect locations are remembered at all
+	 * @param maxEntries number of paths whose location is held at most
+	 * @param defaultTtl how long a location without a recognizable signature expiry is
+	 * used
+	 * @param maxTtl how long any location is used at most
+	 * @param expiryMargin how long before its signature expires a location stops being
+	 * used
+	 */
+	public record RedirectCache(@DefaultValue("true") boolean enabled, @DefaultValue("10000") long maxEntries,
+			@DefaultValue("1m") Duration defaultTtl, @DefaultValue("1h") Duration maxTtl,
+			@DefaultValue("30s") Duration expiryMargin) {
+	}
+
+	/**
+	 * Warming of the artifacts that build tools request right after a POM, e.g. the JAR
+	 * next to it. Checksum files need no warming, they are answered from the metadata of
+	 * the artifact they belong to.
+	 *
+	 * @param enabled whether siblings are fetched after a POM was fetched from the remote
+	 * @param siblingExtensions what replaces {@code .pom} in the path of a sibling
+	 * @param threads how many siblings are fetched at the same time
+	 * @param queueCapacity how many siblings may wait to be fetched before further ones
+	 * are dropped
+	 * @param usageWindow how long after it was fetched a request for a sibling counts as
+	 * a prefetch hit
+	 */
+	public record Prefetch(@DefaultValue("false") boolean enabled, @DefaultValue(".jar") List<String> siblingExtensions,
+			@DefaultValue("2") int threads, @DefaultValue("200") int queueCapacity,
+			@DefaultValue("10m") Duration usageWindow) {
+	}
+
+	/**
+	 * Warm-up jobs that pull the transitive dependencies of a set of root coordinates
+	 * into the cache, see the {@code warmup} actuator endpoint.
+	 *
+	 * @param concurrency how many POMs and artifacts are fetched at the same time, across
+	 * all jobs
+	 * @param maxArtifacts how many files a single job fetches at most
+	 * @param retainedJobs how many finished jobs are kept to report on
+	 */
+	public record WarmUp(@DefaultValue("8") int concurrency, @DefaultValue("100000") int maxArtifacts,
+			@DefaultValue("10") int retainedJobs) {
+	}
+
+	/**
+	 * Seeding of the cache from a local Maven repository directory (e.g.
+	 * {@code ~/.m2/repository}), see the {@code seed} actuator endpoint.
+	 *
+	 * @param threads how many batches of files are read and stored at the same time
+	 * @param batchSize how many files are stored in one batch at most
+	 * @param batchBytes how many bytes a batch holds at most; larger files are streamed
+	 * into the store on their own
+	 * @param roots the directories seeds may be started from, themselves or any directory
+	 * below them; none by default, which disables seeding
+	 */
+	public record Seed(@DefaultValue("4") int threads, @DefaultValue("200") int batchSize,
+			@DefaultValue("32MB") DataSize batchBytes, @DefaultValue List<Path> roots) {
+	}
+
+	/**
+	 * Export and import of the whole cache as a single archive, see the {@code snapshot}
+	 * actuator endpoint.
+	 *
+	 * @param pageSize how many artifact rows an export reads per query
+	 * @param threads how many batches of imported artifacts are verified and stored at
+	 * the same time
+	 * @param batchSize how many artifacts are stored in one batch at most
+	 * @param batchBytes how many bytes an import batch holds at most; larger artifacts
+	 * are streamed into the store on their own
+	 * @param directory the directory archives are exported to and imported from; the
+	 * endpoint only takes names relative to it
+	 */
+	public record Snapshot(@DefaultValue("500") int pageSize, @DefaultValue("4") int threads,
+			@DefaultValue("200") int batchSize, @DefaultValue("32MB") DataSize batchBytes,
+			@DefaultValue("snapshots") Path directory) {
+	}
+
+	/**
+	 * Eviction of cached artifacts once their bodies exceed a total size. Without it the
+	 * cache only grows.
+	 *
+	 * @param enabled whether artifacts are evicted at all
+	 * @param maxSize total size of the cached artifact bodies above which artifacts are
+	 * evicted
+	 * @param targetRatio share of {@code maxSize} a sweep evicts down to, so that the
+	 * next few misses do not trigger another one
+	 * @param policy {@code lru} to evict the least recently used artifacts first,
+	 * {@code lfu} to evict the least frequently used ones first
+	 * @param minIdle artifacts used more recently than this are never evicted
+	 * @param batchSize how many candidates a sweep reads per query
+	 * @param interval delay between two sweeps
+	 * @param accessFlushInterval delay between two batched writes of the last-access
+	 * times and hit counts collected in memory
+	 */
+	public record Eviction(@DefaultValue("false") boolean enabled, @DefaultValue("50GB") DataSize maxSize,
+			@DefaultValue("0.9") double targetRatio, @DefaultValue("lru") Policy policy,
+			@DefaultValue("10m") Duration minIdle, @DefaultValue("500") int batchSize,
+			@DefaultValue("1m") Duration interval, @DefaultValue("30s") Duration accessFlushInterval) {
+
+		public enum Policy {
+
+			LRU, LFU
+
+		}
+
+	}
+
+	/**
+	 * Compression of text artifacts (POMs, {@code maven-metadata.xml}, checksum files) at
+	 * rest. They are gzipped once when cached, sent as they are to clients that accept
+	 * gzip and only decompressed for clients that do not.
+	 *
+	 * @param enabled whether newly cached text artifacts are compressed
+	 * @param minSize artifacts smaller than this are stored as they are, as gzip would
+	 * hardly save anything on them
+	 * @param maxRatio compressed bodies larger than this share of the original are
+	 * dropped and the original is stored instead
+	 */
+	public record Compression(@DefaultValue("true") boolean enabled, @DefaultValue("256B") DataSize minSize,
+			@DefaultValue("0.9") double maxRatio) {
+	}
+
+	/**
+	 * Persisting fetched artifacts in the background (write-behind) instead of on the
+	 * request thread, so that a miss is answered as soon as the body has arrived.
+	 * Requests for a path still being written wait for the write like for any other
+	 * in-flight fetch.
+	 *
+	 * @param enabled whether fetched artifacts are written in the background
+	 * @param threads threads writing artifacts to the content store
+	 * @param queueCapacity writes waiting for a thread at most; once the queue is full,
+	 * artifacts are written on the request thread again
+	 * @param maxPendingSize total size of the bodies waiting to be written at most, above
+	 * which artifacts are written on the request thread again
+	 * @param drainTimeout how long shutdown waits for pending writes to finish; writes
+	 * still pending then are lost and fetched again on their next request
+	 */
+	public record WriteBehind(@DefaultValue("false") boolean enabled, @DefaultValue("2") int threads,
+			@DefaultValue("100") int queueCapacity, @DefaultValue("256MB") DataSize maxPendingSize,
+			@DefaultValue("30s") Duration drainTimeout) {
+	}
+
+	/**
+	 * The administrator allowed to use the actuator endpoints that change the cache or
+	 * report on jobs (purging, seeding, snapshots, warm-ups). Bearer tokens grant it with
+	 * the {@code admin} scope.
+	 *
+	 * @param username the name of the local administrator, used when OAuth is disabled
+	 * @param password the password of the local administrator, in the form the delegating
+	 * password encoder reads, e.g. <code>{bcrypt}...</code>; without it there is no local
+	 * administrator
+	 */
+	public record Admin(@DefaultValue("admin") String username, String password) {
+	}
+
 }
@@ -1,12 +1,127 @@
 package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.http.HttpHeaders;
 
 import java.time.LocalDateTime;
+import java.util.UUID;
 
-public record Artifact(@Id String id, String path, byte[] content, String contentType, LocalDateTime lastModified) {
+/**
+ * Metadata of a cached artifact. The body itself is kept by the
+ * {@link ArtifactContentStore} and only read when it is actually served.
+ * <p>
+ * {@code upstreamEtag} and {@code upstreamLastModified} are the validators the remote
+ * repository sent with the body, used to revalidate mutable artifacts with a conditional
+ * request. {@code validatedAt} is when the remote last confirmed the cached copy.
+ * <p>
+ * The hex encoded digests of the body are computed while it is ingested and answer
+ * requests for the {@code .sha1}, {@code .md5}, {@code .sha256} and {@code .sha512}
+ * checksum files without reading the body. Only {@code sha256} is known for artifacts
+ * cached before the other digests were recorded.
+ * <p>
+ * {@code contentEncoding} is {@code gzip} for a body the store holds compressed (see
+ * {@link ArtifactCompression}), in which case {@code encodedLength} is its size in the
+ * store. {@code contentLength} and the digests always describe the original body.
+ * <p>
+ * {@code contentKey} is the key of the stored body, see {@link #bodyKey()}. Artifacts
+ * with identical bodies share one stored copy.
+ */
+public record Artifact(@Id String id, String path, long contentLength, String sha256, String contentType,
+		LocalDateTime lastModified, String upstreamEtag, String upstreamLastModified, LocalDateTime validatedAt,
+		String sha1, String md5, String sha512, String contentEncoding, Long encodedLength, String contentKey) {
 
-	Artifact(String path, byte[] content, String contentType, LocalDateTime lastModified) {
-		this(null, path, content, contentType, lastModified);
+	/**
+	 * @return The primary key of the artifact stored under the given path. It is derived
+	 * from the path so that every node computes the same id for the same artifact.
+	 */
+	static String idForPath(String path) {
+		return UUID.nameUUIDFromBytes(path.getBytes()).toString();
 	}
+
+	/**
+	 * @return The metadata of an artifact cached under the given path at
+	 * {@code lastModified}, which also counts as when it was last validated. It has no
+	 * validators and no digests other than {@code sha256}, which may be {@code null} if
+	 * unknown.
+	 */
+	static Artifact cached(String path, long contentLength, String sha256, String contentType,
+			LocalDateTime lastModified) {
+		return new Artifact(idForPath(path), path, contentLength, sha256, contentType, lastModified, null, null,
+				lastModified, null, null, null, null, null, null);
+	}
+
+	/**
+	 * @return The metadata of an artifact just received from the remote repository.
+	 */
+	static Artifact fetched(String path, long contentLength, ChecksumVerifier checksums, HttpHeaders upstreamHeaders) {
+		return cached(path, contentLength, checksums.sha256(), MediaTypeUtil.getMediaTypeForFileName(path).toString(),
+				LocalDateTime.now())
+			.withUpstreamValidators(upstreamHeaders.getETag(), upstreamHeaders.getFirst(HttpHeaders.LAST_MODIFIED))
+			.withDigests(checksums.sha1(), checksums.md5(), checksums.sha512());
+	}
+
+	Artifact withId(String id) {
+		return new Artifact(id, path, contentLength, sha256, contentType, lastModified, upstreamEtag,
+				upstreamLastModified, validatedAt, sha1, md5, sha512, contentEncoding, encodedLength, contentKey);
+	}
+
+	Artifact withValidatedAt(LocalDateTime validatedAt) {
+		return new Artifact(id, path, contentLength, sha256, contentType, lastModified, upstreamEtag,
+				upstreamLastModified, validatedAt, sha1, md5, sha512, contentEncoding, encodedLength, contentKey);
+	}
+
+	Artifact withUpstreamValidators(String upstreamEtag, String upstreamLastModified) {
+		return new Artifact(id, path, contentLength, sha256, contentType, lastModified, upstreamEtag,
+				upstreamLastModified, validatedAt, sha1, md5, sha512, contentEncoding, encodedLength, contentKey);
+	}
+
+	Artifact withDigests(String sha1, String md5, String sha512) {
+		return new Artifact(id, path, contentLength, sha256, contentType, lastModified, upstreamEtag,
+				upstreamLastModified, validatedAt, sha1, md5, sha512, contentEncoding, encodedLength, contentKey);
+	}
+
+	/**
+	 * @return The metadata of this artifact with its body stored in the given encoding,
+	 * or as it is if {@code contentEncoding} is {@code null}. The stored body changes,
+	 * and so does its key.
+	 */
+	Artifact withContentEncoding(String contentEncoding, Long encodedLength) {
+		return new Artifact(id, path, contentLength, sha256, contentType, lastModified, upstreamEtag,
+				upstreamLastModified, validatedAt, sha1, md5, sha512, contentEncoding, encodedLength, null);
+	}
+
+	Artifact withContentKey(String contentKey) {
+		return new Artifact(id, path, contentLength, sha256, contentType, lastModified, upstreamEtag,
+				upstreamLastModified, validatedAt, sha1, md5, sha512, contentEncoding, encodedLength, contentKey);
+	}
+
+	/**
+	 * @return The key the body is stored under. It is derived from the SHA-256 and the
+	 * encoding of the stored body, so that artifacts with identical bodies share it; an
+	 * artifact whose digest is unknown keeps its body under its own id.
+	 */
+	String bodyKey() {
+		if (contentKey != null) {
+			return contentKey;
+		}
+		if (sha256 == null) {
+			return id;
+		}
+		return contentEncoding != null ? sha256 + "." + contentEncoding : sha256;
+	}
+
+	/**
+	 * @return How many bytes the body takes up in the content store.
+	 */
+	long storedLength() {
+		return contentEncoding != null && encodedLength != null ? encodedLength : contentLength;
+	}
+
+	/**
+	 * @return When the cached copy was last known to match the remote.
+	 */
+	LocalDateTime lastValidated() {
+		return validatedAt != null ? validatedAt : lastModified;
+	}
+
 }
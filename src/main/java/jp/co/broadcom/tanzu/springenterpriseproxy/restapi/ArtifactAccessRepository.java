@@ -0,0 +1,19 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import java.util.Map;
+
+/**
+ * Repository fragment for the usage of cached artifacts, which decides what is evicted
+ * first. Usage is collected in memory by {@link ArtifactAccessTracker} and written here
+ * in batches, rather than with an update per served artifact.
+ */
+interface ArtifactAccessRepository {
+
+	/**
+	 * Records when each artifact was last served and adds to how often it was served, in
+	 * one JDBC batch. Artifacts that are no longer cached are ignored.
+	 * @param accesses The usage since the last call, by artifact id
+	 */
+	void recordAccesses(Map<String, ArtifactAccessTracker.Access> accesses);
+
+}
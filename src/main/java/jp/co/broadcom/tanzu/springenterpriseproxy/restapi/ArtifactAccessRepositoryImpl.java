@@ -0,0 +1,30 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcOperations;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+
+import java.util.Map;
+
+class ArtifactAccessRepositoryImpl implements ArtifactAccessRepository {
+
+	private static final String RECORD_ACCESS = "UPDATE artifact SET last_accessed_at = :lastAccessedAt, hits = hits + :hits WHERE id = :id";
+
+	private final NamedParameterJdbcOperations namedParameterJdbcOperations;
+
+	ArtifactAccessRepositoryImpl(NamedParameterJdbcOperations namedParameterJdbcOperations) {
+		this.namedParameterJdbcOperations = namedParameterJdbcOperations;
+	}
+
+	@Override
+	public void recordAccesses(Map<String, ArtifactAccessTracker.Access> accesses) {
+		namedParameterJdbcOperations.batchUpdate(RECORD_ACCESS,
+				accesses.entrySet()
+					.stream()
+					.map(access -> new MapSqlParameterSource().addValue("id", access.getKey())
+						.addValue("lastAccessedAt", access.getValue().lastAccessedAt())
+						.addValue("hits", access.getValue().hits()))
+					.toArray(SqlParameterSource[]::new));
+	}
+
+}
@@ -0,0 +1,257 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.Resource;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps track of how cached artifacts are used, for {@link CacheEvictor}.
+ * <p>
+ * When and how often an artifact is served is collected in memory and written to the
+ * {@code artifact} table in one batch per
+ * {@code spring.enterprise.proxy.eviction.access-flush-interval}, so serving an artifact
+ * from the cache costs no database write.
+ * <p>
+ * Bodies handed out by the content store are counted while they are open, and an artifact
+ * is only evicted while none of its bodies is, so that a client never sees a body
+ * disappear halfway through. A body is open while its stream is, or while the container
+ * sends its file, see {@link ZeroCopyFileSender}.
+ */
+@Component
+class ArtifactAccessTracker {
+
+	private static final Logger logger = LoggerFactory.getLogger(ArtifactAccessTracker.class);
+
+	private final ArtifactRepository artifactRepository;
+
+	private final Map<String, Access> pending = new ConcurrentHashMap<>();
+
+	private final Map<String, Integer> openStreams = new ConcurrentHashMap<>();
+
+	ArtifactAccessTracker(ArtifactRepository artifactRepository, MeterRegistry meterRegistry) {
+		this.artifactRepository = artifactRepository;
+		Gauge.builder("spring.enterprise.proxy.eviction.access.pending", this.pending, Map::size)
+			.description("Artifacts served since usage was last written to the database")
+			.register(meterRegistry);
+		Gauge.builder("spring.enterprise.proxy.eviction.streams.open", this.openStreams, Map::size)
+			.description("Cached artifacts whose body is being read, and which are never evicted")
+			.register(meterRegistry);
+	}
+
+	/**
+	 * Records that an artifact was served from the cache.
+	 */
+	void recordAccess(Artifact artifact) {
+		Access access = new Access(LocalDateTime.now(), 1);
+		this.pending.merge(artifact.id(), access,
+				(previous, current) -> new Access(current.lastAccessedAt(), previous.hits() + 1));
+	}
+
+	/**
+	 * @return Whether the artifact was served since usage was last written to the
+	 * database.
+	 */
+	boolean hasPendingAccess(String artifactId) {
+		return this.pending.containsKey(artifactId);
+	}
+
+	/**
+	 * Wraps a body read from the content store, so that the artifact is not evicted while
+	 * the body is open.
+	 */
+	Resource track(Artifact artifact, Resource content) {
+		return new TrackedResource(artifact.id(), content);
+	}
+
+	boolean isStreaming(String artifactId) {
+		return this.openStreams.containsKey(artifactId);
+	}
+
+	/**
+	 * Runs the eviction of an artifact unless one of its bodies is open. No body of the
+	 * artifact can be opened through {@link #track(Artifact, Resource)} until the
+	 * eviction has finished.
+	 * @return Whether the eviction ran
+	 */
+	boolean evictUnlessStreaming(String artifactId, Eviction eviction) throws IOException {
+		AtomicBoolean evicted = new AtomicBoolean();
+		IOException[] failure = new IOException[1];
+		this.openStreams.compute(artifactId, (id, open) -> {
+			if (open != null) {
+				return open;
+			}
+			try {
+				eviction.run();
+				evicted.set(true);
+			}
+			catch (IOException e) {
+				failure[0] = e;
+			}
+			return null;
+		});
+		if (failure[0] != null) {
+			throw failure[0];
+		}
+		return evicted.get();
+	}
+
+	/**
+	 * Writes the usage collected since the last call to the database.
+	 */
+	@Scheduled(fixedDelayString = "${spring.enterprise.proxy.eviction.access-flush-interval:30s}")
+	void flush() {
+		if (this.pending.isEmpty()) {
+			return;
+		}
+		Map<String, Access> accesses = new HashMap<>();
+		for (String artifactId : this.pending.keySet()) {
+			Access access = this.pending.remove(artifactId);
+			if (access != null) {
+				accesses.put(artifactId, access);
+			}
+		}
+		try {
+			this.artifactRepository.recordAccesses(accesses);
+			logger.debug("Recorded the usage of {} artifacts", accesses.size());
+		}
+		catch (DataAccessException e) {
+			logger.warn("Failed to record the usage of {} artifacts, retrying later: {}", accesses.size(),
+					e.getMessage());
+			accesses.forEach((artifactId, access) -> this.pending.merge(artifactId, access,
+					(current, failed) -> new Access(current.lastAccessedAt(), current.hits() + failed.hits())));
+		}
+	}
+
+	private void opened(String artifactId) {
+		this.openStreams.merge(artifactId, 1, Integer::sum);
+	}
+
+	private void closed(String artifactId) {
+		this.openStreams.computeIfPresent(artifactId, (id, open) -> open > 1 ? open - 1 : null);
+	}
+
+	/**
+	 * Usage of an artifact since it was last written to the database.
+	 */
+	record Access(LocalDateTime lastAccessedAt, long hits) {
+	}
+
+	@FunctionalInterface
+	interface Eviction {
+
+		void run() throws IOException;
+
+	}
+
+	/**
+	 * A body whose artifact is not evicted while the body is open.
+	 */
+	interface Tracked {
+
+		/**
+		 * Counts the body as open without opening its stream, e.g. while the container
+		 * sends its file.
+		 * @return Closes the body again. Runs only once, however often it is called.
+		 */
+		Runnable hold();
+
+	}
+
+	/**
+	 * A body that counts as open from {@link #getInputStream()} until the stream is
+	 * closed, or from {@link #hold()} until it is released.
+	 */
+	private final class TrackedResource extends AbstractResource implements Tracked {
+
+		private final String artifactId;
+
+		private final Resource content;
+
+		private TrackedResource(String artifactId, Resource content) {
+			this.artifactId = artifactId;
+			this.content = content;
+		}
+
+		@Override
+		public InputStream getInputStream() throws IOException {
+			opened(this.artifactId);
+			try {
+				return new FilterInputStream(this.content.getInputStream()) {
+
+					private final AtomicBoolean closed = new AtomicBoolean();
+
+					@Override
+					public void close() throws IOException {
+						try {
+							super.close();
+						}
+						finally {
+							if (this.closed.compareAndSet(false, true)) {
+								closed(TrackedResource.this.artifactId);
+							}
+						}
+					}
+
+				};
+			}
+			catch (IOException | RuntimeException e) {
+				closed(this.artifactId);
+				throw e;
+			}
+		}
+
+		@Override
+		public Runnable hold() {
+			opened(this.artifactId);
+			AtomicBoolean released = new AtomicBoolean();
+			return () -> {
+				if (released.compareAndSet(false, true)) {
+					closed(this.artifactId);
+				}
+			};
+		}
+
+		@Override
+		public boolean exists() {
+			return this.content.exists();
+		}
+
+		@Override
+		public boolean isFile() {
+			return this.content.isFile();
+		}
+
+		@Override
+		public File getFile() throws IOException {
+			return this.content.getFile();
+		}
+
+		@Override
+		public long contentLength() throws IOException {
+			return this.content.contentLength();
+		}
+
+		@Override
+		public String getDescription() {
+			return this.content.getDescription();
+		}
+
+	}
+
+}
@@ -0,0 +1,155 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.lang.Nullable;
+
+import java.io.IOException;
+import java.util.Optional;
+
+/**
+ * Receives the chunks of an upstream body while it is being streamed to the client and
+ * turns them into a cache entry once the whole body has arrived. Chunks are handed to a
+ * writer of the {@link ArtifactContentStore} rather than kept on the heap. The entry is
+ * only committed if the number of bytes matches the upstream {@code Content-Length} and
+ * every upstream checksum header matches; otherwise, or if the transfer is abandoned, the
+ * written data is discarded, and a cached copy it was to replace is kept.
+ * <p>
+ * Failures on the cache side are logged and never interrupt the transfer to the client.
+ * Either way, the {@code onFinished} callback runs exactly once when the writer is done.
+ * The entry is committed through the {@link WriteBehindExecutor}, so that with
+ * write-behind the end of the transfer does not wait for the content store.
+ */
+class ArtifactCacheWriter {
+
+	private static final Logger logger = LoggerFactory.getLogger(ArtifactCacheWriter.class);
+
+	private final String artifactPath;
+
+	private final HttpHeaders upstreamHeaders;
+
+	private final long expectedLength;
+
+	private final ChecksumVerifier checksumVerifier;
+
+	private final WriteBehindExecutor writeBehind;
+
+	private final Runnable onFinished;
+
+	private ArtifactContentWriter contentWriter;
+
+	private long written;
+
+	private boolean finished;
+
+	/**
+	 * @param replaced The cached copy the entry replaces once it is committed, or
+	 * {@code null} if the path is not cached
+	 */
+	ArtifactCacheWriter(String artifactPath, @Nullable Artifact replaced, HttpHeaders upstreamHeaders,
+			ArtifactContentStore contentStore, WriteBehindExecutor writeBehind, Runnable onFinished) {
+		this.artifactPath = artifactPath;
+		this.upstreamHeaders = upstreamHeaders;
+		this.expectedLength = upstreamHeaders.getContentLength();
+		this.checksumVerifier = new ChecksumVerifier(upstreamHeaders);
+		this.writeBehind = writeBehind;
+		this.onFinished = onFinished;
+		try {
+			this.contentWriter = replaced != null ? contentStore.newWriter(replaced)
+					: contentStore.newWriter(artifactPath);
+		}
+		catch (IOException e) {
+			logger.warn("Cannot spool {} for caching, it will only be streamed: {}", artifactPath, e.getMessage());
+			discard();
+		}
+	}
+
+	void write(byte[] bytes, int offset, int length) {
+		if (this.finished) {
+			return;
+		}
+		try {
+			this.contentWriter.write(bytes, offset, length);
+			this.checksumVerifier.update(bytes, offset, length);
+			this.written += length;
+		}
+		catch (IOException e) {
+			logger.warn("Failed to spool {} for caching, it will only be streamed: {}", this.artifactPath,
+					e.getMessage());
+			discard();
+		}
+	}
+
+	/**
+	 * @return The body spooled so far, for requests waiting on the same fetch to read
+	 * along, or empty if it is not being spooled
+	 */
+	Optional<SpooledBody> spooled() {
+		return this.finished ? Optional.empty() : this.contentWriter.spooled();
+	}
+
+	/**
+	 * Called once the upstream body has been read to the end. Verifies what was received
+	 * and saves it to the content store.
+	 */
+	void commit() {
+		if (this.finished) {
+			return;
+		}
+		// Nothing is spooled any more, so the entry may be committed on another thread.
+		// The body waits on disk, so it does not count against the pending size.
+		this.finished = true;
+		this.writeBehind.execute(this.artifactPath, 0, this::persist);
+	}
+
+	private void persist() throws IOException {
+		try {
+			if (this.expectedLength >= 0 && this.written != this.expectedLength) {
+				logger.warn("Not caching {}: received {} bytes but Content-Length was {}", this.artifactPath,
+						this.written, this.expectedLength);
+				return;
+			}
+			String mismatch = this.checksumVerifier.mismatch();
+			if (mismatch != null) {
+				logger.warn("Not caching {}: checksum mismatch, {}", this.artifactPath, mismatch);
+				return;
+			}
+			Artifact newArtifact = Artifact.fetched(this.artifactPath, this.written, this.checksumVerifier,
+					this.upstreamHeaders);
+			this.contentWriter.commit(newArtifact);
+			logger.info("Artifact cached successfully: {}", this.artifactPath);
+		}
+		catch (DuplicateKeyException e) {
+			logger.debug("Artifact was cached concurrently, keeping existing entry: {}", this.artifactPath);
+		}
+		finally {
+			discard();
+		}
+	}
+
+	/**
+	 * Called when the transfer ends before the body was read to the end, e.g. because the
+	 * client disconnected. Nothing is cached.
+	 */
+	void abort() {
+		if (!this.finished) {
+			logger.debug("Transfer of {} abandoned after {} bytes, not caching", this.artifactPath, this.written);
+			discard();
+		}
+	}
+
+	private void discard() {
+		this.finished = true;
+		try {
+			if (this.contentWriter != null) {
+				this.contentWriter.abort();
+			}
+		}
+		finally {
+			this.onFinished.run();
+		}
+	}
+
+}
@@ -0,0 +1,237 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jp.co.broadcom.tanzu.springenterpriseproxy.SpringEnterpriseProxyProperties;
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresses text artifacts (see {@link MediaTypeUtil#isText(String)}) before they are
+ * stored, and serves them to clients in the form that suits them.
+ * <p>
+ * A body is gzipped once, when it is cached, and kept compressed both in the content
+ * store and in the {@link ArtifactMemoryCache}. Clients whose {@code Accept-Encoding}
+ * allows gzip are sent the stored bytes as they are; only for clients that do not accept
+ * it is the body decompressed on the way out. Bodies streamed into the cache because of
+ * their size are stored as they are.
+ */
+@Component
+class ArtifactCompression {
+
+	static final String GZIP = "gzip";
+
+	private static final String METRIC_PREFIX = "spring.enterprise.proxy.compression";
+
+	private final SpringEnterpriseProxyProperties.Compression config;
+
+	private final Counter storedOriginalCounter;
+
+	private final Counter storedCompressedCounter;
+
+	private final Counter servedOriginalCounter;
+
+	private final Counter servedCompressedCounter;
+
+	private final Counter decodedCounter;
+
+	ArtifactCompression(SpringEnterpriseProxyProperties config, MeterRegistry meterRegistry) {
+		this.config = config.compression();
+		this.storedOriginalCounter = bytesCounter(".stored.bytes", "original",
+				"Size of the text artifacts stored compressed, before compression", meterRegistry);
+		this.storedCompressedCounter = bytesCounter(".stored.bytes", "compressed",
+				"Size of the text artifacts stored compressed, after compression", meterRegistry);
+		this.servedOriginalCounter = bytesCounter(".served.bytes", "original",
+				"Size of the compressed artifacts sent to clients as stored, had they been sent uncompressed",
+				meterRegistry);
+		this.servedCompressedCounter = bytesCounter(".served.bytes", "compressed",
+				"Size of the compressed artifacts sent to clients as stored", meterRegistry);
+		this.decodedCounter = Counter.builder(METRIC_PREFIX + ".decoded")
+			.description("Compressed artifacts decompressed for clients that do not accept gzip")
+			.register(meterRegistry);
+	}
+
+	private static Counter bytesCounter(String name, String form, String description, MeterRegistry meterRegistry) {
+		return Counter.builder(METRIC_PREFIX + name)
+			.tag("form", form)
+			.description(description)
+			.baseUnit("bytes")
+			.register(meterRegistry);
+	}
+
+	/**
+	 * Compresses the body of an artifact about to be stored, if it is text, large enough
+	 * and actually shrinks.
+	 * @return The metadata and body to store, which are the given ones if the body is
+	 * stored as it is
+	 */
+	Stored encode(Artifact artifact, byte[] content) throws IOException {
+		if (!this.config.enabled() || artifact.contentEncoding() != null
+				|| content.length < this.config.minSize().toBytes() || !MediaTypeUtil.isText(artifact.path())) {
+			return new Stored(artifact, content);
+		}
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(content.length / 4);
+		try (OutputStream out = new GZIPOutputStream(compressed)) {
+			out.write(content);
+		}
+		if (compressed.size() > content.length * this.config.maxRatio()) {
+			return new Stored(artifact, content);
+		}
+		this.storedOriginalCounter.increment(content.length);
+		this.storedCompressedCounter.increment(compressed.size());
+		return new Stored(artifact.withContentEncoding(GZIP, (long) compressed.size()), compressed.toByteArray());
+	}
+
+	/**
+	 * Compresses a batch of artifacts about to be stored, see
+	 * {@link #encode(Artifact, byte[])}.
+	 */
+	Map<Artifact, byte[]> encodeAll(Map<Artifact, byte[]> batch) throws IOException {
+		Map<Artifact, byte[]> encoded = new LinkedHashMap<>();
+		for (Map.Entry<Artifact, byte[]> entry : batch.entrySet()) {
+			Stored stored = encode(entry.getKey(), entry.getValue());
+			encoded.put(stored.artifact(), stored.content());
+		}
+		return encoded;
+	}
+
+	/**
+	 * Prepares a stored body for a client.
+	 * @param gzipAccepted Whether the client accepts gzip, see
+	 * {@link #acceptsGzip(String)}
+	 * @return The body as stored, as a {@link ContentEncodedResource} if it is compressed
+	 * and the client accepts that, or else decompressed
+	 */
+	Resource serve(Artifact artifact, Resource stored, boolean gzipAccepted) throws IOException {
+		if (artifact.contentEncoding() == null) {
+			return stored;
+		}
+		if (gzipAccepted) {
+			this.servedOriginalCounter.increment(artifact.contentLength());
+			this.servedCompressedCounter.increment(artifact.storedLength());
+			return new ContentEncodedResource(stored, artifact.contentEncoding());
+		}
+		this.decodedCounter.increment();
+		return decode(artifact, stored);
+	}
+
+	/**
+	 * Prepares a stored body held in memory for a client, see
+	 * {@link #serve(Artifact, Resource, boolean)}.
+	 */
+	Resource serve(Artifact artifact, byte[] stored, boolean gzipAccepted) throws IOException {
+		if (artifact.contentEncoding() == null || gzipAccepted) {
+			return serve(artifact, new ByteArrayResource(stored), gzipAccepted);
+		}
+		this.decodedCounter.increment();
+		try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(stored))) {
+			return new ByteArrayResource(in.readAllBytes());
+		}
+	}
+
+	/**
+	 * @return The original body of an artifact, decompressing the stored one as it is
+	 * read if needed
+	 */
+	Resource decode(Artifact artifact, Resource stored) {
+		return artifact.contentEncoding() != null ? new DecodedResource(artifact, stored) : stored;
+	}
+
+	/**
+	 * @param acceptEncoding The {@code Accept-Encoding} header of a request, if any
+	 * @return Whether gzip is an acceptable content coding for the client
+	 */
+	static boolean acceptsGzip(String acceptEncoding) {
+		if (acceptEncoding == null) {
+			return false;
+		}
+		boolean wildcard = false;
+		for (String coding : acceptEncoding.split(",")) {
+			String[] parameters = coding.split(";");
+			String name = parameters[0].trim().toLowerCase(Locale.ROOT);
+			boolean accepted = true;
+			for (int i = 1; i < parameters.length; i++) {
+				String parameter = parameters[i].trim();
+				if (parameter.startsWith("q=")) {
+					try {
+						accepted = Double.parseDouble(parameter.substring(2)) > 0;
+					}
+					catch (NumberFormatException e) {
+						accepted = false;
+					}
+				}
+			}
+			if (name.equals(GZIP) || name.equals("x-gzip")) {
+				return accepted;
+			}
+			if (name.equals("*")) {
+				wildcard = accepted;
+			}
+		}
+		return wildcard;
+	}
+
+	/**
+	 * The metadata and body of an artifact, in the form they are stored in.
+	 */
+	record Stored(Artifact artifact, byte[] content) {
+	}
+
+	/**
+	 * A compressed body that is decompressed as it is read, with the length of the
+	 * original body.
+	 */
+	private static final class DecodedResource extends AbstractResource {
+
+		private final Artifact artifact;
+
+		private final Resource stored;
+
+		private DecodedResource(Artifact artifact, Resource stored) {
+			this.artifact = artifact;
+			this.stored = stored;
+		}
+
+		@Override
+		public InputStream getInputStream() throws IOException {
+			InputStream in = this.stored.getInputStream();
+			try {
+				return new GZIPInputStream(in);
+			}
+			catch (IOException | RuntimeException e) {
+				in.close();
+				throw e;
+			}
+		}
+
+		@Override
+		public boolean exists() {
+			return this.stored.exists();
+		}
+
+		@Override
+		public long contentLength() {
+			return this.artifact.contentLength();
+		}
+
+		@Override
+		public String getDescription() {
+			return "Decompressed " + this.stored.getDescription();
+		}
+
+	}
+
+}
@@ -4,8 +4,6 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.relational.core.mapping.event.BeforeConvertCallback;
 
-import java.util.UUID;
-
 @Configuration
 class ArtifactConfig {
 
@@ -14,8 +12,7 @@ class ArtifactConfig {
 
 		return (artifact) -> {
 			if (artifact.id() == null) {
-				artifact = new Artifact(UUID.nameUUIDFromBytes(artifact.path().getBytes()).toString(), artifact.path(),
-						artifact.content(), artifact.contentType(), artifact.lastModified());
+				artifact = artifact.withId(Artifact.idForPath(artifact.path()));
 			}
 			return artifact;
 		};
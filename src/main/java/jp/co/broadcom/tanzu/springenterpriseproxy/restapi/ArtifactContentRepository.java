@@ -0,0 +1,114 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import org.springframework.dao.DuplicateKeyException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Repository fragment for artifact bodies kept in the database, next to the metadata in
+ * {@code artifact}. A body is stored as a sequence of fixed-size rows in
+ * {@code artifact_chunk}, so that it is never held in memory as a whole and is not
+ * limited by the maximum size of a single BLOB. Bodies are never loaded together with the
+ * metadata, so lookups stay cheap.
+ * <p>
+ * Bodies are content addressed: each is stored once under its {@link Artifact#bodyKey()},
+ * however many paths it is cached under, and {@code artifact_body} counts the artifact
+ * rows referring to it. Inserting an artifact takes a reference, deleting it through
+ * {@link #delete(Artifact)} releases it, and the body goes with the last reference.
+ * <p>
+ * Inserting or deleting an artifact also drops whatever the {@link ArtifactMemoryCache}
+ * holds for its path.
+ */
+interface ArtifactContentRepository {
+
+	/**
+	 * Inserts a new artifact row and takes a reference to its body, without storing any
+	 * content.
+	 * @return The inserted artifact, with its {@code contentKey} set
+	 * @throws DuplicateKeyException If the path is already cached
+	 */
+	Artifact insert(Artifact artifact) throws DuplicateKeyException;
+
+	/**
+	 * Inserts a new artifact row together with its body, in one transaction. The body is
+	 * read and written one chunk at a time, and not at all if the same body is already
+	 * stored. At least one chunk is written, even for an empty body.
+	 * @param artifact The artifact metadata
+	 * @param content The artifact content
+	 * @param chunkSize The maximum number of bytes per chunk row
+	 * @return The inserted artifact, with its {@code contentKey} set
+	 * @throws DuplicateKeyException If the path is already cached
+	 */
+	Artifact insertWithContent(Artifact artifact, InputStream content, int chunkSize)
+			throws IOException, DuplicateKeyException;
+
+	/**
+	 * Replaces a cached artifact with a new row for the same path, without storing any
+	 * content, see {@link #insert(Artifact)}. The old row is deleted in the same
+	 * transaction, so the cached copy is only gone once its replacement is in place.
+	 * @param replaced The cached artifact, whose reference to its body is released
+	 * @return The inserted artifact, with its {@code contentKey} set
+	 * @throws DuplicateKeyException If the path has been cached again since
+	 * {@code replaced} was deleted by someone else
+	 */
+	Artifact replace(Artifact replaced, Artifact artifact) throws DuplicateKeyException;
+
+	/**
+	 * Replaces a cached artifact with a new row for the same path together with its body,
+	 * see {@link #insertWithContent(Artifact, InputStream, int)} and
+	 * {@link #replace(Artifact, Artifact)}.
+	 */
+	Artifact replaceWithContent(Artifact replaced, Artifact artifact, InputStream content, int chunkSize)
+			throws IOException, DuplicateKeyException;
+
+	/**
+	 * Inserts new artifact rows in JDBC batches, in one transaction, see
+	 * {@link #insert(Artifact)}.
+	 * @throws DuplicateKeyException If any of the paths is already cached, in which case
+	 * none is inserted
+	 */
+	void insertAll(List<Artifact> artifacts) throws DuplicateKeyException;
+
+	/**
+	 * Inserts new artifact rows together with their bodies in JDBC batches, in one
+	 * transaction. Each body not stored yet is split into chunks like
+	 * {@link #insertWithContent(Artifact, InputStream, int)} does.
+	 * @param batch The artifact metadata with the content of each artifact
+	 * @param chunkSize The maximum number of bytes per chunk row
+	 * @throws DuplicateKeyException If any of the paths is already cached, in which case
+	 * none is inserted
+	 */
+	void insertAllWithContent(Map<Artifact, byte[]> batch, int chunkSize) throws DuplicateKeyException;
+
+	/**
+	 * Deletes the artifact row and releases its reference to the body, deleting the body
+	 * once no other artifact refers to it.
+	 */
+	void delete(Artifact artifact);
+
+	/**
+	 * @return Up to {@code count} chunks of the body, in order, starting with chunk
+	 * {@code fromSeq}. Fewer chunks are returned once the end of the body is reached.
+	 */
+	List<byte[]> findChunks(String contentKey, int fromSeq, int count);
+
+	/**
+	 * @return Whether the body is held in the database.
+	 */
+	boolean hasContent(String contentKey);
+
+	/**
+	 * @return Whether any artifact still refers to the body, wherever it is held.
+	 */
+	boolean hasBody(String contentKey);
+
+	/**
+	 * Removes the chunks of the body from the database, keeping the metadata and the
+	 * references to it.
+	 */
+	void deleteContent(String contentKey);
+
+}
@@ -0,0 +1,308 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.lang.Nullable;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcOperations;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.jdbc.core.simple.JdbcClient;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+class ArtifactContentRepositoryImpl implements ArtifactContentRepository {
+
+	private static final String INSERT_ARTIFACT = """
+			INSERT INTO artifact (id, path, content_length, sha256, content_type, last_modified, upstream_etag,
+				upstream_last_modified, validated_at, sha1, md5, sha512, content_encoding, encoded_length, content_key)
+			VALUES (:id, :path, :contentLength, :sha256, :contentType, :lastModified, :upstreamEtag,
+				:upstreamLastModified, :validatedAt, :sha1, :md5, :sha512, :contentEncoding, :encodedLength, :contentKey)
+			""";
+
+	private static final String ACQUIRE_BODY = "UPDATE artifact_body SET ref_count = ref_count + :refs WHERE content_key = :key";
+
+	private static final String INSERT_BODY = """
+			INSERT INTO artifact_body (content_key, ref_count, stored_length) VALUES (:key, :refs, :storedLength)
+			""";
+
+	private static final String INSERT_CHUNK = "INSERT INTO artifact_chunk (content_key, seq, data) VALUES (:key, :seq, :data)";
+
+	private final JdbcClient jdbcClient;
+
+	private final NamedParameterJdbcOperations namedParameterJdbcOperations;
+
+	private final TransactionTemplate transactionTemplate;
+
+	private final ArtifactMemoryCache memoryCache;
+
+	ArtifactContentRepositoryImpl(JdbcClient jdbcClient, NamedParameterJdbcOperations namedParameterJdbcOperations,
+			TransactionTemplate transactionTemplate, ArtifactMemoryCache memoryCache) {
+		this.jdbcClient = jdbcClient;
+		this.namedParameterJdbcOperations = namedParameterJdbcOperations;
+		this.transactionTemplate = transactionTemplate;
+		this.memoryCache = memoryCache;
+	}
+
+	@Override
+	public Artifact insert(Artifact artifact) {
+		return insert(null, artifact);
+	}
+
+	@Override
+	public Artifact replace(Artifact replaced, Artifact artifact) {
+		return insert(replaced, artifact);
+	}
+
+	private Artifact insert(@Nullable Artifact replaced, Artifact artifact) {
+		Artifact keyed = artifact.withContentKey(artifact.bodyKey());
+		transactionTemplate.executeWithoutResult(status -> {
+			if (replaced != null) {
+				release(replaced);
+			}
+			namedParameterJdbcOperations.update(INSERT_ARTIFACT, artifactParameters(keyed));
+			acquireAll(List.of(keyed));
+		});
+		memoryCache.invalidate(keyed.path());
+		return keyed;
+	}
+
+	@Override
+	public Artifact insertWithContent(Artifact artifact, InputStream content, int chunkSize) throws IOException {
+		return insertWithContent(null, artifact, content, chunkSize);
+	}
+
+	@Override
+	public Artifact replaceWithContent(Artifact replaced, Artifact artifact, InputStream content, int chunkSize)
+			throws IOException {
+		return insertWithContent(replaced, artifact, content, chunkSize);
+	}
+
+	private Artifact insertWithContent(@Nullable Artifact replaced, Artifact artifact, InputStream content,
+			int chunkSize) throws IOException {
+		Artifact keyed = artifact.withContentKey(artifact.bodyKey());
+		try {
+			transactionTemplate.executeWithoutResult(status -> {
+				if (replaced != null) {
+					release(replaced);
+				}
+				namedParameterJdbcOperations.update(INSERT_ARTIFACT, artifactParameters(keyed));
+				if (acquireAll(List.of(keyed)).isEmpty()) {
+					// The same body is already stored for another path
+					return;
+				}
+				byte[] buffer = new byte[chunkSize];
+				int seq = 0;
+				int read;
+				try {
+					while ((read = content.readNBytes(buffer, 0, chunkSize)) > 0 || seq == 0) {
+						insertChunk(keyed.contentKey(), seq++,
+								read == chunkSize ? buffer : Arrays.copyOf(buffer, read));
+					}
+				}
+				catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+			memoryCache.invalidate(keyed.path());
+			return keyed;
+		}
+		catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	@Override
+	public void insertAll(List<Artifact> artifacts) {
+		List<Artifact> keyed = artifacts.stream().map(artifact -> artifact.withContentKey(artifact.bodyKey())).toList();
+		transactionTemplate.executeWithoutResult(status -> {
+			namedParameterJdbcOperations.batchUpdate(INSERT_ARTIFACT,
+					keyed.stream()
+						.map(ArtifactContentRepositoryImpl::artifactParameters)
+						.toArray(SqlParameterSource[]::new));
+			acquireAll(keyed);
+		});
+		keyed.forEach(artifact -> memoryCache.invalidate(artifact.path()));
+	}
+
+	@Override
+	public void insertAllWithContent(Map<Artifact, byte[]> batch, int chunkSize) {
+		Map<Artifact, byte[]> keyed = new LinkedHashMap<>();
+		batch.forEach((artifact, content) -> keyed.put(artifact.withContentKey(artifact.bodyKey()), content));
+		transactionTemplate.executeWithoutResult(status -> {
+			namedParameterJdbcOperations.batchUpdate(INSERT_ARTIFACT,
+					keyed.keySet()
+						.stream()
+						.map(ArtifactContentRepositoryImpl::artifactParameters)
+						.toArray(SqlParameterSource[]::new));
+			Set<String> newBodies = acquireAll(keyed.keySet());
+			List<SqlParameterSource> chunks = new ArrayList<>();
+			keyed.forEach((artifact, content) -> {
+				if (!newBodies.remove(artifact.contentKey())) {
+					return;
+				}
+				int seq = 0;
+				for (int offset = 0; offset < content.length || seq == 0; offset += chunkSize) {
+					chunks.add(new MapSqlParameterSource().addValue("key", artifact.contentKey())
+						.addValue("seq", seq++)
+						.addValue("data",
+								Arrays.copyOfRange(content, offset, Math.min(offset + chunkSize, content.length))));
+				}
+			});
+			namedParameterJdbcOperations.batchUpdate(INSERT_CHUNK, chunks.toArray(SqlParameterSource[]::new));
+		});
+		keyed.keySet().forEach(artifact -> memoryCache.invalidate(artifact.path()));
+	}
+
+	/**
+	 * Takes a reference to the body of each artifact, adding {@code artifact_body} rows
+	 * for bodies not stored yet. Two transactions storing the same new body at the same
+	 * time both try to add its row; the one that loses takes a reference to the row the
+	 * other added instead, and leaves writing the content to it.
+	 * @return The keys of the bodies not stored yet, whose content the caller has to
+	 * write
+	 */
+	private Set<String> acquireAll(Collection<Artifact> artifacts) {
+		Map<String, Artifact> bodies = new LinkedHashMap<>();
+		Map<String, Integer> refs = new LinkedHashMap<>();
+		for (Artifact artifact : artifacts) {
+			bodies.putIfAbsent(artifact.contentKey(), artifact);
+			refs.merge(artifact.contentKey(), 1, Integer::sum);
+		}
+		List<String> keys = List.copyOf(bodies.keySet());
+		int[] updated = namedParameterJdbcOperations.batchUpdate(ACQUIRE_BODY,
+				keys.stream().map(key -> acquireParameters(key, refs.get(key))).toArray(SqlParameterSource[]::new));
+		Set<String> newBodies = new LinkedHashSet<>();
+		for (int i = 0; i < keys.size(); i++) {
+			String key = keys.get(i);
+			if (updated[i] == 0 && insertBody(key, refs.get(key), bodies.get(key).storedLength())) {
+				newBodies.add(key);
+			}
+		}
+		return newBodies;
+	}
+
+	/**
+	 * Adds the {@code artifact_body} row for a body that was not stored when its
+	 * reference was taken, or takes the reference to the row another transaction added in
+	 * the meantime.
+	 * @return Whether the row was added here
+	 */
+	private boolean insertBody(String key, int refs, long storedLength) {
+		while (true) {
+			try {
+				namedParameterJdbcOperations.update(INSERT_BODY,
+						acquireParameters(key, refs).addValue("storedLength", storedLength));
+				return true;
+			}
+			catch (DuplicateKeyException e) {
+				// Added concurrently; unless its last reference has just been released
+				if (namedParameterJdbcOperations.update(ACQUIRE_BODY, acquireParameters(key, refs)) > 0) {
+					return false;
+				}
+			}
+		}
+	}
+
+	private static MapSqlParameterSource acquireParameters(String key, int refs) {
+		return new MapSqlParameterSource().addValue("key", key).addValue("refs", refs);
+	}
+
+	/**
+	 * Deletes the artifact row and releases its reference to the body. The body, with its
+	 * chunks, is deleted together with the last reference.
+	 */
+	@Override
+	public void delete(Artifact artifact) {
+		transactionTemplate.executeWithoutResult(status -> release(artifact));
+		memoryCache.invalidate(artifact.path());
+	}
+
+	/**
+	 * Deletes the artifact row and releases its reference to the body, within the current
+	 * transaction.
+	 */
+	private void release(Artifact artifact) {
+		String contentKey = jdbcClient.sql("SELECT content_key FROM artifact WHERE id = :id")
+			.param("id", artifact.id())
+			.query(String.class)
+			.optional()
+			.orElseGet(artifact::bodyKey);
+		if (jdbcClient.sql("DELETE FROM artifact WHERE id = :id").param("id", artifact.id()).update() == 0) {
+			return;
+		}
+		jdbcClient.sql("UPDATE artifact_body SET ref_count = ref_count - 1 WHERE content_key = :key")
+			.param("key", contentKey)
+			.update();
+		jdbcClient.sql("DELETE FROM artifact_body WHERE content_key = :key AND ref_count <= 0")
+			.param("key", contentKey)
+			.update();
+	}
+
+	private static SqlParameterSource artifactParameters(Artifact artifact) {
+		return new MapSqlParameterSource().addValue("id", artifact.id())
+			.addValue("path", artifact.path())
+			.addValue("contentLength", artifact.contentLength())
+			.addValue("sha256", artifact.sha256())
+			.addValue("contentType", artifact.contentType())
+			.addValue("lastModified", artifact.lastModified())
+			.addValue("upstreamEtag", artifact.upstreamEtag())
+			.addValue("upstreamLastModified", artifact.upstreamLastModified())
+			.addValue("validatedAt", artifact.validatedAt())
+			.addValue("sha1", artifact.sha1())
+			.addValue("md5", artifact.md5())
+			.addValue("sha512", artifact.sha512())
+			.addValue("contentEncoding", artifact.contentEncoding())
+			.addValue("encodedLength", artifact.encodedLength())
+			.addValue("contentKey", artifact.contentKey());
+	}
+
+	private void insertChunk(String contentKey, int seq, byte[] data) {
+		jdbcClient.sql(INSERT_CHUNK).param("key", contentKey).param("seq", seq).param("data", data).update();
+	}
+
+	@Override
+	public List<byte[]> findChunks(String contentKey, int fromSeq, int count) {
+		return jdbcClient.sql("""
+				SELECT data FROM artifact_chunk
+				WHERE content_key = :key AND seq >= :fromSeq AND seq < :toSeq
+				ORDER BY seq
+				""")
+			.param("key", contentKey)
+			.param("fromSeq", fromSeq)
+			.param("toSeq", fromSeq + count)
+			.query((rs, rowNum) -> rs.getBytes("data"))
+			.list();
+	}
+
+	@Override
+	public boolean hasContent(String contentKey) {
+		return jdbcClient.sql("SELECT COUNT(*) FROM artifact_chunk WHERE content_key = :key AND seq = 0")
+			.param("key", contentKey)
+			.query(Integer.class)
+			.single() > 0;
+	}
+
+	@Override
+	public boolean hasBody(String contentKey) {
+		return jdbcClient.sql("SELECT COUNT(*) FROM artifact_body WHERE content_key = :key")
+			.param("key", contentKey)
+			.query(Integer.class)
+			.single() > 0;
+	}
+
+	@Override
+	public void deleteContent(String contentKey) {
+		jdbcClient.sql("DELETE FROM artifact_chunk WHERE content_key = :key").param("key", contentKey).update();
+	}
+
+}
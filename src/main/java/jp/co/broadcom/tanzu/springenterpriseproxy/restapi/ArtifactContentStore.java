@@ -0,0 +1,84 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import org.springframework.core.io.Resource;
+import org.springframework.dao.DuplicateKeyException;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Where artifact bodies are kept. The {@code artifact} table always holds the metadata;
+ * depending on the store, the body either sits in the {@code artifact_chunk} table or
+ * elsewhere.
+ * <p>
+ * Selected with {@code spring.enterprise.proxy.content-store.type}.
+ */
+interface ArtifactContentStore {
+
+	/**
+	 * Stores a fetched artifact whose content is already in memory and inserts its row.
+	 * @param artifact The artifact metadata, with its id set
+	 * @throws DuplicateKeyException If the path has been cached concurrently.
+	 */
+	void store(Artifact artifact, byte[] content) throws IOException, DuplicateKeyException;
+
+	/**
+	 * Stores a new body of a cached artifact whose content is already in memory, and
+	 * swaps the row of the cached artifact for the new one in one transaction. The cached
+	 * copy stays in place if storing the new one fails.
+	 * @param replaced The cached artifact
+	 * @param artifact The new artifact metadata, with its id set
+	 * @throws DuplicateKeyException If the path has been cached again after someone else
+	 * removed {@code replaced}.
+	 */
+	void replace(Artifact replaced, Artifact artifact, byte[] content) throws IOException, DuplicateKeyException;
+
+	/**
+	 * Stores a batch of artifacts whose content is already in memory, e.g. when seeding
+	 * the cache, with as few round trips as the store allows. Paths that are cached
+	 * already are skipped.
+	 * @param batch The artifact metadata, with ids set, and the content of each artifact
+	 * @return How many artifacts were stored
+	 */
+	default int storeAll(Map<Artifact, byte[]> batch) throws IOException {
+		int stored = 0;
+		for (Map.Entry<Artifact, byte[]> entry : batch.entrySet()) {
+			try {
+				store(entry.getKey(), entry.getValue());
+				stored++;
+			}
+			catch (DuplicateKeyException e) {
+				// Cached in the meantime
+			}
+		}
+		return stored;
+	}
+
+	/**
+	 * Opens a writer for an artifact body that is still being received. Nothing is
+	 * visible to readers until {@link ArtifactContentWriter#commit(Artifact)}.
+	 */
+	ArtifactContentWriter newWriter(String artifactPath) throws IOException;
+
+	/**
+	 * Opens a writer for a new body of a cached artifact that is still being received.
+	 * The cached artifact is replaced on {@link ArtifactContentWriter#commit(Artifact)},
+	 * like {@link #replace(Artifact, Artifact, byte[])} does, and kept if the writer is
+	 * aborted.
+	 */
+	ArtifactContentWriter newWriter(Artifact replaced) throws IOException;
+
+	/**
+	 * Opens the body of a cached artifact. Only called once the body is actually served.
+	 * @return The body, or empty if this store does not have it.
+	 */
+	Optional<Resource> read(Artifact artifact) throws IOException;
+
+	/**
+	 * Removes a cached artifact, its row as well as its body. Readers stop finding the
+	 * artifact before its body goes away.
+	 */
+	void delete(Artifact artifact) throws IOException;
+
+}
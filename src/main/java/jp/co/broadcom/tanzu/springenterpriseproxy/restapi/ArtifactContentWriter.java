@@ -0,0 +1,35 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import org.springframework.dao.DuplicateKeyException;
+
+import java.io.IOException;
+import java.util.Optional;
+
+/**
+ * Receives an artifact body chunk by chunk on behalf of an {@link ArtifactContentStore}.
+ */
+interface ArtifactContentWriter {
+
+	void write(byte[] bytes, int offset, int length) throws IOException;
+
+	/**
+	 * Makes the written body visible and inserts the artifact row.
+	 * @param artifact The artifact metadata, with its id set
+	 * @throws DuplicateKeyException If the path has been cached concurrently.
+	 */
+	void commit(Artifact artifact) throws IOException, DuplicateKeyException;
+
+	/**
+	 * Discards whatever has been written. Does nothing after a commit.
+	 */
+	void abort();
+
+	/**
+	 * @return The body written so far, for others to read along while it is written, or
+	 * empty if it cannot be read before it is committed
+	 */
+	default Optional<SpooledBody> spooled() {
+		return Optional.empty();
+	}
+
+}
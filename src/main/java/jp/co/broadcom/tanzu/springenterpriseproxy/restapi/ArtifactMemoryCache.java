@@ -0,0 +1,105 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jp.co.broadcom.tanzu.springenterpriseproxy.SpringEnterpriseProxyProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.Optional;
+
+/**
+ * In-process (L1) cache of artifacts in front of {@link ArtifactRepository}, so that hot
+ * files such as POMs, checksums and {@code maven-metadata.xml} are served without a
+ * database round trip.
+ * <p>
+ * Capacity is bounded by the total number of content bytes and eviction is frequency
+ * aware (Caffeine's W-TinyLFU), so a burst of one-off downloads does not displace the
+ * files every build asks for. Artifacts above the per-entry cap are never admitted.
+ * Entries are invalidated whenever the corresponding {@code artifact} row is inserted or
+ * deleted through {@link ArtifactContentRepository}. Artifacts with identical bodies
+ * share one copy of it while they are held; each entry still weighs its full length.
+ */
+@Component
+class ArtifactMemoryCache {
+
+	static final String CACHE_NAME = "artifact-memory";
+
+	private final boolean enabled;
+
+	private final long maxEntrySize;
+
+	private final Cache<String, Entry> cache;
+
+	/**
+	 * Bodies held by entries, by body key, for entries with the same body to share.
+	 */
+	private final Cache<String, byte[]> bodies;
+
+	ArtifactMemoryCache(SpringEnterpriseProxyProperties config, MeterRegistry meterRegistry) {
+		SpringEnterpriseProxyProperties.MemoryCache memoryCache = config.memoryCache();
+		this.enabled = memoryCache.enabled();
+		this.maxEntrySize = memoryCache.maxEntrySize().toBytes();
+		this.cache = Caffeine.newBuilder()
+			.maximumWeight(memoryCache.maxSize().toBytes())
+			.weigher((String path, Entry entry) -> entry.content().length)
+			.recordStats()
+			.build();
+		this.bodies = Caffeine.newBuilder().weakValues().build();
+
+		// hits, misses, evictions, evicted weight, size
+		CaffeineCacheMetrics.monitor(meterRegistry, this.cache, CACHE_NAME);
+		Gauge
+			.builder("spring.enterprise.proxy.memory.cache.weighted.size", this.cache,
+					c -> c.policy().eviction().map(eviction -> eviction.weightedSize().orElse(0)).orElse(0L))
+			.description("Content bytes currently held in the artifact memory cache")
+			.baseUnit("bytes")
+			.register(meterRegistry);
+	}
+
+	Optional<Entry> get(String artifactPath) {
+		if (!this.enabled) {
+			return Optional.empty();
+		}
+		return Optional.ofNullable(this.cache.getIfPresent(artifactPath));
+	}
+
+	/**
+	 * Admits the artifact unless the memory cache is disabled or the artifact is larger
+	 * than the per-entry cap.
+	 */
+	void put(Artifact artifact, byte[] content) {
+		if (!admits(content.length)) {
+			return;
+		}
+		byte[] body = content;
+		if (artifact.sha256() != null) {
+			byte[] shared = this.bodies.get(artifact.bodyKey(), key -> content);
+			if (shared.length == content.length) {
+				body = shared;
+			}
+		}
+		this.cache.put(artifact.path(), new Entry(artifact, body));
+	}
+
+	/**
+	 * Whether an artifact of the given size would be admitted by
+	 * {@link #put(Artifact, byte[])}.
+	 */
+	boolean admits(long contentLength) {
+		return this.enabled && contentLength >= 0 && contentLength <= this.maxEntrySize;
+	}
+
+	void invalidate(String artifactPath) {
+		this.cache.invalidate(artifactPath);
+	}
+
+	/**
+	 * An artifact held in memory together with its body.
+	 */
+	record Entry(Artifact artifact, byte[] content) {
+	}
+
+}
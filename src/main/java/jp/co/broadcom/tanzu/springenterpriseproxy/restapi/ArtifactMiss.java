@@ -0,0 +1,11 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import org.springframework.data.annotation.Id;
+
+import java.time.LocalDateTime;
+
+/**
+ * A path the remote repository answered with 404, remembered until {@code expiresAt}.
+ */
+record ArtifactMiss(@Id String path, LocalDateTime expiresAt) {
+}
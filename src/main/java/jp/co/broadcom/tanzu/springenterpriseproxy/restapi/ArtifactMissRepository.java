@@ -0,0 +1,38 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import org.springframework.data.jdbc.repository.query.Modifying;
+import org.springframework.data.jdbc.repository.query.Query;
+import org.springframework.data.repository.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+interface ArtifactMissRepository extends Repository<ArtifactMiss, String> {
+
+	@Query("SELECT * FROM artifact_miss WHERE path = :path AND expires_at > :now")
+	Optional<ArtifactMiss> findUnexpired(String path, LocalDateTime now);
+
+	/**
+	 * @return The number of rows updated, 0 if the path is not remembered yet.
+	 */
+	@Modifying
+	@Query("UPDATE artifact_miss SET expires_at = :expiresAt WHERE path = :path")
+	int updateExpiry(String path, LocalDateTime expiresAt);
+
+	@Modifying
+	@Query("INSERT INTO artifact_miss (path, expires_at) VALUES (:path, :expiresAt)")
+	void insert(String path, LocalDateTime expiresAt);
+
+	@Modifying
+	@Query("DELETE FROM artifact_miss WHERE path = :path")
+	int deleteByPath(String path);
+
+	@Modifying
+	@Query("DELETE FROM artifact_miss WHERE expires_at <= :now")
+	int deleteExpired(LocalDateTime now);
+
+	@Modifying
+	@Query("DELETE FROM artifact_miss")
+	int deleteAll();
+
+}
@@ -1,12 +1,78 @@
 package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
 
-import org.springframework.data.repository.ListCrudRepository;
+import org.springframework.data.jdbc.repository.query.Modifying;
+import org.springframework.data.jdbc.repository.query.Query;
+import org.springframework.data.repository.Repository;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
-import java.util.UUID;
 
-interface ArtifactRepository extends ListCrudRepository<Artifact, UUID> {
+/**
+ * Artifacts are only written through the {@link ArtifactContentRepository} methods, which
+ * keep the reference counts of the bodies they share, so this exposes none of the generic
+ * CRUD methods.
+ */
+interface ArtifactRepository extends Repository<Artifact, String>, ArtifactContentRepository, ArtifactAccessRepository {
 
 	Optional<Artifact> findByPath(String path);
 
+	List<Artifact> findByPathIn(Collection<String> paths);
+
+	/**
+	 * Finds artifacts whose body is held in the {@code artifact_chunk} table. Artifacts
+	 * sharing a body are all returned.
+	 */
+	@Query("""
+			SELECT a.* FROM artifact a JOIN artifact_chunk c ON c.content_key = a.content_key AND c.seq = 0
+			LIMIT :limit
+			""")
+	List<Artifact> findWithDatabaseContent(int limit);
+
+	/**
+	 * Pages through all artifacts in id order. Each page starts after the last id of the
+	 * previous one, so a page costs the same index range scan however far into the table
+	 * it is, unlike an offset.
+	 * @param afterId The last id of the previous page, or the empty string for the first
+	 */
+	@Query("SELECT * FROM artifact WHERE id > :afterId ORDER BY id LIMIT :limit")
+	List<Artifact> findPageAfter(String afterId, int limit);
+
+	/**
+	 * @return The total size of the cached artifact bodies, as they are stored, counting
+	 * each body once however many artifacts share it.
+	 */
+	@Query("SELECT COALESCE(SUM(stored_length), 0) FROM artifact_body")
+	long sumStoredLength();
+
+	/**
+	 * Finds eviction candidates, least recently used first. Artifacts never served from
+	 * the cache count as used when they were cached.
+	 * @param usedBefore Artifacts used at or after this time are left out
+	 */
+	@Query("""
+			SELECT * FROM artifact WHERE COALESCE(last_accessed_at, last_modified) < :usedBefore
+			ORDER BY COALESCE(last_accessed_at, last_modified), id LIMIT :limit OFFSET :offset
+			""")
+	List<Artifact> findLeastRecentlyUsed(LocalDateTime usedBefore, int limit, int offset);
+
+	/**
+	 * Finds eviction candidates, least frequently used first, and least recently used
+	 * first among equally used ones.
+	 * @param usedBefore Artifacts used at or after this time are left out
+	 */
+	@Query("""
+			SELECT * FROM artifact WHERE COALESCE(last_accessed_at, last_modified) < :usedBefore
+			ORDER BY hits, COALESCE(last_accessed_at, last_modified), id LIMIT :limit OFFSET :offset
+			""")
+	List<Artifact> findLeastFrequentlyUsed(LocalDateTime usedBefore, int limit, int offset);
+
+	/**
+	 * Records that the remote confirmed the cached copy is still current.
+	 */
+	@Modifying
+	@Query("UPDATE artifact SET validated_at = :validatedAt WHERE id = :id")
+	int markValidated(String id, LocalDateTime validatedAt);
+
 }
@@ -5,175 +5,693 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.core.io.ByteArrayResource;
 import org.springframework.core.io.Resource;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
-import org.springframework.http.MediaType;
-import org.springframework.http.ResponseEntity;
-import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestClient;
+import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestClientResponseException;
-import org.springframework.web.util.UriComponentsBuilder;
 
 import java.io.IOException;
-import java.net.Authenticator;
-import java.net.PasswordAuthentication;
-import java.net.URI;
-import java.net.http.HttpClient;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
-import java.util.Objects;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 @Service
 class ArtifactService {
 
 	private static final Logger logger = LoggerFactory.getLogger(ArtifactService.class);
 
+	/**
+	 * How many times a request re-checks the cache after waiting for another request's
+	 * fetch of the same path before it gives up and fetches the artifact itself.
+	 */
+	private static final int MAX_JOIN_ATTEMPTS = 2;
+
+	/**
+	 * Checksum files answered from the digests recorded with the artifact they belong to.
+	 */
+	private static final Map<String, Function<Artifact, String>> CHECKSUM_SUFFIXES = Map.of(".sha1", Artifact::sha1,
+			".md5", Artifact::md5, ".sha256", Artifact::sha256, ".sha512", Artifact::sha512);
+
 	private final SpringEnterpriseProxyProperties config;
 
-	private final RestClient restClient;
+	private final UpstreamClient upstreamClient;
 
 	private final ArtifactRepository artifactRepository;
 
-	ArtifactService(SpringEnterpriseProxyProperties config, RestClient.Builder restClientBuilder,
-			ArtifactRepository artifactRepository) {
+	private final ArtifactContentStore contentStore;
+
+	private final InFlightFetches inFlightFetches;
+
+	private final ArtifactMemoryCache memoryCache;
+
+	private final NegativeCache negativeCache;
+
+	private final FreshnessPolicy freshnessPolicy;
+
+	private final RevalidationExecutor revalidationExecutor;
+
+	private final UpstreamCircuitBreaker circuitBreaker;
+
+	private final SiblingPrefetcher siblingPrefetcher;
+
+	private final ArtifactAccessTracker accessTracker;
+
+	private final ArtifactCompression compression;
+
+	private final WriteBehindExecutor writeBehind;
+
+	ArtifactService(SpringEnterpriseProxyProperties config, UpstreamClient upstreamClient,
+			ArtifactRepository artifactRepository, ArtifactContentStore contentStore, InFlightFetches inFlightFetches,
+			ArtifactMemoryCache memoryCache, NegativeCache negativeCache, FreshnessPolicy freshnessPolicy,
+			RevalidationExecutor revalidationExecutor, UpstreamCircuitBreaker circuitBreaker,
+			SiblingPrefetcher siblingPrefetcher, ArtifactAccessTracker accessTracker, ArtifactCompression compression,
+			WriteBehindExecutor writeBehind) {
 		this.config = config;
+		this.upstreamClient = upstreamClient;
 		this.artifactRepository = artifactRepository;
+		this.contentStore = contentStore;
+		this.inFlightFetches = inFlightFetches;
+		this.memoryCache = memoryCache;
+		this.negativeCache = negativeCache;
+		this.freshnessPolicy = freshnessPolicy;
+		this.revalidationExecutor = revalidationExecutor;
+		this.circuitBreaker = circuitBreaker;
+		this.siblingPrefetcher = siblingPrefetcher;
+		this.accessTracker = accessTracker;
+		this.compression = compression;
+		this.writeBehind = writeBehind;
+	}
 
-		// Configure RestClient with Basic Authentication if credentials are provided
-		String username = config.remoteRepoUsername();
-		String password = config.remoteRepoPassword();
-
-		if (username != null && password != null) {
-			// https://stackoverflow.com/questions/17970633/header-values-overwritten-on-redirect-in-httpclient
-			HttpClient httpClient = HttpClient.newBuilder()
-				.followRedirects(HttpClient.Redirect.NEVER)
-				.authenticator(new Authenticator() {
-					@Override
-					protected PasswordAuthentication getPasswordAuthentication() {
-						return new PasswordAuthentication(username, password.toCharArray());
-					}
-				})
-				.build();
-			this.restClient = restClientBuilder.requestFactory(new JdkClientHttpRequestFactory(httpClient)).build();
-		}
-		else {
-			this.restClient = restClientBuilder.build();
-		}
+	/**
+	 * Retrieves an artifact for a client that does not accept compressed bodies, see
+	 * {@link #retrieveArtifact(String, boolean)}.
+	 */
+	Resource retrieveArtifact(String artifactPath) throws IOException, RestClientResponseException {
+		return retrieveArtifact(artifactPath, false);
+	}
 
+	/**
+	 * Retrieves the body of an artifact for a client that holds no copy of it, see
+	 * {@link #serveArtifact(String, boolean, boolean, Predicate)}.
+	 * @return A Spring Resource representing the artifact content, a
+	 * {@link ContentEncodedResource} if it is sent compressed. A streamed resource holds
+	 * an open upstream connection until its input stream is closed.
+	 */
+	Resource retrieveArtifact(String artifactPath, boolean gzipAccepted)
+			throws IOException, RestClientResponseException {
+		return serveArtifact(artifactPath, gzipAccepted, false, artifact -> false).orElseThrow().content();
 	}
 
 	/**
-	 * Retrieves an artifact, either from the database cache or the remote repository. If
-	 * fetched from remote, it's saved to the database.
+	 * Retrieves an artifact, either from the memory cache, the database cache or the
+	 * remote repository. If fetched from remote, it's saved to the
+	 * {@link ArtifactContentStore}. Artifacts no larger than
+	 * {@code spring.enterprise.proxy.streaming.buffer-threshold} are read fully before
+	 * being saved and returned; larger (or unknown-length) artifacts are streamed to the
+	 * caller as they arrive and saved once the caller has read them to the end.
+	 * <p>
+	 * Concurrent misses for the same path are coalesced: one request fetches from the
+	 * remote while the others wait for it and are then served from the cache, or read a
+	 * streamed body along as it arrives. Paths the remote recently answered with 404 are
+	 * rejected by the {@link NegativeCache} without asking the remote again. Cached
+	 * copies of mutable artifacts (see {@link FreshnessPolicy}) are revalidated with the
+	 * remote once they are stale: a stale copy is served right away while a background
+	 * refresh runs, an expired one only after it has been revalidated. While the
+	 * {@link UpstreamCircuitBreaker} is open, misses fail fast and cached copies are
+	 * served regardless of their age.
+	 * <p>
+	 * Checksum files ({@code .sha1}, {@code .md5}, {@code .sha256}, {@code .sha512}) of a
+	 * cached artifact are answered from the digests computed while it was ingested,
+	 * without asking the remote or reading the artifact content. After a POM was fetched
+	 * from the remote, the {@link SiblingPrefetcher} may warm the cache with the JAR next
+	 * to it.
+	 * <p>
+	 * Every cache hit is recorded with the {@link ArtifactAccessTracker}, which decides
+	 * what the {@link CacheEvictor} removes first and keeps bodies from being evicted
+	 * while they are read.
+	 * <p>
+	 * Text artifacts are cached gzipped by {@link ArtifactCompression}. Served from the
+	 * cache, they are returned as stored to clients that accept gzip, and decompressed
+	 * for others.
+	 * <p>
+	 * With {@code spring.enterprise.proxy.write-behind.enabled}, fetched artifacts are
+	 * returned before they are saved, by the {@link WriteBehindExecutor}. Until then they
+	 * are served from the memory cache, or else requests for them wait like for any other
+	 * fetch in flight.
+	 * <p>
+	 * The cached artifact the body is read from is returned along with it, so that the
+	 * validators sent to the client describe that very body. A conditional request is
+	 * evaluated against it before the content is read.
 	 * @param artifactPath The relative path of the artifact (e.g.,
 	 * /org/apache/maven/maven-model/3.8.6/maven-model-3.8.6.pom)
-	 * @return A Spring Resource representing the artifact content.
+	 * @param gzipAccepted Whether the client accepts a gzipped body
+	 * @param cachedOnly Whether to give up rather than fetch an artifact that is not
+	 * cached, e.g. for a range request that is relayed to the remote instead
+	 * @param notModified Tells whether the client already holds the current copy of a
+	 * cached artifact, in which case its body is not read
+	 * @return The artifact served, or empty if it is not cached and {@code cachedOnly} is
+	 * set
 	 * @throws IOException If there's an issue with I/O (e.g., network problems during
 	 * remote fetch).
+	 * @throws UpstreamUnavailableException If the artifact is not cached and the circuit
+	 * breaker around the remote is open.
 	 * @throws RestClientResponseException If the remote repository returns an HTTP error
 	 * (e.g., 404 Not Found).
 	 */
-	Resource retrieveArtifact(String artifactPath) throws IOException, RestClientResponseException {
-		// 1. Try to serve from database cache
-		Optional<Artifact> cachedArtifact = artifactRepository.findByPath(artifactPath);
-		if (cachedArtifact.isPresent()) {
-			logger.debug("Serving artifact from DB cache: {}", artifactPath);
-			// Optionally, log the summary using the new record
+	Optional<Served> serveArtifact(String artifactPath, boolean gzipAccepted, boolean cachedOnly,
+			Predicate<Artifact> notModified) throws IOException, RestClientResponseException {
+		siblingPrefetcher.onRequest(artifactPath);
 
-			return new ByteArrayResource(cachedArtifact.get().content());
+		// 0. Answer checksum files from the metadata of the artifact they belong to
+		Optional<Checksum> checksum = findChecksum(artifactPath);
+		if (checksum.isPresent()) {
+			Artifact artifact = checksum.get().artifact();
+			boolean stale = stateOf(artifact) == FreshnessPolicy.State.STALE;
+			if (notModified.test(artifact)) {
+				return Optional.of(Served.notModified(artifact, stale));
+			}
+			logger.debug("Serving checksum from artifact metadata: {}", artifactPath);
+			return Optional.of(new Served(artifact, new ByteArrayResource(checksum.get().content()), stale));
 		}
 
-		// 2. If not in cache, fetch from remote repository
-		String remoteUrl = config.remoteRepoUrl() + artifactPath;
-		logger.debug("Fetching artifact from remote: {}", remoteUrl);
-
-		try {
-			// Using RestClient's fluent API.
-			// .retrieve() handles non-2xx responses by throwing
-			// RestClientResponseException.
-			HttpHeaders headers = new HttpHeaders();
-			MediaType contentType = MediaTypeUtil.getMediaTypeForFileName(artifactPath);
-
-			headers.setContentType(contentType);
-			ResponseEntity<byte[]> response = restClient.get()
-				.uri(remoteUrl)
-				.headers(httpHeaders -> httpHeaders.addAll(headers))
-				.retrieve()
-				.toEntity(byte[].class);
-
-			if (response.getStatusCode() == HttpStatus.FOUND || response.getStatusCode() == HttpStatus.MOVED_PERMANENTLY
-					|| response.getStatusCode() == HttpStatus.SEE_OTHER) {
-
-				String redirectUrl = Objects.requireNonNull(response.getHeaders().getLocation()).toString();
-				if (redirectUrl != null) {
-					logger.debug("Received 302/303");
-
-					URI encodedRedirectUrl = UriComponentsBuilder.fromUriString(redirectUrl).build(true).toUri();
-
-					// Step 2: Make a new request to the redirected URL *without* the
-					// Authorization header
-					ResponseEntity<byte[]> redirectedResponse = restClient.get()
-						.uri(encodedRedirectUrl)
-						// DO NOT add Authorization header here
-						.retrieve()
-						.toEntity(byte[].class);
-
-					logger.debug("Redirected response status: {}", redirectedResponse.getStatusCode());
-					if (redirectedResponse.getStatusCode().is2xxSuccessful() && redirectedResponse.getBody() != null) {
-						byte[] content = redirectedResponse.getBody();
-
-						// 3. Cache the fetched artifact in the database
-						Artifact newArtifact = new Artifact(artifactPath, content, contentType.toString(),
-								LocalDateTime.now());
-						artifactRepository.save(newArtifact); // Save to a database
-						logger.info("Artifact cached in DB successfully: {}", artifactPath);
-
-						return new ByteArrayResource(content);
-					}
-					else {
-						// This path is less likely to be hit if retrieve() throws for
-						// non-2xx
-						// statuses,
-						// but kept for explicit clarity in case of unexpected successful
-						// but
-						// empty responses.
-						logger.debug("Failed to fetch artifact from remote. Status: {}, Path: {}",
-								redirectedResponse.getStatusCode(), artifactPath);
-						throw new IOException("Unexpected status from remote: " + redirectedResponse.getStatusCode());
-					}
+		// 1. Try to serve from memory cache
+		Optional<ArtifactMemoryCache.Entry> memoryCachedArtifact = memoryCache.get(artifactPath);
+		if (memoryCachedArtifact.isPresent()) {
+			Artifact artifact = memoryCachedArtifact.get().artifact();
+			FreshnessPolicy.State state = stateOf(artifact);
+			if (state != FreshnessPolicy.State.EXPIRED) {
+				boolean stale = state == FreshnessPolicy.State.STALE;
+				if (stale) {
+					revalidateInBackground(artifact);
 				}
-				else {
-					logger.warn("Received 302/303 but no Location header found.");
-					throw new IOException("Unexpected status from remote: " + response.getStatusCode());
+				if (notModified.test(artifact)) {
+					return Optional.of(Served.notModified(artifact, stale));
 				}
+				logger.debug("Serving artifact from memory cache: {}", artifactPath);
+				accessTracker.recordAccess(artifact);
+				return Optional.of(new Served(artifact,
+						compression.serve(artifact, memoryCachedArtifact.get().content(), gzipAccepted), stale));
+			}
+		}
 
+		for (int attempt = 0; attempt < MAX_JOIN_ATTEMPTS; attempt++) {
+			// 2. Try to serve from database cache, revalidating mutable artifacts
+			Optional<Artifact> cachedArtifact = artifactRepository.findByPath(artifactPath);
+			if (cachedArtifact.isPresent()) {
+				FreshnessPolicy.State state = stateOf(cachedArtifact.get());
+				if (state == FreshnessPolicy.State.STALE) {
+					revalidateInBackground(cachedArtifact.get());
+				}
+				// An expired copy is revalidated before the client's copy is compared
+				// with it
+				if (state != FreshnessPolicy.State.EXPIRED && notModified.test(cachedArtifact.get())) {
+					return Optional.of(Served.notModified(cachedArtifact.get(), state == FreshnessPolicy.State.STALE));
+				}
+				Optional<Served> served = state == FreshnessPolicy.State.EXPIRED
+						? revalidate(cachedArtifact.get(), gzipAccepted)
+						: readCachedContent(cachedArtifact.get(), gzipAccepted);
+				if (served.isPresent()) {
+					return served;
+				}
+			}
+			if (cachedOnly) {
+				return Optional.empty();
 			}
-			else if (response.getStatusCode().is2xxSuccessful() && response.getBody() != null) {
-				logger.debug("Initial response status: {}", response.getStatusCode());
-				logger.debug("Initial response headers: {}", response.getHeaders());
-				byte[] content = response.getBody();
-				Artifact newArtifact = new Artifact(artifactPath, content, contentType.toString(), LocalDateTime.now());
-				artifactRepository.save(newArtifact); // Save to a database
-				logger.info("Artifact cached in DB successfully: {}", artifactPath);
 
-				return new ByteArrayResource(content);
+			// 3. If the remote recently did not have it, don't ask again
+			rejectKnownMissing(artifactPath);
+
+			// 4. If not in cache, fetch from remote repository unless another request
+			// already does
+			InFlightFetches.Flight flight = inFlightFetches.join(artifactPath);
+			if (flight.isLeader()) {
+				Resource fetched = fetchAndCache(artifactPath, flight);
+				siblingPrefetcher.afterMiss(artifactPath, this::prefetch);
+				return Optional.of(Served.fetched(fetched));
+			}
+			if (!flight.awaitLeader()) {
+				break;
+			}
+			Optional<Resource> streamed = flight.readAlong();
+			if (streamed.isPresent()) {
+				return Optional.of(Served.fetched(streamed.get()));
+			}
+		}
+		// The other request took too long or did not manage to cache the artifact
+		return Optional.of(Served.fetched(fetchWithoutCaching(artifactPath)));
+	}
 
+	/**
+	 * Looks up the digest a checksum file would hold in the metadata of the artifact it
+	 * belongs to. Artifacts cached before their SHA-1, MD5 and SHA-512 were recorded only
+	 * answer {@code .sha256}; the other checksum files are then cached like any other.
+	 * @return The checksum file, or empty if the path is not one or the artifact it
+	 * belongs to is not cached, has expired, or lacks the digest
+	 */
+	private Optional<Checksum> findChecksum(String artifactPath) {
+		for (Map.Entry<String, Function<Artifact, String>> suffix : CHECKSUM_SUFFIXES.entrySet()) {
+			if (!artifactPath.endsWith(suffix.getKey())) {
+				continue;
+			}
+			String basePath = artifactPath.substring(0, artifactPath.length() - suffix.getKey().length());
+			if (basePath.isEmpty() || basePath.endsWith("/")) {
+				return Optional.empty();
 			}
+			Optional<ArtifactMemoryCache.Entry> memoryCachedArtifact = memoryCache.get(basePath);
+			Optional<Artifact> baseArtifact = memoryCachedArtifact.isPresent()
+					? Optional.of(memoryCachedArtifact.get().artifact()) : artifactRepository.findByPath(basePath);
+			return baseArtifact.filter(artifact -> stateOf(artifact) != FreshnessPolicy.State.EXPIRED)
+				.flatMap(artifact -> Optional.ofNullable(suffix.getValue().apply(artifact))
+					.map(digest -> Checksum.of(artifactPath, artifact, digest)));
+		}
+		return Optional.empty();
+	}
+
+	/**
+	 * While the circuit breaker around the remote is open, even an expired copy is served
+	 * as stale rather than failing the request.
+	 */
+	private FreshnessPolicy.State stateOf(Artifact artifact) {
+		FreshnessPolicy.State state = freshnessPolicy.stateOf(artifact);
+		return state == FreshnessPolicy.State.EXPIRED && circuitBreaker.isOpen() ? FreshnessPolicy.State.STALE : state;
+	}
+
+	private Resource fetchAndCache(String artifactPath, InFlightFetches.Flight flight) throws IOException {
+		UpstreamResponse response;
+		try {
+			response = upstreamClient.fetch(artifactPath);
 		}
 		catch (RestClientResponseException e) {
 			// Throw RestClientResponseException (e.g., 404, 403 from remote) to be
-			// handled by the controller
+			// handled by the controller, and hand it to any request waiting on this fetch
 			logger.debug("Remote repository error for {}: {} - {}", artifactPath, e.getStatusCode(), e.getStatusText());
+			recordIfMissing(artifactPath, e);
+			flight.fail(e);
 			throw e;
+		}
+		catch (UpstreamUnavailableException e) {
+			// Fail fast, and let waiting requests do the same
+			logger.debug("Remote repository unavailable, not fetching {}: {}", artifactPath, e.getMessage());
+			flight.fail(e);
+			throw e;
+		}
+		catch (Exception e) {
+			logger.debug("Error fetching artifact {}: {}", artifactPath, e.getMessage(), e);
+			flight.fail(e);
+			throw new IOException("Failed to fetch or cache artifact: " + artifactPath, e);
+		}
+		return cacheResponse(artifactPath, null, response, flight);
+	}
+
+	/**
+	 * Caches a {@code 200 OK} response of the remote and returns its body, either
+	 * buffered or streamed depending on its size.
+	 * @param replaced The cached copy to replace once the new one is stored, or
+	 * {@code null} if the path is not cached
+	 */
+	private Resource cacheResponse(String artifactPath, @Nullable Artifact replaced, UpstreamResponse response,
+			InFlightFetches.Flight flight) throws IOException {
+		try {
+			long contentLength = response.contentLength();
+			long bufferThreshold = config.streaming().bufferThreshold().toBytes();
+
+			if (contentLength < 0 || contentLength > bufferThreshold) {
+				// Too large (or unknown size) to hold on the heap: pipe the body to the
+				// client as it arrives and tee it into the cache on the way
+				logger.debug("Streaming artifact from remote: {} ({} bytes)", artifactPath, contentLength);
+				ArtifactCacheWriter cacheWriter = new ArtifactCacheWriter(artifactPath, replaced, response.headers(),
+						contentStore, writeBehind, flight::complete);
+				cacheWriter.spooled().ifPresent(spooled -> flight.stream(spooled, contentLength));
+				return new StreamingArtifactResource(new CachingInputStream(response.body(), cacheWriter),
+						contentLength, artifactPath);
+			}
+
+			byte[] content;
+			try (response) {
+				content = response.body().readAllBytes();
+			}
+			ChecksumVerifier checksumVerifier = new ChecksumVerifier(response.headers());
+			checksumVerifier.update(content, 0, content.length);
+			String mismatch = checksumVerifier.mismatch();
+			if (content.length != contentLength || mismatch != null) {
+				throw new IOException(
+						"Corrupt transfer from remote for " + artifactPath + ": received " + content.length + " of "
+								+ contentLength + " bytes" + (mismatch != null ? ", " + mismatch : ""));
+			}
+
+			// 5. Cache the fetched artifact in the content store
+			Artifact newArtifact = Artifact.fetched(artifactPath, content.length, checksumVerifier, response.headers());
+			ArtifactCompression.Stored stored = compression.encode(newArtifact, content);
+			if (writeBehind.isEnabled()) {
+				memoryCache.put(stored.artifact(), stored.content());
+				writeBehind.execute(artifactPath, stored.content().length, () -> persist(stored, replaced, flight));
+			}
+			else {
+				persist(stored, replaced, flight);
+			}
 
+			return new ByteArrayResource(content);
 		}
 		catch (Exception e) {
-			// Catch any other exceptions during remote fetch or local caching
+			// Catch any other exceptions while reading or caching the body
+			response.close();
 			logger.debug("Error fetching or caching artifact {}: {}", artifactPath, e.getMessage(), e);
+			flight.fail(e);
 			throw new IOException("Failed to fetch or cache artifact: " + artifactPath, e);
 		}
-		return null;
+	}
+
+	/**
+	 * Saves a fetched artifact to the content store, in place of the cached copy if there
+	 * is one, and lets the requests waiting for it read it from the cache.
+	 */
+	private void persist(ArtifactCompression.Stored stored, @Nullable Artifact replaced, InFlightFetches.Flight flight)
+			throws IOException {
+		String artifactPath = stored.artifact().path();
+		try {
+			if (replaced != null) {
+				contentStore.replace(replaced, stored.artifact(), stored.content());
+			}
+			else {
+				contentStore.store(stored.artifact(), stored.content());
+			}
+			logger.info("Artifact cached successfully: {}", artifactPath);
+			memoryCache.put(stored.artifact(), stored.content());
+		}
+		catch (DuplicateKeyException e) {
+			// Another node cached it in the meantime
+			logger.debug("Artifact was cached concurrently, keeping existing entry: {}", artifactPath);
+			memoryCache.invalidate(artifactPath);
+		}
+		catch (IOException | RuntimeException e) {
+			memoryCache.invalidate(artifactPath);
+			flight.fail(e);
+			throw e;
+		}
+		flight.complete();
+	}
+
+	/**
+	 * Fetches a sibling of a POM into the cache, unless it is cached already, known to be
+	 * missing, or being fetched for a client request anyway.
+	 */
+	private void prefetch(String artifactPath) throws IOException {
+		if (circuitBreaker.isOpen() || negativeCache.isMissing(artifactPath)
+				|| artifactRepository.findByPath(artifactPath).isPresent()) {
+			return;
+		}
+		InFlightFetches.Flight flight = inFlightFetches.join(artifactPath);
+		if (!flight.isLeader()) {
+			return;
+		}
+		siblingPrefetcher.onFetching(artifactPath);
+		// Nobody reads a streamed body, so drain it into the cache here
+		try (InputStream in = fetchAndCache(artifactPath, flight).getInputStream()) {
+			in.transferTo(OutputStream.nullOutputStream());
+		}
+		logger.debug("Prefetched sibling artifact: {}", artifactPath);
+	}
+
+	/**
+	 * Revalidates an expired copy of a mutable artifact before serving it. Only one
+	 * request revalidates a path at a time; others are served the cached copy meanwhile.
+	 * If the remote cannot be reached the cached copy is served as well, while a 404
+	 * removes it.
+	 */
+	private Optional<Served> revalidate(Artifact expiredArtifact, boolean gzipAccepted) throws IOException {
+		String artifactPath = expiredArtifact.path();
+		InFlightFetches.Flight flight = inFlightFetches.join(artifactPath);
+		if (!flight.isLeader()) {
+			logger.debug("Artifact is being revalidated, serving cached copy meanwhile: {}", artifactPath);
+			return readCachedContent(expiredArtifact, gzipAccepted);
+		}
+		try {
+			Optional<Resource> changedContent = refresh(expiredArtifact, flight);
+			if (changedContent.isPresent()) {
+				return changedContent.map(Served::fetched);
+			}
+			return readCachedContent(expiredArtifact.withValidatedAt(LocalDateTime.now()), gzipAccepted);
+		}
+		catch (RestClientResponseException e) {
+			if (e.getStatusCode().isSameCodeAs(HttpStatus.NOT_FOUND)) {
+				throw e;
+			}
+			logger.warn("Failed to revalidate {}, serving cached copy: {}", artifactPath, e.getStatusCode());
+			return readCachedContent(expiredArtifact, gzipAccepted);
+		}
+		catch (IOException e) {
+			logger.warn("Failed to revalidate {}, serving cached copy: {}", artifactPath, e.getMessage());
+			return readCachedContent(expiredArtifact, gzipAccepted);
+		}
+	}
+
+	/**
+	 * Schedules a background revalidation of a stale copy that is served meanwhile,
+	 * unless the path is already being fetched or revalidated. If all revalidation
+	 * threads are busy the copy stays stale and a later request schedules it again.
+	 */
+	private void revalidateInBackground(Artifact staleArtifact) {
+		if (circuitBreaker.isOpen()) {
+			return;
+		}
+		String artifactPath = staleArtifact.path();
+		InFlightFetches.Flight flight = inFlightFetches.join(artifactPath);
+		if (!flight.isLeader()) {
+			return;
+		}
+		boolean scheduled = revalidationExecutor.trySubmit(() -> {
+			try {
+				Optional<Resource> changedContent = refresh(staleArtifact, flight);
+				if (changedContent.isPresent()) {
+					// Nobody reads a streamed body, so drain it into the cache here
+					try (InputStream in = changedContent.get().getInputStream()) {
+						in.transferTo(OutputStream.nullOutputStream());
+					}
+				}
+			}
+			catch (Exception e) {
+				logger.warn("Failed to revalidate {} in the background: {}", artifactPath, e.getMessage());
+			}
+		});
+		if (scheduled) {
+			logger.debug("Serving stale copy while it is revalidated in the background: {}", artifactPath);
+		}
+		else {
+			logger.debug("Revalidation queue is full, serving stale copy without revalidating: {}", artifactPath);
+			flight.complete();
+		}
+	}
+
+	/**
+	 * Asks the remote whether a cached copy of a mutable artifact is still current, with
+	 * a conditional request carrying the validators the remote sent with it. A
+	 * {@code 304 Not Modified} only marks the copy as validated; a new body replaces it
+	 * once it is stored, and a 404 removes it. Completes or fails the flight in every
+	 * case.
+	 * @return The new body if the artifact changed on the remote, or empty if the cached
+	 * copy is still current
+	 */
+	private Optional<Resource> refresh(Artifact cachedArtifact, InFlightFetches.Flight flight)
+			throws IOException, RestClientResponseException {
+		String artifactPath = cachedArtifact.path();
+		UpstreamResponse response;
+		try {
+			response = upstreamClient.fetch(artifactPath, validatorsOf(cachedArtifact));
+		}
+		catch (RestClientResponseException e) {
+			if (!e.getStatusCode().isSameCodeAs(HttpStatus.NOT_FOUND)) {
+				flight.complete();
+				throw e;
+			}
+			logger.info("Artifact was removed from remote, dropping cached copy: {}", artifactPath);
+			drop(cachedArtifact);
+			recordIfMissing(artifactPath, e);
+			flight.fail(e);
+			throw e;
+		}
+		catch (IOException e) {
+			flight.complete();
+			throw e;
+		}
+
+		if (response.statusCode().isSameCodeAs(HttpStatus.NOT_MODIFIED)) {
+			response.close();
+			artifactRepository.markValidated(cachedArtifact.id(), LocalDateTime.now());
+			memoryCache.invalidate(artifactPath);
+			flight.complete();
+			logger.debug("Cached copy is still current: {}", artifactPath);
+			return Optional.empty();
+		}
+		logger.info("Artifact changed on remote, replacing cached copy: {}", artifactPath);
+		return Optional.of(cacheResponse(artifactPath, cachedArtifact, response, flight));
+	}
+
+	/**
+	 * Removes a cached copy through the content store, which releases its body and
+	 * deletes it once no other artifact shares it, so that it is fetched again.
+	 */
+	private void drop(Artifact cachedArtifact) {
+		try {
+			contentStore.delete(cachedArtifact);
+		}
+		catch (IOException e) {
+			// The row is gone, only the body may be left behind
+			logger.warn("Failed to remove the body of {}: {}", cachedArtifact.path(), e.getMessage());
+		}
+		memoryCache.invalidate(cachedArtifact.path());
+	}
+
+	private static HttpHeaders validatorsOf(Artifact artifact) {
+		HttpHeaders headers = new HttpHeaders();
+		if (artifact.upstreamEtag() != null) {
+			headers.set(HttpHeaders.IF_NONE_MATCH, artifact.upstreamEtag());
+		}
+		if (artifact.upstreamLastModified() != null) {
+			headers.set(HttpHeaders.IF_MODIFIED_SINCE, artifact.upstreamLastModified());
+		}
+		return headers;
+	}
+
+	/**
+	 * Serves an artifact found in the database from the content store. An artifact whose
+	 * body has gone missing from the store is removed so that it is fetched again. A copy
+	 * that is not fresh, e.g. because it could not be revalidated, is served as stale.
+	 */
+	private Optional<Served> readCachedContent(Artifact cachedArtifact, boolean gzipAccepted) throws IOException {
+		Optional<Resource> storedContent = contentStore.read(cachedArtifact);
+		if (storedContent.isEmpty()) {
+			logger.warn("Content of cached artifact {} is missing from the content store, fetching it again",
+					cachedArtifact.path());
+			drop(cachedArtifact);
+			return Optional.empty();
+		}
+		logger.debug("Serving artifact from cache: {}", cachedArtifact.path());
+		accessTracker.recordAccess(cachedArtifact);
+		// Not evicted while the body is being read
+		Resource trackedContent = accessTracker.track(cachedArtifact, storedContent.get());
+		boolean stale = stateOf(cachedArtifact) != FreshnessPolicy.State.FRESH;
+		if (!memoryCache.admits(cachedArtifact.storedLength())) {
+			return Optional
+				.of(new Served(cachedArtifact, compression.serve(cachedArtifact, trackedContent, gzipAccepted), stale));
+		}
+		byte[] content;
+		try (InputStream in = trackedContent.getInputStream()) {
+			content = in.readAllBytes();
+		}
+		memoryCache.put(cachedArtifact, content);
+		return Optional.of(new Served(cachedArtifact, compression.serve(cachedArtifact, content, gzipAccepted), stale));
+	}
+
+	/**
+	 * Passes a range request for an artifact that is not cached yet on to the remote
+	 * repository. Partial bodies are neither cached nor coalesced with other fetches.
+	 * @param range The {@code Range} header of the client request
+	 * @return The open upstream response, which is either {@code 206 Partial Content} or
+	 * the whole artifact if the remote ignored the range. The caller must close it.
+	 */
+	UpstreamResponse fetchRange(String artifactPath, String range) throws IOException, RestClientResponseException {
+		rejectKnownMissing(artifactPath);
+		logger.debug("Fetching range {} of uncached artifact from remote: {}", range, artifactPath);
+		try {
+			HttpHeaders requestHeaders = new HttpHeaders();
+			requestHeaders.set(HttpHeaders.RANGE, range);
+			return upstreamClient.fetch(artifactPath, requestHeaders);
+		}
+		catch (RestClientResponseException e) {
+			logger.debug("Remote repository error for {}: {} - {}", artifactPath, e.getStatusCode(), e.getStatusText());
+			recordIfMissing(artifactPath, e);
+			throw e;
+		}
+		catch (UpstreamUnavailableException e) {
+			throw e;
+		}
+		catch (Exception e) {
+			logger.debug("Error fetching range of artifact {}: {}", artifactPath, e.getMessage(), e);
+			throw new IOException("Failed to fetch artifact: " + artifactPath, e);
+		}
+	}
+
+	private void rejectKnownMissing(String artifactPath) {
+		if (negativeCache.isMissing(artifactPath)) {
+			logger.debug("Artifact is known to be missing from remote: {}", artifactPath);
+			throw HttpClientErrorException.create(HttpStatus.NOT_FOUND, HttpStatus.NOT_FOUND.getReasonPhrase(), null,
+					null, null);
+		}
+	}
+
+	private void recordIfMissing(String artifactPath, RestClientResponseException e) {
+		if (e.getStatusCode().isSameCodeAs(HttpStatus.NOT_FOUND)) {
+			negativeCache.record(artifactPath);
+		}
+	}
+
+	private Resource fetchWithoutCaching(String artifactPath) throws IOException {
+		logger.debug("Streaming artifact from remote without caching: {}", artifactPath);
+		try {
+			UpstreamResponse response = upstreamClient.fetch(artifactPath);
+			return new StreamingArtifactResource(response.body(), response.contentLength(), artifactPath);
+		}
+		catch (RestClientResponseException e) {
+			logger.debug("Remote repository error for {}: {} - {}", artifactPath, e.getStatusCode(), e.getStatusText());
+			recordIfMissing(artifactPath, e);
+			throw e;
+		}
+		catch (UpstreamUnavailableException e) {
+			throw e;
+		}
+		catch (Exception e) {
+			logger.debug("Error fetching artifact {}: {}", artifactPath, e.getMessage(), e);
+			throw new IOException("Failed to fetch artifact: " + artifactPath, e);
+		}
+	}
+
+	/**
+	 * An artifact as served to a client.
+	 *
+	 * @param artifact The cached artifact the body belongs to, which the validators sent
+	 * to the client are derived from, or {@code null} if the body was just fetched from
+	 * the remote
+	 * @param content The body, or {@code null} if the client already holds the current
+	 * copy
+	 * @param stale Whether a stale copy is served while it is revalidated, or because the
+	 * remote repository is unavailable
+	 */
+	record Served(@Nullable Artifact artifact, @Nullable Resource content, boolean stale) {
+
+		static Served notModified(Artifact artifact, boolean stale) {
+			return new Served(artifact, null, stale);
+		}
+
+		static Served fetched(Resource content) {
+			return new Served(null, content, false);
+		}
+
+	}
+
+	/**
+	 * A checksum file answered from the metadata of the artifact it belongs to, which it
+	 * shares its freshness with.
+	 */
+	private record Checksum(Artifact artifact, byte[] content) {
+
+		static Checksum of(String path, Artifact belongsTo, String digest) {
+			byte[] content = digest.getBytes(StandardCharsets.US_ASCII);
+			ChecksumVerifier checksums = new ChecksumVerifier(new HttpHeaders());
+			checksums.update(content, 0, content.length);
+			return new Checksum(Artifact
+				.cached(path, content.length, checksums.sha256(),
+						MediaTypeUtil.getMediaTypeForFileName(path).toString(), belongsTo.lastModified())
+				.withValidatedAt(belongsTo.validatedAt()), content);
+		}
+
 	}
 
 }
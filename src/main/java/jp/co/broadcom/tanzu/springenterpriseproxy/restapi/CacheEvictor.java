@@ -0,0 +1,180 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jp.co.broadcom.tanzu.springenterpriseproxy.SpringEnterpriseProxyProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the total size of the cached artifact bodies under
+ * {@code spring.enterprise.proxy.eviction.max-size}.
+ * <p>
+ * Each sweep writes the usage collected by {@link ArtifactAccessTracker} first, and then
+ * evicts the least recently (or least frequently) used artifacts until the cache is back
+ * down to {@code target-ratio} of its quota. Artifacts used within {@code min-idle} are
+ * never evicted, and neither are artifacts whose body is being read; they are passed over
+ * in favour of the next candidate. An evicted artifact is fetched from the remote again
+ * on its next request. A body shared by several artifacts only counts as freed once all
+ * of them are evicted.
+ */
+@Component
+class CacheEvictor {
+
+	private static final Logger logger = LoggerFactory.getLogger(CacheEvictor.class);
+
+	private static final String METRIC_PREFIX = "spring.enterprise.proxy.eviction";
+
+	private final SpringEnterpriseProxyProperties.Eviction config;
+
+	private final ArtifactRepository artifactRepository;
+
+	private final ArtifactContentStore contentStore;
+
+	private final ArtifactMemoryCache memoryCache;
+
+	private final ArtifactAccessTracker accessTracker;
+
+	private final AtomicLong cachedBytes = new AtomicLong();
+
+	private final Timer sweepTimer;
+
+	private final Counter evictedCounter;
+
+	private final Counter evictedBytesCounter;
+
+	private final Counter skippedCounter;
+
+	CacheEvictor(SpringEnterpriseProxyProperties config, ArtifactRepository artifactRepository,
+			ArtifactContentStore contentStore, ArtifactMemoryCache memoryCache, ArtifactAccessTracker accessTracker,
+			MeterRegistry meterRegistry) {
+		this.config = config.eviction();
+		this.artifactRepository = artifactRepository;
+		this.contentStore = contentStore;
+		this.memoryCache = memoryCache;
+		this.accessTracker = accessTracker;
+		this.sweepTimer = Timer.builder(METRIC_PREFIX + ".sweeps")
+			.description("Eviction sweeps over the cache")
+			.register(meterRegistry);
+		this.evictedCounter = Counter.builder(METRIC_PREFIX + ".evicted")
+			.description("Artifacts evicted from the cache")
+			.register(meterRegistry);
+		this.evictedBytesCounter = Counter.builder(METRIC_PREFIX + ".evicted.bytes")
+			.description("Bytes of artifact bodies freed by evicting artifacts")
+			.baseUnit("bytes")
+			.register(meterRegistry);
+		this.skippedCounter = Counter.builder(METRIC_PREFIX + ".skipped")
+			.description("Eviction candidates kept because their body was being read or they were just used")
+			.register(meterRegistry);
+		Gauge.builder(METRIC_PREFIX + ".cached.bytes", this.cachedBytes, AtomicLong::get)
+			.description("Total size of the cached artifact bodies, as of the last sweep")
+			.baseUnit("bytes")
+			.register(meterRegistry);
+		Gauge.builder(METRIC_PREFIX + ".quota.bytes", this.config, eviction -> eviction.maxSize().toBytes())
+			.description("Total size of the cached artifact bodies above which artifacts are evicted")
+			.baseUnit("bytes")
+			.register(meterRegistry);
+	}
+
+	@Scheduled(fixedDelayString = "${spring.enterprise.proxy.eviction.interval:1m}")
+	void sweep() {
+		if (!this.config.enabled()) {
+			return;
+		}
+		this.sweepTimer.record(() -> {
+			try {
+				evict();
+			}
+			catch (DataAccessException e) {
+				logger.warn("Eviction sweep failed: {}", e.getMessage());
+			}
+		});
+	}
+
+	private void evict() {
+		this.accessTracker.flush();
+		long total = this.artifactRepository.sumStoredLength();
+		this.cachedBytes.set(total);
+		if (total <= this.config.maxSize().toBytes()) {
+			return;
+		}
+		long target = (long) (this.config.maxSize().toBytes() * this.config.targetRatio());
+		LocalDateTime usedBefore = LocalDateTime.now().minus(this.config.minIdle());
+		long evicted = 0;
+		long evictedBytes = 0;
+		// Candidates that are kept stay at the head of the order, so skip past them
+		int offset = 0;
+		while (total > target) {
+			List<Artifact> candidates = findCandidates(usedBefore, offset);
+			if (candidates.isEmpty()) {
+				logger.warn("Cache holds {} bytes, more than its quota of {} bytes, but nothing can be evicted", total,
+						this.config.maxSize().toBytes());
+				break;
+			}
+			for (Artifact candidate : candidates) {
+				if (total <= target) {
+					break;
+				}
+				if (!tryEvict(candidate)) {
+					offset++;
+					this.skippedCounter.increment();
+					continue;
+				}
+				// A body shared with other artifacts stays until the last of them goes
+				long freed = this.artifactRepository.hasBody(candidate.bodyKey()) ? 0 : candidate.storedLength();
+				total -= freed;
+				evicted++;
+				evictedBytes += freed;
+				this.evictedCounter.increment();
+				this.evictedBytesCounter.increment(freed);
+			}
+		}
+		this.cachedBytes.set(total);
+		if (evicted > 0) {
+			logger.info("Evicted {} artifacts ({} bytes), the cache now holds {} bytes", evicted, evictedBytes, total);
+		}
+	}
+
+	private List<Artifact> findCandidates(LocalDateTime usedBefore, int offset) {
+		return switch (this.config.policy()) {
+			case LRU -> this.artifactRepository.findLeastRecentlyUsed(usedBefore, this.config.batchSize(), offset);
+			case LFU -> this.artifactRepository.findLeastFrequentlyUsed(usedBefore, this.config.batchSize(), offset);
+		};
+	}
+
+	/**
+	 * @return Whether the artifact was evicted, rather than kept because it is in use
+	 */
+	private boolean tryEvict(Artifact candidate) {
+		// Served since the sweep started
+		if (this.accessTracker.hasPendingAccess(candidate.id())) {
+			return false;
+		}
+		try {
+			boolean evicted = this.accessTracker.evictUnlessStreaming(candidate.id(),
+					() -> this.contentStore.delete(candidate));
+			if (evicted) {
+				this.memoryCache.invalidate(candidate.path());
+				logger.debug("Evicted {}", candidate.path());
+			}
+			return evicted;
+		}
+		catch (IOException e) {
+			// The row is gone, only the body may be left behind
+			logger.warn("Failed to remove the body of evicted artifact {}: {}", candidate.path(), e.getMessage());
+			this.memoryCache.invalidate(candidate.path());
+			return true;
+		}
+	}
+
+}
@@ -0,0 +1,629 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import jp.co.broadcom.tanzu.springenterpriseproxy.SpringEnterpriseProxyProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.core.io.Resource;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Exports the whole cache into a single archive and imports such an archive into another
+ * proxy, e.g. to carry a warmed cache into an air-gapped site.
+ * <p>
+ * The archive is a ZIP file. After a {@code snapshot.json} header, every artifact is
+ * written as a {@code metadata/<path>} entry holding its row as JSON, directly followed
+ * by a {@code content/<path>} entry holding its body. Text is deflated, archives such as
+ * jars are stored as they are, since they do not shrink any further.
+ * <p>
+ * Both directions run in constant memory. The export pages through the {@code artifact}
+ * table by id rather than loading it, and streams each body from the content store into
+ * the archive. The import reads the archive on one thread and cuts the artifacts into
+ * batches, which a pool of workers verifies against the recorded digests and stores with
+ * a single batched insert each; when all workers are busy the reader stores the next
+ * batch itself. Bodies larger than a batch are streamed into the store on their own.
+ * Paths that are cached already are skipped, so an interrupted import can be resumed by
+ * starting it again.
+ * <p>
+ * Bodies the store holds compressed (see {@link ArtifactCompression}) are exported
+ * decompressed, so that an archive does not depend on how the exporting node stores them,
+ * and compressed again as they are imported.
+ */
+@Component
+class CacheSnapshot implements DisposableBean {
+
+	private static final Logger logger = LoggerFactory.getLogger(CacheSnapshot.class);
+
+	static final String EXECUTOR_NAME = "snapshot";
+
+	private static final String METRIC_PREFIX = "spring.enterprise.proxy.snapshot";
+
+	static final String HEADER_ENTRY = "snapshot.json";
+
+	static final String METADATA_PREFIX = "metadata";
+
+	static final String CONTENT_PREFIX = "content";
+
+	private static final int FORMAT = 1;
+
+	private static final Set<String> COMPRESSED_EXTENSIONS = Set.of(".jar", ".war", ".ear", ".aar", ".zip", ".gz",
+			".tgz", ".bz2", ".xz", ".7z");
+
+	private static final int MAX_REPORTED_FAILURES = 100;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	enum Operation {
+
+		EXPORT, IMPORT
+
+	}
+
+	enum Outcome {
+
+		EXPORTED, STORED, EXISTING, CORRUPT, MISSING, FAILED
+
+	}
+
+	private final ArtifactRepository artifactRepository;
+
+	private final ArtifactContentStore contentStore;
+
+	private final ArtifactCompression compression;
+
+	private final ObjectMapper objectMapper;
+
+	private final int pageSize;
+
+	private final int batchSize;
+
+	private final long batchBytes;
+
+	private final Path directory;
+
+	private final ExecutorService reader;
+
+	private final ExecutorService workers;
+
+	private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+
+	private final Map<Outcome, Counter> artifactCounters = new HashMap<>();
+
+	private final Map<Operation, Counter> bytesCounters = new HashMap<>();
+
+	CacheSnapshot(SpringEnterpriseProxyProperties config, ArtifactRepository artifactRepository,
+			ArtifactContentStore contentStore, ArtifactCompression compression, ObjectMapper objectMapper,
+			MeterRegistry meterRegistry) {
+		SpringEnterpriseProxyProperties.Snapshot snapshot = config.snapshot();
+		this.artifactRepository = artifactRepository;
+		this.contentStore = contentStore;
+		this.compression = compression;
+		this.objectMapper = objectMapper;
+		this.pageSize = snapshot.pageSize();
+		this.batchSize = snapshot.batchSize();
+		this.batchBytes = snapshot.batchBytes().toBytes();
+		this.directory = snapshot.directory().toAbsolutePath().normalize();
+
+		// Archives are read and written sequentially, one job at a time
+		ThreadPoolExecutor reader = new ThreadPoolExecutor(1, 1, 1, TimeUnit.MINUTES, new ArrayBlockingQueue<>(16),
+				new CustomizableThreadFactory(EXECUTOR_NAME + "-archive-"));
+		reader.allowCoreThreadTimeOut(true);
+		this.reader = reader;
+		// A full queue makes the reader store the batch itself
+		ThreadPoolExecutor workers = new ThreadPoolExecutor(snapshot.threads(), snapshot.threads(), 1, TimeUnit.MINUTES,
+				new ArrayBlockingQueue<>(snapshot.threads()), new CustomizableThreadFactory(EXECUTOR_NAME + "-"),
+				new ThreadPoolExecutor.CallerRunsPolicy());
+		workers.allowCoreThreadTimeOut(true);
+		// pool size, queued and completed tasks, execution and idle time
+		this.workers = ExecutorServiceMetrics.monitor(meterRegistry, workers, EXECUTOR_NAME);
+
+		for (Outcome outcome : Outcome.values()) {
+			this.artifactCounters.put(outcome,
+					Counter.builder(METRIC_PREFIX + ".artifacts")
+						.description("Artifacts processed by snapshot exports and imports")
+						.tag("outcome", outcome.name().toLowerCase(Locale.ROOT))
+						.register(meterRegistry));
+		}
+		for (Operation operation : Operation.values()) {
+			this.bytesCounters.put(operation,
+					Counter.builder(METRIC_PREFIX + ".bytes")
+						.description("Artifact bytes written to or read from snapshot archives")
+						.tag("operation", operation.name().toLowerCase(Locale.ROOT))
+						.baseUnit("bytes")
+						.register(meterRegistry));
+		}
+	}
+
+	/**
+	 * Starts writing every cached artifact into a new archive. The archive only appears
+	 * under its name once it is complete.
+	 * @param name The archive's name within the snapshot directory, which is created if
+	 * need be
+	 * @throws IllegalArgumentException If the name leads outside the snapshot directory,
+	 * the file exists already or its directory does not
+	 */
+	Job startExport(String name) {
+		try {
+			Files.createDirectories(this.directory);
+		}
+		catch (IOException e) {
+			throw new IllegalStateException("Cannot create the snapshot directory " + this.directory, e);
+		}
+		Path archive = resolve(name);
+		if (Files.exists(archive, LinkOption.NOFOLLOW_LINKS) || !Files.isDirectory(archive.getParent())) {
+			throw new IllegalArgumentException("Not a new file in an existing directory: " + name);
+		}
+		return start(Operation.EXPORT, archive, this::exportTo);
+	}
+
+	/**
+	 * Starts loading the artifacts of an archive written by {@link #startExport(String)}
+	 * into the cache.
+	 * @param name The archive's name within the snapshot directory
+	 * @throws IllegalArgumentException If the name leads outside the snapshot directory
+	 * or the file does not exist
+	 */
+	Job startImport(String name) {
+		Path archive = resolve(name);
+		if (!Files.isRegularFile(archive, LinkOption.NOFOLLOW_LINKS)) {
+			throw new IllegalArgumentException("Not a file: " + name);
+		}
+		return start(Operation.IMPORT, archive, this::importFrom);
+	}
+
+	/**
+	 * @return The archive with the given name, which lies below the snapshot directory
+	 * even once symbolic links on the way are followed
+	 */
+	private Path resolve(String name) {
+		Path archive = this.directory.resolve(name).normalize();
+		if (!archive.startsWith(this.directory) || archive.equals(this.directory)) {
+			throw new IllegalArgumentException("Not within the snapshot directory: " + name);
+		}
+		try {
+			if (Files.isDirectory(archive.getParent())
+					&& !archive.getParent().toRealPath().startsWith(this.directory.toRealPath())) {
+				throw new IllegalArgumentException("Not within the snapshot directory: " + name);
+			}
+		}
+		catch (IOException e) {
+			throw new IllegalArgumentException("Not within the snapshot directory: " + name);
+		}
+		return archive;
+	}
+
+	Optional<Job> job(String id) {
+		return Optional.ofNullable(this.jobs.get(id));
+	}
+
+	Collection<Job> jobs() {
+		return this.jobs.values();
+	}
+
+	private Job start(Operation operation, Path archive, ArchiveTask task) {
+		Job job = new Job(UUID.randomUUID().toString(), operation, archive);
+		this.jobs.values().removeIf(Job::isFinished);
+		this.jobs.put(job.id, job);
+		logger.info("Starting snapshot {} {} {}", operation.name().toLowerCase(Locale.ROOT), job.id, archive);
+		// Held by the archive task until every batch has been submitted
+		job.pending.incrementAndGet();
+		try {
+			this.reader.execute(() -> {
+				try {
+					task.run(job);
+				}
+				catch (IOException | RuntimeException e) {
+					logger.warn("Snapshot {} {} failed: {}", operation.name().toLowerCase(Locale.ROOT), job.id,
+							e.getMessage());
+					job.error = String.valueOf(e.getMessage());
+				}
+				finally {
+					finish(job);
+				}
+			});
+		}
+		catch (RejectedExecutionException e) {
+			this.jobs.remove(job.id);
+			throw new IllegalStateException("Too many snapshot jobs queued");
+		}
+		return job;
+	}
+
+	private void exportTo(Job job) throws IOException {
+		Path partFile = job.archive.resolveSibling(job.archive.getFileName() + ".part");
+		// Left behind by an export that was killed; never write through a link
+		Files.deleteIfExists(partFile);
+		try {
+			try (OutputStream out = new BufferedOutputStream(
+					Files.newOutputStream(partFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE),
+					BUFFER_SIZE); ZipOutputStream zip = new ZipOutputStream(out)) {
+				zip.setLevel(Deflater.BEST_SPEED);
+				zip.putNextEntry(new ZipEntry(HEADER_ENTRY));
+				zip.write(this.objectMapper
+					.writeValueAsBytes(Map.of("format", FORMAT, "exportedAt", Instant.now().toString())));
+				zip.closeEntry();
+
+				String afterId = "";
+				List<Artifact> page;
+				do {
+					page = this.artifactRepository.findPageAfter(afterId, this.pageSize);
+					for (Artifact artifact : page) {
+						exportArtifact(job, zip, artifact);
+					}
+					if (!page.isEmpty()) {
+						afterId = page.get(page.size() - 1).id();
+					}
+				}
+				while (page.size() == this.pageSize);
+			}
+			Files.move(partFile, job.archive, StandardCopyOption.ATOMIC_MOVE);
+		}
+		finally {
+			Files.deleteIfExists(partFile);
+		}
+	}
+
+	private void exportArtifact(Job job, ZipOutputStream zip, Artifact artifact) throws IOException {
+		job.scanned.incrementAndGet();
+		InputStream in;
+		try {
+			Optional<Resource> content = this.contentStore.read(artifact);
+			if (content.isEmpty()) {
+				// The body was evicted or lost, a reader would refetch it
+				record(job, Outcome.MISSING);
+				return;
+			}
+			in = this.compression.decode(artifact, content.get()).getInputStream();
+		}
+		catch (IOException e) {
+			fail(job, artifact.path(), e.getMessage());
+			return;
+		}
+		// Once the entries are started, a failure leaves the archive unusable
+		try (in) {
+			zip.setLevel(Deflater.BEST_SPEED);
+			zip.putNextEntry(new ZipEntry(METADATA_PREFIX + artifact.path()));
+			zip.write(this.objectMapper.writeValueAsBytes(artifact.withContentEncoding(null, null)));
+			zip.closeEntry();
+
+			zip.setLevel(isCompressed(artifact.path()) ? Deflater.NO_COMPRESSION : Deflater.BEST_SPEED);
+			zip.putNextEntry(new ZipEntry(CONTENT_PREFIX + artifact.path()));
+			long length = in.transferTo(zip);
+			zip.closeEntry();
+			record(job, Outcome.EXPORTED);
+			addBytes(job, length);
+		}
+	}
+
+	private void importFrom(Job job) throws IOException {
+		try (ZipInputStream zip = new ZipInputStream(
+				new BufferedInputStream(Files.newInputStream(job.archive), BUFFER_SIZE))) {
+			ZipEntry header = zip.getNextEntry();
+			if (header == null || !header.getName().equals(HEADER_ENTRY)) {
+				throw new IOException("Not a snapshot archive: " + job.archive);
+			}
+			Map<?, ?> headerValues = this.objectMapper.readValue(zip.readAllBytes(), Map.class);
+			if (!Objects.equals(headerValues.get("format"), FORMAT)) {
+				throw new IOException("Unsupported snapshot format " + headerValues.get("format"));
+			}
+
+			Map<Artifact, byte[]> batch = new LinkedHashMap<>();
+			long batchedBytes = 0;
+			ZipEntry entry;
+			while ((entry = zip.getNextEntry()) != null) {
+				if (!entry.getName().startsWith(METADATA_PREFIX + "/")) {
+					throw new IOException("Expected artifact metadata but found " + entry.getName());
+				}
+				Artifact artifact = this.objectMapper.readValue(zip.readAllBytes(), Artifact.class);
+				job.scanned.incrementAndGet();
+				String path = entry.getName().substring(METADATA_PREFIX.length());
+				ZipEntry contentEntry = zip.getNextEntry();
+				if (!path.equals(artifact.path()) || contentEntry == null
+						|| !contentEntry.getName().equals(CONTENT_PREFIX + path)) {
+					throw new IOException("Expected the content of " + path + " after its metadata");
+				}
+				// The id is derived from the path on every node, never trust the archive
+				artifact = artifact.withId(Artifact.idForPath(path));
+
+				if (artifact.contentLength() > this.batchBytes) {
+					importLarge(job, zip, artifact);
+					continue;
+				}
+				byte[] content = zip.readNBytes(Math.toIntExact(artifact.contentLength()) + 1);
+				batch.put(artifact, content);
+				batchedBytes += content.length;
+				if (batch.size() >= this.batchSize || batchedBytes >= this.batchBytes) {
+					submit(job, batch);
+					batch = new LinkedHashMap<>();
+					batchedBytes = 0;
+				}
+			}
+			if (!batch.isEmpty()) {
+				submit(job, batch);
+			}
+		}
+	}
+
+	private void submit(Job job, Map<Artifact, byte[]> batch) {
+		job.pending.incrementAndGet();
+		this.workers.execute(() -> {
+			try {
+				storeBatch(job, batch);
+			}
+			catch (IOException | RuntimeException e) {
+				logger.warn("Snapshot import {} failed to store a batch of {} artifacts: {}", job.id, batch.size(),
+						e.getMessage());
+				batch.keySet().forEach(artifact -> fail(job, artifact.path(), e.getMessage()));
+			}
+			finally {
+				finish(job);
+			}
+		});
+	}
+
+	private void storeBatch(Job job, Map<Artifact, byte[]> batch) throws IOException {
+		Set<String> cached = this.artifactRepository.findByPathIn(batch.keySet().stream().map(Artifact::path).toList())
+			.stream()
+			.map(Artifact::path)
+			.collect(Collectors.toSet());
+
+		Map<Artifact, byte[]> verified = new LinkedHashMap<>();
+		batch.forEach((artifact, content) -> {
+			if (cached.contains(artifact.path())) {
+				record(job, Outcome.EXISTING);
+				return;
+			}
+			ChecksumVerifier checksums = new ChecksumVerifier(new HttpHeaders());
+			checksums.update(content, 0, content.length);
+			String mismatch = mismatch(artifact, content.length, checksums);
+			if (mismatch != null) {
+				logger.warn("Not importing {}: {}", artifact.path(), mismatch);
+				record(job, Outcome.CORRUPT);
+				return;
+			}
+			verified.put(artifact, content);
+		});
+		if (verified.isEmpty()) {
+			return;
+		}
+		int stored = this.contentStore.storeAll(this.compression.encodeAll(verified));
+		// Only the number stored is known, the others were cached in the meantime
+		record(job, Outcome.STORED, stored);
+		record(job, Outcome.EXISTING, verified.size() - stored);
+		addBytes(job, verified.values().stream().mapToLong(content -> content.length).sum());
+	}
+
+	/**
+	 * Streams a body too large for a batch into the store on its own.
+	 */
+	private void importLarge(Job job, InputStream in, Artifact artifact) throws IOException {
+		if (this.artifactRepository.findByPath(artifact.path()).isPresent()) {
+			record(job, Outcome.EXISTING);
+			return;
+		}
+		ChecksumVerifier checksums = new ChecksumVerifier(new HttpHeaders());
+		ArtifactContentWriter writer = this.contentStore.newWriter(artifact.path());
+		long length = 0;
+		try {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				checksums.update(buffer, 0, read);
+				writer.write(buffer, 0, read);
+				length += read;
+			}
+			String mismatch = mismatch(artifact, length, checksums);
+			if (mismatch != null) {
+				logger.warn("Not importing {}: {}", artifact.path(), mismatch);
+				record(job, Outcome.CORRUPT);
+				return;
+			}
+			writer.commit(artifact);
+			record(job, Outcome.STORED);
+			addBytes(job, length);
+		}
+		catch (DuplicateKeyException e) {
+			record(job, Outcome.EXISTING);
+		}
+		finally {
+			writer.abort();
+		}
+	}
+
+	/**
+	 * @return A description of the first recorded property of the artifact that its body
+	 * does not match, or {@code null} if all match.
+	 */
+	private static String mismatch(Artifact artifact, long length, ChecksumVerifier checksums) {
+		if (length != artifact.contentLength()) {
+			return "length expected " + artifact.contentLength() + " but was " + length;
+		}
+		Map<String, Function<Artifact, String>> recorded = new LinkedHashMap<>();
+		recorded.put("SHA-256", Artifact::sha256);
+		recorded.put("SHA-1", Artifact::sha1);
+		recorded.put("MD5", Artifact::md5);
+		recorded.put("SHA-512", Artifact::sha512);
+		Map<String, String> actual = Map.of("SHA-256", checksums.sha256(), "SHA-1", checksums.sha1(), "MD5",
+				checksums.md5(), "SHA-512", checksums.sha512());
+		for (Map.Entry<String, Function<Artifact, String>> digest : recorded.entrySet()) {
+			String expected = digest.getValue().apply(artifact);
+			if (expected != null && !expected.equals(actual.get(digest.getKey()))) {
+				return digest.getKey() + " expected " + expected + " but was " + actual.get(digest.getKey());
+			}
+		}
+		return null;
+	}
+
+	private static boolean isCompressed(String path) {
+		int dot = path.lastIndexOf('.');
+		return dot >= 0 && COMPRESSED_EXTENSIONS.contains(path.substring(dot).toLowerCase(Locale.ROOT));
+	}
+
+	private void record(Job job, Outcome outcome) {
+		record(job, outcome, 1);
+	}
+
+	private void record(Job job, Outcome outcome, int count) {
+		job.outcomes.get(outcome).addAndGet(count);
+		this.artifactCounters.get(outcome).increment(count);
+	}
+
+	private void addBytes(Job job, long bytes) {
+		job.bytes.addAndGet(bytes);
+		this.bytesCounters.get(job.operation).increment(bytes);
+	}
+
+	private void fail(Job job, String what, String reason) {
+		record(job, Outcome.FAILED);
+		if (job.failures.size() < MAX_REPORTED_FAILURES) {
+			job.failures.put(what, String.valueOf(reason));
+		}
+		logger.debug("Snapshot {} could not process {}: {}", job.id, what, reason);
+	}
+
+	private void finish(Job job) {
+		if (job.pending.decrementAndGet() == 0) {
+			job.finishedAt = Instant.now();
+			logger.info("Finished snapshot {} {} {} in {}: {}", job.operation.name().toLowerCase(Locale.ROOT), job.id,
+					job.archive, Duration.between(job.startedAt, job.finishedAt), job.outcomes);
+		}
+	}
+
+	@Override
+	public void destroy() {
+		this.reader.shutdownNow();
+		this.workers.shutdownNow();
+	}
+
+	@FunctionalInterface
+	private interface ArchiveTask {
+
+		void run(Job job) throws IOException;
+
+	}
+
+	/**
+	 * Progress of an export or import.
+	 */
+	static final class Job {
+
+		private final String id;
+
+		private final Operation operation;
+
+		private final Path archive;
+
+		private final Instant startedAt = Instant.now();
+
+		private volatile Instant finishedAt;
+
+		private volatile String error;
+
+		// The archive task and submitted batches that have not finished yet
+		private final AtomicInteger pending = new AtomicInteger();
+
+		private final AtomicLong scanned = new AtomicLong();
+
+		private final AtomicLong bytes = new AtomicLong();
+
+		private final Map<Outcome, AtomicLong> outcomes = new LinkedHashMap<>();
+
+		private final Map<String, String> failures = new ConcurrentHashMap<>();
+
+		private Job(String id, Operation operation, Path archive) {
+			this.id = id;
+			this.operation = operation;
+			this.archive = archive;
+			for (Outcome outcome : Outcome.values()) {
+				this.outcomes.put(outcome, new AtomicLong());
+			}
+		}
+
+		String id() {
+			return this.id;
+		}
+
+		boolean isFinished() {
+			return this.finishedAt != null;
+		}
+
+		/**
+		 * @return Why the archive could not be written or read as a whole, or
+		 * {@code null}.
+		 */
+		String error() {
+			return this.error;
+		}
+
+		long count(Outcome outcome) {
+			return this.outcomes.get(outcome).get();
+		}
+
+		Map<String, Object> progress() {
+			Map<String, Object> progress = new LinkedHashMap<>();
+			progress.put("id", this.id);
+			progress.put("operation", this.operation.name().toLowerCase(Locale.ROOT));
+			progress.put("archive", this.archive.toString());
+			progress.put("state", !isFinished() ? "running" : this.error != null ? "failed" : "finished");
+			progress.put("startedAt", this.startedAt);
+			if (isFinished()) {
+				progress.put("finishedAt", this.finishedAt);
+			}
+			if (this.error != null) {
+				progress.put("error", this.error);
+			}
+			progress.put("scanned", this.scanned.get());
+			this.outcomes
+				.forEach((outcome, count) -> progress.put(outcome.name().toLowerCase(Locale.ROOT), count.get()));
+			progress.put("bytes", this.bytes.get());
+			progress.put("failures", Map.copyOf(this.failures));
+			return progress;
+		}
+
+	}
+
+}
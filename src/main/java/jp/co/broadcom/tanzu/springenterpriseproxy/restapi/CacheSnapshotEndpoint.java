@@ -0,0 +1,60 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import org.springframework.boot.actuate.endpoint.InvalidEndpointRequestException;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Actuator endpoint to export the cache into an archive on the proxy host, or import one,
+ * with {@link CacheSnapshot} and follow the progress. Like every actuator endpoint it has
+ * to be exposed explicitly ({@code management.endpoints.web.exposure.include}).
+ * <p>
+ * {@code POST /actuator/snapshot/export} with {@code {"file": "cache.zip"}} starts an
+ * export into the configured {@code spring.enterprise.proxy.snapshot.directory},
+ * {@code POST /actuator/snapshot/import} with the same body an import from it.
+ * {@code GET /actuator/snapshot} lists the running and recent ones, {@code GET
+ * /actuator/snapshot/{id}} reports on one.
+ */
+@Component
+@Endpoint(id = "snapshot")
+class CacheSnapshotEndpoint {
+
+	private final CacheSnapshot snapshot;
+
+	CacheSnapshotEndpoint(CacheSnapshot snapshot) {
+		this.snapshot = snapshot;
+	}
+
+	@WriteOperation
+	public Map<String, Object> start(@Selector String operation, String file) {
+		try {
+			return switch (operation) {
+				case "export" -> snapshot.startExport(file).progress();
+				case "import" -> snapshot.startImport(file).progress();
+				default -> throw new IllegalArgumentException("Unknown operation " + operation);
+			};
+		}
+		catch (IllegalArgumentException e) {
+			throw new InvalidEndpointRequestException(e.getMessage(), e.getMessage());
+		}
+	}
+
+	@ReadOperation
+	public List<Map<String, Object>> jobs() {
+		return snapshot.jobs().stream().map(CacheSnapshot.Job::progress).toList();
+	}
+
+	@ReadOperation
+	@Nullable
+	public Map<String, Object> job(@Selector String id) {
+		return snapshot.job(id).map(CacheSnapshot.Job::progress).orElse(null);
+	}
+
+}
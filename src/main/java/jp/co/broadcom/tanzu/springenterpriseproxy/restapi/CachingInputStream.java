@@ -0,0 +1,77 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Tees an upstream body: every chunk handed to the reader (the HTTP response) is also
+ * handed to an {@link ArtifactCacheWriter}. Reaching the end of the stream commits the
+ * cache entry; closing it earlier aborts it.
+ */
+class CachingInputStream extends FilterInputStream {
+
+	private final ArtifactCacheWriter cacheWriter;
+
+	CachingInputStream(InputStream upstream, ArtifactCacheWriter cacheWriter) {
+		super(upstream);
+		this.cacheWriter = cacheWriter;
+	}
+
+	@Override
+	public int read() throws IOException {
+		int b = super.read();
+		if (b == -1) {
+			this.cacheWriter.commit();
+		}
+		else {
+			this.cacheWriter.write(new byte[] { (byte) b }, 0, 1);
+		}
+		return b;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		int n = super.read(b, off, len);
+		if (n == -1) {
+			this.cacheWriter.commit();
+		}
+		else if (n > 0) {
+			this.cacheWriter.write(b, off, n);
+		}
+		return n;
+	}
+
+	/**
+	 * Skipped bytes still have to reach the cache, so they are read rather than skipped.
+	 */
+	@Override
+	public long skip(long n) throws IOException {
+		byte[] buffer = new byte[(int) Math.min(n, 8192)];
+		long remaining = n;
+		while (remaining > 0) {
+			int read = read(buffer, 0, (int) Math.min(remaining, buffer.length));
+			if (read == -1) {
+				break;
+			}
+			remaining -= read;
+		}
+		return n - remaining;
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			super.close();
+		}
+		finally {
+			this.cacheWriter.abort();
+		}
+	}
+
+}
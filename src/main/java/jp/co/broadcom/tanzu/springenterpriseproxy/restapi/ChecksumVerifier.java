@@ -0,0 +1,107 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import org.springframework.http.HttpHeaders;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Checks an artifact body against the checksum headers that Artifactory and Maven Central
+ * send along with it ({@code X-Checksum-Sha1} and friends). The body is fed in as it
+ * streams past, so the check costs no extra pass over the content. The SHA-1, MD5,
+ * SHA-256 and SHA-512 of the body are always computed, whether announced or not, and kept
+ * with the artifact metadata to answer checksum file requests.
+ */
+class ChecksumVerifier {
+
+	private static final String SHA_1 = "SHA-1";
+
+	private static final String MD5 = "MD5";
+
+	private static final String SHA_256 = "SHA-256";
+
+	private static final String SHA_512 = "SHA-512";
+
+	private static final Map<String, String> CHECKSUM_HEADERS = Map.of("X-Checksum-Sha256", SHA_256, "X-Checksum-Sha1",
+			SHA_1, "X-Checksum-Md5", MD5);
+
+	private final Map<String, String> expected = new LinkedHashMap<>();
+
+	private final Map<String, MessageDigest> digests = new LinkedHashMap<>();
+
+	private Map<String, String> actual;
+
+	ChecksumVerifier(HttpHeaders upstreamHeaders) {
+		for (String algorithm : new String[] { SHA_1, MD5, SHA_256, SHA_512 }) {
+			this.digests.put(algorithm, newDigest(algorithm));
+		}
+		CHECKSUM_HEADERS.forEach((header, algorithm) -> {
+			String value = upstreamHeaders.getFirst(header);
+			if (value != null && !value.isBlank()) {
+				this.expected.put(algorithm, value.trim().toLowerCase());
+			}
+		});
+	}
+
+	private static MessageDigest newDigest(String algorithm) {
+		try {
+			return MessageDigest.getInstance(algorithm);
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("JDK does not provide " + algorithm, e);
+		}
+	}
+
+	void update(byte[] bytes, int offset, int length) {
+		for (MessageDigest digest : this.digests.values()) {
+			digest.update(bytes, offset, length);
+		}
+	}
+
+	/**
+	 * @return A description of the first checksum that does not match, or {@code null} if
+	 * every checksum announced by the remote matches (or none was announced).
+	 */
+	String mismatch() {
+		for (Map.Entry<String, String> entry : this.expected.entrySet()) {
+			String actualValue = actual().get(entry.getKey());
+			if (!entry.getValue().equals(actualValue)) {
+				return entry.getKey() + " expected " + entry.getValue() + " but was " + actualValue;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return The hex encoded SHA-256 of everything fed in. No more content may be fed in
+	 * afterwards, which holds for the other digests as well.
+	 */
+	String sha256() {
+		return actual().get(SHA_256);
+	}
+
+	String sha1() {
+		return actual().get(SHA_1);
+	}
+
+	String md5() {
+		return actual().get(MD5);
+	}
+
+	String sha512() {
+		return actual().get(SHA_512);
+	}
+
+	private Map<String, String> actual() {
+		if (this.actual == null) {
+			this.actual = new LinkedHashMap<>();
+			this.digests
+				.forEach((algorithm, digest) -> this.actual.put(algorithm, HexFormat.of().formatHex(digest.digest())));
+		}
+		return this.actual;
+	}
+
+}
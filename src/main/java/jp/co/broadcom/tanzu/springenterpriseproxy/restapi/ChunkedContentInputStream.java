@@ -0,0 +1,177 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Reads an artifact body from its {@code artifact_chunk} rows, in order, without loading
+ * the whole body. Chunks are read in batches of {@code batchSize} rows per query; when an
+ * executor is given, the next batch is loaded in the background while the current one is
+ * consumed, so the database round trip overlaps with sending the response.
+ * <p>
+ * {@link #skip(long)} jumps over whole chunks without reading them, so a range near the
+ * end of a large body only reads the chunks it covers. As the length of the body is not
+ * known here, skipping past its end may count bytes that do not exist.
+ */
+class ChunkedContentInputStream extends InputStream {
+
+	private final ArtifactRepository artifactRepository;
+
+	private final String contentKey;
+
+	private final int batchSize;
+
+	private final Executor prefetchExecutor;
+
+	private List<byte[]> batch = List.of();
+
+	private int batchIndex;
+
+	private byte[] chunk;
+
+	private int position;
+
+	private int nextSeq;
+
+	private boolean lastBatch;
+
+	private CompletableFuture<List<byte[]>> pending;
+
+	/**
+	 * Size of every chunk but the last one, known once the first chunk has been read.
+	 */
+	private int chunkSize;
+
+	/**
+	 * @param prefetchExecutor Executor loading the next batch ahead of time, or
+	 * {@code null} to load each batch only when it is needed
+	 */
+	ChunkedContentInputStream(ArtifactRepository artifactRepository, String contentKey, int batchSize,
+			Executor prefetchExecutor) {
+		this.artifactRepository = artifactRepository;
+		this.contentKey = contentKey;
+		this.batchSize = Math.max(1, batchSize);
+		this.prefetchExecutor = prefetchExecutor;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!nextChunk()) {
+			return -1;
+		}
+		return this.chunk[this.position++] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (!nextChunk()) {
+			return -1;
+		}
+		int n = Math.min(len, this.chunk.length - this.position);
+		System.arraycopy(this.chunk, this.position, b, off, n);
+		this.position += n;
+		return n;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		if (n <= 0) {
+			return 0;
+		}
+		long remaining = n;
+		while (remaining > 0) {
+			if (this.chunk != null && this.position < this.chunk.length) {
+				int skipped = (int) Math.min(remaining, this.chunk.length - this.position);
+				this.position += skipped;
+				remaining -= skipped;
+			}
+			else if (this.batchIndex < this.batch.size()) {
+				this.chunk = this.batch.get(this.batchIndex++);
+				this.position = 0;
+			}
+			else if (this.lastBatch) {
+				break;
+			}
+			else {
+				if (this.chunkSize > 0 && remaining >= this.chunkSize) {
+					// Jump over whole chunks instead of loading them
+					long chunks = remaining / this.chunkSize;
+					if (this.pending != null) {
+						this.pending.cancel(false);
+						this.pending = null;
+					}
+					this.nextSeq = Math.toIntExact(this.nextSeq + chunks);
+					remaining -= chunks * this.chunkSize;
+				}
+				this.batch = nextBatch();
+				this.batchIndex = 0;
+			}
+		}
+		return n - remaining;
+	}
+
+	@Override
+	public void close() {
+		if (this.pending != null) {
+			this.pending.cancel(false);
+			this.pending = null;
+		}
+		this.lastBatch = true;
+		this.batch = List.of();
+		this.chunk = null;
+	}
+
+	private boolean nextChunk() throws IOException {
+		while (this.chunk == null || this.position >= this.chunk.length) {
+			if (this.batchIndex < this.batch.size()) {
+				this.chunk = this.batch.get(this.batchIndex++);
+				this.position = 0;
+				continue;
+			}
+			if (this.lastBatch) {
+				return false;
+			}
+			this.batch = nextBatch();
+			this.batchIndex = 0;
+		}
+		return true;
+	}
+
+	private List<byte[]> nextBatch() throws IOException {
+		List<byte[]> result;
+		if (this.pending != null) {
+			try {
+				result = this.pending.join();
+			}
+			catch (CompletionException e) {
+				throw new IOException("Failed to read chunks of body " + this.contentKey, e.getCause());
+			}
+			this.pending = null;
+		}
+		else {
+			result = fetch(this.nextSeq);
+		}
+		if (this.nextSeq == 0 && !result.isEmpty()) {
+			this.chunkSize = result.get(0).length;
+		}
+		this.nextSeq += this.batchSize;
+		this.lastBatch = result.size() < this.batchSize;
+		if (!this.lastBatch && this.prefetchExecutor != null) {
+			int fromSeq = this.nextSeq;
+			this.pending = CompletableFuture.supplyAsync(() -> fetch(fromSeq), this.prefetchExecutor);
+		}
+		return result;
+	}
+
+	private List<byte[]> fetch(int fromSeq) {
+		return this.artifactRepository.findChunks(this.contentKey, fromSeq, this.batchSize);
+	}
+
+}
@@ -0,0 +1,53 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import org.springframework.core.io.AbstractResource;
+
+import java.io.InputStream;
+import java.util.concurrent.Executor;
+
+/**
+ * An artifact body held as {@code artifact_chunk} rows, under its body key. Nothing is
+ * read until the resource is opened, and its length comes from the artifact metadata, as
+ * stored.
+ */
+class ChunkedContentResource extends AbstractResource {
+
+	private final ArtifactRepository artifactRepository;
+
+	private final Artifact artifact;
+
+	private final int prefetchChunks;
+
+	private final Executor prefetchExecutor;
+
+	ChunkedContentResource(ArtifactRepository artifactRepository, Artifact artifact, int prefetchChunks,
+			Executor prefetchExecutor) {
+		this.artifactRepository = artifactRepository;
+		this.artifact = artifact;
+		this.prefetchChunks = prefetchChunks;
+		this.prefetchExecutor = prefetchExecutor;
+	}
+
+	@Override
+	public InputStream getInputStream() {
+		return new ChunkedContentInputStream(this.artifactRepository, this.artifact.bodyKey(),
+				this.prefetchChunks > 0 ? this.prefetchChunks : 1,
+				this.prefetchChunks > 0 ? this.prefetchExecutor : null);
+	}
+
+	@Override
+	public boolean exists() {
+		return true;
+	}
+
+	@Override
+	public long contentLength() {
+		return this.artifact.storedLength();
+	}
+
+	@Override
+	public String getDescription() {
+		return "Chunked content of artifact [" + this.artifact.path() + "]";
+	}
+
+}
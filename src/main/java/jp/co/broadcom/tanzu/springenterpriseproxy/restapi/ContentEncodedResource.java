@@ -0,0 +1,67 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.Resource;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An artifact body sent to the client in the encoding it is stored in, e.g. gzip. The
+ * response has to carry a matching {@code Content-Encoding} header; the length is that of
+ * the encoded body.
+ */
+class ContentEncodedResource extends AbstractResource {
+
+	private final Resource content;
+
+	private final String contentEncoding;
+
+	ContentEncodedResource(Resource content, String contentEncoding) {
+		this.content = content;
+		this.contentEncoding = contentEncoding;
+	}
+
+	String contentEncoding() {
+		return this.contentEncoding;
+	}
+
+	/**
+	 * @return The encoded body as stored
+	 */
+	Resource content() {
+		return this.content;
+	}
+
+	@Override
+	public InputStream getInputStream() throws IOException {
+		return this.content.getInputStream();
+	}
+
+	@Override
+	public boolean exists() {
+		return this.content.exists();
+	}
+
+	@Override
+	public boolean isFile() {
+		return this.content.isFile();
+	}
+
+	@Override
+	public File getFile() throws IOException {
+		return this.content.getFile();
+	}
+
+	@Override
+	public long contentLength() throws IOException {
+		return this.content.contentLength();
+	}
+
+	@Override
+	public String getDescription() {
+		return this.contentEncoding + " encoded " + this.content.getDescription();
+	}
+
+}
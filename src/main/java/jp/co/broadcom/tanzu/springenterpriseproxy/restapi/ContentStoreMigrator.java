@@ -0,0 +1,105 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jp.co.broadcom.tanzu.springenterpriseproxy.SpringEnterpriseProxyProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Moves artifact bodies that are still held in the database, e.g. because they were
+ * cached before the {@code filesystem} content store was enabled, to the
+ * {@link FileSystemContentStore} in small batches. Until an artifact has been moved it
+ * keeps being served from the database.
+ * <p>
+ * The file is written before the database copy is deleted, so readers always find the
+ * body in one of the two places. A body shared by several artifacts is moved once. A body
+ * that cannot be moved stays in the database and is left out of later runs until the next
+ * restart, so it does not hold up the others.
+ */
+@Component
+@ConditionalOnProperty(value = "spring.enterprise.proxy.content-store.type", havingValue = "filesystem")
+class ContentStoreMigrator {
+
+	private static final Logger logger = LoggerFactory.getLogger(ContentStoreMigrator.class);
+
+	private final SpringEnterpriseProxyProperties.ContentStore.Migration config;
+
+	private final int chunksPerQuery;
+
+	private final ArtifactRepository artifactRepository;
+
+	private final FileSystemContentStore contentStore;
+
+	private final Counter migratedCounter;
+
+	private final Counter failedCounter;
+
+	/**
+	 * Bodies that could not be moved, skipped until the next restart.
+	 */
+	private final Set<String> failed = ConcurrentHashMap.newKeySet();
+
+	ContentStoreMigrator(SpringEnterpriseProxyProperties config, ArtifactRepository artifactRepository,
+			FileSystemContentStore contentStore, MeterRegistry meterRegistry) {
+		this.config = config.contentStore().migration();
+		// Read as many chunk rows per query as when serving a body
+		this.chunksPerQuery = Math.max(config.contentStore().prefetchChunks(), 1);
+		this.artifactRepository = artifactRepository;
+		this.contentStore = contentStore;
+		this.migratedCounter = Counter.builder("spring.enterprise.proxy.content.store.migrated")
+			.description("Artifact bodies moved from the database to the file system")
+			.register(meterRegistry);
+		this.failedCounter = Counter.builder("spring.enterprise.proxy.content.store.migration.failed")
+			.description("Artifact bodies that could not be moved from the database to the file system")
+			.register(meterRegistry);
+	}
+
+	@Scheduled(fixedDelayString = "${spring.enterprise.proxy.content-store.migration.interval:1m}")
+	void migrate() {
+		if (!this.config.enabled()) {
+			return;
+		}
+		// Bodies that failed stay in the database and would otherwise come back first
+		List<Artifact> artifacts = artifactRepository
+			.findWithDatabaseContent(this.config.batchSize() + this.failed.size());
+		Set<String> moved = new HashSet<>();
+		for (Artifact artifact : artifacts) {
+			if (moved.size() == this.config.batchSize()) {
+				break;
+			}
+			if (this.failed.contains(artifact.bodyKey()) || !moved.add(artifact.bodyKey())) {
+				continue;
+			}
+			try {
+				try (InputStream content = new ChunkedContentInputStream(artifactRepository, artifact.bodyKey(),
+						this.chunksPerQuery, null)) {
+					contentStore.write(artifact, content);
+				}
+				artifactRepository.deleteContent(artifact.bodyKey());
+				this.migratedCounter.increment();
+			}
+			catch (IOException e) {
+				moved.remove(artifact.bodyKey());
+				this.failed.add(artifact.bodyKey());
+				this.failedCounter.increment();
+				logger.warn("Failed to move {} to the file system, keeping it in the database: {}", artifact.path(),
+						e.getMessage());
+			}
+		}
+		if (!moved.isEmpty()) {
+			logger.info("Moved {} artifact bodies from the database to the file system", moved.size());
+		}
+	}
+
+}
@@ -0,0 +1,104 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import jp.co.broadcom.tanzu.springenterpriseproxy.SpringEnterpriseProxyProperties;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.task.TaskExecutionAutoConfiguration;
+import org.springframework.core.io.Resource;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+
+/**
+ * Keeps artifact bodies in the {@code artifact_chunk} table, split into rows of
+ * {@code spring.enterprise.proxy.content-store.chunk-size} bytes. Bodies are written and
+ * read one chunk (or one batch of chunks) at a time, so neither side holds a whole body
+ * in memory and artifacts are not limited by the maximum size of a single BLOB. Identical
+ * bodies cached under several paths are stored once.
+ */
+@Component
+@ConditionalOnProperty(value = "spring.enterprise.proxy.content-store.type", havingValue = "database",
+		matchIfMissing = true)
+class DatabaseContentStore implements ArtifactContentStore {
+
+	private final ArtifactRepository artifactRepository;
+
+	private final int chunkSize;
+
+	private final int prefetchChunks;
+
+	private final Executor prefetchExecutor;
+
+	DatabaseContentStore(SpringEnterpriseProxyProperties config, ArtifactRepository artifactRepository,
+			@Qualifier(TaskExecutionAutoConfiguration.APPLICATION_TASK_EXECUTOR_BEAN_NAME) Executor prefetchExecutor) {
+		this.artifactRepository = artifactRepository;
+		this.chunkSize = Math.toIntExact(config.contentStore().chunkSize().toBytes());
+		this.prefetchChunks = config.contentStore().prefetchChunks();
+		this.prefetchExecutor = prefetchExecutor;
+	}
+
+	@Override
+	public void store(Artifact artifact, byte[] content) throws IOException {
+		artifactRepository.insertWithContent(artifact, new ByteArrayInputStream(content), this.chunkSize);
+	}
+
+	@Override
+	public void replace(Artifact replaced, Artifact artifact, byte[] content) throws IOException {
+		artifactRepository.replaceWithContent(replaced, artifact, new ByteArrayInputStream(content), this.chunkSize);
+	}
+
+	@Override
+	public int storeAll(Map<Artifact, byte[]> batch) throws IOException {
+		try {
+			artifactRepository.insertAllWithContent(batch, this.chunkSize);
+			return batch.size();
+		}
+		catch (DuplicateKeyException e) {
+			// Some paths were cached concurrently, find out which one at a time
+			return ArtifactContentStore.super.storeAll(batch);
+		}
+	}
+
+	@Override
+	public ArtifactContentWriter newWriter(String artifactPath) throws IOException {
+		return new TempFileContentWriter(Files.createTempFile("artifact-", ".part"), (artifact, spoolFile) -> {
+			try (InputStream content = Files.newInputStream(spoolFile)) {
+				artifactRepository.insertWithContent(artifact, content, this.chunkSize);
+			}
+		});
+	}
+
+	@Override
+	public ArtifactContentWriter newWriter(Artifact replaced) throws IOException {
+		return new TempFileContentWriter(Files.createTempFile("artifact-", ".part"), (artifact, spoolFile) -> {
+			try (InputStream content = Files.newInputStream(spoolFile)) {
+				artifactRepository.replaceWithContent(replaced, artifact, content, this.chunkSize);
+			}
+		});
+	}
+
+	@Override
+	public Optional<Resource> read(Artifact artifact) {
+		if (!artifactRepository.hasContent(artifact.bodyKey())) {
+			return Optional.empty();
+		}
+		return Optional
+			.of(new ChunkedContentResource(artifactRepository, artifact, this.prefetchChunks, this.prefetchExecutor));
+	}
+
+	/**
+	 * The chunks are removed together with the last row referring to them.
+	 */
+	@Override
+	public void delete(Artifact artifact) {
+		artifactRepository.delete(artifact);
+	}
+
+}
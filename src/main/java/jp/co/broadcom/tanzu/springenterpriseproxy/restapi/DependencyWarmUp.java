@@ -0,0 +1,477 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import jp.co.broadcom.tanzu.springenterpriseproxy.SpringEnterpriseProxyProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.lang.Nullable;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClientResponseException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pulls the transitive dependencies of a set of root coordinates (e.g. a BOM) into the
+ * cache ahead of the builds that need them, by walking their POMs.
+ * <p>
+ * Every POM and artifact goes through {@link ArtifactService#retrieveArtifact(String)},
+ * so files that are cached already are not fetched again and fetches are coalesced with
+ * client requests for the same paths. POMs are resolved the way Maven does for the
+ * purpose: parents are inherited, BOMs imported into dependency management, properties
+ * interpolated, and versions taken from the root's dependency management before the
+ * declaring POM's. Compile and runtime dependencies are followed transitively, provided
+ * and optional ones only when a root declares them, test dependencies never. For a root
+ * with {@code pom} packaging, every managed dependency is warmed as well. Dependencies
+ * without a fixed version (ranges, unresolved properties) are reported as failures.
+ * <p>
+ * Jobs run on a pool of their own, with the configured concurrency shared by all jobs.
+ */
+@Component
+class DependencyWarmUp implements DisposableBean {
+
+	private static final Logger logger = LoggerFactory.getLogger(DependencyWarmUp.class);
+
+	static final String EXECUTOR_NAME = "warmup";
+
+	private static final String METRIC_PREFIX = "spring.enterprise.proxy.warmup";
+
+	/**
+	 * How many levels of parents and imported BOMs are followed before a POM is given up
+	 * on, which also ends cycles.
+	 */
+	private static final int MAX_MODEL_DEPTH = 32;
+
+	private static final int MAX_REPORTED_FAILURES = 100;
+
+	private static final Set<String> TRANSITIVE_SCOPES = Set.of("compile", "runtime");
+
+	private static final Set<String> ROOT_SCOPES = Set.of("compile", "runtime", "provided");
+
+	private final ArtifactService artifactService;
+
+	private final int maxArtifacts;
+
+	private final int retainedJobs;
+
+	private final ExecutorService executor;
+
+	private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+
+	private final Counter warmedCounter;
+
+	private final Counter failedCounter;
+
+	DependencyWarmUp(SpringEnterpriseProxyProperties config, ArtifactService artifactService,
+			MeterRegistry meterRegistry) {
+		SpringEnterpriseProxyProperties.WarmUp warmUp = config.warmUp();
+		this.artifactService = artifactService;
+		this.maxArtifacts = warmUp.maxArtifacts();
+		this.retainedJobs = warmUp.retainedJobs();
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(warmUp.concurrency(), warmUp.concurrency(), 1,
+				TimeUnit.MINUTES, new LinkedBlockingQueue<>(), new CustomizableThreadFactory(EXECUTOR_NAME + "-"));
+		pool.allowCoreThreadTimeOut(true);
+		// pool size, queued and completed tasks, execution and idle time
+		this.executor = ExecutorServiceMetrics.monitor(meterRegistry, pool, EXECUTOR_NAME);
+
+		this.warmedCounter = Counter.builder(METRIC_PREFIX + ".artifacts")
+			.description("Files warm-up jobs found cached or fetched into the cache")
+			.tag("outcome", "warmed")
+			.register(meterRegistry);
+		this.failedCounter = Counter.builder(METRIC_PREFIX + ".artifacts")
+			.description("Files or POMs warm-up jobs could not fetch or resolve")
+			.tag("outcome", "failed")
+			.register(meterRegistry);
+		Gauge
+			.builder(METRIC_PREFIX + ".pending", this.jobs,
+					jobs -> jobs.values().stream().mapToInt(job -> job.pending.get()).sum())
+			.description("POMs and files warm-up jobs still have to process")
+			.register(meterRegistry);
+	}
+
+	/**
+	 * Starts warming the transitive dependencies of the given projects.
+	 * @param rootCoordinates {@code groupId:artifactId:version} of each root
+	 * @throws IllegalArgumentException If a coordinate is malformed
+	 */
+	Job start(Collection<String> rootCoordinates) {
+		List<PomModel.Coordinates> roots = rootCoordinates.stream().map(PomModel.Coordinates::parse).toList();
+		if (roots.isEmpty()) {
+			throw new IllegalArgumentException("No root coordinates given");
+		}
+		Job job = new Job(UUID.randomUUID().toString(), roots);
+		forgetFinishedJobs();
+		this.jobs.put(job.id, job);
+		logger.info("Starting warm-up {} of {}", job.id, roots);
+		for (PomModel.Coordinates root : roots) {
+			submit(job, root.toString(), () -> visitRoot(job, root));
+		}
+		return job;
+	}
+
+	Optional<Job> job(String id) {
+		return Optional.ofNullable(this.jobs.get(id));
+	}
+
+	Collection<Job> jobs() {
+		return this.jobs.values();
+	}
+
+	private void visitRoot(Job job, PomModel.Coordinates root) throws IOException {
+		job.projects.add(root);
+		EffectiveModel model = effectiveModel(job, root, 0);
+		if (!"pom".equals(model.pom().packaging())) {
+			String file = root.artifactPath(extensionOf(model.pom().packaging()), null);
+			job.files.add(file);
+			warmFile(job, file);
+		}
+		Map<String, String> rootManagement = new HashMap<>();
+		model.managed().forEach((key, dependency) -> rootManagement.put(key, dependency.version()));
+		if ("pom".equals(model.pom().packaging())) {
+			// A BOM: everything it manages is meant to be used
+			for (PomModel.Dependency managed : model.managed().values()) {
+				visitDependency(job, managed, rootManagement, Set.of());
+			}
+		}
+		followDependencies(job, model, ROOT_SCOPES, true, rootManagement, Set.of());
+	}
+
+	private void visitDependency(Job job, PomModel.Dependency dependency, Map<String, String> rootManagement,
+			Set<String> exclusions) {
+		String version = rootManagement.getOrDefault(dependency.managementKey(), dependency.version());
+		if (!isFixedVersion(version)) {
+			fail(job, dependency.groupId() + ":" + dependency.artifactId(), "no fixed version (" + version + ")");
+			return;
+		}
+		if (job.files.size() >= this.maxArtifacts) {
+			job.truncated = true;
+			return;
+		}
+		PomModel.Coordinates coordinates = new PomModel.Coordinates(dependency.groupId(), dependency.artifactId(),
+				version);
+		if (!"pom".equals(dependency.type())) {
+			String file = coordinates.artifactPath(extensionOf(dependency.type()), classifierOf(dependency));
+			if (job.files.add(file)) {
+				submit(job, file, () -> warmFile(job, file));
+			}
+		}
+		if (job.projects.add(coordinates)) {
+			Set<String> inheritedExclusions = new LinkedHashSet<>(exclusions);
+			inheritedExclusions.addAll(dependency.exclusions());
+			submit(job, coordinates.toString(), () -> followDependencies(job, effectiveModel(job, coordinates, 0),
+					TRANSITIVE_SCOPES, false, rootManagement, inheritedExclusions));
+		}
+	}
+
+	private void followDependencies(Job job, EffectiveModel model, Set<String> scopes, boolean root,
+			Map<String, String> rootManagement, Set<String> exclusions) {
+		for (PomModel.Dependency dependency : model.dependencies()) {
+			if (!scopes.contains(dependency.scope()) || (dependency.optional() && !root)
+					|| isExcluded(dependency, exclusions)) {
+				continue;
+			}
+			visitDependency(job, dependency, rootManagement, exclusions);
+		}
+	}
+
+	private void warmFile(Job job, String artifactPath) {
+		try (InputStream in = this.artifactService.retrieveArtifact(artifactPath).getInputStream()) {
+			// A streamed body is only cached once it was read to the end
+			in.transferTo(OutputStream.nullOutputStream());
+			job.warmed.incrementAndGet();
+			this.warmedCounter.increment();
+		}
+		catch (IOException | RestClientResponseException e) {
+			fail(job, artifactPath, e.getMessage());
+		}
+	}
+
+	/**
+	 * Resolves a POM with its parents and imported BOMs. Models are kept for the rest of
+	 * the job, as the same parents and BOMs come up over and over.
+	 */
+	private EffectiveModel effectiveModel(Job job, PomModel.Coordinates coordinates, int depth) throws IOException {
+		EffectiveModel cached = job.models.get(coordinates);
+		if (cached != null) {
+			return cached;
+		}
+		if (depth > MAX_MODEL_DEPTH) {
+			throw new IOException("Parents and imports of " + coordinates + " nest too deep");
+		}
+		String pomPath = coordinates.pomPath();
+		job.files.add(pomPath);
+		PomModel pom;
+		try (InputStream in = this.artifactService.retrieveArtifact(pomPath).getInputStream()) {
+			pom = PomModel.parse(new ByteArrayInputStream(in.readAllBytes()));
+		}
+		catch (RestClientResponseException e) {
+			throw new IOException("Failed to fetch " + pomPath + ": " + e.getMessage(), e);
+		}
+		job.warmed.incrementAndGet();
+		this.warmedCounter.increment();
+
+		EffectiveModel parent = pom.parent() != null ? effectiveModel(job, pom.parent(), depth + 1) : null;
+
+		// Inherited first, so that the POM's own declarations override them
+		Map<String, String> properties = new HashMap<>();
+		List<PomModel.Dependency> declaredManaged = new ArrayList<>();
+		List<PomModel.Dependency> declaredDependencies = new ArrayList<>();
+		if (parent != null) {
+			properties.putAll(parent.properties());
+			declaredManaged.addAll(parent.declaredManaged());
+			declaredDependencies.addAll(parent.declaredDependencies());
+			properties.put("project.parent.groupId", pom.parent().groupId());
+			properties.put("project.parent.version", pom.parent().version());
+		}
+		properties.putAll(pom.properties());
+		properties.put("project.groupId", pom.coordinates().groupId());
+		properties.put("project.artifactId", pom.coordinates().artifactId());
+		properties.put("project.version", pom.coordinates().version());
+		properties.put("pom.version", pom.coordinates().version());
+		properties.put("version", pom.coordinates().version());
+		declaredManaged.addAll(pom.dependencyManagement());
+		declaredDependencies.addAll(pom.dependencies());
+
+		Map<String, PomModel.Dependency> managed = new LinkedHashMap<>();
+		List<PomModel.Coordinates> imports = new ArrayList<>();
+		for (PomModel.Dependency declared : declaredManaged) {
+			PomModel.Dependency dependency = declared.interpolate(properties);
+			if ("import".equals(dependency.scope()) && "pom".equals(dependency.type())) {
+				imports
+					.add(new PomModel.Coordinates(dependency.groupId(), dependency.artifactId(), dependency.version()));
+			}
+			else {
+				managed.put(dependency.managementKey(), dependency);
+			}
+		}
+		// Imported entries never override declared or inherited ones
+		for (PomModel.Coordinates bom : imports) {
+			try {
+				effectiveModel(job, bom, depth + 1).managed().forEach(managed::putIfAbsent);
+			}
+			catch (IOException e) {
+				fail(job, bom.toString(), "imported by " + coordinates + ": " + e.getMessage());
+			}
+		}
+
+		Map<String, PomModel.Dependency> dependencies = new LinkedHashMap<>();
+		for (PomModel.Dependency declared : declaredDependencies) {
+			PomModel.Dependency dependency = declared.interpolate(properties);
+			PomModel.Dependency management = managed.get(dependency.managementKey());
+			if (dependency.version() == null && management != null) {
+				dependency = dependency.withVersion(management.version());
+			}
+			dependencies.put(dependency.managementKey(), dependency);
+		}
+
+		EffectiveModel model = new EffectiveModel(pom, properties, declaredManaged, declaredDependencies, managed,
+				List.copyOf(dependencies.values()));
+		job.models.putIfAbsent(coordinates, model);
+		return model;
+	}
+
+	private void submit(Job job, String what, WarmUpTask task) {
+		job.pending.incrementAndGet();
+		try {
+			this.executor.execute(() -> {
+				try {
+					task.run();
+				}
+				catch (Exception e) {
+					fail(job, what, e.getMessage());
+				}
+				finally {
+					finish(job);
+				}
+			});
+		}
+		catch (RejectedExecutionException e) {
+			// Shutting down
+			finish(job);
+		}
+	}
+
+	private void fail(Job job, String what, String reason) {
+		job.failed.incrementAndGet();
+		if (job.failures.size() < MAX_REPORTED_FAILURES) {
+			job.failures.put(what, String.valueOf(reason));
+		}
+		this.failedCounter.increment();
+		logger.debug("Warm-up {} could not warm {}: {}", job.id, what, reason);
+	}
+
+	private void finish(Job job) {
+		if (job.pending.decrementAndGet() == 0) {
+			job.finishedAt = Instant.now();
+			logger.info("Finished warm-up {} in {}: {} files warmed, {} failed", job.id,
+					Duration.between(job.startedAt, job.finishedAt), job.warmed.get(), job.failed.get());
+		}
+	}
+
+	private void forgetFinishedJobs() {
+		List<Job> finished = this.jobs.values()
+			.stream()
+			.filter(job -> job.finishedAt != null)
+			.sorted((a, b) -> b.finishedAt.compareTo(a.finishedAt))
+			.toList();
+		for (int i = Math.max(this.retainedJobs - 1, 0); i < finished.size(); i++) {
+			this.jobs.remove(finished.get(i).id);
+		}
+	}
+
+	private static boolean isFixedVersion(@Nullable String version) {
+		return version != null && !version.contains("${") && !version.startsWith("[") && !version.startsWith("(");
+	}
+
+	private static boolean isExcluded(PomModel.Dependency dependency, Set<String> exclusions) {
+		return exclusions.contains(dependency.groupId() + ":" + dependency.artifactId())
+				|| exclusions.contains(dependency.groupId() + ":*") || exclusions.contains("*:*");
+	}
+
+	/**
+	 * @return The file extension for a dependency type or packaging.
+	 */
+	private static String extensionOf(String type) {
+		return switch (type) {
+			case "bundle", "maven-plugin", "ejb", "test-jar", "java-source", "javadoc" -> "jar";
+			default -> type;
+		};
+	}
+
+	@Nullable
+	private static String classifierOf(PomModel.Dependency dependency) {
+		if (dependency.classifier() != null) {
+			return dependency.classifier();
+		}
+		return switch (dependency.type()) {
+			case "test-jar" -> "tests";
+			case "java-source" -> "sources";
+			case "javadoc" -> "javadoc";
+			default -> null;
+		};
+	}
+
+	@Override
+	public void destroy() {
+		this.executor.shutdownNow();
+	}
+
+	@FunctionalInterface
+	private interface WarmUpTask {
+
+		void run() throws Exception;
+
+	}
+
+	/**
+	 * A POM resolved with its parents and imported BOMs. The declared lists are kept
+	 * uninterpolated for child POMs, whose properties apply to what they inherit.
+	 */
+	private record EffectiveModel(PomModel pom, Map<String, String> properties,
+			List<PomModel.Dependency> declaredManaged, List<PomModel.Dependency> declaredDependencies,
+			Map<String, PomModel.Dependency> managed, List<PomModel.Dependency> dependencies) {
+	}
+
+	/**
+	 * Progress of a warm-up.
+	 */
+	static final class Job {
+
+		private final String id;
+
+		private final List<PomModel.Coordinates> roots;
+
+		private final Instant startedAt = Instant.now();
+
+		private volatile Instant finishedAt;
+
+		private volatile boolean truncated;
+
+		// Submitted tasks that have not finished yet
+		private final AtomicInteger pending = new AtomicInteger();
+
+		private final AtomicLong warmed = new AtomicLong();
+
+		private final AtomicLong failed = new AtomicLong();
+
+		private final Map<String, String> failures = new ConcurrentHashMap<>();
+
+		private final Set<String> files = ConcurrentHashMap.newKeySet();
+
+		private final Set<PomModel.Coordinates> projects = ConcurrentHashMap.newKeySet();
+
+		private final Map<PomModel.Coordinates, EffectiveModel> models = new ConcurrentHashMap<>();
+
+		private Job(String id, List<PomModel.Coordinates> roots) {
+			this.id = id;
+			this.roots = roots;
+		}
+
+		String id() {
+			return this.id;
+		}
+
+		boolean isFinished() {
+			return this.finishedAt != null;
+		}
+
+		long warmed() {
+			return this.warmed.get();
+		}
+
+		long failed() {
+			return this.failed.get();
+		}
+
+		Map<String, String> failures() {
+			return Map.copyOf(this.failures);
+		}
+
+		Map<String, Object> progress() {
+			Map<String, Object> progress = new LinkedHashMap<>();
+			progress.put("id", this.id);
+			progress.put("roots", this.roots.stream().map(PomModel.Coordinates::toString).toList());
+			progress.put("state", isFinished() ? "finished" : "running");
+			progress.put("startedAt", this.startedAt);
+			if (isFinished()) {
+				progress.put("finishedAt", this.finishedAt);
+			}
+			progress.put("projects", this.projects.size());
+			progress.put("pending", this.pending.get());
+			progress.put("warmed", this.warmed.get());
+			progress.put("failed", this.failed.get());
+			progress.put("truncated", this.truncated);
+			progress.put("failures", failures());
+			return progress;
+		}
+
+	}
+
+}
@@ -0,0 +1,58 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import org.springframework.boot.actuate.endpoint.InvalidEndpointRequestException;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Actuator endpoint to start {@link DependencyWarmUp} jobs and follow their progress.
+ * Like every actuator endpoint it has to be exposed explicitly
+ * ({@code management.endpoints.web.exposure.include}).
+ * <p>
+ * {@code POST /actuator/warmup} with {@code {"coordinates":
+ * "org.example:bom:1.0.0,org.example:app:2.1.0"}} starts a job,
+ * {@code GET /actuator/warmup} lists the running and recent ones, {@code GET
+ * /actuator/warmup/{id}} reports on one. The coordinates are a single comma-separated
+ * string, as actuator only binds string values from the request body.
+ */
+@Component
+@Endpoint(id = "warmup")
+class DependencyWarmUpEndpoint {
+
+	private final DependencyWarmUp warmUp;
+
+	DependencyWarmUpEndpoint(DependencyWarmUp warmUp) {
+		this.warmUp = warmUp;
+	}
+
+	@WriteOperation
+	public Map<String, Object> start(String coordinates) {
+		try {
+			return warmUp.start(StringUtils.commaDelimitedListToSet(StringUtils.trimAllWhitespace(coordinates)))
+				.progress();
+		}
+		catch (IllegalArgumentException e) {
+			throw new InvalidEndpointRequestException(e.getMessage(), e.getMessage());
+		}
+	}
+
+	@ReadOperation
+	public List<Map<String, Object>> jobs() {
+		return warmUp.jobs().stream().map(DependencyWarmUp.Job::progress).toList();
+	}
+
+	@ReadOperation
+	@Nullable
+	public Map<String, Object> job(@Selector String id) {
+		return warmUp.job(id).map(DependencyWarmUp.Job::progress).orElse(null);
+	}
+
+}
@@ -0,0 +1,188 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import jp.co.broadcom.tanzu.springenterpriseproxy.SpringEnterpriseProxyProperties;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Keeps artifact bodies as files on local disk, leaving only metadata in the database.
+ * <p>
+ * Files are laid out in a two-level sharded tree derived from the body key (see
+ * {@link Artifact#bodyKey()}, e.g. {@code 3f/a2/3fa2...}) so that no directory grows too
+ * large, and identical bodies cached under several paths share one file. New files are
+ * written to a temporary file on the same file system and atomically renamed into place
+ * before the row is inserted, so a reader never observes a partially written body.
+ */
+@Component
+@ConditionalOnProperty(value = "spring.enterprise.proxy.content-store.type", havingValue = "filesystem")
+class FileSystemContentStore implements ArtifactContentStore {
+
+	private final ArtifactRepository artifactRepository;
+
+	private final Path root;
+
+	private final Path tempDirectory;
+
+	FileSystemContentStore(SpringEnterpriseProxyProperties config, ArtifactRepository artifactRepository)
+			throws IOException {
+		this.artifactRepository = artifactRepository;
+		this.root = config.contentStore().directory().toAbsolutePath();
+		this.tempDirectory = Files.createDirectories(this.root.resolve(".tmp"));
+	}
+
+	@Override
+	public void store(Artifact artifact, byte[] content) throws IOException {
+		write(artifact, content);
+		artifactRepository.insert(artifact);
+	}
+
+	/**
+	 * Writes the new file first, swaps the rows and then removes the old file if no other
+	 * artifact refers to it.
+	 */
+	@Override
+	public void replace(Artifact replaced, Artifact artifact, byte[] content) throws IOException {
+		write(artifact, content);
+		artifactRepository.replace(replaced, artifact);
+		deleteUnreferenced(replaced);
+	}
+
+	/**
+	 * Writes the files first and then inserts all rows in one batch.
+	 */
+	@Override
+	public int storeAll(Map<Artifact, byte[]> batch) throws IOException {
+		for (Map.Entry<Artifact, byte[]> entry : batch.entrySet()) {
+			write(entry.getKey(), entry.getValue());
+		}
+		try {
+			artifactRepository.insertAll(List.copyOf(batch.keySet()));
+			return batch.size();
+		}
+		catch (DuplicateKeyException e) {
+			// Some paths were cached concurrently, find out which one at a time
+			int stored = 0;
+			for (Artifact artifact : batch.keySet()) {
+				try {
+					artifactRepository.insert(artifact);
+					stored++;
+				}
+				catch (DuplicateKeyException duplicate) {
+					// Cached in the meantime
+				}
+			}
+			return stored;
+		}
+	}
+
+	@Override
+	public ArtifactContentWriter newWriter(String artifactPath) throws IOException {
+		return new TempFileContentWriter(Files.createTempFile(this.tempDirectory, "artifact-", ".part"),
+				(artifact, spoolFile) -> {
+					moveIntoPlace(spoolFile, artifact);
+					artifactRepository.insert(artifact);
+				});
+	}
+
+	@Override
+	public ArtifactContentWriter newWriter(Artifact replaced) throws IOException {
+		return new TempFileContentWriter(Files.createTempFile(this.tempDirectory, "artifact-", ".part"),
+				(artifact, spoolFile) -> {
+					moveIntoPlace(spoolFile, artifact);
+					artifactRepository.replace(replaced, artifact);
+					deleteUnreferenced(replaced);
+				});
+	}
+
+	/**
+	 * Falls back to the {@code artifact_chunk} table for artifacts cached before this
+	 * store was enabled and not migrated yet.
+	 */
+	@Override
+	public Optional<Resource> read(Artifact artifact) {
+		Path file = fileFor(artifact);
+		if (Files.isRegularFile(file)) {
+			return Optional.of(new FileSystemResource(file));
+		}
+		if (!artifactRepository.hasContent(artifact.bodyKey())) {
+			return Optional.empty();
+		}
+		return Optional.of(new ChunkedContentResource(artifactRepository, artifact, 0, null));
+	}
+
+	/**
+	 * Removes the row first, together with any chunks not migrated yet, and then the file
+	 * if no other artifact refers to it. A file removed just as the same body is cached
+	 * again under another path leaves that artifact without content, which is refetched
+	 * on its next request.
+	 */
+	@Override
+	public void delete(Artifact artifact) throws IOException {
+		artifactRepository.delete(artifact);
+		deleteUnreferenced(artifact);
+	}
+
+	private void deleteUnreferenced(Artifact artifact) throws IOException {
+		if (!artifactRepository.hasBody(artifact.bodyKey())) {
+			Files.deleteIfExists(fileFor(artifact));
+		}
+	}
+
+	/**
+	 * Writes the body of an artifact without touching its row.
+	 */
+	void write(Artifact artifact, byte[] content) throws IOException {
+		write(artifact, new ByteArrayInputStream(content));
+	}
+
+	/**
+	 * Writes the body of an artifact without touching its row, streaming it to disk,
+	 * unless the same body is already stored. Used to migrate entries cached before this
+	 * store was enabled.
+	 */
+	void write(Artifact artifact, InputStream content) throws IOException {
+		if (Files.isRegularFile(fileFor(artifact))) {
+			return;
+		}
+		Path tempFile = Files.createTempFile(this.tempDirectory, "artifact-", ".part");
+		try {
+			Files.copy(content, tempFile, StandardCopyOption.REPLACE_EXISTING);
+			moveIntoPlace(tempFile, artifact);
+		}
+		finally {
+			Files.deleteIfExists(tempFile);
+		}
+	}
+
+	Path fileFor(Artifact artifact) {
+		String key = artifact.bodyKey().replace("-", "");
+		return this.root.resolve(key.substring(0, 2)).resolve(key.substring(2, 4)).resolve(key);
+	}
+
+	/**
+	 * Renames the file into place, leaving it to be cleaned up instead if the same body
+	 * is already stored.
+	 */
+	private void moveIntoPlace(Path tempFile, Artifact artifact) throws IOException {
+		Path target = fileFor(artifact);
+		if (Files.isRegularFile(target)) {
+			return;
+		}
+		Files.createDirectories(target.getParent());
+		Files.move(tempFile, target, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+}
@@ -0,0 +1,93 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import jp.co.broadcom.tanzu.springenterpriseproxy.SpringEnterpriseProxyProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.PathMatcher;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Decides how long a cached artifact may be served before it has to be revalidated
+ * against the remote repository. Released artifacts never change once published, while
+ * {@code maven-metadata.xml} and SNAPSHOT files are rewritten on every deploy.
+ * <p>
+ * Configured rules are checked first, in order; then {@code maven-metadata.xml} (and its
+ * checksums) and files under a {@code -SNAPSHOT} directory get their built-in freshness.
+ * Everything else is immutable.
+ * <p>
+ * Past its freshness a copy is {@link State#STALE stale} for the configured
+ * stale-while-revalidate window, in which it is still served while a background refresh
+ * runs, and {@link State#EXPIRED expired} afterwards.
+ */
+@Component
+class FreshnessPolicy {
+
+	private static final String METADATA_FILE_NAME = "maven-metadata.xml";
+
+	private static final String SNAPSHOT_DIRECTORY_SUFFIX = "-SNAPSHOT/";
+
+	private final PathMatcher pathMatcher = new AntPathMatcher();
+
+	private final List<SpringEnterpriseProxyProperties.Freshness.Rule> rules;
+
+	private final Duration metadataTtl;
+
+	private final Duration snapshotTtl;
+
+	private final Duration staleWhileRevalidate;
+
+	FreshnessPolicy(SpringEnterpriseProxyProperties config) {
+		this.rules = config.freshness().rules();
+		this.metadataTtl = config.freshness().metadataTtl();
+		this.snapshotTtl = config.freshness().snapshotTtl();
+		this.staleWhileRevalidate = config.freshness().staleWhileRevalidate();
+	}
+
+	/**
+	 * @return How long a cached copy of the path stays fresh, or empty if it never has to
+	 * be revalidated.
+	 */
+	Optional<Duration> ttlFor(String artifactPath) {
+		for (SpringEnterpriseProxyProperties.Freshness.Rule rule : this.rules) {
+			if (this.pathMatcher.match(rule.pattern(), artifactPath)) {
+				return Optional.ofNullable(rule.ttl());
+			}
+		}
+		String fileName = artifactPath.substring(artifactPath.lastIndexOf('/') + 1);
+		if (fileName.startsWith(METADATA_FILE_NAME)) {
+			return Optional.of(this.metadataTtl);
+		}
+		if (artifactPath.contains(SNAPSHOT_DIRECTORY_SUFFIX)) {
+			return Optional.of(this.snapshotTtl);
+		}
+		return Optional.empty();
+	}
+
+	/**
+	 * @return Whether the cached copy can be served as is, served while it is
+	 * revalidated, or has to be revalidated before it is served.
+	 */
+	State stateOf(Artifact artifact) {
+		Optional<Duration> ttl = ttlFor(artifact.path());
+		if (ttl.isEmpty()) {
+			return State.FRESH;
+		}
+		LocalDateTime now = LocalDateTime.now();
+		LocalDateTime freshUntil = artifact.lastValidated().plus(ttl.get());
+		if (freshUntil.isAfter(now)) {
+			return State.FRESH;
+		}
+		return freshUntil.plus(this.staleWhileRevalidate).isAfter(now) ? State.STALE : State.EXPIRED;
+	}
+
+	enum State {
+
+		FRESH, STALE, EXPIRED
+
+	}
+
+}
@@ -0,0 +1,118 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Caps the number of requests open against each remote host, so that a burst of cache
+ * misses queues in the proxy instead of overwhelming the remote (or its connection
+ * limit). Requests over the cap wait, in arrival order, for up to the acquire timeout.
+ */
+class HostConcurrencyLimiter {
+
+	private static final String METRIC_PREFIX = "spring.enterprise.proxy.upstream.requests";
+
+	private final int maxConcurrentRequests;
+
+	private final Duration acquireTimeout;
+
+	private final MeterRegistry meterRegistry;
+
+	private final ConcurrentMap<String, HostSlots> hosts = new ConcurrentHashMap<>();
+
+	HostConcurrencyLimiter(int maxConcurrentRequests, Duration acquireTimeout, MeterRegistry meterRegistry) {
+		this.maxConcurrentRequests = maxConcurrentRequests;
+		this.acquireTimeout = acquireTimeout;
+		this.meterRegistry = meterRegistry;
+	}
+
+	/**
+	 * Waits for a free slot for the host.
+	 * @return The slot, to be released once the response has been closed
+	 * @throws IOException If no slot became free within the acquire timeout
+	 */
+	Permit acquire(String host) throws IOException {
+		HostSlots hostSlots = this.hosts.computeIfAbsent(host, this::register);
+		long start = System.nanoTime();
+		boolean acquired;
+		try {
+			acquired = hostSlots.slots().tryAcquire(this.acquireTimeout.toMillis(), TimeUnit.MILLISECONDS);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a request slot for " + host);
+		}
+		finally {
+			hostSlots.waitTime().record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		}
+		if (!acquired) {
+			hostSlots.rejected().increment();
+			throw new IOException("No free request slot for " + host + " within " + this.acquireTimeout);
+		}
+		return new Permit(hostSlots.slots());
+	}
+
+	/**
+	 * Creates the slots of a host the first time it is requested, together with its
+	 * meters, which are reused for every request to it.
+	 */
+	private HostSlots register(String host) {
+		Semaphore slots = new Semaphore(this.maxConcurrentRequests, true);
+		Gauge.builder(METRIC_PREFIX + ".active", slots, s -> this.maxConcurrentRequests - s.availablePermits())
+			.description("Requests currently open against the remote host")
+			.tag("host", host)
+			.register(this.meterRegistry);
+		Gauge.builder(METRIC_PREFIX + ".queued", slots, Semaphore::getQueueLength)
+			.description("Requests waiting for a free slot for the remote host")
+			.tag("host", host)
+			.register(this.meterRegistry);
+		Timer waitTime = Timer.builder(METRIC_PREFIX + ".wait")
+			.description("Time requests to the remote repository waited for a free slot")
+			.tag("host", host)
+			.register(this.meterRegistry);
+		Counter rejected = Counter.builder(METRIC_PREFIX + ".rejected")
+			.description("Requests to the remote repository that found no free slot in time")
+			.tag("host", host)
+			.register(this.meterRegistry);
+		return new HostSlots(slots, waitTime, rejected);
+	}
+
+	/**
+	 * The slots of one remote host and the meters recording requests for them.
+	 */
+	private record HostSlots(Semaphore slots, Timer waitTime, Counter rejected) {
+	}
+
+	/**
+	 * A slot held by one request. Releasing it more than once has no effect.
+	 */
+	static final class Permit {
+
+		private final Semaphore hostSlots;
+
+		private final AtomicBoolean released = new AtomicBoolean();
+
+		private Permit(Semaphore hostSlots) {
+			this.hostSlots = hostSlots;
+		}
+
+		void release() {
+			if (this.released.compareAndSet(false, true)) {
+				this.hostSlots.release();
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,221 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import jp.co.broadcom.tanzu.springenterpriseproxy.SpringEnterpriseProxyProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClientResponseException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Coalesces concurrent cache misses for the same artifact path so that only one request
+ * (the leader) fetches it from the remote repository while the others (followers) wait
+ * for that fetch to finish and then read the result from the cache.
+ * <p>
+ * A leader that streams a large body to its client only finishes once that client has
+ * read it to the end. Its followers do not wait for that, but read the body along as it
+ * is spooled.
+ */
+@Component
+class InFlightFetches {
+
+	private static final Logger logger = LoggerFactory.getLogger(InFlightFetches.class);
+
+	private static final String METRIC_PREFIX = "spring.enterprise.proxy.fetch";
+
+	private final ConcurrentMap<String, Fetch> fetches = new ConcurrentHashMap<>();
+
+	private final Duration joinTimeout;
+
+	private final Duration leaderLease;
+
+	private final Counter coalescedCounter;
+
+	private final Counter timeoutCounter;
+
+	private final Timer waitTimer;
+
+	private final Counter streamReadsCounter;
+
+	InFlightFetches(SpringEnterpriseProxyProperties config, MeterRegistry meterRegistry) {
+		this.joinTimeout = config.coalescing().joinTimeout();
+		this.leaderLease = config.coalescing().leaderLease();
+		this.coalescedCounter = Counter.builder(METRIC_PREFIX + ".coalesced")
+			.description("Cache misses that joined an in-flight upstream fetch of the same path")
+			.register(meterRegistry);
+		this.timeoutCounter = Counter.builder(METRIC_PREFIX + ".coalesced.timeouts")
+			.description("Coalesced cache misses that gave up waiting for the in-flight fetch")
+			.register(meterRegistry);
+		this.waitTimer = Timer.builder(METRIC_PREFIX + ".coalesced.wait")
+			.description("Time coalesced cache misses spent waiting for the in-flight fetch")
+			.register(meterRegistry);
+		this.streamReadsCounter = Counter.builder(METRIC_PREFIX + ".coalesced.streamed")
+			.description("Coalesced cache misses that read the body along as the in-flight fetch streamed it")
+			.register(meterRegistry);
+		meterRegistry.gaugeMapSize(METRIC_PREFIX + ".in.flight", Tags.empty(), this.fetches);
+	}
+
+	/**
+	 * Registers interest in fetching the given path. The first caller becomes the leader
+	 * and must eventually call {@link Flight#complete()} or
+	 * {@link Flight#fail(Throwable)}; later callers become followers of that leader until
+	 * it does.
+	 */
+	Flight join(String artifactPath) {
+		Fetch leaderFetch = new Fetch();
+		Fetch existing = this.fetches.putIfAbsent(artifactPath, leaderFetch);
+		if (existing == null) {
+			leaderFetch.done.orTimeout(this.leaderLease.toMillis(), TimeUnit.MILLISECONDS)
+				.whenComplete((result, failure) -> this.fetches.remove(artifactPath, leaderFetch));
+			return new Flight(artifactPath, leaderFetch, true);
+		}
+		this.coalescedCounter.increment();
+		logger.debug("Joining in-flight fetch of {}", artifactPath);
+		return new Flight(artifactPath, existing, false);
+	}
+
+	/**
+	 * A fetch in flight, shared by its leader and followers.
+	 */
+	private static final class Fetch {
+
+		private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+		private final CompletableFuture<Streamed> streamed = new CompletableFuture<>();
+
+	}
+
+	private record Streamed(SpooledBody body, long contentLength) {
+	}
+
+	final class Flight {
+
+		private final String artifactPath;
+
+		private final Fetch fetch;
+
+		private final boolean leader;
+
+		private Flight(String artifactPath, Fetch fetch, boolean leader) {
+			this.artifactPath = artifactPath;
+			this.fetch = fetch;
+			this.leader = leader;
+		}
+
+		boolean isLeader() {
+			return this.leader;
+		}
+
+		/**
+		 * Called by the leader once the artifact has been cached, or once it is clear
+		 * that it will not be. Followers then re-check the cache.
+		 */
+		void complete() {
+			this.fetch.done.complete(null);
+		}
+
+		/**
+		 * Called by the leader when the remote repository answered with an error, which
+		 * is handed to every follower as-is.
+		 */
+		void fail(Throwable failure) {
+			this.fetch.done.completeExceptionally(failure);
+		}
+
+		/**
+		 * Called by the leader when it streams the body to its client while spooling it,
+		 * so that followers can read it along rather than wait for the client to have
+		 * read all of it.
+		 * @param contentLength The length of the body, or -1 if unknown
+		 */
+		void stream(SpooledBody body, long contentLength) {
+			this.fetch.streamed.complete(new Streamed(body, contentLength));
+		}
+
+		/**
+		 * Waits, as a follower, for the leader to finish, or to start streaming the body.
+		 * @return {@code true} once the leader has finished and the cache should be
+		 * re-checked, or the body can be read along, {@code false} if the join timeout
+		 * elapsed first.
+		 * @throws RestClientResponseException The error the leader got from the remote
+		 * repository.
+		 * @throws UpstreamUnavailableException If the leader found the circuit breaker
+		 * around the remote open.
+		 */
+		boolean awaitLeader() throws IOException, RestClientResponseException {
+			long start = System.nanoTime();
+			try {
+				CompletableFuture.anyOf(this.fetch.done, this.fetch.streamed)
+					.get(joinTimeout.toMillis(), TimeUnit.MILLISECONDS);
+				return true;
+			}
+			catch (TimeoutException e) {
+				timeoutCounter.increment();
+				logger.debug("Timed out waiting for in-flight fetch of {}", this.artifactPath);
+				return false;
+			}
+			catch (ExecutionException e) {
+				if (e.getCause() instanceof RestClientResponseException restClientResponseException) {
+					throw restClientResponseException;
+				}
+				if (e.getCause() instanceof UpstreamUnavailableException upstreamUnavailableException) {
+					throw upstreamUnavailableException;
+				}
+				// The leader's fetch failed for a reason of its own (or its lease
+				// expired); let the caller try again.
+				return true;
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException(
+						"Interrupted while waiting for in-flight fetch of " + this.artifactPath);
+			}
+			finally {
+				waitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+			}
+		}
+
+		/**
+		 * Opens the body the leader is streaming, for a follower to read along. A read
+		 * fails if the leader abandons the body, or makes no progress for the join
+		 * timeout.
+		 * @return The body, or empty if the leader does not stream it or has finished
+		 * already, in which case the cache should be re-checked
+		 */
+		Optional<Resource> readAlong() {
+			Streamed streamed = this.fetch.streamed.getNow(null);
+			if (streamed == null || this.fetch.done.isDone()) {
+				return Optional.empty();
+			}
+			try {
+				InputStream body = streamed.body().open(joinTimeout);
+				streamReadsCounter.increment();
+				logger.debug("Reading along with in-flight fetch of {}", this.artifactPath);
+				return Optional.of(new StreamingArtifactResource(body, streamed.contentLength(), this.artifactPath));
+			}
+			catch (IOException e) {
+				// Finished in the meantime
+				logger.debug("Cannot read along with in-flight fetch of {}: {}", this.artifactPath, e.getMessage());
+				return Optional.empty();
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,564 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import jp.co.broadcom.tanzu.springenterpriseproxy.SpringEnterpriseProxyProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Loads the files of a local Maven repository directory (e.g. {@code ~/.m2/repository})
+ * into the cache, so that a new proxy node does not start empty.
+ * <p>
+ * One thread walks the directory and cuts the files into batches, which a pool of workers
+ * reads, checksums and stores with a single batched insert each; when all workers are
+ * busy the walker stores the next batch itself, so the walk never runs far ahead of the
+ * disk. Paths that are cached already are skipped with one lookup per batch, without
+ * reading the file, which makes an interrupted import cheap to resume by starting it
+ * again. A file whose checksum files ({@code .sha1}, {@code .md5}, ...) disagree with its
+ * content or with the cached copy is not stored.
+ * <p>
+ * Files that did not come from a remote repository are left out: SNAPSHOT directories,
+ * artifacts {@code _remote.repositories} lists as installed locally, the local
+ * repository's own metadata and bookkeeping files. So are files that do not follow the
+ * {@code group/artifact/version/artifact-version...} layout, and symbolic links.
+ * <p>
+ * Seeds can only be started from the configured roots or directories below them, as every
+ * file seeded can be downloaded by any client of the proxy.
+ */
+@Component
+class LocalRepositorySeeder implements DisposableBean {
+
+	private static final Logger logger = LoggerFactory.getLogger(LocalRepositorySeeder.class);
+
+	static final String EXECUTOR_NAME = "seed";
+
+	private static final String METRIC_PREFIX = "spring.enterprise.proxy.seed";
+
+	private static final String REMOTE_REPOSITORIES = "_remote.repositories";
+
+	private static final int MAX_REPORTED_FAILURES = 100;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private static final Map<String, Function<ChecksumVerifier, String>> CHECKSUM_FILES = Map.of(".sha1",
+			ChecksumVerifier::sha1, ".md5", ChecksumVerifier::md5, ".sha256", ChecksumVerifier::sha256, ".sha512",
+			ChecksumVerifier::sha512);
+
+	enum Outcome {
+
+		STORED, EXISTING, CONFLICTING, CORRUPT, FAILED, SKIPPED
+
+	}
+
+	private final ArtifactRepository artifactRepository;
+
+	private final ArtifactContentStore contentStore;
+
+	private final ArtifactCompression compression;
+
+	private final int batchSize;
+
+	private final long batchBytes;
+
+	private final List<Path> roots;
+
+	private final ExecutorService walker;
+
+	private final ExecutorService workers;
+
+	private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+
+	private final Map<Outcome, Counter> fileCounters = new HashMap<>();
+
+	private final Counter bytesCounter;
+
+	LocalRepositorySeeder(SpringEnterpriseProxyProperties config, ArtifactRepository artifactRepository,
+			ArtifactContentStore contentStore, ArtifactCompression compression, MeterRegistry meterRegistry) {
+		SpringEnterpriseProxyProperties.Seed seed = config.seed();
+		this.artifactRepository = artifactRepository;
+		this.contentStore = contentStore;
+		this.compression = compression;
+		this.batchSize = seed.batchSize();
+		this.batchBytes = seed.batchBytes().toBytes();
+		this.roots = seed.roots();
+
+		ThreadPoolExecutor walker = new ThreadPoolExecutor(1, 1, 1, TimeUnit.MINUTES, new ArrayBlockingQueue<>(16),
+				new CustomizableThreadFactory(EXECUTOR_NAME + "-walker-"));
+		walker.allowCoreThreadTimeOut(true);
+		this.walker = walker;
+		// A full queue makes the walker store the batch itself
+		ThreadPoolExecutor workers = new ThreadPoolExecutor(seed.threads(), seed.threads(), 1, TimeUnit.MINUTES,
+				new ArrayBlockingQueue<>(seed.threads()), new CustomizableThreadFactory(EXECUTOR_NAME + "-"),
+				new ThreadPoolExecutor.CallerRunsPolicy());
+		workers.allowCoreThreadTimeOut(true);
+		// pool size, queued and completed tasks, execution and idle time
+		this.workers = ExecutorServiceMetrics.monitor(meterRegistry, workers, EXECUTOR_NAME);
+
+		for (Outcome outcome : Outcome.values()) {
+			this.fileCounters.put(outcome,
+					Counter.builder(METRIC_PREFIX + ".files")
+						.description("Files of local repositories processed by seed jobs")
+						.tag("outcome", outcome.name().toLowerCase(Locale.ROOT))
+						.register(meterRegistry));
+		}
+		this.bytesCounter = Counter.builder(METRIC_PREFIX + ".bytes")
+			.description("Bytes seed jobs stored into the cache")
+			.baseUnit("bytes")
+			.register(meterRegistry);
+	}
+
+	/**
+	 * Starts loading the files of a local Maven repository into the cache.
+	 * @param directory The root of the repository, e.g. {@code ~/.m2/repository}
+	 * @throws IllegalArgumentException If the directory does not exist or is not below a
+	 * configured seed root
+	 */
+	Job start(Path directory) {
+		Path root = directory.toAbsolutePath().normalize();
+		if (!Files.isDirectory(root)) {
+			throw new IllegalArgumentException("Not a directory: " + root);
+		}
+		try {
+			root = root.toRealPath();
+		}
+		catch (IOException e) {
+			throw new IllegalArgumentException("Not a directory: " + root);
+		}
+		if (!isBelowRoot(root)) {
+			throw new IllegalArgumentException("Not below a configured seed root: " + root);
+		}
+		Path seedRoot = root;
+		Job job = new Job(UUID.randomUUID().toString(), seedRoot);
+		this.jobs.values().removeIf(Job::isFinished);
+		this.jobs.put(job.id, job);
+		logger.info("Starting seed {} from {}", job.id, seedRoot);
+		// Held by the walk until every batch has been submitted
+		job.pending.incrementAndGet();
+		try {
+			this.walker.execute(() -> {
+				try {
+					walk(job);
+				}
+				catch (IOException e) {
+					fail(job, seedRoot.toString(), e.getMessage());
+				}
+				finally {
+					finish(job);
+				}
+			});
+		}
+		catch (RejectedExecutionException e) {
+			this.jobs.remove(job.id);
+			throw new IllegalStateException("Too many seed jobs queued");
+		}
+		return job;
+	}
+
+	Optional<Job> job(String id) {
+		return Optional.ofNullable(this.jobs.get(id));
+	}
+
+	Collection<Job> jobs() {
+		return this.jobs.values();
+	}
+
+	private void walk(Job job) throws IOException {
+		List<Path> batch = new ArrayList<>();
+		long[] batchedBytes = { 0 };
+		Files.walkFileTree(job.directory, new SimpleFileVisitor<>() {
+
+			private Path remoteRepositoriesDirectory;
+
+			private Set<String> installedLocally = Set.of();
+
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+				if (dir.getFileName() != null && dir.getFileName().toString().endsWith("-SNAPSHOT")) {
+					return FileVisitResult.SKIP_SUBTREE;
+				}
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+				if (!attrs.isRegularFile() || isBookkeeping(file.getFileName().toString())) {
+					return FileVisitResult.CONTINUE;
+				}
+				job.scanned.incrementAndGet();
+				if (!isMavenLayout(job.directory, file)) {
+					record(job, Outcome.SKIPPED);
+					return FileVisitResult.CONTINUE;
+				}
+				if (!file.getParent().equals(this.remoteRepositoriesDirectory)) {
+					this.remoteRepositoriesDirectory = file.getParent();
+					this.installedLocally = installedLocally(file.getParent());
+				}
+				if (this.installedLocally.contains(file.getFileName().toString())) {
+					record(job, Outcome.SKIPPED);
+					return FileVisitResult.CONTINUE;
+				}
+				batch.add(file);
+				batchedBytes[0] += attrs.size();
+				if (batch.size() >= batchSize || batchedBytes[0] >= batchBytes) {
+					submit(job, List.copyOf(batch));
+					batch.clear();
+					batchedBytes[0] = 0;
+				}
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(Path file, IOException e) {
+				fail(job, file.toString(), e.getMessage());
+				return FileVisitResult.CONTINUE;
+			}
+
+		});
+		if (!batch.isEmpty()) {
+			submit(job, List.copyOf(batch));
+		}
+	}
+
+	private void submit(Job job, List<Path> files) {
+		job.pending.incrementAndGet();
+		this.workers.execute(() -> {
+			try {
+				storeBatch(job, files);
+			}
+			catch (RuntimeException | IOException e) {
+				logger.warn("Seed {} failed to store a batch of {} files: {}", job.id, files.size(), e.getMessage());
+				files.forEach(file -> fail(job, file.toString(), e.getMessage()));
+			}
+			finally {
+				finish(job);
+			}
+		});
+	}
+
+	private void storeBatch(Job job, List<Path> files) throws IOException {
+		Map<Path, String> artifactPaths = new LinkedHashMap<>();
+		for (Path file : files) {
+			artifactPaths.put(file, artifactPathOf(job.directory, file));
+		}
+		Map<String, Artifact> cached = artifactRepository.findByPathIn(artifactPaths.values())
+			.stream()
+			.collect(Collectors.toMap(Artifact::path, Function.identity()));
+
+		Map<Artifact, byte[]> batch = new LinkedHashMap<>();
+		for (Map.Entry<Path, String> entry : artifactPaths.entrySet()) {
+			Path file = entry.getKey();
+			String artifactPath = entry.getValue();
+			try {
+				Artifact cachedArtifact = cached.get(artifactPath);
+				if (cachedArtifact != null) {
+					record(job, matchesChecksumFile(file, cachedArtifact) ? Outcome.EXISTING : Outcome.CONFLICTING);
+				}
+				else if (Files.size(file) > this.batchBytes) {
+					storeLarge(job, file, artifactPath);
+				}
+				else {
+					byte[] content = Files.readAllBytes(file);
+					ChecksumVerifier checksums = new ChecksumVerifier(new HttpHeaders());
+					checksums.update(content, 0, content.length);
+					String mismatch = checksumFileMismatch(file, checksums);
+					if (mismatch != null) {
+						logger.warn("Not seeding {}: {}", file, mismatch);
+						record(job, Outcome.CORRUPT);
+					}
+					else {
+						batch.put(Artifact.fetched(artifactPath, content.length, checksums, new HttpHeaders()),
+								content);
+					}
+				}
+			}
+			catch (IOException e) {
+				fail(job, file.toString(), e.getMessage());
+			}
+		}
+		if (batch.isEmpty()) {
+			return;
+		}
+		int stored = contentStore.storeAll(compression.encodeAll(batch));
+		// Only the number stored is known, the others were cached in the meantime
+		record(job, Outcome.STORED, stored);
+		record(job, Outcome.EXISTING, batch.size() - stored);
+		long bytes = batch.values().stream().mapToLong(content -> content.length).sum();
+		job.bytes.addAndGet(bytes);
+		this.bytesCounter.increment(bytes);
+	}
+
+	/**
+	 * Streams a file too large for a batch into the store on its own.
+	 */
+	private void storeLarge(Job job, Path file, String artifactPath) throws IOException {
+		ChecksumVerifier checksums = new ChecksumVerifier(new HttpHeaders());
+		ArtifactContentWriter writer = contentStore.newWriter(artifactPath);
+		long length = 0;
+		try (InputStream in = Files.newInputStream(file)) {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				checksums.update(buffer, 0, read);
+				writer.write(buffer, 0, read);
+				length += read;
+			}
+			String mismatch = checksumFileMismatch(file, checksums);
+			if (mismatch != null) {
+				writer.abort();
+				logger.warn("Not seeding {}: {}", file, mismatch);
+				record(job, Outcome.CORRUPT);
+				return;
+			}
+			writer.commit(Artifact.fetched(artifactPath, length, checksums, new HttpHeaders()));
+			record(job, Outcome.STORED);
+			job.bytes.addAndGet(length);
+			this.bytesCounter.increment(length);
+		}
+		catch (DuplicateKeyException e) {
+			record(job, Outcome.EXISTING);
+		}
+		finally {
+			writer.abort();
+		}
+	}
+
+	/**
+	 * @return A description of the first checksum file next to the file that disagrees
+	 * with its content, or {@code null} if none does.
+	 */
+	private static String checksumFileMismatch(Path file, ChecksumVerifier checksums) throws IOException {
+		for (Map.Entry<String, Function<ChecksumVerifier, String>> checksumFile : CHECKSUM_FILES.entrySet()) {
+			Optional<String> expected = readChecksumFile(file, checksumFile.getKey());
+			String actual = checksumFile.getValue().apply(checksums);
+			if (expected.isPresent() && !expected.get().equals(actual)) {
+				return checksumFile.getKey() + " expected " + expected.get() + " but was " + actual;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return Whether the cached copy agrees with the checksum files next to the file, or
+	 * there are none to compare.
+	 */
+	private static boolean matchesChecksumFile(Path file, Artifact cachedArtifact) throws IOException {
+		Optional<String> sha1 = readChecksumFile(file, ".sha1");
+		if (sha1.isPresent() && cachedArtifact.sha1() != null) {
+			return sha1.get().equals(cachedArtifact.sha1());
+		}
+		Optional<String> sha256 = readChecksumFile(file, ".sha256");
+		return sha256.isEmpty() || sha256.get().equals(cachedArtifact.sha256());
+	}
+
+	private static Optional<String> readChecksumFile(Path file, String extension) throws IOException {
+		Path checksumFile = file.resolveSibling(file.getFileName() + extension);
+		if (!Files.isRegularFile(checksumFile)) {
+			return Optional.empty();
+		}
+		// Some tools append the file name after the digest
+		String[] tokens = Files.readString(checksumFile).trim().split("\\s+");
+		return tokens[0].isEmpty() ? Optional.empty() : Optional.of(tokens[0].toLowerCase(Locale.ROOT));
+	}
+
+	/**
+	 * @return The files that {@code _remote.repositories} lists without a repository,
+	 * i.e. that were installed by a local build.
+	 */
+	private static Set<String> installedLocally(Path directory) {
+		Path remoteRepositories = directory.resolve(REMOTE_REPOSITORIES);
+		if (!Files.isRegularFile(remoteRepositories)) {
+			return Set.of();
+		}
+		try {
+			return Files.readAllLines(remoteRepositories)
+				.stream()
+				.filter(line -> !line.startsWith("#") && line.endsWith(">="))
+				.map(line -> line.substring(0, line.length() - 2))
+				.collect(Collectors.toSet());
+		}
+		catch (IOException e) {
+			return Set.of();
+		}
+	}
+
+	private static boolean isBookkeeping(String fileName) {
+		return fileName.equals(REMOTE_REPOSITORIES) || fileName.equals("resolver-status.properties")
+				|| fileName.startsWith("maven-metadata") || fileName.endsWith(".lastUpdated")
+				|| fileName.endsWith(".part") || fileName.endsWith(".lock")
+				|| CHECKSUM_FILES.keySet().stream().anyMatch(fileName::endsWith);
+	}
+
+	private boolean isBelowRoot(Path directory) {
+		for (Path root : this.roots) {
+			try {
+				if (directory.startsWith(root.toRealPath())) {
+					return true;
+				}
+			}
+			catch (IOException e) {
+				logger.debug("Ignoring seed root {}: {}", root, e.getMessage());
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return Whether the file lies in a {@code group/artifact/version} directory, with a
+	 * name that starts with the artifact and version, and nothing on the way is hidden.
+	 */
+	static boolean isMavenLayout(Path root, Path file) {
+		Path relative = root.relativize(file);
+		int segments = relative.getNameCount();
+		if (segments < 4) {
+			return false;
+		}
+		for (Path segment : relative) {
+			if (segment.toString().startsWith(".")) {
+				return false;
+			}
+		}
+		String artifactId = relative.getName(segments - 3).toString();
+		String version = relative.getName(segments - 2).toString();
+		return relative.getFileName().toString().startsWith(artifactId + "-" + version);
+	}
+
+	static String artifactPathOf(Path root, Path file) {
+		StringBuilder artifactPath = new StringBuilder();
+		for (Path segment : root.relativize(file)) {
+			artifactPath.append('/').append(segment);
+		}
+		return artifactPath.toString();
+	}
+
+	private void record(Job job, Outcome outcome) {
+		record(job, outcome, 1);
+	}
+
+	private void record(Job job, Outcome outcome, int count) {
+		job.outcomes.get(outcome).addAndGet(count);
+		this.fileCounters.get(outcome).increment(count);
+	}
+
+	private void fail(Job job, String what, String reason) {
+		record(job, Outcome.FAILED);
+		if (job.failures.size() < MAX_REPORTED_FAILURES) {
+			job.failures.put(what, String.valueOf(reason));
+		}
+		logger.debug("Seed {} could not store {}: {}", job.id, what, reason);
+	}
+
+	private void finish(Job job) {
+		if (job.pending.decrementAndGet() == 0) {
+			job.finishedAt = Instant.now();
+			logger.info("Finished seed {} from {} in {}: {}", job.id, job.directory,
+					Duration.between(job.startedAt, job.finishedAt), job.outcomes);
+		}
+	}
+
+	@Override
+	public void destroy() {
+		this.walker.shutdownNow();
+		this.workers.shutdownNow();
+	}
+
+	/**
+	 * Progress of a seed.
+	 */
+	static final class Job {
+
+		private final String id;
+
+		private final Path directory;
+
+		private final Instant startedAt = Instant.now();
+
+		private volatile Instant finishedAt;
+
+		// The walk and submitted batches that have not finished yet
+		private final AtomicInteger pending = new AtomicInteger();
+
+		private final AtomicLong scanned = new AtomicLong();
+
+		private final AtomicLong bytes = new AtomicLong();
+
+		private final Map<Outcome, AtomicLong> outcomes = new LinkedHashMap<>();
+
+		private final Map<String, String> failures = new ConcurrentHashMap<>();
+
+		private Job(String id, Path directory) {
+			this.id = id;
+			this.directory = directory;
+			for (Outcome outcome : Outcome.values()) {
+				this.outcomes.put(outcome, new AtomicLong());
+			}
+		}
+
+		String id() {
+			return this.id;
+		}
+
+		boolean isFinished() {
+			return this.finishedAt != null;
+		}
+
+		long count(Outcome outcome) {
+			return this.outcomes.get(outcome).get();
+		}
+
+		Map<String, Object> progress() {
+			Map<String, Object> progress = new LinkedHashMap<>();
+			progress.put("id", this.id);
+			progress.put("directory", this.directory.toString());
+			progress.put("state", isFinished() ? "finished" : "running");
+			progress.put("startedAt", this.startedAt);
+			if (isFinished()) {
+				progress.put("finishedAt", this.finishedAt);
+			}
+			progress.put("scanned", this.scanned.get());
+			this.outcomes
+				.forEach((outcome, count) -> progress.put(outcome.name().toLowerCase(Locale.ROOT), count.get()));
+			progress.put("bytes", this.bytes.get());
+			progress.put("failures", Map.copyOf(this.failures));
+			return progress;
+		}
+
+	}
+
+}
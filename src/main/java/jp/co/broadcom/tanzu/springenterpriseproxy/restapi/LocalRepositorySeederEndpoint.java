@@ -0,0 +1,57 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import org.springframework.boot.actuate.endpoint.InvalidEndpointRequestException;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Actuator endpoint to seed the cache from a local Maven repository directory on the
+ * proxy host with {@link LocalRepositorySeeder} and follow the progress. Like every
+ * actuator endpoint it has to be exposed explicitly
+ * ({@code management.endpoints.web.exposure.include}).
+ * <p>
+ * {@code POST /actuator/seed} with {@code {"directory": "/home/build/.m2/repository"}}
+ * starts a seed, {@code GET /actuator/seed} lists the running and recent ones, {@code GET
+ * /actuator/seed/{id}} reports on one. The directory has to be one of the configured
+ * {@code spring.enterprise.proxy.seed.roots} or below one.
+ */
+@Component
+@Endpoint(id = "seed")
+class LocalRepositorySeederEndpoint {
+
+	private final LocalRepositorySeeder seeder;
+
+	LocalRepositorySeederEndpoint(LocalRepositorySeeder seeder) {
+		this.seeder = seeder;
+	}
+
+	@WriteOperation
+	public Map<String, Object> start(String directory) {
+		try {
+			return seeder.start(Path.of(directory)).progress();
+		}
+		catch (IllegalArgumentException e) {
+			throw new InvalidEndpointRequestException(e.getMessage(), e.getMessage());
+		}
+	}
+
+	@ReadOperation
+	public List<Map<String, Object>> jobs() {
+		return seeder.jobs().stream().map(LocalRepositorySeeder.Job::progress).toList();
+	}
+
+	@ReadOperation
+	@Nullable
+	public Map<String, Object> job(@Selector String id) {
+		return seeder.job(id).map(LocalRepositorySeeder.Job::progress).orElse(null);
+	}
+
+}
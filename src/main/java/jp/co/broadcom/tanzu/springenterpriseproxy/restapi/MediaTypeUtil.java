@@ -38,4 +38,11 @@ class MediaTypeUtil {
 		return mediaTypeMap.getOrDefault(extension, MediaType.APPLICATION_OCTET_STREAM);
 	}
 
+	/**
+	 * @return Whether the file is served as text, and thus worth compressing.
+	 */
+	static boolean isText(String fileName) {
+		return "text".equals(getMediaTypeForFileName(fileName).getType());
+	}
+
 }
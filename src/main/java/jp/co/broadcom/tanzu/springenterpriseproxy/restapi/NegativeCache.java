@@ -0,0 +1,135 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jp.co.broadcom.tanzu.springenterpriseproxy.SpringEnterpriseProxyProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+/**
+ * Remembers paths the remote repository answered with 404, so that repeated probes for
+ * artifacts that do not exist (sources and javadoc classifiers, optional dependencies)
+ * are answered without an upstream round trip.
+ * <p>
+ * Paths are held in memory, bounded by count, and in the {@code artifact_miss} table, so
+ * that they survive restarts and are shared between nodes. Both expire after
+ * {@code spring.enterprise.proxy.negative-cache.ttl}. Failing to read or write the table
+ * never fails a request; the remote is then simply asked again.
+ */
+@Component
+class NegativeCache {
+
+	private static final Logger logger = LoggerFactory.getLogger(NegativeCache.class);
+
+	static final String CACHE_NAME = "artifact-negative";
+
+	private final boolean enabled;
+
+	private final Duration ttl;
+
+	private final ArtifactMissRepository artifactMissRepository;
+
+	private final Cache<String, LocalDateTime> cache;
+
+	NegativeCache(SpringEnterpriseProxyProperties config, ArtifactMissRepository artifactMissRepository,
+			MeterRegistry meterRegistry) {
+		SpringEnterpriseProxyProperties.NegativeCache negativeCache = config.negativeCache();
+		this.enabled = negativeCache.enabled();
+		this.ttl = negativeCache.ttl();
+		this.artifactMissRepository = artifactMissRepository;
+		this.cache = Caffeine.newBuilder()
+			.maximumSize(negativeCache.maxEntries())
+			.expireAfter(Expiry
+				.creating((String path, LocalDateTime expiresAt) -> Duration.between(LocalDateTime.now(), expiresAt)))
+			.recordStats()
+			.build();
+
+		// hits, misses, evictions, size
+		CaffeineCacheMetrics.monitor(meterRegistry, this.cache, CACHE_NAME);
+	}
+
+	/**
+	 * @return Whether the remote answered the path with 404 within the TTL.
+	 */
+	boolean isMissing(String artifactPath) {
+		if (!this.enabled) {
+			return false;
+		}
+		if (this.cache.getIfPresent(artifactPath) != null) {
+			return true;
+		}
+		try {
+			Optional<ArtifactMiss> miss = artifactMissRepository.findUnexpired(artifactPath, LocalDateTime.now());
+			miss.ifPresent(m -> this.cache.put(m.path(), m.expiresAt()));
+			return miss.isPresent();
+		}
+		catch (DataAccessException e) {
+			logger.debug("Failed to look up negative cache entry for {}: {}", artifactPath, e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Remembers that the remote answered the path with 404.
+	 */
+	void record(String artifactPath) {
+		if (!this.enabled) {
+			return;
+		}
+		LocalDateTime expiresAt = LocalDateTime.now().plus(this.ttl);
+		this.cache.put(artifactPath, expiresAt);
+		try {
+			if (artifactMissRepository.updateExpiry(artifactPath, expiresAt) == 0) {
+				artifactMissRepository.insert(artifactPath, expiresAt);
+			}
+		}
+		catch (DuplicateKeyException e) {
+			// Recorded concurrently by another request or node
+		}
+		catch (DataAccessException e) {
+			logger.debug("Failed to persist negative cache entry for {}: {}", artifactPath, e.getMessage());
+		}
+	}
+
+	/**
+	 * Forgets a single path, so that the next request asks the remote again.
+	 * @return Whether the path was remembered
+	 */
+	boolean invalidate(String artifactPath) {
+		boolean cached = this.cache.asMap().remove(artifactPath) != null;
+		return artifactMissRepository.deleteByPath(artifactPath) > 0 || cached;
+	}
+
+	/**
+	 * Forgets every path.
+	 * @return The number of paths that were remembered in the database
+	 */
+	int purge() {
+		this.cache.invalidateAll();
+		return artifactMissRepository.deleteAll();
+	}
+
+	long size() {
+		return this.cache.estimatedSize();
+	}
+
+	@Scheduled(fixedDelayString = "${spring.enterprise.proxy.negative-cache.cleanup-interval:10m}")
+	void deleteExpired() {
+		int deleted = artifactMissRepository.deleteExpired(LocalDateTime.now());
+		if (deleted > 0) {
+			logger.debug("Removed {} expired negative cache entries", deleted);
+		}
+	}
+
+}
@@ -0,0 +1,42 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * Actuator endpoint to inspect and purge the {@link NegativeCache}, e.g. once an artifact
+ * that used to be missing has been published upstream. Like every actuator endpoint it
+ * has to be exposed explicitly ({@code management.endpoints.web.exposure.include}).
+ * <p>
+ * {@code DELETE /actuator/negativecache} forgets every path,
+ * {@code DELETE /actuator/negativecache?path=/org/example/...} a single one.
+ */
+@Component
+@Endpoint(id = "negativecache")
+class NegativeCacheEndpoint {
+
+	private final NegativeCache negativeCache;
+
+	NegativeCacheEndpoint(NegativeCache negativeCache) {
+		this.negativeCache = negativeCache;
+	}
+
+	@ReadOperation
+	public Map<String, Object> entries() {
+		return Map.of("inMemory", negativeCache.size());
+	}
+
+	@DeleteOperation
+	public Map<String, Object> purge(@Nullable String path) {
+		if (path != null) {
+			return Map.of("path", path, "removed", negativeCache.invalidate(path));
+		}
+		return Map.of("removed", negativeCache.purge());
+	}
+
+}
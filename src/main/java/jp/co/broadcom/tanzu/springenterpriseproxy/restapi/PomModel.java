@@ -0,0 +1,240 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import org.springframework.lang.Nullable;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The parts of a Maven POM needed to find the dependencies of an artifact: its
+ * coordinates, parent, properties, and managed and declared dependencies, as written in
+ * the file. Inheritance and interpolation are left to the caller, see
+ * {@link DependencyWarmUp}; profiles, repositories and plugins are ignored.
+ */
+record PomModel(Coordinates coordinates, String packaging, @Nullable Coordinates parent, Map<String, String> properties,
+		List<Dependency> dependencyManagement, List<Dependency> dependencies) {
+
+	private static final Pattern PROPERTY_REFERENCE = Pattern.compile("\\$\\{([^}]+)}");
+
+	/**
+	 * Coordinates of a Maven project, e.g. {@code org.example:library:1.0.0}.
+	 */
+	record Coordinates(String groupId, String artifactId, String version) {
+
+		/**
+		 * @param coordinates {@code groupId:artifactId:version}
+		 */
+		static Coordinates parse(String coordinates) {
+			String[] parts = coordinates.trim().split(":");
+			if (parts.length != 3 || parts[0].isBlank() || parts[1].isBlank() || parts[2].isBlank()) {
+				throw new IllegalArgumentException("Expected groupId:artifactId:version but got '" + coordinates + "'");
+			}
+			return new Coordinates(parts[0], parts[1], parts[2]);
+		}
+
+		String pomPath() {
+			return artifactPath("pom", null);
+		}
+
+		/**
+		 * @return The path of a file of the project in a Maven repository, e.g.
+		 * {@code /org/example/library/1.0.0/library-1.0.0-sources.jar}
+		 */
+		String artifactPath(String extension, @Nullable String classifier) {
+			return "/" + groupId.replace('.', '/') + "/" + artifactId + "/" + version + "/" + artifactId + "-" + version
+					+ (classifier == null || classifier.isEmpty() ? "" : "-" + classifier) + "." + extension;
+		}
+
+		@Override
+		public String toString() {
+			return groupId + ":" + artifactId + ":" + version;
+		}
+
+	}
+
+	/**
+	 * A dependency as declared in a POM. The version may be missing (managed elsewhere)
+	 * and any field may still hold property references.
+	 */
+	record Dependency(String groupId, String artifactId, @Nullable String version, String type,
+			@Nullable String classifier, String scope, boolean optional, Set<String> exclusions) {
+
+		/**
+		 * @return What dependency management matches the dependency by.
+		 */
+		String managementKey() {
+			return groupId + ":" + artifactId + ":" + type + (classifier == null ? "" : ":" + classifier);
+		}
+
+		Dependency withVersion(String version) {
+			return new Dependency(groupId, artifactId, version, type, classifier, scope, optional, exclusions);
+		}
+
+		Dependency interpolate(Map<String, String> properties) {
+			return new Dependency(PomModel.interpolate(groupId, properties),
+					PomModel.interpolate(artifactId, properties), PomModel.interpolate(version, properties),
+					PomModel.interpolate(type, properties), PomModel.interpolate(classifier, properties),
+					PomModel.interpolate(scope, properties), optional, exclusions);
+		}
+
+	}
+
+	/**
+	 * Parses a POM. DTDs and external entities are rejected.
+	 * @throws IOException If the content is not a well-formed POM
+	 */
+	static PomModel parse(InputStream content) throws IOException {
+		Element project;
+		try {
+			DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+			factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+			factory.setAttribute(XMLConstants.ACCESS_EXTERNAL_DTD, "");
+			factory.setAttribute(XMLConstants.ACCESS_EXTERNAL_SCHEMA, "");
+			factory.setExpandEntityReferences(false);
+			DocumentBuilder builder = factory.newDocumentBuilder();
+			// Fail on errors instead of printing them
+			builder.setErrorHandler(new DefaultHandler());
+			Document document = builder.parse(content);
+			project = document.getDocumentElement();
+		}
+		catch (ParserConfigurationException | SAXException e) {
+			throw new IOException("Not a well-formed POM: " + e.getMessage(), e);
+		}
+		if (!"project".equals(localName(project))) {
+			throw new IOException("Not a POM: root element is " + localName(project));
+		}
+
+		Element parentElement = child(project, "parent");
+		Coordinates parent = parentElement == null ? null : new Coordinates(text(parentElement, "groupId"),
+				text(parentElement, "artifactId"), text(parentElement, "version"));
+		String groupId = text(project, "groupId");
+		String version = text(project, "version");
+		Coordinates coordinates = new Coordinates(groupId != null ? groupId : parent != null ? parent.groupId() : null,
+				text(project, "artifactId"), version != null ? version : parent != null ? parent.version() : null);
+		if (coordinates.groupId() == null || coordinates.artifactId() == null || coordinates.version() == null) {
+			throw new IOException("POM lacks coordinates: " + coordinates);
+		}
+		String packaging = text(project, "packaging");
+
+		Map<String, String> properties = new LinkedHashMap<>();
+		Element propertiesElement = child(project, "properties");
+		if (propertiesElement != null) {
+			for (Element property : children(propertiesElement)) {
+				properties.put(localName(property), property.getTextContent().trim());
+			}
+		}
+
+		Element dependencyManagement = child(project, "dependencyManagement");
+		return new PomModel(coordinates, packaging != null ? packaging : "jar", parent, properties,
+				dependencies(dependencyManagement == null ? null : child(dependencyManagement, "dependencies")),
+				dependencies(child(project, "dependencies")));
+	}
+
+	/**
+	 * Replaces {@code ${name}} references with the given properties, leaving unknown ones
+	 * as they are.
+	 */
+	@Nullable
+	static String interpolate(@Nullable String value, Map<String, String> properties) {
+		if (value == null || !value.contains("${")) {
+			return value;
+		}
+		// Properties may refer to other properties
+		for (int depth = 0; depth < 10 && value.contains("${"); depth++) {
+			Matcher matcher = PROPERTY_REFERENCE.matcher(value);
+			StringBuilder interpolated = new StringBuilder();
+			boolean replaced = false;
+			while (matcher.find()) {
+				String replacement = properties.get(matcher.group(1));
+				replaced |= replacement != null;
+				matcher.appendReplacement(interpolated,
+						Matcher.quoteReplacement(replacement != null ? replacement : matcher.group()));
+			}
+			matcher.appendTail(interpolated);
+			value = interpolated.toString();
+			if (!replaced) {
+				break;
+			}
+		}
+		return value;
+	}
+
+	private static List<Dependency> dependencies(@Nullable Element dependenciesElement) {
+		List<Dependency> dependencies = new ArrayList<>();
+		if (dependenciesElement == null) {
+			return dependencies;
+		}
+		for (Element dependency : children(dependenciesElement)) {
+			if (!"dependency".equals(localName(dependency))) {
+				continue;
+			}
+			Set<String> exclusions = new LinkedHashSet<>();
+			Element exclusionsElement = child(dependency, "exclusions");
+			if (exclusionsElement != null) {
+				for (Element exclusion : children(exclusionsElement)) {
+					exclusions.add(text(exclusion, "groupId") + ":" + text(exclusion, "artifactId"));
+				}
+			}
+			String type = text(dependency, "type");
+			String scope = text(dependency, "scope");
+			dependencies.add(new Dependency(text(dependency, "groupId"), text(dependency, "artifactId"),
+					text(dependency, "version"), type != null ? type : "jar", text(dependency, "classifier"),
+					scope != null ? scope : "compile", "true".equals(text(dependency, "optional")), exclusions));
+		}
+		return dependencies;
+	}
+
+	private static String localName(Node node) {
+		return node.getLocalName() != null ? node.getLocalName() : node.getNodeName();
+	}
+
+	private static List<Element> children(Element parent) {
+		List<Element> children = new ArrayList<>();
+		NodeList nodes = parent.getChildNodes();
+		for (int i = 0; i < nodes.getLength(); i++) {
+			if (nodes.item(i) instanceof Element element) {
+				children.add(element);
+			}
+		}
+		return children;
+	}
+
+	@Nullable
+	private static Element child(Element parent, String name) {
+		for (Element child : children(parent)) {
+			if (name.equals(localName(child))) {
+				return child;
+			}
+		}
+		return null;
+	}
+
+	@Nullable
+	private static String text(Element parent, String name) {
+		Element child = child(parent, name);
+		if (child == null) {
+			return null;
+		}
+		String text = child.getTextContent().trim();
+		return text.isEmpty() ? null : text;
+	}
+
+}
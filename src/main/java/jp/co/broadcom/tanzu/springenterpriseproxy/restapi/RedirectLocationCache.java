@@ -0,0 +1,148 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jp.co.broadcom.tanzu.springenterpriseproxy.SpringEnterpriseProxyProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.util.UriComponentsBuilder;
+import org.springframework.web.util.UriUtils;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Optional;
+
+/**
+ * Remembers where the remote repository redirected a path to, typically a signed CDN URL
+ * handed out by Artifactory, so that later fetches of the same path (retries, range
+ * requests, refetches after a failed coalesced fetch) skip the authenticated round trip.
+ * <p>
+ * A location is kept until shortly before the signature in its query string expires (S3
+ * and GCS {@code X-*-Date}/{@code X-*-Expires}, CloudFront {@code Expires}, Azure
+ * {@code se}), and never longer than the configured maximum. Locations without a
+ * recognizable expiry are kept for the default TTL.
+ */
+@Component
+class RedirectLocationCache {
+
+	static final String CACHE_NAME = "upstream-redirects";
+
+	private static final DateTimeFormatter SIGNATURE_DATE = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'");
+
+	private final boolean enabled;
+
+	private final Duration defaultTtl;
+
+	private final Duration maxTtl;
+
+	private final Duration expiryMargin;
+
+	private final Cache<String, Location> cache;
+
+	private final Counter invalidatedCounter;
+
+	RedirectLocationCache(SpringEnterpriseProxyProperties config, MeterRegistry meterRegistry) {
+		SpringEnterpriseProxyProperties.RedirectCache redirectCache = config.redirectCache();
+		this.enabled = redirectCache.enabled();
+		this.defaultTtl = redirectCache.defaultTtl();
+		this.maxTtl = redirectCache.maxTtl();
+		this.expiryMargin = redirectCache.expiryMargin();
+		this.cache = Caffeine.newBuilder()
+			.maximumSize(redirectCache.maxEntries())
+			.expireAfter(Expiry
+				.creating((String path, Location location) -> Duration.between(Instant.now(), location.expiresAt())))
+			.recordStats()
+			.build();
+
+		// hits, misses, evictions, size
+		CaffeineCacheMetrics.monitor(meterRegistry, this.cache, CACHE_NAME);
+		this.invalidatedCounter = Counter.builder("spring.enterprise.proxy.upstream.redirects.invalidated")
+			.description("Remembered redirect locations that no longer worked before they expired")
+			.register(meterRegistry);
+	}
+
+	/**
+	 * @return Where the remote last redirected the path to, if that location is still
+	 * valid.
+	 */
+	Optional<URI> get(String artifactPath) {
+		if (!this.enabled) {
+			return Optional.empty();
+		}
+		Location location = this.cache.getIfPresent(artifactPath);
+		if (location == null || !location.expiresAt().isAfter(Instant.now())) {
+			return Optional.empty();
+		}
+		return Optional.of(location.uri());
+	}
+
+	void put(String artifactPath, URI location) {
+		if (!this.enabled) {
+			return;
+		}
+		Instant now = Instant.now();
+		Instant expiresAt = signatureExpiry(location).map(expiry -> expiry.minus(this.expiryMargin))
+			.orElse(now.plus(this.defaultTtl));
+		if (expiresAt.isAfter(now.plus(this.maxTtl))) {
+			expiresAt = now.plus(this.maxTtl);
+		}
+		if (expiresAt.isAfter(now)) {
+			this.cache.put(artifactPath, new Location(location, expiresAt));
+		}
+	}
+
+	/**
+	 * Forgets a location that the CDN no longer serves, e.g. because its signature was
+	 * revoked.
+	 */
+	void invalidate(String artifactPath) {
+		if (this.cache.asMap().remove(artifactPath) != null) {
+			this.invalidatedCounter.increment();
+		}
+	}
+
+	/**
+	 * @return When the signature of a pre-signed URL expires, or empty if the URL carries
+	 * none that is recognized.
+	 */
+	static Optional<Instant> signatureExpiry(URI location) {
+		MultiValueMap<String, String> query = UriComponentsBuilder.fromUri(location).build().getQueryParams();
+		try {
+			for (String vendor : new String[] { "Amz", "Goog" }) {
+				String date = query.getFirst("X-" + vendor + "-Date");
+				String expires = query.getFirst("X-" + vendor + "-Expires");
+				if (date != null && expires != null) {
+					return Optional.of(LocalDateTime.parse(date, SIGNATURE_DATE)
+						.toInstant(ZoneOffset.UTC)
+						.plusSeconds(Long.parseLong(expires)));
+				}
+			}
+			String epochSeconds = query.getFirst("Expires");
+			if (epochSeconds != null) {
+				return Optional.of(Instant.ofEpochSecond(Long.parseLong(epochSeconds)));
+			}
+			String signedExpiry = query.getFirst("se");
+			if (signedExpiry != null) {
+				return Optional.of(Instant.parse(UriUtils.decode(signedExpiry, StandardCharsets.UTF_8)));
+			}
+		}
+		catch (DateTimeParseException | NumberFormatException e) {
+			// Not a signature we understand
+		}
+		return Optional.empty();
+	}
+
+	private record Location(URI uri, Instant expiresAt) {
+	}
+
+}
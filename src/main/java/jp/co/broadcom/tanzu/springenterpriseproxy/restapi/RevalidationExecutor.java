@@ -0,0 +1,60 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import jp.co.broadcom.tanzu.springenterpriseproxy.SpringEnterpriseProxyProperties;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs background revalidations of stale cached copies on a small pool of its own, so
+ * that slow remote responses never hold request threads and a burst of stale paths cannot
+ * queue up without bound. Deliberately not an {@code Executor} bean, which would replace
+ * Spring Boot's application task executor.
+ */
+@Component
+class RevalidationExecutor implements DisposableBean {
+
+	static final String EXECUTOR_NAME = "revalidation";
+
+	private final ExecutorService executor;
+
+	RevalidationExecutor(SpringEnterpriseProxyProperties config, MeterRegistry meterRegistry) {
+		SpringEnterpriseProxyProperties.Freshness freshness = config.freshness();
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(freshness.revalidationThreads(),
+				freshness.revalidationThreads(), 1, TimeUnit.MINUTES,
+				new ArrayBlockingQueue<>(freshness.revalidationQueueCapacity()),
+				new CustomizableThreadFactory(EXECUTOR_NAME + "-"));
+		pool.allowCoreThreadTimeOut(true);
+
+		// pool size, queued and completed tasks, execution and idle time
+		this.executor = ExecutorServiceMetrics.monitor(meterRegistry, pool, EXECUTOR_NAME);
+	}
+
+	/**
+	 * @return Whether the task was accepted, or {@code false} if all threads are busy and
+	 * the queue is full.
+	 */
+	boolean trySubmit(Runnable task) {
+		try {
+			this.executor.execute(task);
+			return true;
+		}
+		catch (RejectedExecutionException e) {
+			return false;
+		}
+	}
+
+	@Override
+	public void destroy() {
+		this.executor.shutdownNow();
+	}
+
+}
@@ -0,0 +1,170 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import jp.co.broadcom.tanzu.springenterpriseproxy.SpringEnterpriseProxyProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.boot.sql.init.dependency.DependsOnDatabaseInitialization;
+import org.springframework.http.HttpHeaders;
+import org.springframework.jdbc.core.simple.JdbcClient;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.ResultSetMetaData;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Brings an {@code artifact} table created by an earlier release up to date on startup.
+ * {@code schema.sql} only creates missing tables, so a table from before metadata and
+ * content were split still holds every body in its {@code content} column and lacks the
+ * newer columns.
+ * <p>
+ * The missing columns are added first. Each body is then moved into {@code artifact_body}
+ * and {@code artifact_chunk} under its SHA-256, one artifact per transaction, with its
+ * length and digests filled in along the way. A body shared by several artifacts is
+ * stored once. The {@code content} column is dropped once every row has been moved, so an
+ * upgrade that is interrupted carries on where it stopped on the next start. With the
+ * {@code filesystem} content store, the {@link ContentStoreMigrator} moves the bodies on
+ * to files afterwards.
+ */
+@Component
+@DependsOnDatabaseInitialization
+class SchemaUpgrader implements InitializingBean {
+
+	private static final Logger logger = LoggerFactory.getLogger(SchemaUpgrader.class);
+
+	/**
+	 * Columns added to the {@code artifact} table since the first release, as declared in
+	 * {@code schema.sql}. Columns that are {@code NOT NULL} there get a default, as
+	 * existing rows have no value for them yet.
+	 */
+	private static final Map<String, String> ARTIFACT_COLUMNS = new LinkedHashMap<>();
+
+	static {
+		ARTIFACT_COLUMNS.put("content_length", "BIGINT NOT NULL DEFAULT 0");
+		ARTIFACT_COLUMNS.put("sha256", "CHAR(64)");
+		ARTIFACT_COLUMNS.put("upstream_etag", "VARCHAR(255)");
+		ARTIFACT_COLUMNS.put("upstream_last_modified", "VARCHAR(64)");
+		ARTIFACT_COLUMNS.put("validated_at", "TIMESTAMP");
+		ARTIFACT_COLUMNS.put("sha1", "CHAR(40)");
+		ARTIFACT_COLUMNS.put("md5", "CHAR(32)");
+		ARTIFACT_COLUMNS.put("sha512", "CHAR(128)");
+		ARTIFACT_COLUMNS.put("last_accessed_at", "TIMESTAMP");
+		ARTIFACT_COLUMNS.put("hits", "BIGINT NOT NULL DEFAULT 0");
+		ARTIFACT_COLUMNS.put("content_encoding", "VARCHAR(16)");
+		ARTIFACT_COLUMNS.put("encoded_length", "BIGINT");
+		ARTIFACT_COLUMNS.put("content_key", "VARCHAR(80)");
+	}
+
+	private static final String LEGACY_CONTENT_COLUMN = "content";
+
+	private final SpringEnterpriseProxyProperties.ContentStore config;
+
+	private final JdbcClient jdbcClient;
+
+	private final TransactionTemplate transactionTemplate;
+
+	SchemaUpgrader(SpringEnterpriseProxyProperties config, JdbcClient jdbcClient,
+			TransactionTemplate transactionTemplate) {
+		this.config = config.contentStore();
+		this.jdbcClient = jdbcClient;
+		this.transactionTemplate = transactionTemplate;
+	}
+
+	@Override
+	public void afterPropertiesSet() {
+		upgrade();
+	}
+
+	void upgrade() {
+		Set<String> columns = artifactColumns();
+		ARTIFACT_COLUMNS.forEach((column, definition) -> {
+			if (!columns.contains(column)) {
+				logger.info("Adding column {} to the artifact table", column);
+				jdbcClient.sql("ALTER TABLE artifact ADD COLUMN " + column + " " + definition).update();
+			}
+		});
+		if (!columns.contains(LEGACY_CONTENT_COLUMN)) {
+			return;
+		}
+		logger.info("Moving artifact bodies out of the artifact table");
+		int moved = 0;
+		List<String> ids;
+		while (!(ids = legacyArtifactIds()).isEmpty()) {
+			for (String id : ids) {
+				transactionTemplate.executeWithoutResult(status -> moveContent(id));
+			}
+			moved += ids.size();
+			logger.info("Moved {} artifact bodies so far", moved);
+		}
+		jdbcClient.sql("ALTER TABLE artifact DROP COLUMN " + LEGACY_CONTENT_COLUMN).update();
+		logger.info("Moved {} artifact bodies out of the artifact table", moved);
+	}
+
+	private Set<String> artifactColumns() {
+		return jdbcClient.sql("SELECT * FROM artifact WHERE 1 = 0").query(rs -> {
+			ResultSetMetaData metaData = rs.getMetaData();
+			Set<String> columns = new LinkedHashSet<>();
+			for (int i = 1; i <= metaData.getColumnCount(); i++) {
+				columns.add(metaData.getColumnLabel(i).toLowerCase(Locale.ROOT));
+			}
+			return columns;
+		});
+	}
+
+	private List<String> legacyArtifactIds() {
+		return jdbcClient.sql("SELECT id FROM artifact WHERE content_key IS NULL ORDER BY id LIMIT :limit")
+			.param("limit", this.config.migration().batchSize())
+			.query(String.class)
+			.list();
+	}
+
+	private void moveContent(String id) {
+		byte[] content = jdbcClient.sql("SELECT content FROM artifact WHERE id = :id")
+			.param("id", id)
+			.query((rs, rowNum) -> rs.getBytes(1))
+			.single();
+		ChecksumVerifier checksums = new ChecksumVerifier(new HttpHeaders());
+		checksums.update(content, 0, content.length);
+		String contentKey = checksums.sha256();
+		int acquired = jdbcClient.sql("UPDATE artifact_body SET ref_count = ref_count + 1 WHERE content_key = :key")
+			.param("key", contentKey)
+			.update();
+		if (acquired == 0) {
+			jdbcClient.sql(
+					"INSERT INTO artifact_body (content_key, ref_count, stored_length) VALUES (:key, 1, :storedLength)")
+				.param("key", contentKey)
+				.param("storedLength", content.length)
+				.update();
+			int chunkSize = (int) this.config.chunkSize().toBytes();
+			int seq = 0;
+			for (int offset = 0; offset < content.length || seq == 0; offset += chunkSize) {
+				jdbcClient.sql("INSERT INTO artifact_chunk (content_key, seq, data) VALUES (:key, :seq, :data)")
+					.param("key", contentKey)
+					.param("seq", seq++)
+					.param("data", Arrays.copyOfRange(content, offset, Math.min(offset + chunkSize, content.length)))
+					.update();
+			}
+		}
+		jdbcClient.sql("""
+				UPDATE artifact SET content_length = :contentLength, sha256 = :sha256, sha1 = :sha1, md5 = :md5,
+					sha512 = :sha512, content_key = :contentKey
+				WHERE id = :id
+				""")
+			.param("contentLength", content.length)
+			.param("sha256", contentKey)
+			.param("sha1", checksums.sha1())
+			.param("md5", checksums.md5())
+			.param("sha512", checksums.sha512())
+			.param("contentKey", contentKey)
+			.param("id", id)
+			.update();
+	}
+
+}
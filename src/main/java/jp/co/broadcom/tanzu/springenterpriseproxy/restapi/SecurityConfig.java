@@ -12,6 +12,7 @@ import org.springframework.boot.autoconfigure.security.servlet.PathRequest;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpMethod;
 import org.springframework.security.config.Customizer;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
@@ -23,6 +24,7 @@ import org.springframework.security.oauth2.jwt.NimbusJwtDecoder;
 import org.springframework.security.oauth2.jwt.NimbusJwtEncoder;
 import org.springframework.security.provisioning.InMemoryUserDetailsManager;
 import org.springframework.security.web.SecurityFilterChain;
+import org.springframework.util.StringUtils;
 
 import java.security.interfaces.RSAPrivateKey;
 import java.security.interfaces.RSAPublicKey;
@@ -31,13 +33,24 @@ import java.security.interfaces.RSAPublicKey;
 @EnableWebSecurity
 class SecurityConfig {
 
+	/**
+	 * The authority of a local administrator, which tokens issued to it carry as their
+	 * scope.
+	 */
+	static final String ADMIN_AUTHORITY = "admin";
+
+	static final String ADMIN_SCOPE = "SCOPE_" + ADMIN_AUTHORITY;
+
 	RSAPublicKey key;
 
 	RSAPrivateKey privKey;
 
+	SpringEnterpriseProxyProperties.Admin admin;
+
 	SecurityConfig(SpringEnterpriseProxyProperties springEnterpriseProxyProperties) {
 		this.key = springEnterpriseProxyProperties.jwtPublicKey();
 		this.privKey = springEnterpriseProxyProperties.jwtPrivateKey();
+		this.admin = springEnterpriseProxyProperties.admin();
 	}
 
 	@Bean
@@ -63,10 +76,29 @@ class SecurityConfig {
 		return http.build();
 	}
 
+	/**
+	 * Actuator reads stay open for scrapers and probes. Operations that change the cache
+	 * (purging it, seeding it from a directory, importing or exporting a snapshot,
+	 * warming it up) and the progress reports of these jobs, which name host paths and
+	 * failures, are for administrators only: clients that merely download artifacts use
+	 * the same credentials. They are called from scripts with basic or bearer credentials
+	 * rather than from a browser session, so CSRF protection is turned off for this chain
+	 * only.
+	 */
 	@Bean
 	@Order(2)
 	SecurityFilterChain actuatorFilterChain(HttpSecurity http) throws Exception {
-		http.securityMatcher("/actuator/**").authorizeHttpRequests(authorize -> authorize.anyRequest().permitAll());
+		http.securityMatcher("/actuator/**")
+			.authorizeHttpRequests(authorize -> authorize
+				.requestMatchers(HttpMethod.GET, "/actuator/seed/**", "/actuator/snapshot/**", "/actuator/warmup/**")
+				.hasAnyAuthority(ADMIN_AUTHORITY, ADMIN_SCOPE)
+				.requestMatchers(HttpMethod.GET, "/actuator/**")
+				.permitAll()
+				.anyRequest()
+				.hasAnyAuthority(ADMIN_AUTHORITY, ADMIN_SCOPE))
+			.httpBasic(Customizer.withDefaults())
+			.oauth2ResourceServer((jwt) -> jwt.jwt(Customizer.withDefaults()))
+			.csrf(csrf -> csrf.disable());
 		return http.build();
 	}
 
@@ -105,8 +137,15 @@ class SecurityConfig {
 	@ConditionalOnProperty(value = "spring.enterprise.proxy.oauth-enabled", havingValue = "false",
 			matchIfMissing = true)
 	UserDetailsService users() {
-		return new InMemoryUserDetailsManager(
+		InMemoryUserDetailsManager users = new InMemoryUserDetailsManager(
 				User.withUsername("user").password("{noop}password").authorities("app").build());
+		if (StringUtils.hasText(this.admin.password())) {
+			users.createUser(User.withUsername(this.admin.username())
+				.password(this.admin.password())
+				.authorities("app", ADMIN_AUTHORITY)
+				.build());
+		}
+		return users;
 	}
 
 	@Bean
@@ -0,0 +1,188 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import jp.co.broadcom.tanzu.springenterpriseproxy.SpringEnterpriseProxyProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Warms the cache with the artifacts that build tools request right after a POM, e.g. the
+ * JAR next to it, so that those requests are served from the cache instead of waiting for
+ * the remote.
+ * <p>
+ * Siblings are fetched on a small pool of low priority threads with a bounded queue; when
+ * it is full further siblings are dropped. A sibling already waiting in the queue is not
+ * queued again. Requests for a sibling within the usage window after it was prefetched
+ * count as hits, so that the hit ratio shows whether prefetching pays off.
+ */
+@Component
+class SiblingPrefetcher implements DisposableBean {
+
+	private static final Logger logger = LoggerFactory.getLogger(SiblingPrefetcher.class);
+
+	static final String EXECUTOR_NAME = "prefetch";
+
+	private static final String METRIC_PREFIX = "spring.enterprise.proxy.prefetch";
+
+	private static final String POM_EXTENSION = ".pom";
+
+	/**
+	 * Fetches a sibling into the cache, unless it needs no fetching.
+	 */
+	@FunctionalInterface
+	interface SiblingFetch {
+
+		void fetch(String artifactPath) throws Exception;
+
+	}
+
+	private final boolean enabled;
+
+	private final List<String> siblingExtensions;
+
+	private final ExecutorService executor;
+
+	private final Set<String> queued = ConcurrentHashMap.newKeySet();
+
+	// Prefetched siblings nobody has requested yet
+	private final Cache<String, Boolean> prefetched;
+
+	private final Counter queuedCounter;
+
+	private final Counter droppedCounter;
+
+	private final Counter fetchedCounter;
+
+	private final Counter hitCounter;
+
+	private final Counter unusedCounter;
+
+	SiblingPrefetcher(SpringEnterpriseProxyProperties config, MeterRegistry meterRegistry) {
+		SpringEnterpriseProxyProperties.Prefetch prefetch = config.prefetch();
+		this.enabled = prefetch.enabled();
+		this.siblingExtensions = prefetch.siblingExtensions();
+
+		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(EXECUTOR_NAME + "-");
+		threadFactory.setThreadPriority(Thread.MIN_PRIORITY);
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(prefetch.threads(), prefetch.threads(), 1, TimeUnit.MINUTES,
+				new ArrayBlockingQueue<>(prefetch.queueCapacity()), threadFactory);
+		pool.allowCoreThreadTimeOut(true);
+		// pool size, queued and completed tasks, execution and idle time
+		this.executor = ExecutorServiceMetrics.monitor(meterRegistry, pool, EXECUTOR_NAME);
+
+		this.queuedCounter = Counter.builder(METRIC_PREFIX + ".siblings")
+			.description("Siblings of fetched POMs queued for prefetching")
+			.tag("outcome", "queued")
+			.register(meterRegistry);
+		this.droppedCounter = Counter.builder(METRIC_PREFIX + ".siblings")
+			.description("Siblings of fetched POMs dropped because the prefetch queue was full")
+			.tag("outcome", "dropped")
+			.register(meterRegistry);
+		this.fetchedCounter = Counter.builder(METRIC_PREFIX + ".fetched")
+			.description("Siblings fetched from the remote ahead of a request")
+			.register(meterRegistry);
+		this.hitCounter = Counter.builder(METRIC_PREFIX + ".hits")
+			.description("Requests for a sibling that had been prefetched")
+			.register(meterRegistry);
+		this.unusedCounter = Counter.builder(METRIC_PREFIX + ".unused")
+			.description("Prefetched siblings nobody requested within the usage window")
+			.register(meterRegistry);
+		Gauge.builder(METRIC_PREFIX + ".hit.ratio", this, SiblingPrefetcher::hitRatio)
+			.description("Share of prefetched siblings that were requested afterwards")
+			.register(meterRegistry);
+
+		this.prefetched = Caffeine.newBuilder()
+			.maximumSize(Math.max(prefetch.queueCapacity(), 1) * 10L)
+			.expireAfterWrite(prefetch.usageWindow())
+			.removalListener((String path, Boolean value, RemovalCause cause) -> {
+				if (cause.wasEvicted()) {
+					this.unusedCounter.increment();
+				}
+			})
+			.build();
+	}
+
+	/**
+	 * Queues the siblings of a POM that was just fetched from the remote. Does nothing
+	 * for other artifacts, or if prefetching is disabled.
+	 */
+	void afterMiss(String artifactPath, SiblingFetch fetch) {
+		if (!this.enabled || !artifactPath.endsWith(POM_EXTENSION)) {
+			return;
+		}
+		for (String sibling : siblingsOf(artifactPath)) {
+			if (!this.queued.add(sibling)) {
+				continue;
+			}
+			try {
+				this.executor.execute(() -> {
+					try {
+						fetch.fetch(sibling);
+					}
+					catch (Exception e) {
+						logger.debug("Failed to prefetch {}: {}", sibling, e.getMessage());
+					}
+					finally {
+						this.queued.remove(sibling);
+					}
+				});
+				this.queuedCounter.increment();
+			}
+			catch (RejectedExecutionException e) {
+				this.queued.remove(sibling);
+				this.droppedCounter.increment();
+			}
+		}
+	}
+
+	/**
+	 * Records that a sibling is being fetched from the remote ahead of a request.
+	 */
+	void onFetching(String artifactPath) {
+		this.prefetched.put(artifactPath, Boolean.TRUE);
+		this.fetchedCounter.increment();
+	}
+
+	/**
+	 * Records a request for an artifact, counting a hit if it was prefetched.
+	 */
+	void onRequest(String artifactPath) {
+		if (this.enabled && this.prefetched.asMap().remove(artifactPath) != null) {
+			this.hitCounter.increment();
+		}
+	}
+
+	List<String> siblingsOf(String pomPath) {
+		String basePath = pomPath.substring(0, pomPath.length() - POM_EXTENSION.length());
+		return this.siblingExtensions.stream().map(extension -> basePath + extension).toList();
+	}
+
+	private double hitRatio() {
+		double fetched = this.fetchedCounter.count();
+		return fetched == 0 ? 0 : this.hitCounter.count() / fetched;
+	}
+
+	@Override
+	public void destroy() {
+		this.executor.shutdownNow();
+	}
+
+}
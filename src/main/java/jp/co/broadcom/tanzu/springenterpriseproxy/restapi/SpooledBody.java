@@ -0,0 +1,150 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The body of a streamed fetch as it is spooled to a temporary file, which requests
+ * waiting on the same fetch read along with instead of fetching it from the remote once
+ * more.
+ * <p>
+ * Readers only see what has been flushed to the file and reach its end once the whole
+ * body has been received and verified. If the fetch is abandoned, e.g. because the client
+ * it is streamed to disconnected or the body turned out to be corrupt, they fail. A
+ * reader keeps the file open, so it can finish even after the file has been moved into
+ * the store or deleted.
+ */
+final class SpooledBody {
+
+	private final Path file;
+
+	private long length;
+
+	private boolean complete;
+
+	private boolean abandoned;
+
+	SpooledBody(Path file) {
+		this.file = file;
+	}
+
+	/**
+	 * Called once more of the body has been flushed to the file.
+	 */
+	synchronized void append(long count) {
+		this.length += count;
+		notifyAll();
+	}
+
+	/**
+	 * Called once the whole body is in the file and has been verified.
+	 */
+	synchronized void complete() {
+		if (!this.abandoned) {
+			this.complete = true;
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Called when the body will not be completed. Does nothing once it is complete.
+	 */
+	synchronized void abandon() {
+		if (!this.complete) {
+			this.abandoned = true;
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Opens the body for reading from its start.
+	 * @param stallTimeout How long a read waits for more of the body before failing
+	 * @throws IOException If the file is gone already, in which case the body is either
+	 * cached by now or was abandoned
+	 */
+	InputStream open(Duration stallTimeout) throws IOException {
+		return new Reader(FileChannel.open(this.file, StandardOpenOption.READ), stallTimeout.toNanos());
+	}
+
+	/**
+	 * Waits until the body extends beyond the given position.
+	 * @return The number of bytes that can be read from the position, or -1 at the end of
+	 * the complete body
+	 */
+	private synchronized long awaitMore(long position, long stallNanos) throws IOException {
+		long deadline = System.nanoTime() + stallNanos;
+		while (true) {
+			if (this.abandoned) {
+				throw new IOException("Fetch read along with was abandoned after " + this.length + " bytes");
+			}
+			if (position < this.length) {
+				return this.length - position;
+			}
+			if (this.complete) {
+				return -1;
+			}
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0) {
+				throw new IOException("Fetch read along with stalled after " + this.length + " bytes");
+			}
+			try {
+				TimeUnit.NANOSECONDS.timedWait(this, remaining);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while reading along with a fetch");
+			}
+		}
+	}
+
+	private final class Reader extends InputStream {
+
+		private final FileChannel channel;
+
+		private final long stallNanos;
+
+		private long position;
+
+		private Reader(FileChannel channel, long stallNanos) {
+			this.channel = channel;
+			this.stallNanos = stallNanos;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			long available = awaitMore(this.position, this.stallNanos);
+			if (available < 0) {
+				return -1;
+			}
+			int n = this.channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, available)), this.position);
+			if (n < 0) {
+				throw new IOException("Spool file ended before the " + available + " bytes flushed to it");
+			}
+			this.position += n;
+			return n;
+		}
+
+		@Override
+		public void close() throws IOException {
+			this.channel.close();
+		}
+
+	}
+
+}
@@ -1,10 +1,13 @@
 package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
 
+import jakarta.servlet.http.HttpServletRequest;
 import jp.co.broadcom.tanzu.springenterpriseproxy.metrics.UserAccess;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.io.InputStreamResource;
 import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -17,10 +20,13 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.client.RestClientResponseException;
+import org.springframework.web.context.request.WebRequest;
 
 import java.io.IOException;
 import java.time.Instant;
+import java.time.ZoneId;
 import java.util.List;
+import java.util.Optional;
 
 @RestController
 @RequestMapping("/spring-enterprise-proxy/")
@@ -28,13 +34,22 @@ class SpringEnterpriseProxyController {
 
 	private static final Logger logger = LoggerFactory.getLogger(SpringEnterpriseProxyController.class);
 
+	/**
+	 * Tells clients whether they were served a stale copy that is being revalidated.
+	 */
+	static final String CACHE_STALE_HEADER = "X-Cache-Stale";
+
 	private final ArtifactService artifactService;
 
 	private final ApplicationEventPublisher publisher;
 
-	SpringEnterpriseProxyController(ArtifactService artifactService, ApplicationEventPublisher publisher) {
+	private final ZeroCopyFileSender zeroCopyFileSender;
+
+	SpringEnterpriseProxyController(ArtifactService artifactService, ApplicationEventPublisher publisher,
+			ZeroCopyFileSender zeroCopyFileSender) {
 		this.artifactService = artifactService;
 		this.publisher = publisher;
+		this.zeroCopyFileSender = zeroCopyFileSender;
 	}
 
 	/**
@@ -44,9 +59,32 @@ class SpringEnterpriseProxyController {
 	 * Example: Request for
 	 * /maven/org/springframework/spring-core/6.1.6/spring-core-6.1.6.jar will have
 	 * artifactPath = "/org/springframework/spring-core/6.1.6/spring-core-6.1.6.jar"
+	 * <p>
+	 * Artifacts held on local disk are sent with the container's sendfile support where
+	 * available.
+	 * <p>
+	 * Cached artifacts carry a strong {@code ETag} derived from the SHA-256 of their
+	 * content and a {@code Last-Modified} header, both taken from the artifact the body
+	 * is read from. {@code If-None-Match} and {@code If-Modified-Since} are evaluated
+	 * against its metadata alone and answered with 304 without reading the content.
+	 * <p>
+	 * {@code Range} requests for cached artifacts are answered with 206 from the content
+	 * store, reading only the requested regions. For artifacts that are not cached yet,
+	 * the range is requested from the remote repository and relayed without caching.
+	 * <p>
+	 * Full responses carry an {@value #CACHE_STALE_HEADER} header telling whether a stale
+	 * copy of a mutable artifact was served while it is revalidated in the background, or
+	 * while the remote repository is unavailable. Artifacts that are not cached are
+	 * answered with 503 while the circuit breaker around the remote is open.
+	 * <p>
+	 * Text artifacts cached compressed are sent gzipped, with {@code Content-Encoding:
+	 * gzip} and an {@code ETag} of their own, to clients whose {@code Accept-Encoding}
+	 * allows it, unless a range is requested. Responses for text artifacts carry
+	 * {@code Vary: Accept-Encoding}.
 	 */
 	@GetMapping("{*artifactPath}")
-	ResponseEntity<Resource> proxyMavenArtifact(@PathVariable String artifactPath, @AuthenticationPrincipal Jwt jwt) {
+	ResponseEntity<Resource> proxyMavenArtifact(@PathVariable String artifactPath, @AuthenticationPrincipal Jwt jwt,
+			HttpServletRequest request, WebRequest webRequest) {
 		if (jwt != null) {
 			Instant expiration = jwt.getExpiresAt();
 			if (jwt != null && expiration != null && expiration.isBefore(Instant.now())) {
@@ -55,10 +93,58 @@ class SpringEnterpriseProxyController {
 			publisher.publishEvent(new UserAccess(jwt.getSubject(), artifactPath));
 		}
 		try {
-			Resource artifact = artifactService.retrieveArtifact(artifactPath);
+			String range = request.getHeader(HttpHeaders.RANGE);
+			boolean gzipAccepted = range == null
+					&& ArtifactCompression.acceptsGzip(request.getHeader(HttpHeaders.ACCEPT_ENCODING));
+			Optional<ArtifactService.Served> served = artifactService.serveArtifact(artifactPath, gzipAccepted,
+					range != null,
+					cached -> webRequest.checkNotModified(eTag(cached, gzipAccepted ? cached.contentEncoding() : null),
+							lastModified(cached)));
 			MediaType contentType = MediaTypeUtil.getMediaTypeForFileName(artifactPath);
+			if (served.isEmpty()) {
+				return relayRange(artifactPath, range, contentType);
+			}
+			Artifact cachedArtifact = served.get().artifact();
+			Resource artifact = served.get().content();
+			if (artifact == null) {
+				// Status and validators have already been set on the response
+				return null;
+			}
+
+			ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+				.contentType(contentType)
+				.header(CACHE_STALE_HEADER, String.valueOf(served.get().stale()));
+			if (MediaTypeUtil.isText(artifactPath)) {
+				response.varyBy(HttpHeaders.ACCEPT_ENCODING);
+			}
+			String contentEncoding = artifact instanceof ContentEncodedResource encoded ? encoded.contentEncoding()
+					: null;
+			if (contentEncoding != null) {
+				response.header(HttpHeaders.CONTENT_ENCODING, contentEncoding);
+			}
+			if (cachedArtifact != null) {
+				// Only now is it known in which encoding the body is sent
+				String eTag = eTag(cachedArtifact, contentEncoding);
+				if (eTag != null) {
+					response.eTag(eTag);
+				}
+				long lastModified = lastModified(cachedArtifact);
+				if (lastModified >= 0) {
+					response.lastModified(lastModified);
+				}
+			}
 
-			return ResponseEntity.ok().contentType(contentType).body(artifact);
+			if (zeroCopyFileSender.trySend(artifact, request)) {
+				return response.contentLength(artifact.contentLength()).build();
+			}
+			if (range != null && artifact instanceof StreamingArtifactResource streamed) {
+				// Being fetched again: a stream can be read only once, so send all of it
+				if (streamed.contentLength() >= 0) {
+					response.contentLength(streamed.contentLength());
+				}
+				return response.body(new InputStreamResource(streamed.getInputStream(), artifactPath));
+			}
+			return response.body(artifact);
 		}
 		catch (RestClientResponseException e) {
 			// Handle HTTP client errors from the remote repository (e.g., 404 Not Found)
@@ -69,6 +155,11 @@ class SpringEnterpriseProxyController {
 			logger.error("Client error accessing remote repository for {}: {}", artifactPath, e.getStatusCode(), e);
 			return ResponseEntity.status(e.getStatusCode()).build();
 		}
+		catch (UpstreamUnavailableException e) {
+			// Not cached, and the remote repository is known to be down
+			logger.debug("Remote repository unavailable for {}: {}", artifactPath, e.getMessage());
+			return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+		}
 		catch (IOException e) {
 			// Handle I/O errors (e.g., issues during network transfer)
 			logger.error("Internal server error while processing artifact {}: {}", artifactPath, e.getMessage(), e);
@@ -81,4 +172,39 @@ class SpringEnterpriseProxyController {
 		}
 	}
 
+	private ResponseEntity<Resource> relayRange(String artifactPath, String range, MediaType contentType)
+			throws IOException {
+		UpstreamResponse upstream = artifactService.fetchRange(artifactPath, range);
+		HttpHeaders upstreamHeaders = upstream.headers();
+		ResponseEntity.BodyBuilder response = ResponseEntity.status(upstream.statusCode());
+		// A multi-range answer carries the multipart/byteranges boundary in its type
+		MediaType upstreamType = upstreamHeaders.getContentType();
+		response.contentType(
+				upstreamType != null && "multipart".equals(upstreamType.getType()) ? upstreamType : contentType);
+		if (upstreamHeaders.getFirst(HttpHeaders.CONTENT_RANGE) != null) {
+			response.header(HttpHeaders.CONTENT_RANGE, upstreamHeaders.getFirst(HttpHeaders.CONTENT_RANGE));
+		}
+		if (upstream.contentLength() >= 0) {
+			response.contentLength(upstream.contentLength());
+		}
+		// A plain InputStreamResource is written as is, without ranges applied again
+		return response.body(new InputStreamResource(upstream.body(), artifactPath));
+	}
+
+	/**
+	 * @param contentEncoding The encoding the body is sent in, if any. A compressed body
+	 * is a representation with an entity tag of its own.
+	 */
+	private static String eTag(Artifact artifact, String contentEncoding) {
+		if (artifact.sha256() == null) {
+			return null;
+		}
+		return "\"" + artifact.sha256() + (contentEncoding != null ? "-" + contentEncoding : "") + "\"";
+	}
+
+	private static long lastModified(Artifact artifact) {
+		return artifact.lastModified() != null
+				? artifact.lastModified().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli() : -1L;
+	}
+
 }
\ No newline at end of file
@@ -0,0 +1,31 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import org.springframework.core.io.InputStreamResource;
+
+import java.io.InputStream;
+
+/**
+ * An artifact body that is relayed to the client while it is still being read from its
+ * source. Unlike a plain {@link InputStreamResource}, the length is known up front, so
+ * {@code ResourceHttpMessageConverter} can send a {@code Content-Length} header without
+ * consuming the stream.
+ */
+class StreamingArtifactResource extends InputStreamResource {
+
+	private final long contentLength;
+
+	StreamingArtifactResource(InputStream inputStream, long contentLength, String description) {
+		super(inputStream, description);
+		this.contentLength = contentLength;
+	}
+
+	/**
+	 * @return The length of the body, or -1 if unknown (the response is then sent with
+	 * chunked transfer encoding).
+	 */
+	@Override
+	public long contentLength() {
+		return this.contentLength;
+	}
+
+}
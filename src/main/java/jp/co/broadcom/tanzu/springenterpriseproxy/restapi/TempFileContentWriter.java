@@ -0,0 +1,80 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+
+/**
+ * An {@link ArtifactContentWriter} that spools the body to a temporary file and hands
+ * that file to the store on commit. Every write is flushed to the file, so that requests
+ * waiting on the same fetch can read along through the {@link SpooledBody}.
+ */
+class TempFileContentWriter implements ArtifactContentWriter {
+
+	private static final Logger logger = LoggerFactory.getLogger(TempFileContentWriter.class);
+
+	@FunctionalInterface
+	interface Committer {
+
+		void commit(Artifact artifact, Path spoolFile) throws IOException;
+
+	}
+
+	private final Path spoolFile;
+
+	private final OutputStream spool;
+
+	private final Committer committer;
+
+	private final SpooledBody spooled;
+
+	TempFileContentWriter(Path spoolFile, Committer committer) throws IOException {
+		this.spoolFile = spoolFile;
+		this.spool = new BufferedOutputStream(Files.newOutputStream(spoolFile));
+		this.committer = committer;
+		this.spooled = new SpooledBody(spoolFile);
+	}
+
+	@Override
+	public void write(byte[] bytes, int offset, int length) throws IOException {
+		this.spool.write(bytes, offset, length);
+		this.spool.flush();
+		this.spooled.append(length);
+	}
+
+	@Override
+	public void commit(Artifact artifact) throws IOException {
+		try {
+			this.spool.close();
+			this.spooled.complete();
+			this.committer.commit(artifact, this.spoolFile);
+		}
+		finally {
+			abort();
+		}
+	}
+
+	@Override
+	public void abort() {
+		this.spooled.abandon();
+		try {
+			this.spool.close();
+			Files.deleteIfExists(this.spoolFile);
+		}
+		catch (IOException e) {
+			logger.debug("Failed to delete spool file {}: {}", this.spoolFile, e.getMessage());
+		}
+	}
+
+	@Override
+	public Optional<SpooledBody> spooled() {
+		return Optional.of(this.spooled);
+	}
+
+}
@@ -0,0 +1,229 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jp.co.broadcom.tanzu.springenterpriseproxy.SpringEnterpriseProxyProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+
+/**
+ * Count-based circuit breaker around the remote repository, so that an outage or a remote
+ * that stops answering does not park a request thread on every cache miss.
+ * <p>
+ * The outcomes of the most recent calls are kept in a sliding window. Once it holds
+ * enough calls and the share of failed (I/O errors, 5xx) or slow calls reaches its
+ * threshold, the circuit opens and calls are rejected with
+ * {@link UpstreamUnavailableException} without touching the network. After a wait a few
+ * trial calls are let through; their outcome closes the circuit again or re-opens it. A
+ * call is timed until the remote has sent the response headers; streaming the body is not
+ * part of it.
+ */
+@Component
+class UpstreamCircuitBreaker {
+
+	private static final Logger logger = LoggerFactory.getLogger(UpstreamCircuitBreaker.class);
+
+	private static final String METRIC_PREFIX = "spring.enterprise.proxy.upstream";
+
+	enum State {
+
+		CLOSED, OPEN, HALF_OPEN
+
+	}
+
+	private final boolean enabled;
+
+	private final int failureRateThreshold;
+
+	private final int slowCallRateThreshold;
+
+	private final long slowCallNanos;
+
+	private final int minimumCalls;
+
+	private final long waitInOpenStateNanos;
+
+	private final int permittedCallsInHalfOpenState;
+
+	private final Counter notPermittedCounter;
+
+	private final MeterRegistry meterRegistry;
+
+	// Ring buffer of the most recent outcomes
+	private final boolean[] failedCalls;
+
+	private final boolean[] slowCalls;
+
+	private int nextCall;
+
+	private int bufferedCalls;
+
+	private int failedCount;
+
+	private int slowCount;
+
+	private State state = State.CLOSED;
+
+	private long openedAt;
+
+	private int trialCalls;
+
+	UpstreamCircuitBreaker(SpringEnterpriseProxyProperties config, MeterRegistry meterRegistry) {
+		SpringEnterpriseProxyProperties.CircuitBreaker circuitBreaker = config.circuitBreaker();
+		this.enabled = circuitBreaker.enabled();
+		this.failureRateThreshold = circuitBreaker.failureRateThreshold();
+		this.slowCallRateThreshold = circuitBreaker.slowCallRateThreshold();
+		this.slowCallNanos = circuitBreaker.slowCallDuration().toNanos();
+		this.minimumCalls = circuitBreaker.minimumCalls();
+		this.waitInOpenStateNanos = circuitBreaker.waitInOpenState().toNanos();
+		this.permittedCallsInHalfOpenState = circuitBreaker.permittedCallsInHalfOpenState();
+		int windowSize = Math.max(circuitBreaker.slidingWindowSize(), circuitBreaker.permittedCallsInHalfOpenState());
+		this.failedCalls = new boolean[windowSize];
+		this.slowCalls = new boolean[windowSize];
+
+		this.meterRegistry = meterRegistry;
+		this.notPermittedCounter = Counter.builder(METRIC_PREFIX + ".calls.not.permitted")
+			.description("Calls to the remote repository rejected while the circuit was open")
+			.register(meterRegistry);
+		for (State s : State.values()) {
+			Gauge.builder(METRIC_PREFIX + ".circuit.state", this, breaker -> breaker.state() == s ? 1 : 0)
+				.description("1 for the state the circuit breaker around the remote repository is in")
+				.tag("state", s.name().toLowerCase(Locale.ROOT))
+				.register(meterRegistry);
+		}
+	}
+
+	/**
+	 * Lets a call to the remote through, or rejects it while the circuit is open. A call
+	 * that was let through must be reported with {@link #onResult(long, boolean)}.
+	 */
+	synchronized void acquirePermission() throws UpstreamUnavailableException {
+		if (!this.enabled) {
+			return;
+		}
+		if (this.state == State.OPEN) {
+			if (System.nanoTime() - this.openedAt < this.waitInOpenStateNanos) {
+				this.notPermittedCounter.increment();
+				throw new UpstreamUnavailableException("Circuit breaker for the remote repository is open");
+			}
+			transitionTo(State.HALF_OPEN);
+		}
+		if (this.state == State.HALF_OPEN) {
+			if (this.trialCalls >= this.permittedCallsInHalfOpenState) {
+				this.notPermittedCounter.increment();
+				throw new UpstreamUnavailableException("Circuit breaker for the remote repository is half open");
+			}
+			this.trialCalls++;
+		}
+	}
+
+	/**
+	 * Records the outcome of a call that was let through.
+	 * @param durationNanos How long the remote took to send the response headers
+	 * @param failed Whether the call failed with an I/O error or a 5xx response
+	 */
+	synchronized void onResult(long durationNanos, boolean failed) {
+		if (!this.enabled) {
+			return;
+		}
+		boolean slow = durationNanos >= this.slowCallNanos;
+		this.meterRegistry
+			.counter(METRIC_PREFIX + ".calls", "outcome", failed ? "failure" : "success", "slow", String.valueOf(slow))
+			.increment();
+		if (this.state == State.OPEN) {
+			// Started before the circuit opened
+			return;
+		}
+		record(failed, slow);
+		if (this.state == State.HALF_OPEN) {
+			if (this.bufferedCalls >= this.permittedCallsInHalfOpenState) {
+				transitionTo(thresholdsExceeded() ? State.OPEN : State.CLOSED);
+			}
+		}
+		else if (this.bufferedCalls >= this.minimumCalls && thresholdsExceeded()) {
+			transitionTo(State.OPEN);
+		}
+	}
+
+	/**
+	 * Hands back the permission of a call that was let through but never reached the
+	 * remote, so that it does not use up a trial call.
+	 */
+	synchronized void onNotAttempted() {
+		if (this.state == State.HALF_OPEN && this.trialCalls > 0) {
+			this.trialCalls--;
+		}
+	}
+
+	/**
+	 * @return Whether calls to the remote are being rejected, or the wait has elapsed and
+	 * the next call is let through as a trial.
+	 */
+	synchronized boolean isOpen() {
+		return this.state == State.OPEN;
+	}
+
+	synchronized State state() {
+		return this.state;
+	}
+
+	/**
+	 * @return Percentage of failed calls in the window, or -1 if it holds no calls yet.
+	 */
+	synchronized int failureRate() {
+		return this.bufferedCalls == 0 ? -1 : this.failedCount * 100 / this.bufferedCalls;
+	}
+
+	/**
+	 * @return Percentage of slow calls in the window, or -1 if it holds no calls yet.
+	 */
+	synchronized int slowCallRate() {
+		return this.bufferedCalls == 0 ? -1 : this.slowCount * 100 / this.bufferedCalls;
+	}
+
+	synchronized int bufferedCalls() {
+		return this.bufferedCalls;
+	}
+
+	private void record(boolean failed, boolean slow) {
+		if (this.bufferedCalls == this.failedCalls.length) {
+			// Evict the oldest outcome
+			this.failedCount -= this.failedCalls[this.nextCall] ? 1 : 0;
+			this.slowCount -= this.slowCalls[this.nextCall] ? 1 : 0;
+		}
+		else {
+			this.bufferedCalls++;
+		}
+		this.failedCalls[this.nextCall] = failed;
+		this.slowCalls[this.nextCall] = slow;
+		this.failedCount += failed ? 1 : 0;
+		this.slowCount += slow ? 1 : 0;
+		this.nextCall = (this.nextCall + 1) % this.failedCalls.length;
+	}
+
+	private boolean thresholdsExceeded() {
+		return failureRate() >= this.failureRateThreshold || slowCallRate() >= this.slowCallRateThreshold;
+	}
+
+	private void transitionTo(State newState) {
+		if (newState == State.OPEN) {
+			logger.warn("Opening circuit breaker for the remote repository: {}% failed, {}% slow of the last {} calls",
+					failureRate(), slowCallRate(), this.bufferedCalls);
+			this.openedAt = System.nanoTime();
+		}
+		else {
+			logger.info("Circuit breaker for the remote repository is now {}", newState);
+		}
+		this.state = newState;
+		this.nextCall = 0;
+		this.bufferedCalls = 0;
+		this.failedCount = 0;
+		this.slowCount = 0;
+		this.trialCalls = 0;
+	}
+
+}
@@ -0,0 +1,36 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.stereotype.Component;
+
+/**
+ * Reports the state of the {@link UpstreamCircuitBreaker} as the
+ * {@code upstreamCircuitBreaker} health component. An open circuit is reported as
+ * {@code CIRCUIT_OPEN}, which the default status aggregator ignores: the proxy keeps
+ * serving cached artifacts and should not be taken out of rotation for it.
+ */
+@Component
+class UpstreamCircuitBreakerHealthIndicator implements HealthIndicator {
+
+	static final Status CIRCUIT_OPEN = new Status("CIRCUIT_OPEN", "Remote repository calls are being rejected");
+
+	private final UpstreamCircuitBreaker circuitBreaker;
+
+	UpstreamCircuitBreakerHealthIndicator(UpstreamCircuitBreaker circuitBreaker) {
+		this.circuitBreaker = circuitBreaker;
+	}
+
+	@Override
+	public Health health() {
+		UpstreamCircuitBreaker.State state = circuitBreaker.state();
+		return Health.status(state == UpstreamCircuitBreaker.State.OPEN ? CIRCUIT_OPEN : Status.UP)
+			.withDetail("state", state)
+			.withDetail("failureRate", circuitBreaker.failureRate())
+			.withDetail("slowCallRate", circuitBreaker.slowCallRate())
+			.withDetail("bufferedCalls", circuitBreaker.bufferedCalls())
+			.build();
+	}
+
+}
@@ -0,0 +1,263 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import jp.co.broadcom.tanzu.springenterpriseproxy.SpringEnterpriseProxyProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestClientResponseException;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.io.IOException;
+import java.net.Authenticator;
+import java.net.PasswordAuthentication;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+/**
+ * Talks to the remote repository over a dedicated JDK {@link HttpClient} with connect,
+ * read and total timeouts, HTTP/2 where the remote supports it, and a cap on concurrent
+ * requests per host. Every call passes the {@link UpstreamCircuitBreaker}.
+ */
+@Component
+class UpstreamClient implements DisposableBean {
+
+	private static final Logger logger = LoggerFactory.getLogger(UpstreamClient.class);
+
+	private final SpringEnterpriseProxyProperties config;
+
+	private final RestClient restClient;
+
+	private final UpstreamCircuitBreaker circuitBreaker;
+
+	private final HostConcurrencyLimiter concurrencyLimiter;
+
+	private final RedirectLocationCache redirectLocations;
+
+	private final Duration totalTimeout;
+
+	private final ScheduledThreadPoolExecutor timeoutScheduler;
+
+	UpstreamClient(SpringEnterpriseProxyProperties config, RestClient.Builder restClientBuilder,
+			UpstreamCircuitBreaker circuitBreaker, RedirectLocationCache redirectLocations,
+			MeterRegistry meterRegistry) {
+		this.config = config;
+		this.circuitBreaker = circuitBreaker;
+		this.redirectLocations = redirectLocations;
+		SpringEnterpriseProxyProperties.Upstream upstream = config.upstream();
+		this.concurrencyLimiter = new HostConcurrencyLimiter(upstream.maxConcurrentRequestsPerHost(),
+				upstream.acquireTimeout(), meterRegistry);
+		this.totalTimeout = upstream.totalTimeout();
+		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("upstream-timeout-");
+		threadFactory.setDaemon(true);
+		this.timeoutScheduler = new ScheduledThreadPoolExecutor(1, threadFactory);
+		this.timeoutScheduler.setRemoveOnCancelPolicy(true);
+
+		// Redirects are followed by fetch(), so that credentials never reach the CDN
+		// https://stackoverflow.com/questions/17970633/header-values-overwritten-on-redirect-in-httpclient
+		HttpClient.Builder httpClientBuilder = HttpClient.newBuilder()
+			.version(upstream.http2() ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+			.connectTimeout(upstream.connectTimeout())
+			.followRedirects(HttpClient.Redirect.NEVER);
+
+		// Configure Basic Authentication if credentials are provided
+		String username = config.remoteRepoUsername();
+		String password = config.remoteRepoPassword();
+		if (username != null && password != null) {
+			httpClientBuilder.authenticator(new Authenticator() {
+				@Override
+				protected PasswordAuthentication getPasswordAuthentication() {
+					return new PasswordAuthentication(username, password.toCharArray());
+				}
+			});
+		}
+		JdkClientHttpRequestFactory requestFactory = new JdkClientHttpRequestFactory(httpClientBuilder.build());
+		requestFactory.setReadTimeout(upstream.readTimeout());
+		this.restClient = restClientBuilder.requestFactory(requestFactory).build();
+	}
+
+	/**
+	 * Opens a GET request for an artifact against the remote repository. Only the status
+	 * line and headers have been read when this method returns; the body is left on the
+	 * wire so the caller can stream it. A 301/302/303 is followed once, without
+	 * credentials, which is how Artifactory hands out signed CDN URLs. The location is
+	 * remembered in the {@link RedirectLocationCache}, and later fetches of the path go
+	 * there directly while it is valid.
+	 * @param artifactPath The relative path of the artifact
+	 * @return The open upstream response. The caller must close it.
+	 * @throws IOException If the request fails or a redirect has no Location header.
+	 * @throws UpstreamUnavailableException If the {@link UpstreamCircuitBreaker} is open.
+	 * @throws java.io.InterruptedIOException If reading the body outlasts the total
+	 * timeout.
+	 * @throws RestClientResponseException If the remote repository returns a non-2xx
+	 * status (e.g., 404 Not Found).
+	 */
+	UpstreamResponse fetch(String artifactPath) throws IOException, RestClientResponseException {
+		return fetch(artifactPath, HttpHeaders.EMPTY);
+	}
+
+	/**
+	 * Opens a GET request for an artifact with additional request headers, e.g. a
+	 * {@code Range} or the validators of a conditional request. The headers are sent to a
+	 * redirect target as well. The remote may then answer with
+	 * {@code 206 Partial Content} or {@code 304 Not Modified}, or ignore the headers and
+	 * send the whole artifact with {@code 200 OK}; the caller has to check
+	 * {@link UpstreamResponse#statusCode()}.
+	 * @see #fetch(String)
+	 */
+	UpstreamResponse fetch(String artifactPath, HttpHeaders requestHeaders)
+			throws IOException, RestClientResponseException {
+		String remoteUrl = config.remoteRepoUrl() + artifactPath;
+		circuitBreaker.acquirePermission();
+		long start = System.nanoTime();
+		try {
+			UpstreamResponse response = exchange(remoteUrl, artifactPath, requestHeaders);
+			circuitBreaker.onResult(System.nanoTime() - start, false);
+			response.abortAfter(totalTimeout, timeoutScheduler);
+			return response;
+		}
+		catch (NoFreeSlotException e) {
+			// Queued in the proxy without reaching the remote
+			circuitBreaker.onNotAttempted();
+			throw e;
+		}
+		catch (RestClientResponseException e) {
+			// The remote answered; only its own failures count against it
+			circuitBreaker.onResult(System.nanoTime() - start, e.getStatusCode().is5xxServerError());
+			throw e;
+		}
+		catch (IOException | RuntimeException e) {
+			circuitBreaker.onResult(System.nanoTime() - start, true);
+			throw e;
+		}
+	}
+
+	/**
+	 * Sends the request to the remembered redirect location or the remote, following a
+	 * redirect once. Each request holds a slot for the host it actually goes to, and the
+	 * slot of the returned response is released when it is closed.
+	 */
+	private UpstreamResponse exchange(String remoteUrl, String artifactPath, HttpHeaders requestHeaders)
+			throws IOException, RestClientResponseException {
+		Optional<URI> knownLocation = redirectLocations.get(artifactPath);
+		if (knownLocation.isPresent()) {
+			HostConcurrencyLimiter.Permit permit = acquire(knownLocation.get());
+			Optional<ClientHttpResponse> response = fetchKnownLocation(artifactPath, knownLocation.get(),
+					requestHeaders);
+			if (response.isPresent()) {
+				return UpstreamResponse.of(response.get(), permit::release);
+			}
+			permit.release();
+		}
+		logger.debug("Fetching artifact from remote: {}", remoteUrl);
+
+		HostConcurrencyLimiter.Permit permit = acquire(URI.create(remoteUrl));
+		ClientHttpResponse response;
+		try {
+			MediaType contentType = MediaTypeUtil.getMediaTypeForFileName(artifactPath);
+			response = restClient.get().uri(remoteUrl).headers(httpHeaders -> {
+				httpHeaders.setContentType(contentType);
+				httpHeaders.addAll(requestHeaders);
+			}).exchange((request, clientResponse) -> clientResponse, false);
+
+			HttpStatusCode statusCode = response.getStatusCode();
+			if (statusCode == HttpStatus.FOUND || statusCode == HttpStatus.MOVED_PERMANENTLY
+					|| statusCode == HttpStatus.SEE_OTHER) {
+				URI location = response.getHeaders().getLocation();
+				response.close();
+				permit.release();
+				if (location == null) {
+					logger.warn("Received 302/303 but no Location header found.");
+					throw new IOException("Unexpected status from remote: " + statusCode);
+				}
+				logger.debug("Received 302/303");
+
+				URI encodedRedirectUrl = UriComponentsBuilder.fromUriString(location.toString()).build(true).toUri();
+				redirectLocations.put(artifactPath, encodedRedirectUrl);
+
+				// Make a new request to the redirected URL *without* the Authorization
+				// header
+				permit = acquire(encodedRedirectUrl);
+				response = restClient.get()
+					.uri(encodedRedirectUrl)
+					.headers(httpHeaders -> httpHeaders.addAll(requestHeaders))
+					.exchange((request, clientResponse) -> clientResponse, false);
+				logger.debug("Redirected response status: {}", response.getStatusCode());
+			}
+		}
+		catch (IOException | RuntimeException e) {
+			permit.release();
+			throw e;
+		}
+		return UpstreamResponse.of(response, permit::release);
+	}
+
+	private HostConcurrencyLimiter.Permit acquire(URI target) throws NoFreeSlotException {
+		String host = String.valueOf(target.getHost());
+		try {
+			return concurrencyLimiter.acquire(host);
+		}
+		catch (IOException e) {
+			throw new NoFreeSlotException(e);
+		}
+	}
+
+	/**
+	 * Fetches a path from where the remote redirected it to before.
+	 * @return The response, or empty if the location no longer serves the artifact and
+	 * the remote has to be asked again
+	 */
+	private Optional<ClientHttpResponse> fetchKnownLocation(String artifactPath, URI location,
+			HttpHeaders requestHeaders) {
+		logger.debug("Fetching artifact from remembered redirect location: {}", artifactPath);
+		try {
+			ClientHttpResponse response = restClient.get()
+				.uri(location)
+				.headers(httpHeaders -> httpHeaders.addAll(requestHeaders))
+				.exchange((request, clientResponse) -> clientResponse, false);
+			HttpStatusCode statusCode = response.getStatusCode();
+			if (statusCode.is2xxSuccessful() || statusCode.isSameCodeAs(HttpStatus.NOT_MODIFIED)) {
+				return Optional.of(response);
+			}
+			response.close();
+			logger.debug("Remembered redirect location answered {}, asking the remote again: {}", statusCode,
+					artifactPath);
+		}
+		catch (IOException | RestClientException e) {
+			logger.debug("Remembered redirect location failed, asking the remote again: {}: {}", artifactPath,
+					e.getMessage());
+		}
+		redirectLocations.invalidate(artifactPath);
+		return Optional.empty();
+	}
+
+	@Override
+	public void destroy() {
+		this.timeoutScheduler.shutdownNow();
+	}
+
+	/**
+	 * No request slot for the host became free in time, so the request was never sent.
+	 */
+	private static final class NoFreeSlotException extends IOException {
+
+		private NoFreeSlotException(IOException cause) {
+			super(cause.getMessage(), cause);
+		}
+
+	}
+
+}
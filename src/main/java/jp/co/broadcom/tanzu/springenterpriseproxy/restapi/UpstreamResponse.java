@@ -0,0 +1,192 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.client.RestClientResponseException;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A successful response from the remote repository whose body has not been read yet.
+ * Closing the body stream, or the response itself, releases the underlying connection.
+ * <p>
+ * A response can be {@link #abort(String) aborted} from another thread, e.g. when the
+ * transfer takes too long; a read blocked on the body then fails instead of reporting the
+ * end of the stream, so that a truncated body is never mistaken for a complete one.
+ */
+final class UpstreamResponse implements Closeable {
+
+	private final ClientHttpResponse response;
+
+	private final HttpStatusCode statusCode;
+
+	private final HttpHeaders headers;
+
+	private final Runnable onClose;
+
+	private final AtomicBoolean closed = new AtomicBoolean();
+
+	private volatile String abortReason;
+
+	private volatile Future<?> abortTimer;
+
+	private UpstreamResponse(ClientHttpResponse response, HttpStatusCode statusCode, Runnable onClose) {
+		this.response = response;
+		this.statusCode = statusCode;
+		this.headers = response.getHeaders();
+		this.onClose = onClose;
+	}
+
+	/**
+	 * Wraps a raw client response, converting any non-2xx status into a
+	 * {@link RestClientResponseException} (and closing the response) the same way
+	 * {@code RestClient.retrieve()} would. {@code 304 Not Modified}, the answer to a
+	 * conditional request, is passed through.
+	 */
+	static UpstreamResponse of(ClientHttpResponse response) throws IOException {
+		return of(response, () -> {
+		});
+	}
+
+	/**
+	 * Like {@link #of(ClientHttpResponse)}, running the given action once the response
+	 * has been closed, whether it was passed through or converted into an exception.
+	 */
+	static UpstreamResponse of(ClientHttpResponse response, Runnable onClose) throws IOException {
+		HttpStatusCode statusCode;
+		try {
+			statusCode = response.getStatusCode();
+		}
+		catch (IOException | RuntimeException e) {
+			response.close();
+			onClose.run();
+			throw e;
+		}
+		if (!statusCode.is2xxSuccessful() && !statusCode.isSameCodeAs(HttpStatus.NOT_MODIFIED)) {
+			try (response) {
+				byte[] body = StreamUtils.copyToByteArray(response.getBody());
+				throw new RestClientResponseException("Unexpected status from remote: " + statusCode, statusCode,
+						response.getStatusText(), response.getHeaders(), body, null);
+			}
+			finally {
+				onClose.run();
+			}
+		}
+		return new UpstreamResponse(response, statusCode, onClose);
+	}
+
+	HttpStatusCode statusCode() {
+		return this.statusCode;
+	}
+
+	HttpHeaders headers() {
+		return this.headers;
+	}
+
+	/**
+	 * @return The {@code Content-Length} announced by the remote, or -1 if unknown.
+	 */
+	long contentLength() {
+		return this.headers.getContentLength();
+	}
+
+	/**
+	 * @return The response body. Closing it closes this response.
+	 */
+	InputStream body() throws IOException {
+		return new FilterInputStream(this.response.getBody()) {
+			@Override
+			public int read() throws IOException {
+				try {
+					int b = super.read();
+					if (b == -1) {
+						throwIfAborted();
+					}
+					return b;
+				}
+				catch (IOException e) {
+					throwIfAborted();
+					throw e;
+				}
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				try {
+					int n = super.read(b, off, len);
+					if (n == -1) {
+						throwIfAborted();
+					}
+					return n;
+				}
+				catch (IOException e) {
+					throwIfAborted();
+					throw e;
+				}
+			}
+
+			@Override
+			public void close() {
+				UpstreamResponse.this.close();
+			}
+		};
+	}
+
+	/**
+	 * Aborts the response unless it has been closed by then.
+	 */
+	void abortAfter(Duration timeout, ScheduledExecutorService scheduler) {
+		this.abortTimer = scheduler.schedule(() -> abort("Transfer from remote did not complete within " + timeout),
+				timeout.toMillis(), TimeUnit.MILLISECONDS);
+		if (this.closed.get()) {
+			this.abortTimer.cancel(false);
+		}
+	}
+
+	/**
+	 * Closes the response, failing any read of its body that is in progress or follows.
+	 */
+	void abort(String reason) {
+		if (!this.closed.get()) {
+			this.abortReason = reason;
+			close();
+		}
+	}
+
+	private void throwIfAborted() throws IOException {
+		String reason = this.abortReason;
+		if (reason != null) {
+			throw new InterruptedIOException(reason);
+		}
+	}
+
+	@Override
+	public void close() {
+		if (!this.closed.compareAndSet(false, true)) {
+			return;
+		}
+		Future<?> timer = this.abortTimer;
+		if (timer != null) {
+			timer.cancel(false);
+		}
+		try {
+			this.response.close();
+		}
+		finally {
+			this.onClose.run();
+		}
+	}
+
+}
@@ -0,0 +1,15 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import java.io.IOException;
+
+/**
+ * Thrown instead of calling the remote repository while the
+ * {@link UpstreamCircuitBreaker} is open.
+ */
+class UpstreamUnavailableException extends IOException {
+
+	UpstreamUnavailableException(String message) {
+		super(message);
+	}
+
+}
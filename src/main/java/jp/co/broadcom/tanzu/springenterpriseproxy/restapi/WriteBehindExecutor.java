@@ -0,0 +1,174 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import jp.co.broadcom.tanzu.springenterpriseproxy.SpringEnterpriseProxyProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes fetched artifacts to the {@link ArtifactContentStore} on a small pool of its own
+ * when {@code spring.enterprise.proxy.write-behind.enabled} is set, so that a miss is
+ * answered without waiting for the database.
+ * <p>
+ * Both the number of queued writes and the total size of the bodies they hold are
+ * bounded. Once either is reached, writes run on the calling request thread again, which
+ * slows clients down to the pace the content store can keep up with instead of piling up
+ * bodies on the heap. On shutdown, pending writes are drained for up to
+ * {@code drain-timeout}.
+ */
+@Component
+class WriteBehindExecutor implements DisposableBean {
+
+	private static final Logger logger = LoggerFactory.getLogger(WriteBehindExecutor.class);
+
+	static final String EXECUTOR_NAME = "write-behind";
+
+	private static final String METRIC_PREFIX = "spring.enterprise.proxy.write.behind";
+
+	private final SpringEnterpriseProxyProperties.WriteBehind config;
+
+	private final ExecutorService executor;
+
+	private final AtomicInteger pendingWrites = new AtomicInteger();
+
+	private final AtomicLong pendingBytes = new AtomicLong();
+
+	private final Timer latencyTimer;
+
+	private final Counter failedCounter;
+
+	private final Counter callerRunsCounter;
+
+	/**
+	 * Takes the content store although it does not use it, so that it is destroyed, and
+	 * has drained its pending writes, before the content store and its data source are.
+	 */
+	WriteBehindExecutor(SpringEnterpriseProxyProperties config, ArtifactContentStore contentStore,
+			MeterRegistry meterRegistry) {
+		this.config = config.writeBehind();
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(this.config.threads(), this.config.threads(), 1,
+				TimeUnit.MINUTES, new ArrayBlockingQueue<>(this.config.queueCapacity()),
+				new CustomizableThreadFactory(EXECUTOR_NAME + "-"));
+		pool.allowCoreThreadTimeOut(true);
+
+		// pool size, queued and completed tasks, execution and idle time
+		this.executor = ExecutorServiceMetrics.monitor(meterRegistry, pool, EXECUTOR_NAME);
+		this.latencyTimer = Timer.builder(METRIC_PREFIX + ".latency")
+			.description("Time from fetching an artifact to having it written, including the time queued")
+			.register(meterRegistry);
+		this.failedCounter = Counter.builder(METRIC_PREFIX + ".failed")
+			.description("Fetched artifacts that could not be written to the content store")
+			.register(meterRegistry);
+		this.callerRunsCounter = Counter.builder(METRIC_PREFIX + ".caller.runs")
+			.description("Fetched artifacts written on the request thread because too many writes were pending")
+			.register(meterRegistry);
+		Gauge.builder(METRIC_PREFIX + ".pending", this.pendingWrites, AtomicInteger::get)
+			.description("Fetched artifacts queued or being written")
+			.register(meterRegistry);
+		Gauge.builder(METRIC_PREFIX + ".pending.bytes", this.pendingBytes, AtomicLong::get)
+			.description("Size of the bodies of the fetched artifacts queued or being written")
+			.baseUnit("bytes")
+			.register(meterRegistry);
+	}
+
+	boolean isEnabled() {
+		return this.config.enabled();
+	}
+
+	/**
+	 * Runs a write in the background, or right away on the calling thread if write-behind
+	 * is disabled or too many writes are pending. A write that fails is logged and
+	 * counted either way, and never reaches the caller.
+	 * @param size The number of body bytes the write holds on to until it is done
+	 */
+	void execute(String artifactPath, long size, CacheWrite write) {
+		if (!isEnabled()) {
+			run(artifactPath, write, System.nanoTime());
+			return;
+		}
+		long pending = this.pendingBytes.addAndGet(size);
+		// A single body larger than the limit still goes, on its own
+		if (pending > this.config.maxPendingSize().toBytes() && pending > size) {
+			this.pendingBytes.addAndGet(-size);
+			runOnCaller(artifactPath, write);
+			return;
+		}
+		this.pendingWrites.incrementAndGet();
+		long queuedAt = System.nanoTime();
+		try {
+			this.executor.execute(() -> {
+				try {
+					run(artifactPath, write, queuedAt);
+				}
+				finally {
+					this.pendingWrites.decrementAndGet();
+					this.pendingBytes.addAndGet(-size);
+				}
+			});
+		}
+		catch (RejectedExecutionException e) {
+			// Queue full, or shutting down
+			this.pendingWrites.decrementAndGet();
+			this.pendingBytes.addAndGet(-size);
+			runOnCaller(artifactPath, write);
+		}
+	}
+
+	private void runOnCaller(String artifactPath, CacheWrite write) {
+		this.callerRunsCounter.increment();
+		logger.debug("Too many pending writes, writing {} on the request thread", artifactPath);
+		run(artifactPath, write, System.nanoTime());
+	}
+
+	private void run(String artifactPath, CacheWrite write, long queuedAt) {
+		try {
+			write.run();
+		}
+		catch (Exception e) {
+			this.failedCounter.increment();
+			logger.warn("Failed to cache {}: {}", artifactPath, e.getMessage(), e);
+		}
+		finally {
+			this.latencyTimer.record(System.nanoTime() - queuedAt, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	@Override
+	public void destroy() throws InterruptedException {
+		this.executor.shutdown();
+		if (this.pendingWrites.get() > 0) {
+			logger.info("Waiting for {} pending writes to finish", this.pendingWrites.get());
+		}
+		if (!this.executor.awaitTermination(this.config.drainTimeout().toMillis(), TimeUnit.MILLISECONDS)) {
+			logger.warn("Shutting down with {} writes still pending, they will be fetched again",
+					this.pendingWrites.get());
+			this.executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Writes a fetched artifact to the content store.
+	 */
+	@FunctionalInterface
+	interface CacheWrite {
+
+		void run() throws Exception;
+
+	}
+
+}
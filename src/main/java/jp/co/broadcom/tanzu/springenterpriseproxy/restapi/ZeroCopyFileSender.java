@@ -0,0 +1,92 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jp.co.broadcom.tanzu.springenterpriseproxy.SpringEnterpriseProxyProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import java.io.IOException;
+
+/**
+ * Hands file-backed artifact bodies to the servlet container's sendfile support, so that
+ * the kernel copies them from the page cache straight to the socket instead of through
+ * heap buffers.
+ * <p>
+ * This relies on Tomcat's request attributes, the same ones its {@code DefaultServlet}
+ * uses. Tomcat advertises support per request, so connectors or requests that cannot use
+ * sendfile (e.g. TLS) fall back to the regular copy through the message converter.
+ * <p>
+ * The container opens and sends the file once the request has been handled, without the
+ * body's stream ever being opened. A cached artifact whose file is handed over therefore
+ * counts as open with the {@link ArtifactAccessTracker} until the request is completed,
+ * so that it is not evicted while the response is prepared. From then on the container
+ * holds the file open, which survives its deletion on POSIX file systems.
+ */
+@Component
+class ZeroCopyFileSender {
+
+	private static final Logger logger = LoggerFactory.getLogger(ZeroCopyFileSender.class);
+
+	static final String SENDFILE_SUPPORTED_ATTR = "org.apache.tomcat.sendfile.support";
+
+	static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+
+	static final String SENDFILE_FILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+
+	static final String SENDFILE_FILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+
+	private static final String HOLD_ATTR = ZeroCopyFileSender.class.getName() + ".hold";
+
+	private final boolean enabled;
+
+	private final long minSize;
+
+	ZeroCopyFileSender(SpringEnterpriseProxyProperties config) {
+		this.enabled = config.zeroCopy().enabled();
+		this.minSize = config.zeroCopy().minSize().toBytes();
+	}
+
+	/**
+	 * Arranges for the container to send the whole resource after the response headers,
+	 * if possible. The caller must then set the {@code Content-Length} and must not write
+	 * a body. Range requests are left to the caller, which cuts the requested regions out
+	 * of the resource.
+	 * @return {@code true} if the container will send the body, {@code false} if the
+	 * caller has to write it.
+	 */
+	boolean trySend(Resource resource, HttpServletRequest request) {
+		if (!this.enabled || resource == null || !resource.isFile() || request.getHeader(HttpHeaders.RANGE) != null
+				|| !Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED_ATTR))) {
+			return false;
+		}
+		try {
+			long length = resource.contentLength();
+			if (length < this.minSize) {
+				return false;
+			}
+			request.setAttribute(SENDFILE_FILENAME_ATTR, resource.getFile().getCanonicalPath());
+			request.setAttribute(SENDFILE_FILE_START_ATTR, 0L);
+			request.setAttribute(SENDFILE_FILE_END_ATTR, length);
+			holdUntilCompleted(resource);
+			return true;
+		}
+		catch (IOException e) {
+			logger.debug("Cannot use sendfile for {}, copying it instead: {}", resource, e.getMessage());
+			return false;
+		}
+	}
+
+	private static void holdUntilCompleted(Resource resource) {
+		Resource stored = resource instanceof ContentEncodedResource encoded ? encoded.content() : resource;
+		RequestAttributes requestAttributes = RequestContextHolder.getRequestAttributes();
+		if (stored instanceof ArtifactAccessTracker.Tracked tracked && requestAttributes != null) {
+			requestAttributes.registerDestructionCallback(HOLD_ATTR, tracked.hold(), RequestAttributes.SCOPE_REQUEST);
+		}
+	}
+
+}
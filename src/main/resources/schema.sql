@@ -3,9 +3,42 @@
 CREATE TABLE IF NOT EXISTS artifact (
                            id VARCHAR(36) NOT NULL PRIMARY KEY,
                            path VARCHAR(512) NOT NULL,
-                           content BLOB NOT NULL,
+                           content_length BIGINT NOT NULL,
+                           sha256 CHAR(64),
                            content_type VARCHAR(255) NOT NULL,
-                           last_modified TIMESTAMP NOT NULL
+                           last_modified TIMESTAMP NOT NULL,
+                           upstream_etag VARCHAR(255),
+                           upstream_last_modified VARCHAR(64),
+                           validated_at TIMESTAMP,
+                           sha1 CHAR(40),
+                           md5 CHAR(32),
+                           sha512 CHAR(128),
+                           last_accessed_at TIMESTAMP,
+                           hits BIGINT NOT NULL DEFAULT 0,
+                           content_encoding VARCHAR(16),
+                           encoded_length BIGINT,
+                           content_key VARCHAR(80),
+                           CONSTRAINT uk_artifact_path UNIQUE (path)
+);
+
+CREATE TABLE IF NOT EXISTS artifact_body (
+                           content_key VARCHAR(80) NOT NULL PRIMARY KEY,
+                           ref_count BIGINT NOT NULL,
+                           stored_length BIGINT NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS artifact_chunk (
+                           content_key VARCHAR(80) NOT NULL,
+                           seq INT NOT NULL,
+                           data BLOB NOT NULL,
+                           PRIMARY KEY (content_key, seq),
+                           CONSTRAINT fk_artifact_chunk_body FOREIGN KEY (content_key)
+                               REFERENCES artifact_body (content_key) ON DELETE CASCADE
+);
+
+CREATE TABLE IF NOT EXISTS artifact_miss (
+                           path VARCHAR(512) NOT NULL PRIMARY KEY,
+                           expires_at TIMESTAMP NOT NULL
 );
 
 CREATE TABLE IF NOT EXISTS event_publication
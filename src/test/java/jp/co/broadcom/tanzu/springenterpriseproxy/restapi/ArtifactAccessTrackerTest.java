@@ -0,0 +1,117 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.dao.QueryTimeoutException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.LocalDateTime;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(MockitoExtension.class)
+class ArtifactAccessTrackerTest {
+
+	private static final String ARTIFACT_PATH = "/org/example/library/1.0.0/library-1.0.0.jar";
+
+	@Mock
+	private ArtifactRepository artifactRepository;
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	private final Artifact artifact = Artifact.cached(ARTIFACT_PATH, 3, null, "application/java-archive",
+			LocalDateTime.now());
+
+	private ArtifactAccessTracker accessTracker;
+
+	@BeforeEach
+	void setUp() {
+		accessTracker = new ArtifactAccessTracker(artifactRepository, meterRegistry);
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void flush_writesCollectedAccessesOnce() {
+		accessTracker.recordAccess(artifact);
+		accessTracker.recordAccess(artifact);
+		assertThat(meterRegistry.get("spring.enterprise.proxy.eviction.access.pending").gauge().value()).isOne();
+
+		accessTracker.flush();
+		accessTracker.flush();
+
+		ArgumentCaptor<Map<String, ArtifactAccessTracker.Access>> accesses = ArgumentCaptor.forClass(Map.class);
+		verify(artifactRepository, times(1)).recordAccesses(accesses.capture());
+		assertThat(accesses.getValue()).containsOnlyKeys(artifact.id());
+		assertThat(accesses.getValue().get(artifact.id()).hits()).isEqualTo(2);
+		assertThat(accessTracker.hasPendingAccess(artifact.id())).isFalse();
+	}
+
+	@Test
+	void flush_failed_keepsAccessesForTheNextFlush() {
+		accessTracker.recordAccess(artifact);
+		doThrow(new QueryTimeoutException("timeout")).when(artifactRepository).recordAccesses(any());
+
+		accessTracker.flush();
+		accessTracker.recordAccess(artifact);
+
+		assertThat(accessTracker.hasPendingAccess(artifact.id())).isTrue();
+	}
+
+	@Test
+	void evictUnlessStreaming_waitsForOpenBodiesToBeClosed() throws IOException {
+		Resource content = accessTracker.track(artifact, new ByteArrayResource("jar".getBytes()));
+		Runnable eviction = mock(Runnable.class);
+
+		InputStream first = content.getInputStream();
+		InputStream second = content.getInputStream();
+		assertThat(accessTracker.evictUnlessStreaming(artifact.id(), eviction::run)).isFalse();
+		first.close();
+		first.close();
+		assertThat(accessTracker.isStreaming(artifact.id())).isTrue();
+		second.close();
+
+		assertThat(accessTracker.isStreaming(artifact.id())).isFalse();
+		assertThat(accessTracker.evictUnlessStreaming(artifact.id(), eviction::run)).isTrue();
+		verify(eviction).run();
+		assertThat(content.contentLength()).isEqualTo(3);
+	}
+
+	@Test
+	void hold_countsAsOpenUntilReleased() throws IOException {
+		Resource content = accessTracker.track(artifact, new ByteArrayResource("jar".getBytes()));
+		Runnable eviction = mock(Runnable.class);
+
+		Runnable release = ((ArtifactAccessTracker.Tracked) content).hold();
+		assertThat(accessTracker.evictUnlessStreaming(artifact.id(), eviction::run)).isFalse();
+		release.run();
+		release.run();
+
+		assertThat(accessTracker.isStreaming(artifact.id())).isFalse();
+		assertThat(accessTracker.evictUnlessStreaming(artifact.id(), eviction::run)).isTrue();
+		verify(eviction).run();
+	}
+
+	@Test
+	void track_doesNotOpenUntilRead() throws IOException {
+		accessTracker.track(artifact, new ByteArrayResource("jar".getBytes()));
+
+		assertThat(accessTracker.isStreaming(artifact.id())).isFalse();
+		verify(artifactRepository, never()).recordAccesses(any());
+	}
+
+}
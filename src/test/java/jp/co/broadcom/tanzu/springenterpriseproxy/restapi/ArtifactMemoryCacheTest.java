@@ -0,0 +1,99 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jp.co.broadcom.tanzu.springenterpriseproxy.SpringEnterpriseProxyProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.util.unit.DataSize;
+
+import java.time.LocalDateTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ArtifactMemoryCacheTest {
+
+	private final String POM_PATH = "/org/example/library/1.0.0/library-1.0.0.pom";
+
+	@Mock
+	private SpringEnterpriseProxyProperties springEnterpriseProxyProperties;
+
+	private MeterRegistry meterRegistry;
+
+	private ArtifactMemoryCache memoryCache;
+
+	@BeforeEach
+	void setUp() {
+		meterRegistry = new SimpleMeterRegistry();
+		memoryCache = newCache(true);
+	}
+
+	private ArtifactMemoryCache newCache(boolean enabled) {
+		when(springEnterpriseProxyProperties.memoryCache()).thenReturn(new SpringEnterpriseProxyProperties.MemoryCache(
+				enabled, DataSize.ofKilobytes(8), DataSize.ofKilobytes(2)));
+		return new ArtifactMemoryCache(springEnterpriseProxyProperties, meterRegistry);
+	}
+
+	private static Artifact artifact(String path, int size) {
+		return Artifact.cached(path, size, null, "text/xml", LocalDateTime.now());
+	}
+
+	private void put(Artifact artifact) {
+		memoryCache.put(artifact, new byte[(int) artifact.contentLength()]);
+	}
+
+	@Test
+	void cachesSmallArtifacts() {
+		Artifact pom = artifact(POM_PATH, 100);
+
+		put(pom);
+
+		assertThat(memoryCache.get(POM_PATH)).hasValueSatisfying(entry -> {
+			assertThat(entry.artifact()).isSameAs(pom);
+			assertThat(entry.content()).hasSize(100);
+		});
+		assertThat(memoryCache.get("/missing.pom")).isEmpty();
+		assertThat(meterRegistry.get("cache.gets")
+			.tag("cache", "artifact-memory")
+			.tag("result", "hit")
+			.functionCounter()
+			.count()).isEqualTo(1);
+		assertThat(meterRegistry.get("cache.gets")
+			.tag("cache", "artifact-memory")
+			.tag("result", "miss")
+			.functionCounter()
+			.count()).isEqualTo(1);
+	}
+
+	@Test
+	void neverAdmitsArtifactsAboveEntryCap() {
+		put(artifact("/large.jar", 4096));
+
+		assertThat(memoryCache.get("/large.jar")).isEmpty();
+	}
+
+	@Test
+	void boundsTotalContentBytes() {
+		for (int i = 0; i < 100; i++) {
+			put(artifact("/artifact-" + i + ".pom", 1024));
+		}
+
+		assertThat(meterRegistry.get("spring.enterprise.proxy.memory.cache.weighted.size").gauge().value())
+			.isLessThanOrEqualTo(DataSize.ofKilobytes(8).toBytes());
+	}
+
+	@Test
+	void disabledCacheHoldsNothing() {
+		memoryCache = newCache(false);
+
+		put(artifact(POM_PATH, 100));
+
+		assertThat(memoryCache.get(POM_PATH)).isEmpty();
+	}
+
+}
@@ -0,0 +1,60 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.jdbc.DataJdbcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.dao.DuplicateKeyException;
+
+import java.time.LocalDateTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@DataJdbcTest
+@Import(ArtifactRepositoryTestConfig.class)
+class ArtifactMissRepositoryTest {
+
+	private final String ARTIFACT_PATH = "/com/example/lib/2.0/lib-2.0-javadoc.jar";
+
+	@Autowired
+	private ArtifactMissRepository artifactMissRepository;
+
+	@Test
+	void testFindUnexpired() {
+		LocalDateTime now = LocalDateTime.now();
+		artifactMissRepository.insert(ARTIFACT_PATH, now.plusMinutes(10));
+
+		assertThat(artifactMissRepository.findUnexpired(ARTIFACT_PATH, now)).isPresent();
+		assertThat(artifactMissRepository.findUnexpired(ARTIFACT_PATH, now.plusMinutes(11))).isEmpty();
+	}
+
+	@Test
+	void testUpdateExpiry() {
+		LocalDateTime now = LocalDateTime.now();
+		assertThat(artifactMissRepository.updateExpiry(ARTIFACT_PATH, now.plusMinutes(10))).isZero();
+		artifactMissRepository.insert(ARTIFACT_PATH, now.minusMinutes(1));
+
+		assertThat(artifactMissRepository.updateExpiry(ARTIFACT_PATH, now.plusMinutes(10))).isOne();
+		assertThat(artifactMissRepository.findUnexpired(ARTIFACT_PATH, now)).isPresent();
+	}
+
+	@Test
+	void testInsert_duplicatePath() {
+		artifactMissRepository.insert(ARTIFACT_PATH, LocalDateTime.now());
+
+		assertThrows(DuplicateKeyException.class,
+				() -> artifactMissRepository.insert(ARTIFACT_PATH, LocalDateTime.now()));
+	}
+
+	@Test
+	void testDeleteExpired() {
+		LocalDateTime now = LocalDateTime.now();
+		artifactMissRepository.insert(ARTIFACT_PATH, now.minusMinutes(1));
+		artifactMissRepository.insert("/com/example/lib/2.0/lib-2.0-sources.jar", now.plusMinutes(10));
+
+		assertThat(artifactMissRepository.deleteExpired(now)).isOne();
+		assertThat(artifactMissRepository.deleteAll()).isOne();
+	}
+
+}
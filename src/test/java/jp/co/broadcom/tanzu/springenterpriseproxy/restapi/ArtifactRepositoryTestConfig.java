@@ -1,16 +1,26 @@
 package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.springframework.boot.context.properties.ConfigurationPropertiesBinding;
 import org.springframework.boot.test.context.TestComponent;
 import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
 import org.springframework.core.convert.converter.Converter;
 
 import java.security.interfaces.RSAPrivateKey;
 import java.security.interfaces.RSAPublicKey;
 
 @TestConfiguration
+@Import(ArtifactMemoryCache.class)
 class ArtifactRepositoryTestConfig {
 
+	@Bean
+	MeterRegistry meterRegistry() {
+		return new SimpleMeterRegistry();
+	}
+
 	@TestComponent
 	@ConfigurationPropertiesBinding
 	static class MyPrivateKeyConverter implements Converter<String, RSAPrivateKey> {
@@ -6,11 +6,16 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.data.jdbc.DataJdbcTest;
 import org.springframework.context.annotation.Import;
-import org.springframework.data.relational.core.conversion.DbActionExecutionException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.http.HttpHeaders;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.UUID;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertThrows;
@@ -25,6 +30,8 @@ class ArtifactRepositoryTestContainersTest {
 
 	private final String CONTENT_TYPE = "application/java-archive";
 
+	private final int CHUNK_SIZE = 8;
+
 	@Autowired
 	private ArtifactRepository artifactRepository;
 
@@ -33,28 +40,27 @@ class ArtifactRepositoryTestContainersTest {
 	@BeforeEach
 	void setUp() {
 
-		artifact = new Artifact(ARTIFACT_PATH, ARTIFACT_CONTENT, CONTENT_TYPE, LocalDateTime.now());
+		artifact = Artifact.cached(ARTIFACT_PATH, ARTIFACT_CONTENT.length, null, CONTENT_TYPE, LocalDateTime.now());
 	}
 
 	@Test
-	void testSaveAndFindArtifact() {
-		// Save the artifact
-		artifactRepository.save(artifact);
+	void testInsertAndFindArtifact() {
+		// Insert the artifact
+		artifactRepository.insert(artifact);
 
-		// Find it by ID
-		Optional<Artifact> foundArtifact = artifactRepository
-			.findById(UUID.nameUUIDFromBytes(ARTIFACT_PATH.getBytes()));
+		// Find it by path
+		Optional<Artifact> foundArtifact = artifactRepository.findByPath(ARTIFACT_PATH);
 
 		assertThat(foundArtifact).isPresent();
 		assertThat(foundArtifact.get().path()).isEqualTo(ARTIFACT_PATH);
-		assertThat(foundArtifact.get().content()).isEqualTo(ARTIFACT_CONTENT);
+		assertThat(foundArtifact.get().contentLength()).isEqualTo(ARTIFACT_CONTENT.length);
 		assertThat(foundArtifact.get().contentType()).isEqualTo(CONTENT_TYPE);
 	}
 
 	@Test
 	void testFindByPath() {
-		// Save the artifact
-		artifactRepository.save(artifact);
+		// Insert the artifact
+		artifactRepository.insert(artifact);
 
 		// Find by path
 		Optional<Artifact> foundArtifact = artifactRepository.findByPath(ARTIFACT_PATH);
@@ -71,34 +77,254 @@ class ArtifactRepositoryTestContainersTest {
 	}
 
 	@Test
-	void testSaveDuplicatePath_ThrowsException() {
-		// Save the first artifact
-		artifactRepository.save(artifact);
+	void testInsertDuplicatePath_ThrowsException() {
+		// Insert the first artifact
+		artifactRepository.insert(artifact);
 
-		// Try to save another artifact with the same path
-		Artifact duplicateArtifact = new Artifact(ARTIFACT_PATH, "different-content".getBytes(), "text/plain",
-				LocalDateTime.now());
+		// Try to insert another artifact with the same path
+		Artifact duplicateArtifact = Artifact.cached(ARTIFACT_PATH, 17, null, "text/plain", LocalDateTime.now());
 
-		assertThrows(DbActionExecutionException.class, () -> artifactRepository.save(duplicateArtifact));
+		assertThrows(DuplicateKeyException.class, () -> artifactRepository.insert(duplicateArtifact));
 	}
 
 	@Test
-	void testSaveDuplicatePath_update() {
-		// Save the first artifact
-		artifactRepository.save(artifact);
+	void testDeleteThenInsert_replacesArtifact() {
+		// Insert the first artifact
+		artifactRepository.insert(artifact);
 
-		// Save another artifact with the same path but with id
-		Artifact duplicateArtifact = new Artifact(UUID.nameUUIDFromBytes(ARTIFACT_PATH.getBytes()).toString(),
-				ARTIFACT_PATH, "different-content".getBytes(), "text/plain", LocalDateTime.now());
-		artifactRepository.save(duplicateArtifact);
+		// Replace it with another artifact for the same path
+		artifactRepository.delete(artifact);
+		artifactRepository.insert(Artifact.cached(ARTIFACT_PATH, 17, null, "text/plain", LocalDateTime.now()));
 
 		// Clarify contents has been updated
 		Optional<Artifact> foundArtifact = artifactRepository.findByPath(ARTIFACT_PATH);
 
 		assertThat(foundArtifact).isPresent();
 		assertThat(foundArtifact.get().path()).isEqualTo(ARTIFACT_PATH);
-		assertThat(foundArtifact.get().content()).isEqualTo("different-content".getBytes());
+		assertThat(foundArtifact.get().contentLength()).isEqualTo(17);
 		assertThat(foundArtifact.get().contentType()).isEqualTo("text/plain");
 	}
 
+	@Test
+	void testInsertWithContent() throws IOException {
+		Artifact metadata = Artifact.cached(ARTIFACT_PATH, ARTIFACT_CONTENT.length, null, CONTENT_TYPE,
+				LocalDateTime.now());
+
+		artifactRepository.insertWithContent(metadata, new ByteArrayInputStream(ARTIFACT_CONTENT), CHUNK_SIZE);
+
+		Optional<Artifact> foundArtifact = artifactRepository.findByPath(ARTIFACT_PATH);
+		assertThat(foundArtifact).isPresent();
+		assertThat(foundArtifact.get().contentType()).isEqualTo(CONTENT_TYPE);
+		assertThat(readContent(metadata.id())).isEqualTo(ARTIFACT_CONTENT);
+	}
+
+	@Test
+	void testInsertWithContent_duplicatePath() throws IOException {
+		Artifact metadata = Artifact.cached(ARTIFACT_PATH, ARTIFACT_CONTENT.length, null, CONTENT_TYPE,
+				LocalDateTime.now());
+		artifactRepository.insertWithContent(metadata, new ByteArrayInputStream(ARTIFACT_CONTENT), CHUNK_SIZE);
+
+		assertThrows(DuplicateKeyException.class, () -> artifactRepository.insertWithContent(metadata,
+				new ByteArrayInputStream(ARTIFACT_CONTENT), CHUNK_SIZE));
+		assertThat(readContent(metadata.id())).isEqualTo(ARTIFACT_CONTENT);
+	}
+
+	@Test
+	void testDeleteRemovesContent() throws IOException {
+		Artifact metadata = artifactRepository.insertWithContent(
+				Artifact.cached(ARTIFACT_PATH, ARTIFACT_CONTENT.length, null, CONTENT_TYPE, LocalDateTime.now()),
+				new ByteArrayInputStream(ARTIFACT_CONTENT), CHUNK_SIZE);
+
+		artifactRepository.delete(metadata);
+
+		assertThat(artifactRepository.hasContent(metadata.id())).isFalse();
+	}
+
+	@Test
+	void testFindWithDatabaseContent() throws IOException {
+		artifactRepository.insertWithContent(
+				Artifact.cached(ARTIFACT_PATH, ARTIFACT_CONTENT.length, null, CONTENT_TYPE, LocalDateTime.now()),
+				new ByteArrayInputStream(ARTIFACT_CONTENT), CHUNK_SIZE);
+		String pomPath = "/com/example/lib/2.0/lib-2.0.pom";
+		artifactRepository.insert(Artifact.cached(pomPath, 0, null, "text/xml", LocalDateTime.now()));
+
+		List<Artifact> artifacts = artifactRepository.findWithDatabaseContent(10);
+
+		assertThat(artifacts).extracting(Artifact::path).containsExactly(ARTIFACT_PATH);
+	}
+
+	@Test
+	void testInsertWithContent_splitsIntoChunks() throws IOException {
+		Artifact metadata = artifactRepository.insertWithContent(
+				Artifact.cached(ARTIFACT_PATH, ARTIFACT_CONTENT.length, null, CONTENT_TYPE, LocalDateTime.now()),
+				new ByteArrayInputStream(ARTIFACT_CONTENT), CHUNK_SIZE);
+
+		assertThat(artifactRepository.findChunks(metadata.id(), 0, 10)).extracting(chunk -> chunk.length)
+			.containsExactly(8, 8, 2);
+		assertThat(artifactRepository.findChunks(metadata.id(), 1, 1)).singleElement().isEqualTo("ifact-da".getBytes());
+	}
+
+	@Test
+	void testInsertWithContent_emptyBody() throws IOException {
+		Artifact metadata = artifactRepository.insertWithContent(
+				Artifact.cached(ARTIFACT_PATH, 0, null, CONTENT_TYPE, LocalDateTime.now()),
+				new ByteArrayInputStream(new byte[0]), CHUNK_SIZE);
+
+		assertThat(artifactRepository.hasContent(metadata.id())).isTrue();
+		assertThat(readContent(metadata.id())).isEmpty();
+	}
+
+	@Test
+	void testMarkValidated() throws IOException {
+		LocalDateTime fetched = LocalDateTime.now().minusHours(1).withNano(0);
+		Artifact metadata = artifactRepository.insertWithContent(
+				Artifact.cached(ARTIFACT_PATH, ARTIFACT_CONTENT.length, null, CONTENT_TYPE, fetched)
+					.withUpstreamValidators("\"v1\"", "Sat, 01 Jun 2024 12:00:00 GMT"),
+				new ByteArrayInputStream(ARTIFACT_CONTENT), CHUNK_SIZE);
+		LocalDateTime validated = LocalDateTime.now().withNano(0);
+
+		assertThat(artifactRepository.markValidated(metadata.id(), validated)).isOne();
+
+		Artifact found = artifactRepository.findByPath(ARTIFACT_PATH).orElseThrow();
+		assertThat(found.validatedAt()).isEqualTo(validated);
+		assertThat(found.lastModified()).isEqualTo(fetched);
+		assertThat(found.upstreamEtag()).isEqualTo("\"v1\"");
+	}
+
+	@Test
+	void testInsertWithContent_keepsDigests() throws IOException {
+		ChecksumVerifier checksums = new ChecksumVerifier(new HttpHeaders());
+		checksums.update(ARTIFACT_CONTENT, 0, ARTIFACT_CONTENT.length);
+		artifactRepository.insertWithContent(
+				Artifact.fetched(ARTIFACT_PATH, ARTIFACT_CONTENT.length, checksums, new HttpHeaders()),
+				new ByteArrayInputStream(ARTIFACT_CONTENT), CHUNK_SIZE);
+
+		Artifact found = artifactRepository.findByPath(ARTIFACT_PATH).orElseThrow();
+		assertThat(found.sha1()).isEqualTo(checksums.sha1()).hasSize(40);
+		assertThat(found.md5()).isEqualTo(checksums.md5()).hasSize(32);
+		assertThat(found.sha256()).isEqualTo(checksums.sha256()).hasSize(64);
+		assertThat(found.sha512()).isEqualTo(checksums.sha512()).hasSize(128);
+	}
+
+	@Test
+	void testInsertAllWithContent() throws IOException {
+		String pomPath = "/com/example/lib/2.0/lib-2.0.pom";
+		Map<Artifact, byte[]> batch = new LinkedHashMap<>();
+		batch.put(Artifact.cached(ARTIFACT_PATH, ARTIFACT_CONTENT.length, null, CONTENT_TYPE, LocalDateTime.now()),
+				ARTIFACT_CONTENT);
+		batch.put(Artifact.cached(pomPath, 0, null, "text/xml", LocalDateTime.now()), new byte[0]);
+
+		artifactRepository.insertAllWithContent(batch, CHUNK_SIZE);
+
+		assertThat(artifactRepository.findByPathIn(List.of(ARTIFACT_PATH, pomPath, "/missing.jar")))
+			.extracting(Artifact::path)
+			.containsExactlyInAnyOrder(ARTIFACT_PATH, pomPath);
+		assertThat(readContent(Artifact.idForPath(ARTIFACT_PATH))).isEqualTo(ARTIFACT_CONTENT);
+		assertThat(artifactRepository.hasContent(Artifact.idForPath(pomPath))).isTrue();
+	}
+
+	@Test
+	void testInsertAll_duplicatePath() {
+		String pomPath = "/com/example/lib/2.0/lib-2.0.pom";
+		Artifact jar = Artifact.cached(ARTIFACT_PATH, ARTIFACT_CONTENT.length, null, CONTENT_TYPE, LocalDateTime.now());
+		artifactRepository.insert(jar);
+
+		assertThrows(DuplicateKeyException.class, () -> artifactRepository
+			.insertAll(List.of(Artifact.cached(pomPath, 0, null, "text/xml", LocalDateTime.now()), jar)));
+		assertThat(artifactRepository.findByPath(ARTIFACT_PATH)).get()
+			.extracting(Artifact::contentLength)
+			.isEqualTo(jar.contentLength());
+	}
+
+	@Test
+	void testFindPageAfter() {
+		List<String> paths = List.of("/a/1.jar", "/b/1.jar", "/c/1.jar");
+		artifactRepository.insertAll(
+				paths.stream().map(path -> Artifact.cached(path, 0, null, CONTENT_TYPE, LocalDateTime.now())).toList());
+
+		List<Artifact> first = artifactRepository.findPageAfter("", 2);
+		List<Artifact> second = artifactRepository.findPageAfter(first.get(1).id(), 2);
+
+		assertThat(first).extracting(Artifact::id).isSorted();
+		assertThat(second).hasSize(1);
+		assertThat(first.get(1).id()).isLessThan(second.get(0).id());
+		assertThat(List.of(first.get(0), first.get(1), second.get(0))).extracting(Artifact::path)
+			.containsExactlyInAnyOrderElementsOf(paths);
+	}
+
+	@Test
+	void testRecordAccesses_ordersEvictionCandidates() {
+		LocalDateTime cachedAt = LocalDateTime.now().minusDays(1);
+		List<String> paths = List.of("/a/1.jar", "/b/1.jar", "/c/1.jar");
+		artifactRepository
+			.insertAll(paths.stream().map(path -> Artifact.cached(path, 100, null, CONTENT_TYPE, cachedAt)).toList());
+
+		// a is used once recently, b twice a while ago, c never
+		artifactRepository.recordAccesses(
+				Map.of(Artifact.idForPath("/a/1.jar"), new ArtifactAccessTracker.Access(LocalDateTime.now(), 1),
+						Artifact.idForPath("/b/1.jar"), new ArtifactAccessTracker.Access(cachedAt.plusHours(1), 1),
+						Artifact.idForPath("/missing.jar"), new ArtifactAccessTracker.Access(cachedAt, 1)));
+		artifactRepository.recordAccesses(
+				Map.of(Artifact.idForPath("/b/1.jar"), new ArtifactAccessTracker.Access(cachedAt.plusHours(2), 1)));
+
+		assertThat(artifactRepository.sumStoredLength()).isEqualTo(300);
+		assertThat(artifactRepository.findLeastRecentlyUsed(LocalDateTime.now().plusMinutes(1), 10, 0))
+			.extracting(Artifact::path)
+			.containsExactly("/c/1.jar", "/b/1.jar", "/a/1.jar");
+		assertThat(artifactRepository.findLeastFrequentlyUsed(LocalDateTime.now().plusMinutes(1), 10, 0))
+			.extracting(Artifact::path)
+			.containsExactly("/c/1.jar", "/a/1.jar", "/b/1.jar");
+		assertThat(artifactRepository.findLeastRecentlyUsed(LocalDateTime.now().minusMinutes(1), 1, 1))
+			.extracting(Artifact::path)
+			.containsExactly("/b/1.jar");
+	}
+
+	@Test
+	void testInsertWithContent_compressedBody_sumsStoredLength() throws IOException {
+		String pomPath = "/org/example/compressed/1.0/compressed-1.0.pom";
+		byte[] gzipped = "gzipped body".getBytes();
+		Artifact pom = Artifact.cached(pomPath, 1000, null, "text/xml", LocalDateTime.now())
+			.withContentEncoding(ArtifactCompression.GZIP, (long) gzipped.length);
+		artifactRepository.insertWithContent(pom, new ByteArrayInputStream(gzipped), CHUNK_SIZE);
+		String jarPath = "/org/example/compressed/1.0/compressed-1.0.jar";
+		artifactRepository.insertAll(List.of(Artifact.cached(jarPath, 100, null, CONTENT_TYPE, LocalDateTime.now())));
+
+		Artifact found = artifactRepository.findByPath(pomPath).orElseThrow();
+		assertThat(found.contentEncoding()).isEqualTo(ArtifactCompression.GZIP);
+		assertThat(found.encodedLength()).isEqualTo(gzipped.length);
+		assertThat(found.contentLength()).isEqualTo(1000);
+		assertThat(readContent(found.id())).isEqualTo(gzipped);
+		assertThat(artifactRepository.sumStoredLength()).isEqualTo(gzipped.length + 100);
+	}
+
+	@Test
+	void testInsertWithContent_identicalBodies_storedOnceUntilLastDeleted() throws IOException {
+		String relocatedPath = "/org/example/relocated/1.0.0/relocated-1.0.0.jar";
+		Artifact original = artifactRepository.insertWithContent(
+				Artifact.cached(ARTIFACT_PATH, ARTIFACT_CONTENT.length, "abc123", CONTENT_TYPE, LocalDateTime.now()),
+				new ByteArrayInputStream(ARTIFACT_CONTENT), CHUNK_SIZE);
+		Artifact relocated = artifactRepository.insertWithContent(
+				Artifact.cached(relocatedPath, ARTIFACT_CONTENT.length, "abc123", CONTENT_TYPE, LocalDateTime.now()),
+				new ByteArrayInputStream(ARTIFACT_CONTENT), CHUNK_SIZE);
+
+		assertThat(artifactRepository.findByPath(relocatedPath).orElseThrow().contentKey()).isEqualTo("abc123");
+		assertThat(readContent("abc123")).isEqualTo(ARTIFACT_CONTENT);
+		assertThat(artifactRepository.sumStoredLength()).isEqualTo(ARTIFACT_CONTENT.length);
+
+		artifactRepository.delete(original);
+		assertThat(artifactRepository.hasContent("abc123")).isTrue();
+		assertThat(readContent(relocated.bodyKey())).isEqualTo(ARTIFACT_CONTENT);
+
+		artifactRepository.delete(relocated);
+		assertThat(artifactRepository.hasBody("abc123")).isFalse();
+		assertThat(artifactRepository.hasContent("abc123")).isFalse();
+		assertThat(artifactRepository.sumStoredLength()).isZero();
+	}
+
+	private byte[] readContent(String id) throws IOException {
+		try (ChunkedContentInputStream in = new ChunkedContentInputStream(artifactRepository, id, 2, null)) {
+			return in.readAllBytes();
+		}
+	}
+
 }
@@ -1,26 +1,51 @@
 package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import jp.co.broadcom.tanzu.springenterpriseproxy.SpringEnterpriseProxyProperties;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.ArgumentCaptor;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
-import org.springframework.http.ResponseEntity;
-import org.springframework.http.client.JdkClientHttpRequestFactory;
-import org.springframework.web.client.RestClient;
+import org.springframework.mock.http.client.MockClientHttpResponse;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.client.RestClientResponseException;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+import java.util.zip.GZIPInputStream;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class) // Initializes Mockito mocks
@@ -28,55 +53,121 @@ class ArtifactServiceTest {
 
 	private final String ARTIFACT_PATH = "org/example/library/1.0.0/library-1.0.0.jar";
 
-	private final String REMOTE_URL = "https://remote.maven.org/maven2/" + ARTIFACT_PATH;
-
 	private final byte[] ARTIFACT_CONTENT = "some-jar-content".getBytes();
 
+	private final String METADATA_PATH = "org/example/library/maven-metadata.xml";
+
+	private final byte[] METADATA_CONTENT = "<metadata><version>1.0.0</version></metadata>".getBytes();
+
 	@Mock
 	private SpringEnterpriseProxyProperties springEnterpriseProxyProperties; // Mock
 																				// configuration
 
 	@Mock
-	private RestClient.Builder restClientBuilder; // Mock RestClient builder
+	private UpstreamClient upstreamClient; // Mock the remote repository client
 
 	@Mock
-	private RestClient restClient; // Mock the actual RestClient
+	private ArtifactRepository artifactRepository; // Mock the JDBC repository
 
 	@Mock
-	private ArtifactRepository artifactRepository; // Mock the JPA repository
+	private ArtifactMissRepository artifactMissRepository;
+
+	@Mock
+	private RevalidationExecutor revalidationExecutor;
+
+	private MeterRegistry meterRegistry;
+
+	private InFlightFetches inFlightFetches;
+
+	private ArtifactMemoryCache memoryCache;
+
+	private NegativeCache negativeCache;
+
+	private FreshnessPolicy freshnessPolicy;
+
+	private UpstreamCircuitBreaker circuitBreaker;
+
+	private SiblingPrefetcher siblingPrefetcher;
+
+	private ArtifactAccessTracker accessTracker;
+
+	private ArtifactCompression compression;
+
+	private DatabaseContentStore contentStore;
+
+	private WriteBehindExecutor writeBehind;
 
-	@InjectMocks // Injects the mocks into ArtifactProxyService
 	private ArtifactService artifactService;
 
 	@BeforeEach
 	void setUp() {
-		// Common setup for MavenProxyConfig
-		lenient().when(springEnterpriseProxyProperties.remoteRepoUrl()).thenReturn("http://remote.maven.org/maven2/");
-		lenient().when(springEnterpriseProxyProperties.remoteRepoUsername()).thenReturn(null); // No
-		// auth
-		// by
-		// default
-		// for
-		// these
-		// tests
-		lenient().when(springEnterpriseProxyProperties.remoteRepoPassword()).thenReturn(null);
-
-		// Common setup for RestClient builder
-		// We need to mock the entire fluent API chain:
-		// restClientBuilder.build().get().uri().retrieve().toEntity()
-		when(restClientBuilder.build()).thenReturn(restClient);
+		// Anything up to 1 KB is buffered and cached, anything larger is streamed
+		lenient().when(springEnterpriseProxyProperties.streaming())
+			.thenReturn(new SpringEnterpriseProxyProperties.Streaming(DataSize.ofKilobytes(1)));
+		lenient().when(springEnterpriseProxyProperties.coalescing())
+			.thenReturn(new SpringEnterpriseProxyProperties.Coalescing(Duration.ofSeconds(5), Duration.ofMinutes(1)));
+
+		lenient().when(springEnterpriseProxyProperties.memoryCache())
+			.thenReturn(new SpringEnterpriseProxyProperties.MemoryCache(true, DataSize.ofKilobytes(64),
+					DataSize.ofKilobytes(1)));
+		lenient().when(springEnterpriseProxyProperties.contentStore())
+			.thenReturn(new SpringEnterpriseProxyProperties.ContentStore(
+					SpringEnterpriseProxyProperties.ContentStore.Type.DATABASE, Path.of("artifact-store"),
+					DataSize.ofKilobytes(60), 4,
+					new SpringEnterpriseProxyProperties.ContentStore.Migration(true, 20, Duration.ofMinutes(1))));
+		lenient().when(springEnterpriseProxyProperties.negativeCache())
+			.thenReturn(new SpringEnterpriseProxyProperties.NegativeCache(true, Duration.ofMinutes(10), 1000,
+					Duration.ofMinutes(10)));
+		lenient().when(springEnterpriseProxyProperties.freshness())
+			.thenReturn(new SpringEnterpriseProxyProperties.Freshness(Duration.ofMinutes(5), Duration.ofMinutes(5),
+					List.of(), Duration.ofMinutes(30), 1, 1));
+		lenient().when(springEnterpriseProxyProperties.prefetch())
+			.thenReturn(
+					new SpringEnterpriseProxyProperties.Prefetch(true, List.of(".jar"), 1, 10, Duration.ofMinutes(10)));
+		// Background revalidations run inline
+		// Opens after two failed calls
+		lenient().when(springEnterpriseProxyProperties.circuitBreaker())
+			.thenReturn(new SpringEnterpriseProxyProperties.CircuitBreaker(true, 50, 100, Duration.ofSeconds(10), 10, 2,
+					Duration.ofMinutes(1), 1));
+		lenient().when(springEnterpriseProxyProperties.compression())
+			.thenReturn(new SpringEnterpriseProxyProperties.Compression(true, DataSize.ofBytes(256), 0.9));
+		lenient().when(springEnterpriseProxyProperties.writeBehind())
+			.thenReturn(new SpringEnterpriseProxyProperties.WriteBehind(false, 1, 1, DataSize.ofKilobytes(2),
+					Duration.ofSeconds(5)));
+		lenient().when(revalidationExecutor.trySubmit(any())).thenAnswer(invocation -> {
+			invocation.getArgument(0, Runnable.class).run();
+			return true;
+		});
+
+		meterRegistry = new SimpleMeterRegistry();
+		inFlightFetches = new InFlightFetches(springEnterpriseProxyProperties, meterRegistry);
+		memoryCache = new ArtifactMemoryCache(springEnterpriseProxyProperties, meterRegistry);
+		negativeCache = new NegativeCache(springEnterpriseProxyProperties, artifactMissRepository, meterRegistry);
+		freshnessPolicy = new FreshnessPolicy(springEnterpriseProxyProperties);
+		circuitBreaker = new UpstreamCircuitBreaker(springEnterpriseProxyProperties, meterRegistry);
+		siblingPrefetcher = new SiblingPrefetcher(springEnterpriseProxyProperties, meterRegistry);
+		accessTracker = new ArtifactAccessTracker(artifactRepository, meterRegistry);
+		compression = new ArtifactCompression(springEnterpriseProxyProperties, meterRegistry);
+		contentStore = new DatabaseContentStore(springEnterpriseProxyProperties, artifactRepository, Runnable::run);
+		writeBehind = new WriteBehindExecutor(springEnterpriseProxyProperties, contentStore, meterRegistry);
+		artifactService = new ArtifactService(springEnterpriseProxyProperties, upstreamClient, artifactRepository,
+				contentStore, inFlightFetches, memoryCache, negativeCache, freshnessPolicy, revalidationExecutor,
+				circuitBreaker, siblingPrefetcher, accessTracker, compression, writeBehind);
+	}
 
-		// Reinitialize the service to ensure mocks are applied correctly for each test,
-		// This is important because the RestClient is built in the constructor
-		artifactService = new ArtifactService(springEnterpriseProxyProperties, restClientBuilder, artifactRepository);
+	private static UpstreamResponse upstreamResponse(byte[] body, long contentLength) throws IOException {
+		MockClientHttpResponse response = new MockClientHttpResponse(body, HttpStatus.OK);
+		if (contentLength >= 0) {
+			response.getHeaders().setContentLength(contentLength);
+		}
+		return UpstreamResponse.of(response);
 	}
 
 	@Test
 	void retrieveArtifact_foundInCache() throws IOException {
 
 		// Given: Artifact exists in database
-		Artifact cachedArtifact = new Artifact(ARTIFACT_PATH, ARTIFACT_CONTENT, "application/octet-stream",
-				java.time.LocalDateTime.now());
+		Artifact cachedArtifact = cachedArtifact(ARTIFACT_CONTENT);
 		when(artifactRepository.findByPath(ARTIFACT_PATH)).thenReturn(Optional.of(cachedArtifact));
 
 		// When
@@ -85,33 +176,103 @@ class ArtifactServiceTest {
 		// Then
 		assertThat(result.getContentAsByteArray()).isEqualTo(ARTIFACT_CONTENT);
 		verify(artifactRepository).findByPath(ARTIFACT_PATH); // Verify cache check
-		verify(restClient, never()).get(); // Verify remote call was NOT made
-		verify(artifactRepository, never()).save(any(Artifact.class)); // Verify no new
-																		// save
+		verify(upstreamClient, never()).fetch(any()); // Verify remote call was NOT made
+		verify(artifactRepository, never()).insertWithContent(any(), any(), anyInt()); // Verify
+																						// no
+		// new
+		// save
 	}
 
 	@Test
-	void retrieveArtifact_notFoundInCache_fetchedFromRemoteAndCached() throws IOException {
-		RestClient.RequestHeadersUriSpec requestHeadersUriSpec = mock(RestClient.RequestHeadersUriSpec.class);
-		RestClient.RequestBodyUriSpec requestBodyUriSpec = mock(RestClient.RequestBodyUriSpec.class);
-		RestClient.RequestBodyUriSpec requestBodyUriSpecHeaders = mock(RestClient.RequestBodyUriSpec.class);
-		RestClient.ResponseSpec responseSpec = mock(RestClient.ResponseSpec.class);
-		when(restClient.get()).thenReturn(requestHeadersUriSpec);
+	void retrieveArtifact_contentMissingFromStore_fetchesAgain() throws IOException {
+		Artifact orphanedArtifact = Artifact.cached(ARTIFACT_PATH, ARTIFACT_CONTENT.length, null,
+				"application/octet-stream", LocalDateTime.now());
+		when(artifactRepository.findByPath(ARTIFACT_PATH)).thenReturn(Optional.of(orphanedArtifact))
+			.thenReturn(Optional.empty());
+		when(upstreamClient.fetch(ARTIFACT_PATH))
+			.thenReturn(upstreamResponse(ARTIFACT_CONTENT, ARTIFACT_CONTENT.length));
+
+		Resource result = artifactService.retrieveArtifact(ARTIFACT_PATH);
+
+		assertThat(result.getContentAsByteArray()).isEqualTo(ARTIFACT_CONTENT);
+		verify(artifactRepository).delete(orphanedArtifact);
+		verify(artifactRepository).insertWithContent(any(Artifact.class), any(InputStream.class), anyInt());
+	}
+
+	@Test
+	void retrieveArtifact_writeBehind_returnsBeforeArtifactIsStored() throws Exception {
+		when(springEnterpriseProxyProperties.writeBehind()).thenReturn(new SpringEnterpriseProxyProperties.WriteBehind(
+				true, 1, 1, DataSize.ofKilobytes(2), Duration.ofSeconds(5)));
+		writeBehind = new WriteBehindExecutor(springEnterpriseProxyProperties, contentStore, meterRegistry);
+		artifactService = new ArtifactService(springEnterpriseProxyProperties, upstreamClient, artifactRepository,
+				contentStore, inFlightFetches, memoryCache, negativeCache, freshnessPolicy, revalidationExecutor,
+				circuitBreaker, siblingPrefetcher, accessTracker, compression, writeBehind);
+		when(artifactRepository.findByPath(ARTIFACT_PATH)).thenReturn(Optional.empty());
+		when(upstreamClient.fetch(ARTIFACT_PATH))
+			.thenReturn(upstreamResponse(ARTIFACT_CONTENT, ARTIFACT_CONTENT.length));
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicReference<String> writer = new AtomicReference<>();
+		when(artifactRepository.insertWithContent(any(Artifact.class), any(InputStream.class), anyInt()))
+			.thenAnswer(invocation -> {
+				writer.set(Thread.currentThread().getName());
+				release.await();
+				return invocation.getArgument(0);
+			});
+
+		Resource result = artifactService.retrieveArtifact(ARTIFACT_PATH);
+
+		assertThat(result.getContentAsByteArray()).isEqualTo(ARTIFACT_CONTENT);
+		// Served from memory until it is stored
+		assertThat(artifactService.retrieveArtifact(ARTIFACT_PATH).getContentAsByteArray()).isEqualTo(ARTIFACT_CONTENT);
+		release.countDown();
+		writeBehind.destroy();
+		verify(artifactRepository).insertWithContent(any(Artifact.class), any(InputStream.class), anyInt());
+		assertThat(writer.get()).startsWith(WriteBehindExecutor.EXECUTOR_NAME);
+		verify(upstreamClient, times(1)).fetch(ARTIFACT_PATH);
+	}
+
+	@Test
+	void retrieveArtifact_foundInMemoryCache_skipsDatabase() throws IOException {
+		Artifact cachedArtifact = cachedArtifact(ARTIFACT_CONTENT);
+		when(artifactRepository.findByPath(ARTIFACT_PATH)).thenReturn(Optional.of(cachedArtifact));
+
+		// The first hit loads the artifact from the database into memory
+		artifactService.retrieveArtifact(ARTIFACT_PATH);
+		Resource result = artifactService.retrieveArtifact(ARTIFACT_PATH);
+
+		assertThat(result.getContentAsByteArray()).isEqualTo(ARTIFACT_CONTENT);
+		verify(artifactRepository, times(1)).findByPath(ARTIFACT_PATH);
+		verify(upstreamClient, never()).fetch(any());
+	}
+
+	@Test
+	void retrieveArtifact_cacheHits_recordedInOneBatch() throws IOException {
+		Artifact cachedArtifact = cachedArtifact(ARTIFACT_CONTENT);
+		when(artifactRepository.findByPath(ARTIFACT_PATH)).thenReturn(Optional.of(cachedArtifact));
+
+		// From the database, then from memory
+		artifactService.retrieveArtifact(ARTIFACT_PATH);
+		artifactService.retrieveArtifact(ARTIFACT_PATH);
+		verify(artifactRepository, never()).recordAccesses(any());
+		accessTracker.flush();
 
-		when(requestHeadersUriSpec.uri(anyString())).thenReturn(requestBodyUriSpec);
-		when(requestBodyUriSpec.headers(any())).thenReturn(requestBodyUriSpecHeaders);
-		when(requestBodyUriSpecHeaders.retrieve()).thenReturn(responseSpec);
+		verify(artifactRepository)
+			.recordAccesses(argThat(accesses -> accesses.size() == 1 && accesses.get(cachedArtifact.id()).hits() == 2));
+		assertThat(accessTracker.isStreaming(cachedArtifact.id())).isFalse();
+	}
 
+	@Test
+	void retrieveArtifact_notFoundInCache_fetchedFromRemoteAndCached() throws IOException {
 		// Given: Artifact not in database
 		when(artifactRepository.findByPath(ARTIFACT_PATH)).thenReturn(Optional.empty());
 
-		// And: Remote call succeeds
-		ResponseEntity<byte[]> successResponse = new ResponseEntity<>(ARTIFACT_CONTENT, HttpStatus.OK);
-		when(restClient.get().uri(REMOTE_URL).headers(any()).retrieve().toEntity(byte[].class))
-			.thenReturn(successResponse);
+		// And: Remote call succeeds with a body below the buffer threshold
+		when(upstreamClient.fetch(ARTIFACT_PATH))
+			.thenReturn(upstreamResponse(ARTIFACT_CONTENT, ARTIFACT_CONTENT.length));
 
-		// Capture the argument passed to save
+		// Capture the arguments passed to insertWithContent
 		ArgumentCaptor<Artifact> artifactCaptor = ArgumentCaptor.forClass(Artifact.class);
+		ArgumentCaptor<InputStream> contentCaptor = ArgumentCaptor.forClass(InputStream.class);
 
 		// When
 		Resource result = artifactService.retrieveArtifact(ARTIFACT_PATH);
@@ -119,15 +280,19 @@ class ArtifactServiceTest {
 		// Then
 		assertThat(result.getContentAsByteArray()).isEqualTo(ARTIFACT_CONTENT);
 		verify(artifactRepository).findByPath(ARTIFACT_PATH); // Verify cache check
-		verify(restClient.get()).uri(REMOTE_URL); // Verify remote call was made
-		verify(restClient.get().uri(REMOTE_URL), times(2)).headers(any());
-		verify(restClient.get().uri(REMOTE_URL).headers(any()), times(2)).retrieve();
+		verify(upstreamClient).fetch(ARTIFACT_PATH); // Verify remote call was made
 
 		// Verify artifact was saved to database
-		verify(artifactRepository).save(artifactCaptor.capture());
+		verify(artifactRepository).insertWithContent(artifactCaptor.capture(), contentCaptor.capture(), anyInt());
 		Artifact savedArtifact = artifactCaptor.getValue();
+		assertThat(savedArtifact.id()).isEqualTo(Artifact.idForPath(ARTIFACT_PATH));
 		assertThat(savedArtifact.path()).isEqualTo(ARTIFACT_PATH);
-		assertThat(savedArtifact.content()).isEqualTo(ARTIFACT_CONTENT);
+		assertThat(savedArtifact.contentLength()).isEqualTo(ARTIFACT_CONTENT.length);
+		assertThat(savedArtifact.sha256()).isEqualTo(sha256(ARTIFACT_CONTENT));
+		assertThat(savedArtifact.sha1()).isEqualTo(digest("SHA-1", ARTIFACT_CONTENT));
+		assertThat(savedArtifact.md5()).isEqualTo(digest("MD5", ARTIFACT_CONTENT));
+		assertThat(savedArtifact.sha512()).isEqualTo(digest("SHA-512", ARTIFACT_CONTENT));
+		assertThat(contentCaptor.getValue().readAllBytes()).isEqualTo(ARTIFACT_CONTENT);
 		assertThat(savedArtifact.contentType()).isEqualTo("application/octet-stream"); // Derived
 																						// by
 																						// MediaTypeUtil
@@ -135,73 +300,716 @@ class ArtifactServiceTest {
 	}
 
 	@Test
-	void retrieveArtifact_notFoundInCache_remoteReturnsNotFound() {
-		RestClient.RequestHeadersUriSpec requestHeadersUriSpec = mock(RestClient.RequestHeadersUriSpec.class);
-		RestClient.RequestBodyUriSpec requestBodyUriSpec = mock(RestClient.RequestBodyUriSpec.class);
-		RestClient.RequestBodyUriSpec requestBodyUriSpecHeaders = mock(RestClient.RequestBodyUriSpec.class);
-		RestClient.ResponseSpec responseSpec = mock(RestClient.ResponseSpec.class);
-		when(restClient.get()).thenReturn(requestHeadersUriSpec);
+	void retrieveArtifact_textArtifact_storedGzippedAndServedAsStored() throws IOException {
+		String metadataPath = "/org/example/artifact/maven-metadata.xml";
+		byte[] metadata = ("<metadata>" + "<version>1.0.0</version>".repeat(30) + "</metadata>").getBytes();
+		when(artifactRepository.findByPath(metadataPath)).thenReturn(Optional.empty());
+		when(upstreamClient.fetch(metadataPath)).thenReturn(upstreamResponse(metadata, metadata.length));
+		ArgumentCaptor<Artifact> artifactCaptor = ArgumentCaptor.forClass(Artifact.class);
+
+		// Fetched from the remote, sent as received
+		assertThat(artifactService.retrieveArtifact(metadataPath, true).getContentAsByteArray()).isEqualTo(metadata);
 
-		when(requestHeadersUriSpec.uri(anyString())).thenReturn(requestBodyUriSpec);
-		when(requestBodyUriSpec.headers(any())).thenReturn(requestBodyUriSpecHeaders);
-		when(requestBodyUriSpecHeaders.retrieve()).thenReturn(responseSpec);
+		verify(artifactRepository).insertWithContent(artifactCaptor.capture(), any(InputStream.class), anyInt());
+		Artifact savedArtifact = artifactCaptor.getValue();
+		assertThat(savedArtifact.contentEncoding()).isEqualTo(ArtifactCompression.GZIP);
+		assertThat(savedArtifact.contentLength()).isEqualTo(metadata.length);
+		assertThat(savedArtifact.sha256()).isEqualTo(sha256(metadata));
+		assertThat(savedArtifact.encodedLength()).isLessThan(metadata.length);
+
+		// Served from memory, as stored or decompressed
+		Resource compressed = artifactService.retrieveArtifact(metadataPath, true);
+		assertThat(compressed).isInstanceOf(ContentEncodedResource.class);
+		byte[] storedContent = compressed.getContentAsByteArray();
+		assertThat(storedContent).hasSize(savedArtifact.encodedLength().intValue());
+		assertThat(new GZIPInputStream(new ByteArrayInputStream(storedContent)).readAllBytes()).isEqualTo(metadata);
+		assertThat(artifactService.retrieveArtifact(metadataPath, false).getContentAsByteArray()).isEqualTo(metadata);
+
+		assertThat(meterRegistry.get("spring.enterprise.proxy.compression.stored.bytes")
+			.tag("form", "original")
+			.counter()
+			.count()).isEqualTo(metadata.length);
+		assertThat(meterRegistry.get("spring.enterprise.proxy.compression.served.bytes")
+			.tag("form", "compressed")
+			.counter()
+			.count()).isEqualTo(storedContent.length);
+		assertThat(meterRegistry.get("spring.enterprise.proxy.compression.decoded").counter().count()).isOne();
+	}
+
+	@Test
+	void retrieveArtifact_notFoundInCache_remoteReturnsNotFound() throws IOException {
 		// Given: Artifact not in database
 		when(artifactRepository.findByPath(ARTIFACT_PATH)).thenReturn(Optional.empty());
 
 		// And: Remote call returns 404
-		when(restClient.get().uri(REMOTE_URL).headers(any()).retrieve().toEntity(byte[].class))
-			.thenThrow(new RestClientResponseException("Not Found", HttpStatus.NOT_FOUND.value(), "Not Found", null,
-					null, null));
+		when(upstreamClient.fetch(ARTIFACT_PATH)).thenThrow(new RestClientResponseException("Not Found",
+				HttpStatus.NOT_FOUND.value(), "Not Found", null, null, null));
 
 		// When / Then: Expect RestClientResponseException to be rethrown
 		assertThrows(RestClientResponseException.class, () -> artifactService.retrieveArtifact(ARTIFACT_PATH));
 
 		verify(artifactRepository).findByPath(ARTIFACT_PATH);
-		verify(restClient.get()).uri(REMOTE_URL);
-		verify(artifactRepository, never()).save(any(Artifact.class)); // Should not save
-																		// on 404
+		verify(upstreamClient).fetch(ARTIFACT_PATH);
+		verify(artifactRepository, never()).insertWithContent(any(), any(), anyInt()); // Should
+																						// not
+		// save on
+		// 404
+	}
+
+	@Test
+	void retrieveArtifact_remoteReturnedNotFoundBefore_answeredWithoutRemoteCall() throws IOException {
+		when(artifactRepository.findByPath(ARTIFACT_PATH)).thenReturn(Optional.empty());
+		when(upstreamClient.fetch(ARTIFACT_PATH)).thenThrow(new RestClientResponseException("Not Found",
+				HttpStatus.NOT_FOUND.value(), "Not Found", null, null, null));
+		assertThrows(RestClientResponseException.class, () -> artifactService.retrieveArtifact(ARTIFACT_PATH));
+
+		RestClientResponseException e = assertThrows(RestClientResponseException.class,
+				() -> artifactService.retrieveArtifact(ARTIFACT_PATH));
+
+		assertThat(e.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+		verify(upstreamClient, times(1)).fetch(ARTIFACT_PATH);
+		verify(artifactMissRepository).insert(eq(ARTIFACT_PATH), any());
+	}
+
+	@Test
+	void retrieveArtifact_remoteServerError_notRemembered() throws IOException {
+		when(artifactRepository.findByPath(ARTIFACT_PATH)).thenReturn(Optional.empty());
+		when(upstreamClient.fetch(ARTIFACT_PATH)).thenThrow(new RestClientResponseException("Bad Gateway",
+				HttpStatus.BAD_GATEWAY.value(), "Bad Gateway", null, null, null));
+
+		assertThrows(RestClientResponseException.class, () -> artifactService.retrieveArtifact(ARTIFACT_PATH));
+		assertThrows(RestClientResponseException.class, () -> artifactService.retrieveArtifact(ARTIFACT_PATH));
+
+		verify(upstreamClient, times(2)).fetch(ARTIFACT_PATH);
+		verify(artifactMissRepository, never()).insert(any(), any());
+	}
+
+	@Test
+	void retrieveArtifact_largeArtifact_streamedAndCachedOnceFullyRead() throws IOException {
+		byte[] largeContent = new byte[4096];
+		Arrays.fill(largeContent, (byte) 'x');
+		when(artifactRepository.findByPath(ARTIFACT_PATH)).thenReturn(Optional.empty());
+		when(upstreamClient.fetch(ARTIFACT_PATH)).thenReturn(upstreamResponse(largeContent, largeContent.length));
+		AtomicReference<byte[]> cachedContent = new AtomicReference<>();
+		doAnswer(invocation -> {
+			cachedContent.set(invocation.<InputStream>getArgument(1).readAllBytes());
+			return null;
+		}).when(artifactRepository).insertWithContent(any(Artifact.class), any(InputStream.class), anyInt());
+
+		Resource result = artifactService.retrieveArtifact(ARTIFACT_PATH);
+
+		// The body is relayed as a stream with its length known up front
+		assertThat(result).isInstanceOf(StreamingArtifactResource.class);
+		assertThat(result.contentLength()).isEqualTo(largeContent.length);
+		try (InputStream inputStream = result.getInputStream()) {
+			// Nothing is cached before the client has read the whole body
+			assertThat(inputStream.readNBytes(100)).hasSize(100);
+			verify(artifactRepository, never()).insertWithContent(any(), any(), anyInt());
+
+			inputStream.readAllBytes();
+		}
+
+		ArgumentCaptor<Artifact> artifactCaptor = ArgumentCaptor.forClass(Artifact.class);
+		verify(artifactRepository).insertWithContent(artifactCaptor.capture(), any(InputStream.class), anyInt());
+		assertThat(artifactCaptor.getValue().id()).isEqualTo(Artifact.idForPath(ARTIFACT_PATH));
+		assertThat(artifactCaptor.getValue().path()).isEqualTo(ARTIFACT_PATH);
+		assertThat(artifactCaptor.getValue().contentLength()).isEqualTo(largeContent.length);
+		assertThat(artifactCaptor.getValue().sha256()).isEqualTo(sha256(largeContent));
+		assertThat(cachedContent.get()).isEqualTo(largeContent);
+	}
+
+	@Test
+	void retrieveArtifact_unknownLength_streamedAndCached() throws IOException {
+		when(artifactRepository.findByPath(ARTIFACT_PATH)).thenReturn(Optional.empty());
+		when(upstreamClient.fetch(ARTIFACT_PATH)).thenReturn(upstreamResponse(ARTIFACT_CONTENT, -1));
+
+		Resource result = artifactService.retrieveArtifact(ARTIFACT_PATH);
+
+		assertThat(result).isInstanceOf(StreamingArtifactResource.class);
+		assertThat(result.contentLength()).isEqualTo(-1);
+		try (InputStream inputStream = result.getInputStream()) {
+			assertThat(inputStream.readAllBytes()).isEqualTo(ARTIFACT_CONTENT);
+		}
+		verify(artifactRepository).insertWithContent(
+				argThat(artifact -> artifact.contentLength() == ARTIFACT_CONTENT.length), any(InputStream.class),
+				anyInt());
+	}
+
+	@Test
+	void retrieveArtifact_streamAbandoned_notCached() throws IOException {
+		byte[] largeContent = new byte[4096];
+		when(artifactRepository.findByPath(ARTIFACT_PATH)).thenReturn(Optional.empty());
+		when(upstreamClient.fetch(ARTIFACT_PATH)).thenReturn(upstreamResponse(largeContent, largeContent.length));
+
+		Resource result = artifactService.retrieveArtifact(ARTIFACT_PATH);
+		try (InputStream inputStream = result.getInputStream()) {
+			inputStream.readNBytes(1024); // client disconnects mid-transfer
+		}
+
+		verify(artifactRepository, never()).insertWithContent(any(), any(), anyInt());
+	}
+
+	@Test
+	void retrieveArtifact_streamChecksumMismatch_notCached() throws IOException {
+		byte[] largeContent = new byte[4096];
+		when(artifactRepository.findByPath(ARTIFACT_PATH)).thenReturn(Optional.empty());
+		UpstreamResponse response = upstreamResponse(largeContent, largeContent.length);
+		response.headers().set("X-Checksum-Sha1", "0000000000000000000000000000000000000000");
+		when(upstreamClient.fetch(ARTIFACT_PATH)).thenReturn(response);
+
+		Resource result = artifactService.retrieveArtifact(ARTIFACT_PATH);
+		try (InputStream inputStream = result.getInputStream()) {
+			assertThat(inputStream.readAllBytes()).isEqualTo(largeContent);
+		}
+
+		verify(artifactRepository, never()).insertWithContent(any(), any(), anyInt());
+	}
+
+	@Test
+	void retrieveArtifact_bufferedChecksumMismatch_notCached() throws IOException {
+		when(artifactRepository.findByPath(ARTIFACT_PATH)).thenReturn(Optional.empty());
+		UpstreamResponse response = upstreamResponse(ARTIFACT_CONTENT, ARTIFACT_CONTENT.length);
+		response.headers().set("X-Checksum-Sha1", "0000000000000000000000000000000000000000");
+		when(upstreamClient.fetch(ARTIFACT_PATH)).thenReturn(response);
+
+		assertThrows(IOException.class, () -> artifactService.retrieveArtifact(ARTIFACT_PATH));
+
+		verify(artifactRepository, never()).insertWithContent(any(), any(), anyInt());
 	}
 
 	@Test
-	void retrieveArtifact_withRemoteAuth_configuresRestClient() throws IOException {
-		RestClient.RequestHeadersUriSpec requestHeadersUriSpec = mock(RestClient.RequestHeadersUriSpec.class);
-		RestClient.RequestBodyUriSpec requestBodyUriSpec = mock(RestClient.RequestBodyUriSpec.class);
-		RestClient.RequestBodyUriSpec requestBodyUriSpecHeaders = mock(RestClient.RequestBodyUriSpec.class);
-		RestClient.ResponseSpec responseSpec = mock(RestClient.ResponseSpec.class);
-		when(restClient.get()).thenReturn(requestHeadersUriSpec);
+	void retrieveArtifact_concurrentMisses_fetchedFromRemoteOnce() throws Exception {
+		AtomicReference<Artifact> saved = new AtomicReference<>();
+		when(artifactRepository.findByPath(ARTIFACT_PATH)).thenAnswer(invocation -> Optional.ofNullable(saved.get()));
+		when(artifactRepository.insertWithContent(any(Artifact.class), any(InputStream.class), anyInt()))
+			.thenAnswer(invocation -> {
+				saved.set(invocation.getArgument(0));
+				return saved.get();
+			});
+		stubContent(sha256(ARTIFACT_CONTENT), ARTIFACT_CONTENT);
+		CountDownLatch followerJoined = new CountDownLatch(1);
+		when(upstreamClient.fetch(ARTIFACT_PATH)).thenAnswer(invocation -> {
+			// Hold the leader's fetch open until the second request has joined it
+			assertThat(followerJoined.await(5, TimeUnit.SECONDS)).isTrue();
+			return upstreamResponse(ARTIFACT_CONTENT, ARTIFACT_CONTENT.length);
+		});
+
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			Future<Resource> leader = executor.submit(() -> artifactService.retrieveArtifact(ARTIFACT_PATH));
+			verify(upstreamClient, timeout(5000)).fetch(ARTIFACT_PATH);
+			Future<Resource> follower = executor.submit(() -> artifactService.retrieveArtifact(ARTIFACT_PATH));
+			await(() -> meterRegistry.counter("spring.enterprise.proxy.fetch.coalesced").count() == 1);
+			followerJoined.countDown();
+
+			assertThat(leader.get(5, TimeUnit.SECONDS).getContentAsByteArray()).isEqualTo(ARTIFACT_CONTENT);
+			assertThat(follower.get(5, TimeUnit.SECONDS).getContentAsByteArray()).isEqualTo(ARTIFACT_CONTENT);
+		}
+		finally {
+			executor.shutdownNow();
+		}
+
+		verify(upstreamClient, times(1)).fetch(ARTIFACT_PATH);
+		verify(artifactRepository, times(1)).insertWithContent(any(Artifact.class), any(InputStream.class), anyInt());
+	}
 
-		when(requestHeadersUriSpec.uri(anyString())).thenReturn(requestBodyUriSpec);
-		when(requestBodyUriSpec.headers(any())).thenReturn(requestBodyUriSpecHeaders);
-		when(requestBodyUriSpecHeaders.retrieve()).thenReturn(responseSpec);
-		// Given: Config has username and password
-		when(springEnterpriseProxyProperties.remoteRepoUsername()).thenReturn("testuser");
-		when(springEnterpriseProxyProperties.remoteRepoPassword()).thenReturn("testpass");
+	@Test
+	void retrieveArtifact_slowStreamedLeader_followersReadAlong() throws Exception {
+		when(springEnterpriseProxyProperties.coalescing())
+			.thenReturn(new SpringEnterpriseProxyProperties.Coalescing(Duration.ofMillis(200), Duration.ofMinutes(1)));
+		InFlightFetches impatientFetches = new InFlightFetches(springEnterpriseProxyProperties, meterRegistry);
+		artifactService = new ArtifactService(springEnterpriseProxyProperties, upstreamClient, artifactRepository,
+				contentStore, impatientFetches, memoryCache, negativeCache, freshnessPolicy, revalidationExecutor,
+				circuitBreaker, siblingPrefetcher, accessTracker, compression, writeBehind);
+		byte[] largeContent = new byte[4096];
+		for (int i = 0; i < largeContent.length; i++) {
+			largeContent[i] = (byte) i;
+		}
+		when(artifactRepository.findByPath(ARTIFACT_PATH)).thenReturn(Optional.empty());
+		when(upstreamClient.fetch(ARTIFACT_PATH)).thenReturn(upstreamResponse(largeContent, largeContent.length));
+
+		Resource leader = artifactService.retrieveArtifact(ARTIFACT_PATH);
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		try (InputStream leaderBody = leader.getInputStream()) {
+			assertThat(leaderBody.readNBytes(512)).hasSize(512);
+			List<Future<byte[]>> followers = new ArrayList<>();
+			for (int i = 0; i < 3; i++) {
+				followers.add(executor.submit(() -> {
+					try (InputStream in = artifactService.retrieveArtifact(ARTIFACT_PATH).getInputStream()) {
+						return in.readAllBytes();
+					}
+				}));
+			}
+			await(() -> meterRegistry.counter("spring.enterprise.proxy.fetch.coalesced.streamed").count() == 3);
+
+			// The leader's client takes longer than the join timeout to read the rest
+			for (int read = 512; read < largeContent.length; read += 512) {
+				assertThat(followers).noneMatch(Future::isDone);
+				Thread.sleep(50);
+				leaderBody.readNBytes(512);
+			}
+			leaderBody.readAllBytes();
+
+			for (Future<byte[]> follower : followers) {
+				assertThat(follower.get(5, TimeUnit.SECONDS)).isEqualTo(largeContent);
+			}
+		}
+		finally {
+			executor.shutdownNow();
+		}
+
+		verify(upstreamClient, times(1)).fetch(ARTIFACT_PATH);
+		verify(artifactRepository, times(1)).insertWithContent(any(Artifact.class), any(InputStream.class), anyInt());
+		assertThat(meterRegistry.counter("spring.enterprise.proxy.fetch.coalesced.timeouts").count()).isZero();
+	}
 
-		when(restClientBuilder.requestFactory(any(JdkClientHttpRequestFactory.class))).thenReturn(restClientBuilder);
+	@Test
+	void retrieveArtifact_streamedLeaderAbandoned_followersFail() throws Exception {
+		byte[] largeContent = new byte[4096];
+		when(artifactRepository.findByPath(ARTIFACT_PATH)).thenReturn(Optional.empty());
+		when(upstreamClient.fetch(ARTIFACT_PATH)).thenReturn(upstreamResponse(largeContent, largeContent.length));
+
+		Resource leader = artifactService.retrieveArtifact(ARTIFACT_PATH);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Future<byte[]> follower;
+			try (InputStream leaderBody = leader.getInputStream()) {
+				leaderBody.readNBytes(1024);
+				follower = executor.submit(() -> {
+					try (InputStream in = artifactService.retrieveArtifact(ARTIFACT_PATH).getInputStream()) {
+						return in.readAllBytes();
+					}
+				});
+				await(() -> meterRegistry.counter("spring.enterprise.proxy.fetch.coalesced.streamed").count() == 1);
+			} // client disconnects mid-transfer
+
+			ExecutionException e = assertThrows(ExecutionException.class, () -> follower.get(5, TimeUnit.SECONDS));
+			assertThat(e.getCause()).isInstanceOf(IOException.class);
+		}
+		finally {
+			executor.shutdownNow();
+		}
+		verify(artifactRepository, never()).insertWithContent(any(), any(), anyInt());
+	}
 
-		// Reinitialize service to pick up auth config
-		ArtifactService authService = new ArtifactService(springEnterpriseProxyProperties, restClientBuilder,
+	@Test
+	void retrieveArtifact_followerReceivesLeadersUpstreamError() throws Exception {
+		when(artifactRepository.findByPath(ARTIFACT_PATH)).thenReturn(Optional.empty());
+		InFlightFetches.Flight leader = inFlightFetches.join(ARTIFACT_PATH);
+		RestClientResponseException notFound = new RestClientResponseException("Not Found",
+				HttpStatus.NOT_FOUND.value(), "Not Found", null, null, null);
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Future<Resource> follower = executor.submit(() -> artifactService.retrieveArtifact(ARTIFACT_PATH));
+			await(() -> meterRegistry.counter("spring.enterprise.proxy.fetch.coalesced").count() == 1);
+			leader.fail(notFound);
+
+			ExecutionException e = assertThrows(ExecutionException.class, () -> follower.get(5, TimeUnit.SECONDS));
+			assertThat(e.getCause()).isSameAs(notFound);
+		}
+		finally {
+			executor.shutdownNow();
+		}
+		verify(upstreamClient, never()).fetch(any());
+	}
+
+	@Test
+	void retrieveArtifact_followerTimesOut_streamsWithoutCaching() throws IOException {
+		when(springEnterpriseProxyProperties.coalescing())
+			.thenReturn(new SpringEnterpriseProxyProperties.Coalescing(Duration.ofMillis(50), Duration.ofMinutes(1)));
+		InFlightFetches impatientFetches = new InFlightFetches(springEnterpriseProxyProperties, meterRegistry);
+		artifactService = new ArtifactService(springEnterpriseProxyProperties, upstreamClient, artifactRepository,
+				contentStore, impatientFetches, memoryCache, negativeCache, freshnessPolicy, revalidationExecutor,
+				circuitBreaker, siblingPrefetcher, accessTracker, compression, writeBehind);
+		when(artifactRepository.findByPath(ARTIFACT_PATH)).thenReturn(Optional.empty());
+		when(upstreamClient.fetch(ARTIFACT_PATH))
+			.thenReturn(upstreamResponse(ARTIFACT_CONTENT, ARTIFACT_CONTENT.length));
+
+		// A leader that never finishes
+		impatientFetches.join(ARTIFACT_PATH);
+
+		Resource result = artifactService.retrieveArtifact(ARTIFACT_PATH);
+
+		assertThat(result).isInstanceOf(StreamingArtifactResource.class);
+		assertThat(result.getContentAsByteArray()).isEqualTo(ARTIFACT_CONTENT);
+		assertThat(meterRegistry.counter("spring.enterprise.proxy.fetch.coalesced.timeouts").count()).isEqualTo(1);
+		verify(artifactRepository, never()).insertWithContent(any(), any(), anyInt());
+	}
+
+	@Test
+	void serveArtifact_notModified_doesNotReadContent() throws IOException {
+		Artifact cachedArtifact = Artifact.cached(ARTIFACT_PATH, ARTIFACT_CONTENT.length, sha256(ARTIFACT_CONTENT),
+				"application/octet-stream", LocalDateTime.now());
+		when(artifactRepository.findByPath(ARTIFACT_PATH)).thenReturn(Optional.of(cachedArtifact));
+
+		Optional<ArtifactService.Served> served = artifactService.serveArtifact(ARTIFACT_PATH, false, false,
+				artifact -> true);
+
+		assertThat(served).hasValueSatisfying(notModified -> {
+			assertThat(notModified.artifact()).isEqualTo(cachedArtifact);
+			assertThat(notModified.content()).isNull();
+		});
+		verify(artifactRepository, never()).hasContent(any());
+		verify(artifactRepository, never()).findChunks(any(), anyInt(), anyInt());
+	}
+
+	@Test
+	void serveArtifact_cached_returnsArtifactBodyIsReadFrom() throws IOException {
+		Artifact cachedArtifact = Artifact.cached(ARTIFACT_PATH, ARTIFACT_CONTENT.length, sha256(ARTIFACT_CONTENT),
+				"application/octet-stream", LocalDateTime.now());
+		when(artifactRepository.findByPath(ARTIFACT_PATH)).thenReturn(Optional.of(cachedArtifact));
+		stubContent(cachedArtifact.bodyKey(), ARTIFACT_CONTENT);
+
+		Optional<ArtifactService.Served> served = artifactService.serveArtifact(ARTIFACT_PATH, false, false,
+				artifact -> false);
+
+		assertThat(served).hasValueSatisfying(fresh -> {
+			assertThat(fresh.artifact()).isEqualTo(cachedArtifact);
+			assertThat(fresh.stale()).isFalse();
+		});
+		assertThat(served.get().content().getContentAsByteArray()).isEqualTo(ARTIFACT_CONTENT);
+		verify(artifactRepository, times(1)).findByPath(ARTIFACT_PATH);
+	}
+
+	@Test
+	void serveArtifact_cachedOnlyMiss_empty() throws IOException {
+		when(artifactRepository.findByPath(ARTIFACT_PATH)).thenReturn(Optional.empty());
+
+		assertThat(artifactService.serveArtifact(ARTIFACT_PATH, false, true, artifact -> false)).isEmpty();
+		verifyNoInteractions(upstreamClient);
+	}
+
+	@Test
+	void retrieveArtifact_checksumFile_answeredFromArtifactMetadata() throws IOException {
+		Artifact cachedArtifact = Artifact
+			.cached(ARTIFACT_PATH, ARTIFACT_CONTENT.length, sha256(ARTIFACT_CONTENT), "application/octet-stream",
+					LocalDateTime.now())
+			.withDigests(digest("SHA-1", ARTIFACT_CONTENT), digest("MD5", ARTIFACT_CONTENT),
+					digest("SHA-512", ARTIFACT_CONTENT));
+		when(artifactRepository.findByPath(ARTIFACT_PATH)).thenReturn(Optional.of(cachedArtifact));
+
+		assertThat(artifactService.retrieveArtifact(ARTIFACT_PATH + ".sha1").getContentAsByteArray()).asString()
+			.isEqualTo(digest("SHA-1", ARTIFACT_CONTENT));
+		assertThat(artifactService.retrieveArtifact(ARTIFACT_PATH + ".md5").getContentAsByteArray()).asString()
+			.isEqualTo(digest("MD5", ARTIFACT_CONTENT));
+		assertThat(artifactService.retrieveArtifact(ARTIFACT_PATH + ".sha512").getContentAsByteArray()).asString()
+			.isEqualTo(digest("SHA-512", ARTIFACT_CONTENT));
+		byte[] sha256 = sha256(ARTIFACT_CONTENT).getBytes();
+		assertThat(artifactService.serveArtifact(ARTIFACT_PATH + ".sha256", false, false, artifact -> true)
+			.map(ArtifactService.Served::artifact)).hasValueSatisfying(checksum -> {
+				assertThat(checksum.path()).isEqualTo(ARTIFACT_PATH + ".sha256");
+				assertThat(checksum.contentLength()).isEqualTo(sha256.length);
+				assertThat(checksum.sha256()).isEqualTo(sha256(sha256));
+			});
+		verifyNoInteractions(upstreamClient);
+		verify(artifactRepository, never()).findByPath(ARTIFACT_PATH + ".sha1");
+		verify(artifactRepository, never()).findChunks(any(), anyInt(), anyInt());
+	}
+
+	@Test
+	void retrieveArtifact_checksumFile_digestNotRecorded_fetchedFromRemote() throws IOException {
+		// Cached before SHA-1 was recorded
+		Artifact cachedArtifact = Artifact.cached(ARTIFACT_PATH, ARTIFACT_CONTENT.length, sha256(ARTIFACT_CONTENT),
+				"application/octet-stream", LocalDateTime.now());
+		when(artifactRepository.findByPath(ARTIFACT_PATH)).thenReturn(Optional.of(cachedArtifact));
+		byte[] checksum = digest("SHA-1", ARTIFACT_CONTENT).getBytes();
+		when(upstreamClient.fetch(ARTIFACT_PATH + ".sha1")).thenReturn(upstreamResponse(checksum, checksum.length));
+
+		Resource result = artifactService.retrieveArtifact(ARTIFACT_PATH + ".sha1");
+
+		assertThat(result.getContentAsByteArray()).isEqualTo(checksum);
+		verify(artifactRepository).findByPath(ARTIFACT_PATH + ".sha1");
+		verify(artifactRepository).insertWithContent(argThat(artifact -> artifact.path().endsWith(".sha1")), any(),
+				anyInt());
+	}
+
+	@Test
+	void retrieveArtifact_pomMiss_jarPrefetched() throws Exception {
+		String pomPath = "org/example/library/1.0.0/library-1.0.0.pom";
+		byte[] pomContent = "<project/>".getBytes();
+		when(upstreamClient.fetch(pomPath)).thenReturn(upstreamResponse(pomContent, pomContent.length));
+		when(upstreamClient.fetch(ARTIFACT_PATH))
+			.thenReturn(upstreamResponse(ARTIFACT_CONTENT, ARTIFACT_CONTENT.length));
+
+		assertThat(artifactService.retrieveArtifact(pomPath).getContentAsByteArray()).isEqualTo(pomContent);
+		await(() -> memoryCache.get(ARTIFACT_PATH).isPresent());
+
+		// The JAR request that follows is served from the cache
+		assertThat(artifactService.retrieveArtifact(ARTIFACT_PATH).getContentAsByteArray()).isEqualTo(ARTIFACT_CONTENT);
+		verify(upstreamClient, times(1)).fetch(ARTIFACT_PATH);
+		assertThat(meterRegistry.counter("spring.enterprise.proxy.prefetch.fetched").count()).isEqualTo(1);
+		assertThat(meterRegistry.counter("spring.enterprise.proxy.prefetch.hits").count()).isEqualTo(1);
+	}
+
+	@Test
+	void retrieveArtifact_pomMiss_jarAlreadyBeingFetched_notPrefetched() throws Exception {
+		String pomPath = "org/example/library/1.0.0/library-1.0.0.pom";
+		byte[] pomContent = "<project/>".getBytes();
+		when(upstreamClient.fetch(pomPath)).thenReturn(upstreamResponse(pomContent, pomContent.length));
+		// A client request is fetching the JAR
+		InFlightFetches.Flight clientFetch = inFlightFetches.join(ARTIFACT_PATH);
+		assertThat(clientFetch.isLeader()).isTrue();
+
+		artifactService.retrieveArtifact(pomPath);
+		await(() -> meterRegistry.find("executor.completed")
+			.tag("name", SiblingPrefetcher.EXECUTOR_NAME)
+			.functionCounter()
+			.count() == 1);
+
+		clientFetch.complete();
+		verify(upstreamClient, never()).fetch(ARTIFACT_PATH);
+		assertThat(meterRegistry.counter("spring.enterprise.proxy.prefetch.fetched").count()).isZero();
+	}
+
+	@Test
+	void retrieveArtifact_expiredMetadata_notModified_onlyMarkedValidated() throws IOException {
+		Artifact staleMetadata = cachedMetadata(LocalDateTime.now().minusHours(1));
+		when(artifactRepository.findByPath(METADATA_PATH)).thenReturn(Optional.of(staleMetadata));
+		stubContent(staleMetadata.bodyKey(), METADATA_CONTENT);
+		when(upstreamClient.fetch(eq(METADATA_PATH), any(HttpHeaders.class)))
+			.thenReturn(UpstreamResponse.of(new MockClientHttpResponse(new byte[0], HttpStatus.NOT_MODIFIED)));
+
+		Resource result = artifactService.retrieveArtifact(METADATA_PATH);
+
+		assertThat(result.getContentAsByteArray()).isEqualTo(METADATA_CONTENT);
+		verify(upstreamClient).fetch(eq(METADATA_PATH),
+				argThat((HttpHeaders headers) -> "\"v1\"".equals(headers.getFirst(HttpHeaders.IF_NONE_MATCH))
+						&& "Sat, 01 Jun 2024 12:00:00 GMT".equals(headers.getFirst(HttpHeaders.IF_MODIFIED_SINCE))));
+		verify(artifactRepository).markValidated(eq(staleMetadata.id()), any(LocalDateTime.class));
+		verify(artifactRepository, never()).delete(any());
+		verify(artifactRepository, never()).insertWithContent(any(), any(), anyInt());
+	}
+
+	@Test
+	void retrieveArtifact_expiredMetadata_changed_replaced() throws IOException {
+		byte[] newContent = "<metadata><version>1.1.0</version></metadata>".getBytes();
+		Artifact staleMetadata = cachedMetadata(LocalDateTime.now().minusHours(1));
+		when(artifactRepository.findByPath(METADATA_PATH)).thenReturn(Optional.of(staleMetadata));
+		MockClientHttpResponse changed = new MockClientHttpResponse(newContent, HttpStatus.OK);
+		changed.getHeaders().setContentLength(newContent.length);
+		changed.getHeaders().setETag("\"v2\"");
+		when(upstreamClient.fetch(eq(METADATA_PATH), any(HttpHeaders.class))).thenReturn(UpstreamResponse.of(changed));
+		ArgumentCaptor<Artifact> artifactCaptor = ArgumentCaptor.forClass(Artifact.class);
+
+		Resource result = artifactService.retrieveArtifact(METADATA_PATH);
+
+		assertThat(result.getContentAsByteArray()).isEqualTo(newContent);
+		verify(artifactRepository, never()).delete(any());
+		verify(artifactRepository).replaceWithContent(eq(staleMetadata), artifactCaptor.capture(),
+				any(InputStream.class), anyInt());
+		assertThat(artifactCaptor.getValue().upstreamEtag()).isEqualTo("\"v2\"");
+		assertThat(artifactCaptor.getValue().sha256()).isEqualTo(sha256(newContent));
+	}
+
+	@Test
+	void retrieveArtifact_expiredMetadata_changed_oldFileRemovedFromFileSystem(@TempDir Path root) throws IOException {
+		when(springEnterpriseProxyProperties.contentStore())
+			.thenReturn(new SpringEnterpriseProxyProperties.ContentStore(
+					SpringEnterpriseProxyProperties.ContentStore.Type.FILESYSTEM, root, DataSize.ofKilobytes(60), 4,
+					new SpringEnterpriseProxyProperties.ContentStore.Migration(true, 20, Duration.ofMinutes(1))));
+		FileSystemContentStore fileSystemStore = new FileSystemContentStore(springEnterpriseProxyProperties,
 				artifactRepository);
+		artifactService = new ArtifactService(springEnterpriseProxyProperties, upstreamClient, artifactRepository,
+				fileSystemStore, inFlightFetches, memoryCache, negativeCache, freshnessPolicy, revalidationExecutor,
+				circuitBreaker, siblingPrefetcher, accessTracker, compression, writeBehind);
+		byte[] newContent = "<metadata><version>1.1.0</version></metadata>".getBytes();
+		Artifact staleMetadata = cachedMetadata(LocalDateTime.now().minusHours(1));
+		fileSystemStore.write(staleMetadata, METADATA_CONTENT);
+		when(artifactRepository.findByPath(METADATA_PATH)).thenReturn(Optional.of(staleMetadata));
+		MockClientHttpResponse changed = new MockClientHttpResponse(newContent, HttpStatus.OK);
+		changed.getHeaders().setContentLength(newContent.length);
+		when(upstreamClient.fetch(eq(METADATA_PATH), any(HttpHeaders.class))).thenReturn(UpstreamResponse.of(changed));
+		ArgumentCaptor<Artifact> artifactCaptor = ArgumentCaptor.forClass(Artifact.class);
 
-		// Given: Artifact not in database
+		Resource result = artifactService.retrieveArtifact(METADATA_PATH);
+
+		assertThat(result.getContentAsByteArray()).isEqualTo(newContent);
+		verify(artifactRepository, never()).delete(any());
+		assertThat(fileSystemStore.fileFor(staleMetadata)).doesNotExist();
+		verify(artifactRepository).replace(eq(staleMetadata), artifactCaptor.capture());
+		assertThat(fileSystemStore.fileFor(artifactCaptor.getValue())).hasBinaryContent(newContent);
+	}
+
+	@Test
+	void retrieveArtifact_expiredMetadata_changedButTruncated_keepsCachedCopy() throws IOException {
+		byte[] newContent = "<metadata><version>1.1.0</version></metadata>".getBytes();
+		Artifact staleMetadata = cachedMetadata(LocalDateTime.now().minusHours(1));
+		when(artifactRepository.findByPath(METADATA_PATH)).thenReturn(Optional.of(staleMetadata));
+		stubContent(staleMetadata.bodyKey(), METADATA_CONTENT);
+		MockClientHttpResponse changed = new MockClientHttpResponse(newContent, HttpStatus.OK);
+		changed.getHeaders().setContentLength(newContent.length + 10);
+		when(upstreamClient.fetch(eq(METADATA_PATH), any(HttpHeaders.class))).thenReturn(UpstreamResponse.of(changed));
+
+		Resource result = artifactService.retrieveArtifact(METADATA_PATH);
+
+		assertThat(result.getContentAsByteArray()).isEqualTo(METADATA_CONTENT);
+		verify(artifactRepository, never()).delete(any());
+		verify(artifactRepository, never()).replaceWithContent(any(), any(), any(), anyInt());
+	}
+
+	@Test
+	void retrieveArtifact_expiredMetadata_remoteUnavailable_servesCachedCopy() throws IOException {
+		Artifact staleMetadata = cachedMetadata(LocalDateTime.now().minusHours(1));
+		when(artifactRepository.findByPath(METADATA_PATH)).thenReturn(Optional.of(staleMetadata));
+		stubContent(staleMetadata.bodyKey(), METADATA_CONTENT);
+		when(upstreamClient.fetch(eq(METADATA_PATH), any(HttpHeaders.class)))
+			.thenThrow(new IOException("Connection refused"));
+
+		Resource result = artifactService.retrieveArtifact(METADATA_PATH);
+
+		assertThat(result.getContentAsByteArray()).isEqualTo(METADATA_CONTENT);
+		verify(artifactRepository, never()).markValidated(any(), any());
+		verify(artifactRepository, never()).delete(any());
+	}
+
+	@Test
+	void retrieveArtifact_staleMetadata_servedAndRevalidatedInBackground() throws IOException {
+		Artifact staleMetadata = cachedMetadata(LocalDateTime.now().minusMinutes(10));
+		when(artifactRepository.findByPath(METADATA_PATH)).thenReturn(Optional.of(staleMetadata));
+		stubContent(staleMetadata.bodyKey(), METADATA_CONTENT);
+		when(upstreamClient.fetch(eq(METADATA_PATH), any(HttpHeaders.class)))
+			.thenReturn(UpstreamResponse.of(new MockClientHttpResponse(new byte[0], HttpStatus.NOT_MODIFIED)));
+
+		Resource result = artifactService.retrieveArtifact(METADATA_PATH);
+
+		assertThat(result.getContentAsByteArray()).isEqualTo(METADATA_CONTENT);
+		verify(revalidationExecutor).trySubmit(any());
+		verify(artifactRepository).markValidated(eq(staleMetadata.id()), any(LocalDateTime.class));
+		assertThat(meterRegistry.get("spring.enterprise.proxy.fetch.in.flight").gauge().value()).isZero();
+	}
+
+	@Test
+	void retrieveArtifact_staleMetadata_changed_servedStaleAndReplacedInBackground() throws IOException {
+		byte[] newContent = "<metadata><version>1.1.0</version></metadata>".getBytes();
+		Artifact staleMetadata = cachedMetadata(LocalDateTime.now().minusMinutes(10));
+		when(artifactRepository.findByPath(METADATA_PATH)).thenReturn(Optional.of(staleMetadata));
+		stubContent(staleMetadata.bodyKey(), METADATA_CONTENT);
+		MockClientHttpResponse changed = new MockClientHttpResponse(newContent, HttpStatus.OK);
+		changed.getHeaders().setContentLength(newContent.length);
+		changed.getHeaders().setETag("\"v2\"");
+		when(upstreamClient.fetch(eq(METADATA_PATH), any(HttpHeaders.class))).thenReturn(UpstreamResponse.of(changed));
+		ArgumentCaptor<Artifact> artifactCaptor = ArgumentCaptor.forClass(Artifact.class);
+
+		Resource result = artifactService.retrieveArtifact(METADATA_PATH);
+
+		assertThat(result.getContentAsByteArray()).isEqualTo(METADATA_CONTENT);
+		verify(artifactRepository, never()).delete(any());
+		verify(artifactRepository).replaceWithContent(eq(staleMetadata), artifactCaptor.capture(),
+				any(InputStream.class), anyInt());
+		assertThat(artifactCaptor.getValue().upstreamEtag()).isEqualTo("\"v2\"");
+	}
+
+	@Test
+	void retrieveArtifact_staleMetadata_revalidationQueueFull_servedWithoutRevalidating() throws IOException {
+		Artifact staleMetadata = cachedMetadata(LocalDateTime.now().minusMinutes(10));
+		when(artifactRepository.findByPath(METADATA_PATH)).thenReturn(Optional.of(staleMetadata));
+		stubContent(staleMetadata.bodyKey(), METADATA_CONTENT);
+		doReturn(false).when(revalidationExecutor).trySubmit(any());
+
+		Resource result = artifactService.retrieveArtifact(METADATA_PATH);
+
+		assertThat(result.getContentAsByteArray()).isEqualTo(METADATA_CONTENT);
+		verifyNoInteractions(upstreamClient);
+		assertThat(meterRegistry.get("spring.enterprise.proxy.fetch.in.flight").gauge().value()).isZero();
+	}
+
+	@Test
+	void retrieveArtifact_circuitOpen_missFailsFast() throws IOException {
+		openCircuit();
 		when(artifactRepository.findByPath(ARTIFACT_PATH)).thenReturn(Optional.empty());
 
-		// And: Remote call succeeds
-		ResponseEntity<byte[]> successResponse = new ResponseEntity<>(ARTIFACT_CONTENT, HttpStatus.OK);
-		when(restClient.get().uri(REMOTE_URL).headers(any()).retrieve().toEntity(byte[].class))
-			.thenReturn(successResponse);
+		assertThrows(UpstreamUnavailableException.class, () -> artifactService.retrieveArtifact(ARTIFACT_PATH));
 
-		// When
-		authService.retrieveArtifact(ARTIFACT_PATH);
+		// Neither retried nor fetched again without caching
+		verify(upstreamClient, times(1)).fetch(ARTIFACT_PATH);
+	}
+
+	@Test
+	void retrieveArtifact_circuitOpen_expiredMetadataServedWithoutRevalidating() throws IOException {
+		openCircuit();
+		Artifact expiredMetadata = cachedMetadata(LocalDateTime.now().minusDays(1));
+		when(artifactRepository.findByPath(METADATA_PATH)).thenReturn(Optional.of(expiredMetadata));
+		stubContent(expiredMetadata.bodyKey(), METADATA_CONTENT);
+
+		Optional<ArtifactService.Served> served = artifactService.serveArtifact(METADATA_PATH, false, false,
+				artifact -> false);
+
+		assertThat(served).hasValueSatisfying(stale -> {
+			assertThat(stale.artifact()).isEqualTo(expiredMetadata);
+			assertThat(stale.stale()).isTrue();
+		});
+		assertThat(served.get().content().getContentAsByteArray()).isEqualTo(METADATA_CONTENT);
+		verifyNoInteractions(upstreamClient, revalidationExecutor);
+	}
+
+	@Test
+	void retrieveArtifact_freshMetadata_notRevalidated() throws IOException {
+		Artifact freshMetadata = cachedMetadata(LocalDateTime.now().minusMinutes(1));
+		when(artifactRepository.findByPath(METADATA_PATH)).thenReturn(Optional.of(freshMetadata));
+		stubContent(freshMetadata.bodyKey(), METADATA_CONTENT);
+
+		Resource result = artifactService.retrieveArtifact(METADATA_PATH);
 
-		// Then: Verify restClientBuilder.build() was called to apply default headers
-		// This implicitly checks if .defaultHeader() was potentially called on the
-		// builder
-		verify(restClientBuilder, times(3)).build(); // Once in initial setup, once when
-														// authService created
+		assertThat(result.getContentAsByteArray()).isEqualTo(METADATA_CONTENT);
+		verifyNoInteractions(upstreamClient);
+	}
+
+	@Test
+	void retrieveArtifact_releaseArtifact_neverRevalidated() throws IOException {
+		Artifact oldArtifact = cachedArtifact(ARTIFACT_CONTENT).withValidatedAt(LocalDateTime.now().minusYears(1));
+		when(artifactRepository.findByPath(ARTIFACT_PATH)).thenReturn(Optional.of(oldArtifact));
+
+		Resource result = artifactService.retrieveArtifact(ARTIFACT_PATH);
+
+		assertThat(result.getContentAsByteArray()).isEqualTo(ARTIFACT_CONTENT);
+		verifyNoInteractions(upstreamClient);
+	}
+
+	private void openCircuit() throws IOException {
+		circuitBreaker.onResult(0, true);
+		circuitBreaker.onResult(0, true);
+		assertThat(circuitBreaker.isOpen()).isTrue();
+		// The client checks the breaker itself; here it is a mock
+		lenient().when(upstreamClient.fetch(any())).thenThrow(new UpstreamUnavailableException("open"));
+	}
+
+	private Artifact cachedMetadata(LocalDateTime validatedAt) {
+		return Artifact
+			.cached(METADATA_PATH, METADATA_CONTENT.length, sha256(METADATA_CONTENT), "text/xml", validatedAt)
+			.withUpstreamValidators("\"v1\"", "Sat, 01 Jun 2024 12:00:00 GMT");
+	}
+
+	private Artifact cachedArtifact(byte[] content) {
+		stubContent(sha256(content), content);
+		return Artifact.cached(ARTIFACT_PATH, content.length, sha256(content), "application/octet-stream",
+				LocalDateTime.now());
+	}
+
+	private void stubContent(String contentKey, byte[] content) {
+		when(artifactRepository.hasContent(contentKey)).thenReturn(true);
+		when(artifactRepository.findChunks(eq(contentKey), eq(0), anyInt())).thenReturn(List.of(content));
+	}
+
+	private static String sha256(byte[] content) {
+		return digest("SHA-256", content);
+	}
+
+	private static String digest(String algorithm, byte[] content) {
+		try {
+			return HexFormat.of().formatHex(MessageDigest.getInstance(algorithm).digest(content));
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
 
-		// Verify the remote call still happens
-		verify(restClient.get()).uri(REMOTE_URL);
+	private static void await(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (!condition.getAsBoolean()) {
+			assertThat(System.nanoTime()).isLessThan(deadline);
+			Thread.sleep(10);
+		}
 	}
 
-}
\ No newline at end of file
+}
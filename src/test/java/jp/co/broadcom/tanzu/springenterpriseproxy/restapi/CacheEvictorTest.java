@@ -0,0 +1,148 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jp.co.broadcom.tanzu.springenterpriseproxy.SpringEnterpriseProxyProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class CacheEvictorTest {
+
+	@Mock
+	private SpringEnterpriseProxyProperties springEnterpriseProxyProperties;
+
+	@Mock
+	private ArtifactRepository artifactRepository;
+
+	@Mock
+	private ArtifactContentStore contentStore;
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	private ArtifactMemoryCache memoryCache;
+
+	private ArtifactAccessTracker accessTracker;
+
+	private CacheEvictor evictor;
+
+	@BeforeEach
+	void setUp() {
+		// Evicts from 1000 bytes down to 500
+		eviction(true, SpringEnterpriseProxyProperties.Eviction.Policy.LRU);
+		lenient().when(springEnterpriseProxyProperties.memoryCache())
+			.thenReturn(new SpringEnterpriseProxyProperties.MemoryCache(true, DataSize.ofKilobytes(64),
+					DataSize.ofKilobytes(1)));
+		memoryCache = new ArtifactMemoryCache(springEnterpriseProxyProperties, meterRegistry);
+		accessTracker = new ArtifactAccessTracker(artifactRepository, meterRegistry);
+		evictor = new CacheEvictor(springEnterpriseProxyProperties, artifactRepository, contentStore, memoryCache,
+				accessTracker, meterRegistry);
+	}
+
+	private void eviction(boolean enabled, SpringEnterpriseProxyProperties.Eviction.Policy policy) {
+		lenient().when(springEnterpriseProxyProperties.eviction())
+			.thenReturn(new SpringEnterpriseProxyProperties.Eviction(enabled, DataSize.ofBytes(1000), 0.5, policy,
+					Duration.ofMinutes(10), 2, Duration.ofMinutes(1), Duration.ofSeconds(30)));
+	}
+
+	@Test
+	void sweep_underQuota_evictsNothing() {
+		when(artifactRepository.sumStoredLength()).thenReturn(1000L);
+
+		evictor.sweep();
+
+		verifyNoInteractions(contentStore);
+		assertThat(meterRegistry.get("spring.enterprise.proxy.eviction.cached.bytes").gauge().value()).isEqualTo(1000);
+		assertThat(meterRegistry.get("spring.enterprise.proxy.eviction.sweeps").timer().count()).isOne();
+	}
+
+	@Test
+	void sweep_overQuota_evictsLeastRecentlyUsedDownToTarget() throws IOException {
+		Artifact streamed = artifact("/a.jar", 300);
+		Artifact oldest = artifact("/b.jar", 500);
+		Artifact older = artifact("/c.jar", 400);
+		Artifact newer = artifact("/d.jar", 200);
+		when(artifactRepository.sumStoredLength()).thenReturn(1400L);
+		// Evicted rows drop out of the order
+		List<Artifact> order = new ArrayList<>(List.of(streamed, oldest, older, newer));
+		doAnswer(invocation -> order.remove(invocation.getArgument(0, Artifact.class))).when(contentStore)
+			.delete(any());
+		when(artifactRepository.findLeastRecentlyUsed(any(), eq(2), anyInt())).thenAnswer(invocation -> {
+			int offset = invocation.getArgument(2);
+			return List.copyOf(order.subList(Math.min(offset, order.size()), Math.min(offset + 2, order.size())));
+		});
+		InputStream body = accessTracker.track(streamed, new ByteArrayResource(new byte[300])).getInputStream();
+		memoryCache.put(oldest, new byte[500]);
+
+		evictor.sweep();
+
+		verify(contentStore, never()).delete(streamed);
+		verify(contentStore).delete(oldest);
+		verify(contentStore).delete(older);
+		verify(contentStore, never()).delete(newer);
+		assertThat(memoryCache.get(oldest.path())).isEmpty();
+		assertThat(meterRegistry.get("spring.enterprise.proxy.eviction.evicted").counter().count()).isEqualTo(2);
+		assertThat(meterRegistry.get("spring.enterprise.proxy.eviction.evicted.bytes").counter().count())
+			.isEqualTo(900);
+		assertThat(meterRegistry.get("spring.enterprise.proxy.eviction.skipped").counter().count()).isOne();
+		assertThat(meterRegistry.get("spring.enterprise.proxy.eviction.cached.bytes").gauge().value()).isEqualTo(500);
+		body.close();
+	}
+
+	@Test
+	void sweep_leastFrequentlyUsed_skipsArtifactsUsedMeanwhile() throws IOException {
+		eviction(true, SpringEnterpriseProxyProperties.Eviction.Policy.LFU);
+		evictor = new CacheEvictor(springEnterpriseProxyProperties, artifactRepository, contentStore, memoryCache,
+				accessTracker, meterRegistry);
+		Artifact rarelyUsed = artifact("/a.jar", 600);
+		// Used right after the usage was flushed
+		when(artifactRepository.sumStoredLength()).thenReturn(1200L);
+		when(artifactRepository.findLeastFrequentlyUsed(any(), eq(2), anyInt())).thenAnswer(invocation -> {
+			accessTracker.recordAccess(rarelyUsed);
+			return invocation.<Integer>getArgument(2) == 0 ? List.of(rarelyUsed) : List.of();
+		});
+
+		evictor.sweep();
+
+		verify(contentStore, never()).delete(any());
+		verify(artifactRepository, never()).findLeastRecentlyUsed(any(), anyInt(), anyInt());
+	}
+
+	@Test
+	void sweep_disabled_doesNothing() {
+		eviction(false, SpringEnterpriseProxyProperties.Eviction.Policy.LRU);
+		evictor = new CacheEvictor(springEnterpriseProxyProperties, artifactRepository, contentStore, memoryCache,
+				accessTracker, meterRegistry);
+
+		evictor.sweep();
+
+		verifyNoInteractions(artifactRepository, contentStore);
+	}
+
+	private static Artifact artifact(String path, long contentLength) {
+		return Artifact.cached(path, contentLength, null, "application/java-archive", LocalDateTime.now().minusDays(1));
+	}
+
+}
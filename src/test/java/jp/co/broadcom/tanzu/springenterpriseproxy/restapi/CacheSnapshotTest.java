@@ -0,0 +1,232 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jp.co.broadcom.tanzu.springenterpriseproxy.SpringEnterpriseProxyProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class CacheSnapshotTest {
+
+	private static final String POM_PATH = "/org/example/library/1.0.0/library-1.0.0.pom";
+
+	private static final String JAR_PATH = "/org/example/library/1.0.0/library-1.0.0.jar";
+
+	private static final String SHA1_PATH = "/org/example/library/1.0.0/library-1.0.0.jar.sha1";
+
+	@TempDir
+	private Path directory;
+
+	@Mock
+	private SpringEnterpriseProxyProperties springEnterpriseProxyProperties;
+
+	@Mock
+	private ArtifactRepository artifactRepository;
+
+	@Mock
+	private ArtifactContentStore contentStore;
+
+	private final ObjectMapper objectMapper = JsonMapper.builder().findAndAddModules().build();
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	private final Map<Artifact, byte[]> cache = new LinkedHashMap<>();
+
+	private ArtifactCompression compression;
+
+	private CacheSnapshot snapshot;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		when(springEnterpriseProxyProperties.snapshot())
+			.thenReturn(new SpringEnterpriseProxyProperties.Snapshot(2, 2, 10, DataSize.ofKilobytes(1), directory));
+		lenient().when(artifactRepository.findPageAfter(any(), any(Integer.class))).thenAnswer(invocation -> {
+			String afterId = invocation.getArgument(0);
+			int limit = invocation.getArgument(1);
+			return cache.keySet()
+				.stream()
+				.sorted((a, b) -> a.id().compareTo(b.id()))
+				.filter(artifact -> artifact.id().compareTo(afterId) > 0)
+				.limit(limit)
+				.toList();
+		});
+		lenient().when(contentStore.read(any()))
+			.thenAnswer(invocation -> Optional.ofNullable(cache.get(invocation.getArgument(0, Artifact.class)))
+				.map(ByteArrayResource::new));
+		lenient().when(contentStore.storeAll(anyMap()))
+			.thenAnswer(invocation -> invocation.getArgument(0, Map.class).size());
+		lenient().when(springEnterpriseProxyProperties.compression())
+			.thenReturn(new SpringEnterpriseProxyProperties.Compression(true, DataSize.ofBytes(256), 0.9));
+		compression = new ArtifactCompression(springEnterpriseProxyProperties, meterRegistry);
+		snapshot = new CacheSnapshot(springEnterpriseProxyProperties, artifactRepository, contentStore, compression,
+				objectMapper, meterRegistry);
+	}
+
+	@AfterEach
+	void tearDown() {
+		snapshot.destroy();
+	}
+
+	@Test
+	void exportThenImport_roundTripsMetadataAndContent() throws Exception {
+		Artifact pom = cached(POM_PATH, "<project/>".getBytes());
+		Artifact jar = cached(JAR_PATH, "library-jar".getBytes());
+		Artifact sha1 = cached(SHA1_PATH, "da39a3ee5e6b4b0d3255bfef95601890afd80709".getBytes());
+		Path archive = directory.resolve("cache.zip");
+
+		CacheSnapshot.Job export = snapshot.startExport("cache.zip");
+		await(export);
+
+		assertThat(export.count(CacheSnapshot.Outcome.EXPORTED)).isEqualTo(3);
+		assertThat(Files.exists(archive)).isTrue();
+		assertThat(Files.exists(directory.resolve("cache.zip.part"))).isFalse();
+
+		CacheSnapshot.Job importing = snapshot.startImport("cache.zip");
+		await(importing);
+
+		@SuppressWarnings("unchecked")
+		ArgumentCaptor<Map<Artifact, byte[]>> batches = ArgumentCaptor.forClass(Map.class);
+		verify(contentStore, atLeastOnce()).storeAll(batches.capture());
+		Map<Artifact, byte[]> imported = new LinkedHashMap<>();
+		batches.getAllValues().forEach(imported::putAll);
+		assertThat(imported).containsOnlyKeys(pom, jar, sha1);
+		assertThat(imported.get(jar)).isEqualTo(cache.get(jar));
+		assertThat(importing.count(CacheSnapshot.Outcome.STORED)).isEqualTo(3);
+		assertThat(importing.progress()).containsEntry("state", "finished").containsEntry("scanned", 3L);
+	}
+
+	@Test
+	void exportThenImport_compressedArtifact_archivedDecompressed() throws Exception {
+		byte[] pom = ("<project>" + "<dependency/>".repeat(50) + "</project>").getBytes();
+		Artifact original = cached(POM_PATH, pom);
+		cache.remove(original);
+		ArtifactCompression.Stored stored = compression.encode(original, pom);
+		cache.put(stored.artifact(), stored.content());
+		Path archive = directory.resolve("cache.zip");
+
+		await(snapshot.startExport("cache.zip"));
+		try (ZipFile zip = new ZipFile(archive.toFile())) {
+			ZipEntry content = zip.getEntry(CacheSnapshot.CONTENT_PREFIX + POM_PATH);
+			assertThat(zip.getInputStream(content).readAllBytes()).isEqualTo(pom);
+		}
+		CacheSnapshot.Job importing = snapshot.startImport("cache.zip");
+		await(importing);
+
+		@SuppressWarnings("unchecked")
+		ArgumentCaptor<Map<Artifact, byte[]>> batch = ArgumentCaptor.forClass(Map.class);
+		verify(contentStore).storeAll(batch.capture());
+		assertThat(batch.getValue()).containsExactly(entry(stored.artifact(), stored.content()));
+		assertThat(importing.count(CacheSnapshot.Outcome.STORED)).isOne();
+	}
+
+	@Test
+	void import_skipsCachedAndCorruptArtifacts() throws Exception {
+		Artifact pom = cached(POM_PATH, "<project/>".getBytes());
+		// The recorded digest does not match the body, e.g. after a bit flip on disk
+		cache.put(Artifact.cached(JAR_PATH, 11, "0".repeat(64), "application/java-archive", pom.lastModified()),
+				"library-jar".getBytes());
+		Path archive = directory.resolve("cache.zip");
+		await(snapshot.startExport("cache.zip"));
+		when(artifactRepository.findByPathIn(any())).thenReturn(List.of(pom));
+
+		CacheSnapshot.Job importing = snapshot.startImport("cache.zip");
+		await(importing);
+
+		assertThat(importing.count(CacheSnapshot.Outcome.EXISTING)).isOne();
+		assertThat(importing.count(CacheSnapshot.Outcome.CORRUPT)).isOne();
+	}
+
+	@Test
+	void import_largeArtifact_streamedOnItsOwn() throws Exception {
+		Artifact jar = cached(JAR_PATH, new byte[2000]);
+		Path archive = directory.resolve("cache.zip");
+		await(snapshot.startExport("cache.zip"));
+		ArtifactContentWriter writer = mock(ArtifactContentWriter.class);
+		when(contentStore.newWriter(JAR_PATH)).thenReturn(writer);
+
+		CacheSnapshot.Job importing = snapshot.startImport("cache.zip");
+		await(importing);
+
+		verify(writer).commit(jar);
+		assertThat(importing.count(CacheSnapshot.Outcome.STORED)).isOne();
+		assertThat(importing.progress()).containsEntry("bytes", 2000L);
+	}
+
+	@Test
+	void start_outsideSnapshotDirectory_rejected() throws Exception {
+		Path outside = Files.createDirectories(directory.resolveSibling(directory.getFileName() + "-outside"));
+		Files.writeString(outside.resolve("cache.zip"), "not a snapshot");
+		Files.createSymbolicLink(directory.resolve("link"), outside);
+
+		assertThrows(IllegalArgumentException.class, () -> snapshot.startExport("../cache.zip"));
+		assertThrows(IllegalArgumentException.class, () -> snapshot.startExport(outside.resolve("new.zip").toString()));
+		assertThrows(IllegalArgumentException.class, () -> snapshot.startExport("link/new.zip"));
+		assertThrows(IllegalArgumentException.class,
+				() -> snapshot.startImport("../" + outside.getFileName() + "/cache.zip"));
+		assertThrows(IllegalArgumentException.class, () -> snapshot.startImport("link/cache.zip"));
+		assertThat(snapshot.jobs()).isEmpty();
+	}
+
+	@Test
+	void start_invalidFiles() throws Exception {
+		Path existing = Files.writeString(directory.resolve("existing.zip"), "not a snapshot");
+
+		assertThrows(IllegalArgumentException.class, () -> snapshot.startExport("existing.zip"));
+		assertThrows(IllegalArgumentException.class, () -> snapshot.startImport("missing.zip"));
+
+		CacheSnapshot.Job importing = snapshot.startImport("existing.zip");
+		await(importing);
+		assertThat(importing.error()).isNotNull();
+		assertThat(importing.progress()).containsEntry("state", "failed");
+	}
+
+	private Artifact cached(String path, byte[] content) {
+		ChecksumVerifier checksums = new ChecksumVerifier(new HttpHeaders());
+		checksums.update(content, 0, content.length);
+		Artifact artifact = Artifact.fetched(path, content.length, checksums, new HttpHeaders());
+		cache.put(artifact, content);
+		return artifact;
+	}
+
+	private static void await(CacheSnapshot.Job job) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (!job.isFinished()) {
+			assertThat(System.nanoTime()).isLessThan(deadline);
+			Thread.sleep(10);
+		}
+	}
+
+}
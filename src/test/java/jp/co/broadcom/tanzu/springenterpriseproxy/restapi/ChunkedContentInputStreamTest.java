@@ -0,0 +1,81 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ChunkedContentInputStreamTest {
+
+	private static final String ARTIFACT_ID = "0a1b2c3d-0000-0000-0000-000000000000";
+
+	@Mock
+	private ArtifactRepository artifactRepository;
+
+	@Test
+	void read_concatenatesChunksInOrder() throws IOException {
+		when(artifactRepository.findChunks(ARTIFACT_ID, 0, 2)).thenReturn(List.of("ab".getBytes(), "cd".getBytes()));
+		when(artifactRepository.findChunks(ARTIFACT_ID, 2, 2)).thenReturn(List.of("e".getBytes()));
+
+		try (InputStream in = new ChunkedContentInputStream(artifactRepository, ARTIFACT_ID, 2, null)) {
+			assertThat(in.readAllBytes()).isEqualTo("abcde".getBytes());
+		}
+		verify(artifactRepository, times(2)).findChunks(eq(ARTIFACT_ID), anyInt(), anyInt());
+	}
+
+	@Test
+	void read_prefetchesNextBatchBeforeItIsNeeded() throws IOException {
+		when(artifactRepository.findChunks(ARTIFACT_ID, 0, 1)).thenReturn(List.of("ab".getBytes()));
+		when(artifactRepository.findChunks(ARTIFACT_ID, 1, 1)).thenReturn(List.of("cd".getBytes()));
+		List<Runnable> scheduled = new ArrayList<>();
+		Executor executor = scheduled::add;
+
+		try (InputStream in = new ChunkedContentInputStream(artifactRepository, ARTIFACT_ID, 1, executor)) {
+			assertThat(in.read()).isEqualTo('a');
+			// The second batch is requested while the first one is still being read
+			assertThat(scheduled).hasSize(1);
+			verify(artifactRepository, never()).findChunks(ARTIFACT_ID, 1, 1);
+			scheduled.remove(0).run();
+			assertThat(in.read()).isEqualTo('b');
+			assertThat(in.read()).isEqualTo('c');
+			assertThat(scheduled).hasSize(1);
+			scheduled.remove(0).run();
+			assertThat(in.readAllBytes()).isEqualTo("d".getBytes());
+		}
+	}
+
+	@Test
+	void read_prefetchFailure_surfacesAsIOException() {
+		when(artifactRepository.findChunks(ARTIFACT_ID, 0, 1)).thenReturn(List.of("ab".getBytes()));
+		when(artifactRepository.findChunks(ARTIFACT_ID, 1, 1)).thenThrow(new IllegalStateException("connection lost"));
+
+		InputStream in = new ChunkedContentInputStream(artifactRepository, ARTIFACT_ID, 1, Runnable::run);
+
+		assertThrows(IOException.class, in::readAllBytes);
+	}
+
+	@Test
+	void skip_jumpsOverWholeChunksWithoutReadingThem() throws IOException {
+		when(artifactRepository.findChunks(ARTIFACT_ID, 0, 1)).thenReturn(List.of("abcd".getBytes()));
+		when(artifactRepository.findChunks(ARTIFACT_ID, 2, 1)).thenReturn(List.of("ijkl".getBytes()));
+		when(artifactRepository.findChunks(ARTIFACT_ID, 3, 1)).thenReturn(List.of("mn".getBytes()));
+
+		try (InputStream in = new ChunkedContentInputStream(artifactRepository, ARTIFACT_ID, 1, null)) {
+			assertThat(in.skip(9)).isEqualTo(9);
+			assertThat(in.readAllBytes()).isEqualTo("jklmn".getBytes());
+		}
+		verify(artifactRepository, never()).findChunks(ARTIFACT_ID, 1, 1);
+	}
+
+}
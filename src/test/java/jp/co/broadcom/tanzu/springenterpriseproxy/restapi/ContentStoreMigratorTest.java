@@ -0,0 +1,112 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jp.co.broadcom.tanzu.springenterpriseproxy.SpringEnterpriseProxyProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ContentStoreMigratorTest {
+
+	private final String ARTIFACT_PATH = "org/example/library/1.0.0/library-1.0.0.jar";
+
+	private final byte[] ARTIFACT_CONTENT = "some-jar-content".getBytes();
+
+	@TempDir
+	private Path root;
+
+	@Mock
+	private SpringEnterpriseProxyProperties springEnterpriseProxyProperties;
+
+	@Mock
+	private ArtifactRepository artifactRepository;
+
+	private MeterRegistry meterRegistry;
+
+	private FileSystemContentStore contentStore;
+
+	private ContentStoreMigrator migrator;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		when(springEnterpriseProxyProperties.contentStore())
+			.thenReturn(new SpringEnterpriseProxyProperties.ContentStore(
+					SpringEnterpriseProxyProperties.ContentStore.Type.FILESYSTEM, root, DataSize.ofKilobytes(60), 4,
+					new SpringEnterpriseProxyProperties.ContentStore.Migration(true, 20, Duration.ofMinutes(1))));
+		meterRegistry = new SimpleMeterRegistry();
+		contentStore = new FileSystemContentStore(springEnterpriseProxyProperties, artifactRepository);
+		migrator = new ContentStoreMigrator(springEnterpriseProxyProperties, artifactRepository, contentStore,
+				meterRegistry);
+	}
+
+	@Test
+	void migrate_movesContentToFileSystemAndDeletesDatabaseCopy() {
+		Artifact databaseArtifact = Artifact.cached(ARTIFACT_PATH, ARTIFACT_CONTENT.length, null,
+				"application/java-archive", LocalDateTime.now());
+		when(artifactRepository.findWithDatabaseContent(20)).thenReturn(List.of(databaseArtifact));
+		when(artifactRepository.findChunks(databaseArtifact.id(), 0, 4)).thenReturn(List.of(ARTIFACT_CONTENT));
+
+		migrator.migrate();
+
+		assertThat(contentStore.fileFor(databaseArtifact)).hasBinaryContent(ARTIFACT_CONTENT);
+		verify(artifactRepository).deleteContent(databaseArtifact.id());
+		assertThat(meterRegistry.get("spring.enterprise.proxy.content.store.migrated").counter().count())
+			.isEqualTo(1.0);
+	}
+
+	@Test
+	void migrate_bodyCannotBeMoved_othersMovedAndFailedOneSkippedLater() throws IOException {
+		String otherPath = "org/example/other/1.0.0/other-1.0.0.jar";
+		Artifact failing = Artifact.cached(ARTIFACT_PATH, ARTIFACT_CONTENT.length, null, "application/java-archive",
+				LocalDateTime.now());
+		Artifact other = Artifact.cached(otherPath, ARTIFACT_CONTENT.length, null, "application/java-archive",
+				LocalDateTime.now());
+		// A file where the shard directory should be makes the write fail
+		Path shard = contentStore.fileFor(failing).getParent();
+		Files.createDirectories(shard.getParent());
+		Files.createFile(shard);
+		when(artifactRepository.findWithDatabaseContent(20)).thenReturn(List.of(failing, other));
+		when(artifactRepository.findChunks(failing.id(), 0, 4)).thenReturn(List.of(ARTIFACT_CONTENT));
+		when(artifactRepository.findChunks(other.id(), 0, 4)).thenReturn(List.of(ARTIFACT_CONTENT));
+
+		migrator.migrate();
+
+		assertThat(contentStore.fileFor(other)).hasBinaryContent(ARTIFACT_CONTENT);
+		verify(artifactRepository).deleteContent(other.id());
+		verify(artifactRepository, never()).deleteContent(failing.id());
+		assertThat(meterRegistry.get("spring.enterprise.proxy.content.store.migration.failed").counter().count())
+			.isEqualTo(1.0);
+
+		when(artifactRepository.findWithDatabaseContent(21)).thenReturn(List.of(failing));
+
+		migrator.migrate();
+
+		verify(artifactRepository, times(1)).findChunks(failing.id(), 0, 4);
+	}
+
+	@Test
+	void migrate_nothingToMove() {
+		when(artifactRepository.findWithDatabaseContent(20)).thenReturn(List.of());
+
+		migrator.migrate();
+
+		verify(artifactRepository, never()).deleteContent(any());
+	}
+
+}
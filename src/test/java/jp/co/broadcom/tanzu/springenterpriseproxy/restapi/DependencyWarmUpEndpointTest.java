@@ -0,0 +1,115 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.autoconfigure.endpoint.EndpointAutoConfiguration;
+import org.springframework.boot.actuate.autoconfigure.endpoint.web.WebEndpointAutoConfiguration;
+import org.springframework.boot.actuate.autoconfigure.web.server.ManagementContextAutoConfiguration;
+import org.springframework.boot.actuate.autoconfigure.web.servlet.ServletManagementContextAutoConfiguration;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.ArgumentMatchers.any;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@WebMvcTest
+@ImportAutoConfiguration({ EndpointAutoConfiguration.class, WebEndpointAutoConfiguration.class,
+		ManagementContextAutoConfiguration.class, ServletManagementContextAutoConfiguration.class })
+@Import({ SecurityConfig.class, ZeroCopyFileSender.class, DependencyWarmUpEndpoint.class })
+@TestPropertySource(properties = { "management.endpoints.web.exposure.include=warmup",
+		"spring.enterprise.proxy.admin.password={noop}secret" })
+class DependencyWarmUpEndpointTest {
+
+	private static final String REQUEST = """
+			{"coordinates": "org.example:bom:1.0.0, org.example:app:2.1.0"}
+			""";
+
+	private static final String BASIC_CREDENTIALS = "Basic "
+			+ Base64.getEncoder().encodeToString("user:password".getBytes(StandardCharsets.UTF_8));
+
+	private static final String ADMIN_CREDENTIALS = "Basic "
+			+ Base64.getEncoder().encodeToString("admin:secret".getBytes(StandardCharsets.UTF_8));
+
+	@Autowired
+	private MockMvc mockMvc;
+
+	@MockitoBean
+	private ArtifactService artifactService;
+
+	@MockitoBean
+	private DependencyWarmUp warmUp;
+
+	@Test
+	void jobs_withoutCredentials_unauthorized() throws Exception {
+		mockMvc.perform(get("/actuator/warmup")).andExpect(status().isUnauthorized());
+		mockMvc.perform(get("/actuator/warmup/some-id")).andExpect(status().isUnauthorized());
+	}
+
+	@Test
+	void jobs_withArtifactCredentials_forbidden() throws Exception {
+		mockMvc.perform(get("/actuator/warmup").header(HttpHeaders.AUTHORIZATION, BASIC_CREDENTIALS))
+			.andExpect(status().isForbidden());
+	}
+
+	@Test
+	void jobs_withAdminCredentials_allowed() throws Exception {
+		when(warmUp.jobs()).thenReturn(List.of());
+
+		mockMvc.perform(get("/actuator/warmup").header(HttpHeaders.AUTHORIZATION, ADMIN_CREDENTIALS))
+			.andExpect(status().isOk())
+			.andExpect(jsonPath("$").isEmpty());
+	}
+
+	@Test
+	void start_withoutCredentials_unauthorized() throws Exception {
+		mockMvc.perform(post("/actuator/warmup").contentType(MediaType.APPLICATION_JSON).content(REQUEST))
+			.andExpect(status().isUnauthorized());
+
+		verify(warmUp, never()).start(any());
+	}
+
+	@Test
+	void start_withArtifactCredentials_forbidden() throws Exception {
+		mockMvc
+			.perform(post("/actuator/warmup").contentType(MediaType.APPLICATION_JSON)
+				.content(REQUEST)
+				.header(HttpHeaders.AUTHORIZATION, BASIC_CREDENTIALS))
+			.andExpect(status().isForbidden());
+
+		verify(warmUp, never()).start(any());
+	}
+
+	@Test
+	void start_withAdminCredentials_allowedWithoutCsrfToken() throws Exception {
+		DependencyWarmUp.Job job = mock(DependencyWarmUp.Job.class);
+		when(job.progress()).thenReturn(Map.of("id", "warmup-1"));
+		when(warmUp.start(Set.of("org.example:bom:1.0.0", "org.example:app:2.1.0"))).thenReturn(job);
+
+		mockMvc
+			.perform(post("/actuator/warmup").contentType(MediaType.APPLICATION_JSON)
+				.content(REQUEST)
+				.header(HttpHeaders.AUTHORIZATION, ADMIN_CREDENTIALS))
+			.andExpect(status().isOk())
+			.andExpect(jsonPath("$.id").value("warmup-1"));
+	}
+
+}
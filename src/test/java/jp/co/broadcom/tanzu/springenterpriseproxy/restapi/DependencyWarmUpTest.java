@@ -0,0 +1,170 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jp.co.broadcom.tanzu.springenterpriseproxy.SpringEnterpriseProxyProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class DependencyWarmUpTest {
+
+	@Mock
+	private SpringEnterpriseProxyProperties springEnterpriseProxyProperties;
+
+	@Mock
+	private ArtifactService artifactService;
+
+	private final Map<String, String> repository = new HashMap<>();
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	private DependencyWarmUp warmUp;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		when(springEnterpriseProxyProperties.warmUp())
+			.thenReturn(new SpringEnterpriseProxyProperties.WarmUp(4, 100, 10));
+		lenient().when(artifactService.retrieveArtifact(anyString())).thenAnswer(invocation -> {
+			String content = repository.get(invocation.getArgument(0, String.class));
+			if (content == null) {
+				throw new HttpClientErrorException(HttpStatus.NOT_FOUND);
+			}
+			return new ByteArrayResource(content.getBytes());
+		});
+		warmUp = new DependencyWarmUp(springEnterpriseProxyProperties, artifactService, meterRegistry);
+	}
+
+	@AfterEach
+	void tearDown() {
+		warmUp.destroy();
+	}
+
+	@Test
+	void start_bom_warmsTransitiveClosure() throws Exception {
+		pom("org.example:parent:1.0", "pom", null, """
+				<properties><lib.version>1.0</lib.version></properties>
+				<dependencyManagement><dependencies>
+				  <dependency><groupId>org.other</groupId><artifactId>other-bom</artifactId><version>2.0</version>
+				    <type>pom</type><scope>import</scope></dependency>
+				</dependencies></dependencyManagement>
+				""");
+		pom("org.example:bom:1.0", "pom", "org.example:parent:1.0", """
+				<dependencyManagement><dependencies>
+				  <dependency><groupId>${project.groupId}</groupId><artifactId>lib</artifactId>
+				    <version>${lib.version}</version></dependency>
+				</dependencies></dependencyManagement>
+				""");
+		pom("org.other:other-bom:2.0", "pom", null,
+				"""
+						<dependencyManagement><dependencies>
+						  <dependency><groupId>org.other</groupId><artifactId>util</artifactId><version>2.0</version></dependency>
+						</dependencies></dependencyManagement>
+						""");
+		pom("org.example:lib:1.0", "jar", null,
+				"""
+						<dependencies>
+						  <dependency><groupId>org.other</groupId><artifactId>util</artifactId><version>1.5</version></dependency>
+						  <dependency><groupId>org.other</groupId><artifactId>helper</artifactId><version>1.0</version>
+						    <exclusions><exclusion><groupId>org.other</groupId><artifactId>unwanted</artifactId></exclusion>
+						    </exclusions></dependency>
+						  <dependency><groupId>org.junit</groupId><artifactId>junit</artifactId><version>5</version>
+						    <scope>test</scope></dependency>
+						</dependencies>
+						""");
+		pom("org.other:util:2.0", "jar", null, """
+				<dependencies>
+				  <dependency><groupId>org.other</groupId><artifactId>core</artifactId><version>1.0</version>
+				    <scope>runtime</scope></dependency>
+				  <dependency><groupId>org.other</groupId><artifactId>extra</artifactId><version>1.0</version>
+				    <optional>true</optional></dependency>
+				</dependencies>
+				""");
+		pom("org.other:core:1.0", "jar", null, "");
+		pom("org.other:helper:1.0", "jar", null,
+				"""
+						<dependencies>
+						  <dependency><groupId>org.other</groupId><artifactId>unwanted</artifactId><version>1.0</version></dependency>
+						</dependencies>
+						""");
+		jar("org.example:lib:1.0");
+		jar("org.other:util:2.0");
+		jar("org.other:helper:1.0");
+
+		DependencyWarmUp.Job job = warmUp.start(List.of("org.example:bom:1.0"));
+		await(job);
+
+		// The root's dependency management wins over the version lib declares
+		verify(artifactService).retrieveArtifact("/org/other/util/2.0/util-2.0.jar");
+		verify(artifactService, never()).retrieveArtifact("/org/other/util/1.5/util-1.5.pom");
+		verify(artifactService, times(1)).retrieveArtifact("/org/other/core/1.0/core-1.0.pom");
+		verify(artifactService, never()).retrieveArtifact("/org/other/unwanted/1.0/unwanted-1.0.pom");
+		verify(artifactService, never()).retrieveArtifact("/org/other/extra/1.0/extra-1.0.pom");
+		verify(artifactService, never()).retrieveArtifact("/org/junit/junit/5/junit-5.pom");
+		// 7 POMs and 3 JARs; the core JAR is missing
+		assertThat(job.warmed()).isEqualTo(10);
+		assertThat(job.failures()).containsOnlyKeys("/org/other/core/1.0/core-1.0.jar");
+		assertThat(meterRegistry.counter("spring.enterprise.proxy.warmup.artifacts", "outcome", "warmed").count())
+			.isEqualTo(10);
+		assertThat(job.progress()).containsEntry("state", "finished").containsEntry("pending", 0);
+	}
+
+	@Test
+	void start_missingRootOrMalformedCoordinates() throws Exception {
+		DependencyWarmUp.Job job = warmUp.start(List.of("org.example:missing:1.0"));
+		await(job);
+
+		assertThat(job.failed()).isOne();
+		assertThat(job.failures()).containsOnlyKeys("org.example:missing:1.0");
+		assertThrows(IllegalArgumentException.class, () -> warmUp.start(List.of("org.example:missing")));
+		assertThrows(IllegalArgumentException.class, () -> warmUp.start(List.of()));
+	}
+
+	private void pom(String coordinates, String packaging, String parent, String body) {
+		PomModel.Coordinates gav = PomModel.Coordinates.parse(coordinates);
+		String parentElement = "";
+		if (parent != null) {
+			PomModel.Coordinates parentGav = PomModel.Coordinates.parse(parent);
+			parentElement = "<parent><groupId>" + parentGav.groupId() + "</groupId><artifactId>"
+					+ parentGav.artifactId() + "</artifactId><version>" + parentGav.version() + "</version></parent>";
+		}
+		repository.put(gav.pomPath(),
+				"<project>" + parentElement + "<groupId>" + gav.groupId() + "</groupId><artifactId>" + gav.artifactId()
+						+ "</artifactId><version>" + gav.version() + "</version><packaging>" + packaging
+						+ "</packaging>" + body + "</project>");
+	}
+
+	private void jar(String coordinates) {
+		repository.put(PomModel.Coordinates.parse(coordinates).artifactPath("jar", null), "jar");
+	}
+
+	private static void await(DependencyWarmUp.Job job) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (!job.isFinished()) {
+			assertThat(System.nanoTime()).isLessThan(deadline);
+			Thread.sleep(10);
+		}
+	}
+
+}
@@ -0,0 +1,132 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import jp.co.broadcom.tanzu.springenterpriseproxy.SpringEnterpriseProxyProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.io.Resource;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class FileSystemContentStoreTest {
+
+	private final String ARTIFACT_PATH = "org/example/library/1.0.0/library-1.0.0.jar";
+
+	private final byte[] ARTIFACT_CONTENT = "some-jar-content".getBytes();
+
+	private final Artifact ARTIFACT = Artifact.cached(ARTIFACT_PATH, ARTIFACT_CONTENT.length, null,
+			"application/java-archive", LocalDateTime.now());
+
+	@TempDir
+	private Path root;
+
+	@Mock
+	private SpringEnterpriseProxyProperties springEnterpriseProxyProperties;
+
+	@Mock
+	private ArtifactRepository artifactRepository;
+
+	private FileSystemContentStore contentStore;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		when(springEnterpriseProxyProperties.contentStore())
+			.thenReturn(new SpringEnterpriseProxyProperties.ContentStore(
+					SpringEnterpriseProxyProperties.ContentStore.Type.FILESYSTEM, root, DataSize.ofKilobytes(60), 4,
+					new SpringEnterpriseProxyProperties.ContentStore.Migration(true, 20, Duration.ofMinutes(1))));
+		contentStore = new FileSystemContentStore(springEnterpriseProxyProperties, artifactRepository);
+	}
+
+	@Test
+	void store_writesShardedFileAndMetadataOnly() throws IOException {
+		contentStore.store(ARTIFACT, ARTIFACT_CONTENT);
+
+		String id = Artifact.idForPath(ARTIFACT_PATH).replace("-", "");
+		Path file = root.resolve(id.substring(0, 2)).resolve(id.substring(2, 4)).resolve(id);
+		assertThat(file).hasBinaryContent(ARTIFACT_CONTENT);
+		verify(artifactRepository).insert(ARTIFACT);
+		verify(artifactRepository, never()).insertWithContent(any(), any(), anyInt());
+	}
+
+	@Test
+	void newWriter_bodyOnlyVisibleAfterCommit() throws IOException {
+		ArtifactContentWriter writer = contentStore.newWriter(ARTIFACT_PATH);
+		writer.write(ARTIFACT_CONTENT, 0, ARTIFACT_CONTENT.length);
+		assertThat(contentStore.read(ARTIFACT)).isEmpty();
+
+		writer.commit(ARTIFACT);
+
+		Optional<Resource> content = contentStore.read(ARTIFACT);
+		assertThat(content).isPresent();
+		assertThat(content.get().getContentAsByteArray()).isEqualTo(ARTIFACT_CONTENT);
+		verify(artifactRepository).insert(ARTIFACT);
+		assertThat(tempFiles()).isZero();
+	}
+
+	@Test
+	void newWriter_abortLeavesNothingBehind() throws IOException {
+		ArtifactContentWriter writer = contentStore.newWriter(ARTIFACT_PATH);
+		writer.write(ARTIFACT_CONTENT, 0, ARTIFACT_CONTENT.length);
+		writer.abort();
+
+		assertThat(contentStore.read(ARTIFACT)).isEmpty();
+		assertThat(tempFiles()).isZero();
+		verify(artifactRepository, never()).insert(any(Artifact.class));
+	}
+
+	@Test
+	void read_fallsBackToDatabaseForUnmigratedArtifacts() throws IOException {
+		when(artifactRepository.hasContent(ARTIFACT.id())).thenReturn(true);
+		when(artifactRepository.findChunks(eq(ARTIFACT.id()), eq(0), anyInt())).thenReturn(List.of(ARTIFACT_CONTENT));
+
+		Optional<Resource> content = contentStore.read(ARTIFACT);
+
+		assertThat(content).isPresent();
+		assertThat(content.get().getContentAsByteArray()).isEqualTo(ARTIFACT_CONTENT);
+	}
+
+	@Test
+	void store_identicalBodies_shareOneFileUntilLastDeleted() throws IOException {
+		String relocatedPath = "org/example/relocated/1.0.0/relocated-1.0.0.jar";
+		Artifact original = Artifact.cached(ARTIFACT_PATH, ARTIFACT_CONTENT.length, "abc123",
+				"application/java-archive", LocalDateTime.now());
+		Artifact relocated = Artifact.cached(relocatedPath, ARTIFACT_CONTENT.length, "abc123",
+				"application/java-archive", LocalDateTime.now());
+		contentStore.store(original, ARTIFACT_CONTENT);
+		contentStore.store(relocated, ARTIFACT_CONTENT);
+
+		assertThat(contentStore.fileFor(relocated)).isEqualTo(contentStore.fileFor(original))
+			.hasBinaryContent(ARTIFACT_CONTENT);
+
+		when(artifactRepository.hasBody("abc123")).thenReturn(true);
+		contentStore.delete(original);
+		assertThat(contentStore.read(relocated)).isPresent();
+
+		when(artifactRepository.hasBody("abc123")).thenReturn(false);
+		contentStore.delete(relocated);
+		assertThat(contentStore.fileFor(relocated)).doesNotExist();
+		assertThat(tempFiles()).isZero();
+	}
+
+	private long tempFiles() throws IOException {
+		try (Stream<Path> files = Files.list(root.resolve(".tmp"))) {
+			return files.count();
+		}
+	}
+
+}
@@ -0,0 +1,86 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import jp.co.broadcom.tanzu.springenterpriseproxy.SpringEnterpriseProxyProperties;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class FreshnessPolicyTest {
+
+	@Mock
+	private SpringEnterpriseProxyProperties springEnterpriseProxyProperties;
+
+	private FreshnessPolicy freshnessPolicy(SpringEnterpriseProxyProperties.Freshness.Rule... rules) {
+		when(springEnterpriseProxyProperties.freshness()).thenReturn(new SpringEnterpriseProxyProperties.Freshness(
+				Duration.ofMinutes(5), Duration.ofMinutes(1), List.of(rules), Duration.ofHours(1), 1, 1));
+		return new FreshnessPolicy(springEnterpriseProxyProperties);
+	}
+
+	@Test
+	void ttlFor_metadataAndChecksums() {
+		FreshnessPolicy freshnessPolicy = freshnessPolicy();
+
+		assertThat(freshnessPolicy.ttlFor("/org/example/lib/maven-metadata.xml")).hasValue(Duration.ofMinutes(5));
+		assertThat(freshnessPolicy.ttlFor("/org/example/lib/maven-metadata.xml.sha1")).hasValue(Duration.ofMinutes(5));
+	}
+
+	@Test
+	void ttlFor_snapshots() {
+		FreshnessPolicy freshnessPolicy = freshnessPolicy();
+
+		assertThat(freshnessPolicy.ttlFor("/org/example/lib/1.1-SNAPSHOT/lib-1.1-SNAPSHOT.jar"))
+			.hasValue(Duration.ofMinutes(1));
+	}
+
+	@Test
+	void ttlFor_releasesAreImmutable() {
+		FreshnessPolicy freshnessPolicy = freshnessPolicy();
+
+		assertThat(freshnessPolicy.ttlFor("/org/example/lib/1.0/lib-1.0.jar")).isEmpty();
+		assertThat(freshnessPolicy.ttlFor("/org/example/lib/1.0/lib-1.0.pom.sha1")).isEmpty();
+	}
+
+	@Test
+	void ttlFor_configuredRulesComeFirst() {
+		FreshnessPolicy freshnessPolicy = freshnessPolicy(
+				new SpringEnterpriseProxyProperties.Freshness.Rule("/org/example/nightly/**", Duration.ofHours(1)),
+				new SpringEnterpriseProxyProperties.Freshness.Rule("/org/example/frozen/**", null));
+
+		assertThat(freshnessPolicy.ttlFor("/org/example/nightly/lib/1.0/lib-1.0.jar")).hasValue(Duration.ofHours(1));
+		assertThat(freshnessPolicy.ttlFor("/org/example/frozen/maven-metadata.xml")).isEmpty();
+	}
+
+	@Test
+	void stateOf_staleWithinWindowThenExpired() {
+		FreshnessPolicy freshnessPolicy = freshnessPolicy();
+		String path = "/org/example/lib/maven-metadata.xml";
+		LocalDateTime fetched = LocalDateTime.now().minusHours(2);
+		Artifact artifact = Artifact.cached(path, 10, null, "text/xml", fetched);
+
+		assertThat(freshnessPolicy.stateOf(artifact)).isEqualTo(FreshnessPolicy.State.EXPIRED);
+		assertThat(freshnessPolicy.stateOf(artifact.withValidatedAt(LocalDateTime.now().minusMinutes(30))))
+			.isEqualTo(FreshnessPolicy.State.STALE);
+		assertThat(freshnessPolicy.stateOf(artifact.withValidatedAt(LocalDateTime.now())))
+			.isEqualTo(FreshnessPolicy.State.FRESH);
+	}
+
+	@Test
+	void stateOf_releasesAreAlwaysFresh() {
+		FreshnessPolicy freshnessPolicy = freshnessPolicy();
+		String path = "/org/example/lib/1.0/lib-1.0.jar";
+		LocalDateTime fetched = LocalDateTime.now().minusYears(1);
+		Artifact artifact = Artifact.cached(path, 10, null, "application/java-archive", fetched);
+
+		assertThat(freshnessPolicy.stateOf(artifact)).isEqualTo(FreshnessPolicy.State.FRESH);
+	}
+
+}
@@ -0,0 +1,148 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jp.co.broadcom.tanzu.springenterpriseproxy.SpringEnterpriseProxyProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.RestClientResponseException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class InFlightFetchesTest {
+
+	private final String ARTIFACT_PATH = "/org/example/library/1.0.0/library-1.0.0.jar";
+
+	@Mock
+	private SpringEnterpriseProxyProperties springEnterpriseProxyProperties;
+
+	private MeterRegistry meterRegistry;
+
+	private InFlightFetches inFlightFetches;
+
+	@BeforeEach
+	void setUp() {
+		when(springEnterpriseProxyProperties.coalescing())
+			.thenReturn(new SpringEnterpriseProxyProperties.Coalescing(Duration.ofMillis(100), Duration.ofMinutes(1)));
+		meterRegistry = new SimpleMeterRegistry();
+		inFlightFetches = new InFlightFetches(springEnterpriseProxyProperties, meterRegistry);
+	}
+
+	@Test
+	void firstCallerLeadsAndLaterCallersFollow() {
+		InFlightFetches.Flight leader = inFlightFetches.join(ARTIFACT_PATH);
+		InFlightFetches.Flight follower = inFlightFetches.join(ARTIFACT_PATH);
+		InFlightFetches.Flight otherPath = inFlightFetches.join("/other.jar");
+
+		assertThat(leader.isLeader()).isTrue();
+		assertThat(follower.isLeader()).isFalse();
+		assertThat(otherPath.isLeader()).isTrue();
+		assertThat(meterRegistry.counter("spring.enterprise.proxy.fetch.coalesced").count()).isEqualTo(1);
+		assertThat(meterRegistry.get("spring.enterprise.proxy.fetch.in.flight").gauge().value()).isEqualTo(2);
+	}
+
+	@Test
+	void completedFlightIsReleased() throws IOException {
+		InFlightFetches.Flight leader = inFlightFetches.join(ARTIFACT_PATH);
+		InFlightFetches.Flight follower = inFlightFetches.join(ARTIFACT_PATH);
+
+		leader.complete();
+
+		assertThat(follower.awaitLeader()).isTrue();
+		assertThat(inFlightFetches.join(ARTIFACT_PATH).isLeader()).isTrue();
+	}
+
+	@Test
+	void followerReceivesUpstreamError() {
+		InFlightFetches.Flight leader = inFlightFetches.join(ARTIFACT_PATH);
+		InFlightFetches.Flight follower = inFlightFetches.join(ARTIFACT_PATH);
+		RestClientResponseException notFound = new RestClientResponseException("Not Found",
+				HttpStatus.NOT_FOUND.value(), "Not Found", null, null, null);
+
+		leader.fail(notFound);
+
+		RestClientResponseException e = assertThrows(RestClientResponseException.class, follower::awaitLeader);
+		assertThat(e).isSameAs(notFound);
+	}
+
+	@Test
+	void followerRetriesAfterOtherLeaderFailure() throws IOException {
+		InFlightFetches.Flight leader = inFlightFetches.join(ARTIFACT_PATH);
+		InFlightFetches.Flight follower = inFlightFetches.join(ARTIFACT_PATH);
+
+		leader.fail(new IOException("Connection reset"));
+
+		assertThat(follower.awaitLeader()).isTrue();
+	}
+
+	@Test
+	void followerTimesOut() throws IOException {
+		inFlightFetches.join(ARTIFACT_PATH);
+		InFlightFetches.Flight follower = inFlightFetches.join(ARTIFACT_PATH);
+
+		assertThat(follower.awaitLeader()).isFalse();
+		assertThat(meterRegistry.counter("spring.enterprise.proxy.fetch.coalesced.timeouts").count()).isEqualTo(1);
+		assertThat(meterRegistry.timer("spring.enterprise.proxy.fetch.coalesced.wait").count()).isEqualTo(1);
+	}
+
+	@Test
+	void followerReadsAlongStreamedBody(@TempDir Path tempDir) throws IOException {
+		SpooledBody body = new SpooledBody(Files.write(tempDir.resolve("artifact.part"), "some-".getBytes()));
+		body.append(5);
+		InFlightFetches.Flight leader = inFlightFetches.join(ARTIFACT_PATH);
+		InFlightFetches.Flight follower = inFlightFetches.join(ARTIFACT_PATH);
+
+		leader.stream(body, 5);
+
+		assertThat(follower.awaitLeader()).isTrue();
+		Resource streamed = follower.readAlong().orElseThrow();
+		assertThat(streamed.contentLength()).isEqualTo(5);
+		try (InputStream in = streamed.getInputStream()) {
+			assertThat(in.readNBytes(5)).isEqualTo("some-".getBytes());
+			// The leader makes no progress for longer than the join timeout
+			assertThrows(IOException.class, in::read);
+		}
+		assertThat(meterRegistry.counter("spring.enterprise.proxy.fetch.coalesced.streamed").count()).isEqualTo(1);
+	}
+
+	@Test
+	void followerOfFinishedStreamReadsCache(@TempDir Path tempDir) throws IOException {
+		InFlightFetches.Flight leader = inFlightFetches.join(ARTIFACT_PATH);
+		InFlightFetches.Flight follower = inFlightFetches.join(ARTIFACT_PATH);
+		leader.stream(new SpooledBody(tempDir.resolve("artifact.part")), -1);
+
+		leader.complete();
+
+		assertThat(follower.awaitLeader()).isTrue();
+		assertThat(follower.readAlong()).isEmpty();
+	}
+
+	@Test
+	void expiredLeaderLeaseReleasesPath() throws Exception {
+		when(springEnterpriseProxyProperties.coalescing())
+			.thenReturn(new SpringEnterpriseProxyProperties.Coalescing(Duration.ofSeconds(5), Duration.ofMillis(50)));
+		inFlightFetches = new InFlightFetches(springEnterpriseProxyProperties, meterRegistry);
+
+		inFlightFetches.join(ARTIFACT_PATH); // never completed
+		InFlightFetches.Flight follower = inFlightFetches.join(ARTIFACT_PATH);
+
+		assertThat(follower.awaitLeader()).isTrue();
+		assertThat(inFlightFetches.join(ARTIFACT_PATH).isLeader()).isTrue();
+	}
+
+}
@@ -0,0 +1,232 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jp.co.broadcom.tanzu.springenterpriseproxy.SpringEnterpriseProxyProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class LocalRepositorySeederTest {
+
+	private static final String LIBRARY_DIRECTORY = "org/example/library/1.0.0";
+
+	@TempDir
+	private Path repository;
+
+	@Mock
+	private SpringEnterpriseProxyProperties springEnterpriseProxyProperties;
+
+	@Mock
+	private ArtifactRepository artifactRepository;
+
+	@Mock
+	private ArtifactContentStore contentStore;
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	private LocalRepositorySeeder seeder;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		when(springEnterpriseProxyProperties.seed())
+			.thenReturn(new SpringEnterpriseProxyProperties.Seed(2, 10, DataSize.ofBytes(64), List.of(repository)));
+		lenient().when(contentStore.storeAll(anyMap()))
+			.thenAnswer(invocation -> invocation.getArgument(0, Map.class).size());
+		lenient().when(springEnterpriseProxyProperties.compression())
+			.thenReturn(new SpringEnterpriseProxyProperties.Compression(false, DataSize.ofBytes(256), 0.9));
+		seeder = new LocalRepositorySeeder(springEnterpriseProxyProperties, artifactRepository, contentStore,
+				new ArtifactCompression(springEnterpriseProxyProperties, meterRegistry), meterRegistry);
+	}
+
+	@AfterEach
+	void tearDown() {
+		seeder.destroy();
+	}
+
+	@Test
+	void start_storesDownloadedFilesInBatches() throws Exception {
+		byte[] jar = "library-jar".getBytes();
+		file(LIBRARY_DIRECTORY + "/library-1.0.0.jar", jar);
+		file(LIBRARY_DIRECTORY + "/library-1.0.0.jar.sha1", (digest("SHA-1", jar) + "  library-1.0.0.jar").getBytes());
+		file(LIBRARY_DIRECTORY + "/library-1.0.0.pom", "<project/>".getBytes());
+		file(LIBRARY_DIRECTORY + "/library-1.0.0.pom.sha1", "0000000000000000000000000000000000000000".getBytes());
+		file(LIBRARY_DIRECTORY + "/_remote.repositories",
+				"#NOTE: This is a Maven Resolver internal implementation file\nlibrary-1.0.0.jar>central=\nlibrary-1.0.0.pom>central=\n"
+					.getBytes());
+		file("org/example/library/maven-metadata-central.xml", "<metadata/>".getBytes());
+		// Installed by a local build, or a SNAPSHOT
+		file("org/example/app/1.0.0/app-1.0.0.jar", "app".getBytes());
+		file("org/example/app/1.0.0/_remote.repositories", "app-1.0.0.jar>=\n".getBytes());
+		file("org/example/library/1.1.0-SNAPSHOT/library-1.1.0-SNAPSHOT.jar", "snapshot".getBytes());
+
+		LocalRepositorySeeder.Job job = seeder.start(repository);
+		await(job);
+
+		@SuppressWarnings("unchecked")
+		ArgumentCaptor<Map<Artifact, byte[]>> batch = ArgumentCaptor.forClass(Map.class);
+		verify(contentStore).storeAll(batch.capture());
+		assertThat(batch.getValue()).hasSize(1);
+		Map.Entry<Artifact, byte[]> stored = batch.getValue().entrySet().iterator().next();
+		assertThat(stored.getKey().path()).isEqualTo("/" + LIBRARY_DIRECTORY + "/library-1.0.0.jar");
+		assertThat(stored.getKey().sha1()).isEqualTo(digest("SHA-1", jar));
+		assertThat(stored.getValue()).isEqualTo(jar);
+		assertThat(job.count(LocalRepositorySeeder.Outcome.STORED)).isOne();
+		assertThat(job.count(LocalRepositorySeeder.Outcome.CORRUPT)).isOne();
+		assertThat(job.count(LocalRepositorySeeder.Outcome.SKIPPED)).isOne();
+		assertThat(job.progress()).containsEntry("scanned", 3L).containsEntry("bytes", (long) jar.length);
+	}
+
+	@Test
+	void start_cachedPath_skippedWithoutReading() throws Exception {
+		byte[] jar = "library-jar".getBytes();
+		String artifactPath = "/" + LIBRARY_DIRECTORY + "/library-1.0.0.jar";
+		file(LIBRARY_DIRECTORY + "/library-1.0.0.jar", jar);
+		file(LIBRARY_DIRECTORY + "/library-1.0.0.jar.sha256", digest("SHA-256", "other".getBytes()).getBytes());
+		file(LIBRARY_DIRECTORY + "/library-1.0.0.pom", "<project/>".getBytes());
+		when(artifactRepository.findByPathIn(any())).thenReturn(List.of(
+				Artifact.cached(artifactPath, jar.length, digest("SHA-256", jar), "application/java-archive",
+						LocalDateTime.now()),
+				Artifact.cached("/" + LIBRARY_DIRECTORY + "/library-1.0.0.pom", 10, null, "text/xml",
+						LocalDateTime.now())));
+
+		LocalRepositorySeeder.Job job = seeder.start(repository);
+		await(job);
+
+		assertThat(job.count(LocalRepositorySeeder.Outcome.EXISTING)).isOne();
+		// The local copy disagrees with the cached one, which is kept
+		assertThat(job.count(LocalRepositorySeeder.Outcome.CONFLICTING)).isOne();
+		verify(contentStore, never()).storeAll(anyMap());
+	}
+
+	@Test
+	void start_cachedConcurrently_countedAsExisting() throws Exception {
+		file(LIBRARY_DIRECTORY + "/library-1.0.0.jar", "library-jar".getBytes());
+		file(LIBRARY_DIRECTORY + "/library-1.0.0.pom", "<project/>".getBytes());
+		// One of the two paths was cached by a client while seeding
+		when(contentStore.storeAll(anyMap())).thenReturn(1);
+
+		LocalRepositorySeeder.Job job = seeder.start(repository);
+		await(job);
+
+		assertThat(job.count(LocalRepositorySeeder.Outcome.STORED)).isOne();
+		assertThat(job.count(LocalRepositorySeeder.Outcome.EXISTING)).isOne();
+		assertThat(meterRegistry.get("spring.enterprise.proxy.seed.files").tag("outcome", "existing").counter().count())
+			.isEqualTo(1.0);
+	}
+
+	@Test
+	void start_largeFile_streamedOnItsOwn() throws Exception {
+		byte[] jar = new byte[200];
+		file(LIBRARY_DIRECTORY + "/library-1.0.0.jar", jar);
+		ArtifactContentWriter writer = mock(ArtifactContentWriter.class);
+		when(contentStore.newWriter("/" + LIBRARY_DIRECTORY + "/library-1.0.0.jar")).thenReturn(writer);
+
+		LocalRepositorySeeder.Job job = seeder.start(repository);
+		await(job);
+
+		ArgumentCaptor<Artifact> artifact = ArgumentCaptor.forClass(Artifact.class);
+		verify(writer).commit(artifact.capture());
+		assertThat(artifact.getValue().contentLength()).isEqualTo(jar.length);
+		assertThat(artifact.getValue().sha256()).isEqualTo(digest("SHA-256", jar));
+		assertThat(job.count(LocalRepositorySeeder.Outcome.STORED)).isOne();
+	}
+
+	@Test
+	void start_filesOutsideMavenLayout_skipped() throws Exception {
+		file(LIBRARY_DIRECTORY + "/library-1.0.0.jar", "library-jar".getBytes());
+		file("passwd", "root:x:0:0".getBytes());
+		file("org/example/library/1.0.0/passwd", "root:x:0:0".getBytes());
+		file("org/example/.ssh/1.0.0/.ssh-1.0.0.jar", "key".getBytes());
+
+		LocalRepositorySeeder.Job job = seeder.start(repository);
+		await(job);
+
+		@SuppressWarnings("unchecked")
+		ArgumentCaptor<Map<Artifact, byte[]>> batch = ArgumentCaptor.forClass(Map.class);
+		verify(contentStore).storeAll(batch.capture());
+		assertThat(batch.getValue().keySet()).extracting(Artifact::path)
+			.containsExactly("/" + LIBRARY_DIRECTORY + "/library-1.0.0.jar");
+		assertThat(job.count(LocalRepositorySeeder.Outcome.SKIPPED)).isEqualTo(3);
+	}
+
+	@Test
+	void start_outsideSeedRoots_rejected() {
+		assertThrows(IllegalArgumentException.class, () -> seeder.start(repository.getParent()));
+		assertThrows(IllegalArgumentException.class, () -> seeder.start(repository.resolve("..")));
+		assertThat(seeder.jobs()).isEmpty();
+	}
+
+	@Test
+	void start_belowSeedRoot_allowed() throws Exception {
+		file(LIBRARY_DIRECTORY + "/library-1.0.0.jar", "library-jar".getBytes());
+
+		LocalRepositorySeeder.Job job = seeder.start(repository.resolve("org"));
+		await(job);
+
+		assertThat(job.count(LocalRepositorySeeder.Outcome.STORED)).isOne();
+	}
+
+	@Test
+	void start_notADirectory() {
+		assertThrows(IllegalArgumentException.class, () -> seeder.start(repository.resolve("missing")));
+	}
+
+	@Test
+	void artifactPathOf() {
+		assertThat(LocalRepositorySeeder.artifactPathOf(repository,
+				repository.resolve(LIBRARY_DIRECTORY).resolve("library-1.0.0.jar")))
+			.isEqualTo("/org/example/library/1.0.0/library-1.0.0.jar");
+	}
+
+	private void file(String path, byte[] content) throws IOException {
+		Path file = repository.resolve(path);
+		Files.createDirectories(file.getParent());
+		Files.write(file, content);
+	}
+
+	private static String digest(String algorithm, byte[] content) {
+		try {
+			return HexFormat.of().formatHex(MessageDigest.getInstance(algorithm).digest(content));
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void await(LocalRepositorySeeder.Job job) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (!job.isFinished()) {
+			assertThat(System.nanoTime()).isLessThan(deadline);
+			Thread.sleep(10);
+		}
+	}
+
+}
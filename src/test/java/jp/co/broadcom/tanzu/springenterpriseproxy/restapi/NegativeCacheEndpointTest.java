@@ -0,0 +1,129 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.autoconfigure.endpoint.EndpointAutoConfiguration;
+import org.springframework.boot.actuate.autoconfigure.endpoint.web.WebEndpointAutoConfiguration;
+import org.springframework.boot.actuate.autoconfigure.web.server.ManagementContextAutoConfiguration;
+import org.springframework.boot.actuate.autoconfigure.web.servlet.ServletManagementContextAutoConfiguration;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Base64;
+
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@WebMvcTest
+@ImportAutoConfiguration({ EndpointAutoConfiguration.class, WebEndpointAutoConfiguration.class,
+		ManagementContextAutoConfiguration.class, ServletManagementContextAutoConfiguration.class })
+@Import({ SecurityConfig.class, ZeroCopyFileSender.class, NegativeCacheEndpoint.class })
+@TestPropertySource(properties = { "management.endpoints.web.exposure.include=negativecache",
+		"spring.enterprise.proxy.admin.password={noop}secret" })
+class NegativeCacheEndpointTest {
+
+	private static final String ARTIFACT_PATH = "/org/example/lib/1.0/lib-1.0-sources.jar";
+
+	private static final String BASIC_CREDENTIALS = "Basic "
+			+ Base64.getEncoder().encodeToString("user:password".getBytes(StandardCharsets.UTF_8));
+
+	private static final String ADMIN_CREDENTIALS = "Basic "
+			+ Base64.getEncoder().encodeToString("admin:secret".getBytes(StandardCharsets.UTF_8));
+
+	private static final String ARTIFACT_TOKEN = "artifact.jwt";
+
+	private static final String ADMIN_TOKEN = "admin.jwt";
+
+	@Autowired
+	private MockMvc mockMvc;
+
+	@MockitoBean
+	private ArtifactService artifactService;
+
+	@MockitoBean
+	private NegativeCache negativeCache;
+
+	@MockitoBean
+	private JwtDecoder jwtDecoder;
+
+	@Test
+	void entries_withoutCredentials_allowed() throws Exception {
+		when(negativeCache.size()).thenReturn(3L);
+
+		mockMvc.perform(get("/actuator/negativecache"))
+			.andExpect(status().isOk())
+			.andExpect(jsonPath("$.inMemory").value(3));
+	}
+
+	@Test
+	void purge_withoutCredentials_unauthorized() throws Exception {
+		mockMvc.perform(delete("/actuator/negativecache")).andExpect(status().isUnauthorized());
+
+		verify(negativeCache, never()).purge();
+	}
+
+	@Test
+	void purge_withArtifactCredentials_forbidden() throws Exception {
+		mockMvc.perform(delete("/actuator/negativecache").header(HttpHeaders.AUTHORIZATION, BASIC_CREDENTIALS))
+			.andExpect(status().isForbidden());
+
+		verify(negativeCache, never()).purge();
+	}
+
+	@Test
+	void purge_withArtifactToken_forbidden() throws Exception {
+		when(jwtDecoder.decode(ARTIFACT_TOKEN)).thenReturn(jwt(ARTIFACT_TOKEN, "app"));
+
+		mockMvc.perform(delete("/actuator/negativecache").header(HttpHeaders.AUTHORIZATION, "Bearer " + ARTIFACT_TOKEN))
+			.andExpect(status().isForbidden());
+
+		verify(negativeCache, never()).purge();
+	}
+
+	@Test
+	void purge_withAdminToken_allowed() throws Exception {
+		when(jwtDecoder.decode(ADMIN_TOKEN)).thenReturn(jwt(ADMIN_TOKEN, "app admin"));
+
+		mockMvc.perform(delete("/actuator/negativecache").header(HttpHeaders.AUTHORIZATION, "Bearer " + ADMIN_TOKEN))
+			.andExpect(status().isOk());
+
+		verify(negativeCache).purge();
+	}
+
+	@Test
+	void purge_withAdminCredentials_allowedWithoutCsrfToken() throws Exception {
+		when(negativeCache.invalidate(ARTIFACT_PATH)).thenReturn(true);
+
+		mockMvc
+			.perform(delete("/actuator/negativecache").param("path", ARTIFACT_PATH)
+				.header(HttpHeaders.AUTHORIZATION, ADMIN_CREDENTIALS))
+			.andExpect(status().isOk())
+			.andExpect(jsonPath("$.removed").value(true));
+	}
+
+	private static Jwt jwt(String token, String scope) {
+		Instant now = Instant.now();
+		return Jwt.withTokenValue(token)
+			.header("alg", "RS256")
+			.issuedAt(now)
+			.expiresAt(now.plusSeconds(3600))
+			.subject("build-agent")
+			.claim("scope", scope)
+			.build();
+	}
+
+}
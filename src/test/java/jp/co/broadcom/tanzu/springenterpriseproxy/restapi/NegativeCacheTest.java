@@ -0,0 +1,115 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jp.co.broadcom.tanzu.springenterpriseproxy.SpringEnterpriseProxyProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DuplicateKeyException;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class NegativeCacheTest {
+
+	private static final String ARTIFACT_PATH = "/org/example/lib/1.0/lib-1.0-sources.jar";
+
+	@Mock
+	private SpringEnterpriseProxyProperties springEnterpriseProxyProperties;
+
+	@Mock
+	private ArtifactMissRepository artifactMissRepository;
+
+	private NegativeCache negativeCache;
+
+	@BeforeEach
+	void setUp() {
+		negativeCache = negativeCache(true);
+	}
+
+	private NegativeCache negativeCache(boolean enabled) {
+		when(springEnterpriseProxyProperties.negativeCache())
+			.thenReturn(new SpringEnterpriseProxyProperties.NegativeCache(enabled, Duration.ofMinutes(10), 100,
+					Duration.ofMinutes(10)));
+		return new NegativeCache(springEnterpriseProxyProperties, artifactMissRepository, new SimpleMeterRegistry());
+	}
+
+	@Test
+	void isMissing_recordedPath_answeredFromMemory() {
+		negativeCache.record(ARTIFACT_PATH);
+
+		assertThat(negativeCache.isMissing(ARTIFACT_PATH)).isTrue();
+		verify(artifactMissRepository).insert(eq(ARTIFACT_PATH), any());
+		verify(artifactMissRepository, never()).findUnexpired(any(), any());
+	}
+
+	@Test
+	void isMissing_persistedPath_loadedIntoMemory() {
+		when(artifactMissRepository.findUnexpired(eq(ARTIFACT_PATH), any()))
+			.thenReturn(Optional.of(new ArtifactMiss(ARTIFACT_PATH, LocalDateTime.now().plusMinutes(5))));
+
+		assertThat(negativeCache.isMissing(ARTIFACT_PATH)).isTrue();
+		assertThat(negativeCache.isMissing(ARTIFACT_PATH)).isTrue();
+		verify(artifactMissRepository, times(1)).findUnexpired(eq(ARTIFACT_PATH), any());
+	}
+
+	@Test
+	void isMissing_unknownPath() {
+		assertThat(negativeCache.isMissing(ARTIFACT_PATH)).isFalse();
+	}
+
+	@Test
+	void isMissing_databaseUnavailable_asksRemote() {
+		when(artifactMissRepository.findUnexpired(eq(ARTIFACT_PATH), any()))
+			.thenThrow(new DataAccessResourceFailureException("connection refused"));
+
+		assertThat(negativeCache.isMissing(ARTIFACT_PATH)).isFalse();
+	}
+
+	@Test
+	void record_alreadyPersisted_extendsExpiry() {
+		when(artifactMissRepository.updateExpiry(eq(ARTIFACT_PATH), any())).thenReturn(1);
+
+		negativeCache.record(ARTIFACT_PATH);
+
+		verify(artifactMissRepository, never()).insert(any(), any());
+	}
+
+	@Test
+	void record_insertedConcurrently_ignored() {
+		doThrow(new DuplicateKeyException("duplicate")).when(artifactMissRepository).insert(eq(ARTIFACT_PATH), any());
+
+		negativeCache.record(ARTIFACT_PATH);
+
+		assertThat(negativeCache.isMissing(ARTIFACT_PATH)).isTrue();
+	}
+
+	@Test
+	void purge_forgetsEveryPath() {
+		negativeCache.record(ARTIFACT_PATH);
+
+		negativeCache.purge();
+
+		assertThat(negativeCache.isMissing(ARTIFACT_PATH)).isFalse();
+		verify(artifactMissRepository).deleteAll();
+	}
+
+	@Test
+	void disabled_neverRemembers() {
+		negativeCache = negativeCache(false);
+
+		negativeCache.record(ARTIFACT_PATH);
+
+		assertThat(negativeCache.isMissing(ARTIFACT_PATH)).isFalse();
+		verifyNoInteractions(artifactMissRepository);
+	}
+
+}
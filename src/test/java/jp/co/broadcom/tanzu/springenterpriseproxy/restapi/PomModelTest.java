@@ -0,0 +1,115 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PomModelTest {
+
+	@Test
+	void parse_inheritsCoordinatesFromParent() throws IOException {
+		PomModel pom = parse("""
+				<project xmlns="http://maven.apache.org/POM/4.0.0">
+				  <parent>
+				    <groupId>org.example</groupId>
+				    <artifactId>parent</artifactId>
+				    <version>1.0.0</version>
+				  </parent>
+				  <artifactId>library</artifactId>
+				  <properties>
+				    <slf4j.version>2.0.13</slf4j.version>
+				  </properties>
+				  <dependencyManagement>
+				    <dependencies>
+				      <dependency>
+				        <groupId>org.example</groupId>
+				        <artifactId>bom</artifactId>
+				        <version>2.0.0</version>
+				        <type>pom</type>
+				        <scope>import</scope>
+				      </dependency>
+				    </dependencies>
+				  </dependencyManagement>
+				  <dependencies>
+				    <dependency>
+				      <groupId>org.slf4j</groupId>
+				      <artifactId>slf4j-api</artifactId>
+				      <version>${slf4j.version}</version>
+				      <exclusions>
+				        <exclusion>
+				          <groupId>org.example</groupId>
+				          <artifactId>unwanted</artifactId>
+				        </exclusion>
+				      </exclusions>
+				    </dependency>
+				    <dependency>
+				      <groupId>org.junit.jupiter</groupId>
+				      <artifactId>junit-jupiter</artifactId>
+				      <scope>test</scope>
+				      <optional>true</optional>
+				    </dependency>
+				  </dependencies>
+				</project>
+				""");
+
+		assertThat(pom.coordinates()).isEqualTo(new PomModel.Coordinates("org.example", "library", "1.0.0"));
+		assertThat(pom.parent()).isEqualTo(new PomModel.Coordinates("org.example", "parent", "1.0.0"));
+		assertThat(pom.packaging()).isEqualTo("jar");
+		assertThat(pom.properties()).containsEntry("slf4j.version", "2.0.13");
+		assertThat(pom.dependencyManagement()).singleElement().satisfies(bom -> {
+			assertThat(bom.type()).isEqualTo("pom");
+			assertThat(bom.scope()).isEqualTo("import");
+		});
+		assertThat(pom.dependencies()).hasSize(2);
+		PomModel.Dependency slf4j = pom.dependencies().get(0);
+		assertThat(slf4j.scope()).isEqualTo("compile");
+		assertThat(slf4j.exclusions()).containsExactly("org.example:unwanted");
+		assertThat(slf4j.interpolate(pom.properties()).version()).isEqualTo("2.0.13");
+		PomModel.Dependency junit = pom.dependencies().get(1);
+		assertThat(junit.version()).isNull();
+		assertThat(junit.optional()).isTrue();
+		assertThat(junit.managementKey()).isEqualTo("org.junit.jupiter:junit-jupiter:jar");
+	}
+
+	@Test
+	void parse_rejectsDoctypeAndNonPoms() {
+		assertThrows(IOException.class, () -> parse("""
+				<?xml version="1.0"?>
+				<!DOCTYPE project [<!ENTITY xxe SYSTEM "file:///etc/passwd">]>
+				<project><groupId>&xxe;</groupId><artifactId>a</artifactId><version>1</version></project>
+				"""));
+		assertThrows(IOException.class, () -> parse("<metadata/>"));
+		assertThrows(IOException.class, () -> parse("<project><artifactId>a</artifactId></project>"));
+	}
+
+	@Test
+	void interpolate_nestedAndUnknownReferences() {
+		Map<String, String> properties = Map.of("spring.version", "${spring.major}.1.6", "spring.major", "6");
+
+		assertThat(PomModel.interpolate("${spring.version}", properties)).isEqualTo("6.1.6");
+		assertThat(PomModel.interpolate("${unknown}-${spring.major}", properties)).isEqualTo("${unknown}-6");
+		assertThat(PomModel.interpolate(null, properties)).isNull();
+	}
+
+	@Test
+	void coordinates_paths() {
+		PomModel.Coordinates coordinates = PomModel.Coordinates.parse("org.example:library:1.0.0");
+
+		assertThat(coordinates.pomPath()).isEqualTo("/org/example/library/1.0.0/library-1.0.0.pom");
+		assertThat(coordinates.artifactPath("jar", "sources"))
+			.isEqualTo("/org/example/library/1.0.0/library-1.0.0-sources.jar");
+		assertThrows(IllegalArgumentException.class, () -> PomModel.Coordinates.parse("org.example:library"));
+		assertThat(Set.of(coordinates)).contains(new PomModel.Coordinates("org.example", "library", "1.0.0"));
+	}
+
+	private static PomModel parse(String pom) throws IOException {
+		return PomModel.parse(new ByteArrayInputStream(pom.getBytes()));
+	}
+
+}
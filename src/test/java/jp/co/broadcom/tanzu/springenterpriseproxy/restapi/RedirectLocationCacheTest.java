@@ -0,0 +1,87 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jp.co.broadcom.tanzu.springenterpriseproxy.SpringEnterpriseProxyProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class RedirectLocationCacheTest {
+
+	private static final String ARTIFACT_PATH = "/org/example/lib/1.0/lib-1.0.jar";
+
+	@Mock
+	private SpringEnterpriseProxyProperties springEnterpriseProxyProperties;
+
+	private RedirectLocationCache redirectLocations;
+
+	@BeforeEach
+	void setUp() {
+		when(springEnterpriseProxyProperties.redirectCache())
+			.thenReturn(new SpringEnterpriseProxyProperties.RedirectCache(true, 100, Duration.ofMinutes(1),
+					Duration.ofHours(1), Duration.ofSeconds(30)));
+		redirectLocations = new RedirectLocationCache(springEnterpriseProxyProperties, new SimpleMeterRegistry());
+	}
+
+	@Test
+	void signatureExpiry_s3() {
+		URI location = URI.create("https://bucket.s3.amazonaws.com/lib.jar?X-Amz-Algorithm=AWS4-HMAC-SHA256"
+				+ "&X-Amz-Date=20240601T120000Z&X-Amz-Expires=900&X-Amz-Signature=abc");
+
+		assertThat(RedirectLocationCache.signatureExpiry(location)).hasValue(Instant.parse("2024-06-01T12:15:00Z"));
+	}
+
+	@Test
+	void signatureExpiry_cloudFrontAndAzure() {
+		assertThat(RedirectLocationCache
+			.signatureExpiry(URI.create("https://d111.cloudfront.net/lib.jar?Expires=1717243200&Signature=abc")))
+			.hasValue(Instant.ofEpochSecond(1717243200));
+		assertThat(RedirectLocationCache.signatureExpiry(
+				URI.create("https://account.blob.core.windows.net/c/lib.jar?se=2024-06-01T12%3A00%3A00Z&sig=abc")))
+			.hasValue(Instant.parse("2024-06-01T12:00:00Z"));
+	}
+
+	@Test
+	void signatureExpiry_unsignedOrMalformed() {
+		assertThat(RedirectLocationCache.signatureExpiry(URI.create("https://cdn.example.com/lib.jar"))).isEmpty();
+		assertThat(RedirectLocationCache.signatureExpiry(URI.create("https://cdn.example.com/lib.jar?Expires=soon")))
+			.isEmpty();
+	}
+
+	@Test
+	void put_keepsLocationUntilShortlyBeforeSignatureExpires() {
+		String signedAt = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'")
+			.withZone(ZoneOffset.UTC)
+			.format(Instant.now());
+		URI valid = URI.create("https://cdn.example.com/lib.jar?X-Amz-Date=" + signedAt + "&X-Amz-Expires=300");
+		URI almostExpired = URI.create("https://cdn.example.com/lib.jar?X-Amz-Date=" + signedAt + "&X-Amz-Expires=10");
+
+		redirectLocations.put(ARTIFACT_PATH, valid);
+		redirectLocations.put("/other.jar", almostExpired);
+
+		assertThat(redirectLocations.get(ARTIFACT_PATH)).hasValue(valid);
+		assertThat(redirectLocations.get("/other.jar")).isEmpty();
+	}
+
+	@Test
+	void invalidate_forgetsLocation() {
+		redirectLocations.put(ARTIFACT_PATH, URI.create("https://cdn.example.com/lib.jar"));
+
+		redirectLocations.invalidate(ARTIFACT_PATH);
+
+		assertThat(redirectLocations.get(ARTIFACT_PATH)).isEmpty();
+	}
+
+}
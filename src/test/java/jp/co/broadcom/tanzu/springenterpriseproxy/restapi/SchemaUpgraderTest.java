@@ -0,0 +1,183 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import jp.co.broadcom.tanzu.springenterpriseproxy.SpringEnterpriseProxyProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.simple.JdbcClient;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+/**
+ * Runs the upgrade against a database created with the schema of the first release, which
+ * kept each body in the {@code artifact} table, followed by the current
+ * {@code schema.sql} as on startup.
+ */
+@ExtendWith(MockitoExtension.class)
+class SchemaUpgraderTest {
+
+	private static final String BASELINE_SCHEMA = """
+			CREATE TABLE IF NOT EXISTS artifact (
+				id VARCHAR(36) NOT NULL PRIMARY KEY,
+				path VARCHAR(512) NOT NULL,
+				content BLOB NOT NULL,
+				content_type VARCHAR(255) NOT NULL,
+				last_modified TIMESTAMP NOT NULL
+			)
+			""";
+
+	private static final String JAR_PATH = "/org/example/lib/1.0/lib-1.0.jar";
+
+	private static final String COPY_PATH = "/org/example/lib-copy/1.0/lib-copy-1.0.jar";
+
+	private static final String POM_PATH = "/org/example/lib/1.0/lib-1.0.pom";
+
+	private static final byte[] JAR_CONTENT = "some-jar-content-spanning-chunks".getBytes();
+
+	private static final byte[] POM_CONTENT = "<project/>".getBytes();
+
+	private static final int CHUNK_SIZE = 8;
+
+	@Mock
+	private SpringEnterpriseProxyProperties springEnterpriseProxyProperties;
+
+	@Mock
+	private ArtifactMemoryCache memoryCache;
+
+	private EmbeddedDatabase database;
+
+	private JdbcClient jdbcClient;
+
+	private TransactionTemplate transactionTemplate;
+
+	private SchemaUpgrader upgrader;
+
+	@BeforeEach
+	void setUp() {
+		when(springEnterpriseProxyProperties.contentStore())
+			.thenReturn(new SpringEnterpriseProxyProperties.ContentStore(
+					SpringEnterpriseProxyProperties.ContentStore.Type.DATABASE, Path.of("artifact-store"),
+					DataSize.ofBytes(CHUNK_SIZE), 4,
+					new SpringEnterpriseProxyProperties.ContentStore.Migration(true, 2, Duration.ofMinutes(1))));
+		database = new EmbeddedDatabaseBuilder().generateUniqueName(true).setType(EmbeddedDatabaseType.H2).build();
+		jdbcClient = JdbcClient.create(database);
+		transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(database));
+		jdbcClient.sql(BASELINE_SCHEMA).update();
+		insertBaselineArtifact(JAR_PATH, JAR_CONTENT);
+		insertBaselineArtifact(COPY_PATH, JAR_CONTENT);
+		insertBaselineArtifact(POM_PATH, POM_CONTENT);
+		new ResourceDatabasePopulator(new ClassPathResource("schema.sql")).execute(database);
+		upgrader = new SchemaUpgrader(springEnterpriseProxyProperties, jdbcClient, transactionTemplate);
+	}
+
+	@AfterEach
+	void tearDown() {
+		database.shutdown();
+	}
+
+	@Test
+	void upgrade_baselineDatabase_movesBodiesIntoChunks() {
+		upgrader.upgrade();
+
+		Map<String, Object> jar = jdbcClient.sql("SELECT * FROM artifact WHERE path = :path")
+			.param("path", JAR_PATH)
+			.query()
+			.singleRow();
+		assertThat(jar).doesNotContainKey("CONTENT");
+		assertThat(jar.get("CONTENT_LENGTH")).isEqualTo((long) JAR_CONTENT.length);
+		assertThat(jar.get("CONTENT_KEY")).isEqualTo(jar.get("SHA256")).isNotNull();
+		assertThat(jar.get("SHA1")).isNotNull();
+		assertThat(readBody((String) jar.get("CONTENT_KEY"))).isEqualTo(JAR_CONTENT);
+		String pomKey = jdbcClient.sql("SELECT content_key FROM artifact WHERE path = :path")
+			.param("path", POM_PATH)
+			.query(String.class)
+			.single();
+		assertThat(readBody(pomKey)).isEqualTo(POM_CONTENT);
+	}
+
+	@Test
+	void upgrade_baselineDatabase_identicalBodiesStoredOnce() {
+		upgrader.upgrade();
+
+		assertThat(jdbcClient.sql("SELECT COUNT(*) FROM artifact_body").query(Integer.class).single()).isEqualTo(2);
+		assertThat(jdbcClient.sql("""
+				SELECT b.ref_count FROM artifact_body b JOIN artifact a ON a.content_key = b.content_key
+				WHERE a.path = :path
+				""").param("path", JAR_PATH).query(Long.class).single()).isEqualTo(2);
+	}
+
+	@Test
+	void upgrade_baselineDatabase_acceptsNewArtifacts() throws IOException {
+		upgrader.upgrade();
+		ArtifactContentRepositoryImpl repository = new ArtifactContentRepositoryImpl(jdbcClient,
+				new NamedParameterJdbcTemplate(database), transactionTemplate, memoryCache);
+		String path = "/org/example/lib/2.0/lib-2.0.jar";
+		byte[] content = "new-jar-content".getBytes();
+
+		Artifact inserted = repository.insertWithContent(
+				Artifact.cached(path, content.length, null, "application/java-archive", LocalDateTime.now()),
+				new ByteArrayInputStream(content), CHUNK_SIZE);
+
+		assertThat(readBody(inserted.contentKey())).isEqualTo(content);
+	}
+
+	@Test
+	void upgrade_alreadyUpgraded_leavesDatabaseUnchanged() {
+		upgrader.upgrade();
+		Map<String, Object> before = jdbcClient.sql("SELECT * FROM artifact WHERE path = :path")
+			.param("path", JAR_PATH)
+			.query()
+			.singleRow();
+
+		upgrader.upgrade();
+
+		assertThat(
+				jdbcClient.sql("SELECT * FROM artifact WHERE path = :path").param("path", JAR_PATH).query().singleRow())
+			.isEqualTo(before);
+		assertThat(jdbcClient.sql("SELECT COUNT(*) FROM artifact_body").query(Integer.class).single()).isEqualTo(2);
+	}
+
+	private void insertBaselineArtifact(String path, byte[] content) {
+		jdbcClient.sql("""
+				INSERT INTO artifact (id, path, content, content_type, last_modified)
+				VALUES (:id, :path, :content, 'application/octet-stream', :lastModified)
+				""")
+			.param("id", Artifact.idForPath(path))
+			.param("path", path)
+			.param("content", content)
+			.param("lastModified", LocalDateTime.now())
+			.update();
+	}
+
+	private byte[] readBody(String contentKey) {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		jdbcClient.sql("SELECT data FROM artifact_chunk WHERE content_key = :key ORDER BY seq")
+			.param("key", contentKey)
+			.query((rs, rowNum) -> rs.getBytes(1))
+			.list()
+			.forEach(body::writeBytes);
+		return body.toByteArray();
+	}
+
+}
@@ -6,6 +6,7 @@ import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.context.annotation.Import;
+import org.springframework.core.io.ByteArrayResource;
 import org.springframework.security.oauth2.jwt.Jwt;
 import org.springframework.security.oauth2.jwt.JwtDecoder;
 import org.springframework.test.context.TestPropertySource;
@@ -13,6 +14,7 @@ import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.test.web.servlet.MockMvc;
 
 import java.time.Instant;
+import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
@@ -20,7 +22,7 @@ import static org.springframework.test.web.servlet.request.MockMvcRequestBuilder
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @WebMvcTest
-@Import({ SecurityConfig.class, SecurityConfigTestConfig.class })
+@Import({ SecurityConfig.class, SecurityConfigTestConfig.class, ZeroCopyFileSender.class })
 @TestPropertySource(properties = { "spring.enterprise.proxy.oauth-enabled=true", })
 class SecurityConfigTest {
 
@@ -72,6 +74,10 @@ class SecurityConfigTest {
 			.claim("sub", "test-user")
 			.build();
 		Mockito.when(jwtDecoder.decode(MOCK_VALID_JWT_STRING)).thenReturn(mockJwt);
+		Mockito
+			.when(artifactService.serveArtifact(Mockito.eq("/org/aod/artifact/1.0.0/artifact.jar"), Mockito.eq(false),
+					Mockito.eq(false), Mockito.any()))
+			.thenReturn(Optional.of(ArtifactService.Served.fetched(new ByteArrayResource(new byte[0]))));
 		mockMvc
 			.perform(get("/spring-enterprise-proxy/org/aod/artifact/1.0.0/artifact.jar").header("Authorization",
 					"Bearer " + MOCK_VALID_JWT_STRING))
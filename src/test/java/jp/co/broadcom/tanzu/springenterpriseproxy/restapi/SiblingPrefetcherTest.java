@@ -0,0 +1,119 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jp.co.broadcom.tanzu.springenterpriseproxy.SpringEnterpriseProxyProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class SiblingPrefetcherTest {
+
+	private static final String POM_PATH = "/org/example/lib/1.0/lib-1.0.pom";
+
+	private static final String JAR_PATH = "/org/example/lib/1.0/lib-1.0.jar";
+
+	@Mock
+	private SpringEnterpriseProxyProperties springEnterpriseProxyProperties;
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	private SiblingPrefetcher prefetcher;
+
+	@AfterEach
+	void tearDown() {
+		prefetcher.destroy();
+	}
+
+	@Test
+	void afterMiss_pom_siblingsFetched() throws InterruptedException {
+		prefetcher = prefetcher(true, List.of(".jar", "-sources.jar"), 10);
+		List<String> fetched = new CopyOnWriteArrayList<>();
+		CountDownLatch done = new CountDownLatch(2);
+
+		prefetcher.afterMiss(POM_PATH, path -> {
+			fetched.add(path);
+			done.countDown();
+		});
+
+		assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+		assertThat(fetched).containsExactlyInAnyOrder(JAR_PATH, "/org/example/lib/1.0/lib-1.0-sources.jar");
+	}
+
+	@Test
+	void afterMiss_otherArtifactOrDisabled_nothingFetched() {
+		prefetcher = prefetcher(true, List.of(".jar"), 10);
+		prefetcher.afterMiss(JAR_PATH, path -> {
+			throw new AssertionError(path);
+		});
+		prefetcher.destroy();
+
+		prefetcher = prefetcher(false, List.of(".jar"), 10);
+		prefetcher.afterMiss(POM_PATH, path -> {
+			throw new AssertionError(path);
+		});
+
+		assertThat(meterRegistry.counter("spring.enterprise.proxy.prefetch.siblings", "outcome", "queued").count())
+			.isZero();
+	}
+
+	@Test
+	void afterMiss_siblingAlreadyQueued_notQueuedAgain() throws InterruptedException {
+		prefetcher = prefetcher(true, List.of(".jar"), 10);
+		CountDownLatch release = new CountDownLatch(1);
+
+		prefetcher.afterMiss(POM_PATH, path -> release.await());
+		prefetcher.afterMiss(POM_PATH, path -> release.await());
+		release.countDown();
+
+		assertThat(meterRegistry.counter("spring.enterprise.proxy.prefetch.siblings", "outcome", "queued").count())
+			.isOne();
+	}
+
+	@Test
+	void afterMiss_queueFull_siblingDropped() {
+		prefetcher = prefetcher(true, List.of(".jar"), 1);
+		CountDownLatch release = new CountDownLatch(1);
+
+		// One sibling is being fetched, one waits in the queue
+		prefetcher.afterMiss("/a/1/a-1.pom", path -> release.await());
+		prefetcher.afterMiss("/b/1/b-1.pom", path -> release.await());
+		prefetcher.afterMiss(POM_PATH, path -> release.await());
+		release.countDown();
+
+		assertThat(meterRegistry.counter("spring.enterprise.proxy.prefetch.siblings", "outcome", "dropped").count())
+			.isOne();
+	}
+
+	@Test
+	void onRequest_prefetchedSibling_countedAsHitOnce() {
+		prefetcher = prefetcher(true, List.of(".jar"), 10);
+		prefetcher.onFetching(JAR_PATH);
+		prefetcher.onFetching("/org/example/other/1.0/other-1.0.jar");
+
+		prefetcher.onRequest(JAR_PATH);
+		prefetcher.onRequest(JAR_PATH);
+		prefetcher.onRequest(POM_PATH);
+
+		assertThat(meterRegistry.counter("spring.enterprise.proxy.prefetch.hits").count()).isOne();
+		assertThat(meterRegistry.get("spring.enterprise.proxy.prefetch.hit.ratio").gauge().value()).isEqualTo(0.5);
+	}
+
+	private SiblingPrefetcher prefetcher(boolean enabled, List<String> siblingExtensions, int queueCapacity) {
+		when(springEnterpriseProxyProperties.prefetch()).thenReturn(new SpringEnterpriseProxyProperties.Prefetch(
+				enabled, siblingExtensions, 1, queueCapacity, Duration.ofMinutes(10)));
+		return new SiblingPrefetcher(springEnterpriseProxyProperties, meterRegistry);
+	}
+
+}
@@ -2,32 +2,51 @@ package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.context.annotation.Import;
 import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.FileSystemResource;
 import org.springframework.core.io.Resource;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.mock.http.client.MockClientHttpResponse;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.web.client.RestClientResponseException;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Optional;
+import java.util.function.Predicate;
 
+import static org.hamcrest.Matchers.containsString;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @WebMvcTest(SpringEnterpriseProxyController.class) // Focuses on Spring MVC components
 @AutoConfigureMockMvc(addFilters = false)
+@Import(ZeroCopyFileSender.class)
 class SpringEnterpriseProxyControllerTest {
 
 	private final String ARTIFACT_PATH = "/org/example/artifact/1.0/artifact-1.0.jar";
 
 	private final byte[] ARTIFACT_CONTENT = "dummy jar content".getBytes();
 
+	private final String SHA256 = "a".repeat(64);
+
+	private final String ETAG = "\"" + SHA256 + "\"";
+
 	@Autowired
 	private MockMvc mockMvc; // Used to perform HTTP requests
 
@@ -44,8 +63,8 @@ class SpringEnterpriseProxyControllerTest {
 	void testProxyMavenArtifact_Success() throws Exception {
 		Resource mockResource = new ByteArrayResource(ARTIFACT_CONTENT);
 
-		// Configure the mock service to return a resource when retrieveArtifact is called
-		Mockito.when(artifactService.retrieveArtifact(ARTIFACT_PATH)).thenReturn(mockResource);
+		// Configure the mock service to return a resource when serveArtifact is called
+		serve(ARTIFACT_PATH, false, null, mockResource, false);
 
 		mockMvc.perform(get("/spring-enterprise-proxy{artifactPath}", ARTIFACT_PATH))
 			.andExpect(status().isOk())
@@ -54,47 +73,61 @@ class SpringEnterpriseProxyControllerTest {
 																					// JAR
 																					// in
 																					// MediaTypeUtil
+			.andExpect(header().string(SpringEnterpriseProxyController.CACHE_STALE_HEADER, "false"))
 			.andExpect(content().bytes(ARTIFACT_CONTENT));
 
 		// Verify that the service method was called exactly once with the correct path
-		Mockito.verify(artifactService).retrieveArtifact(ARTIFACT_PATH);
+		Mockito.verify(artifactService)
+			.serveArtifact(Mockito.eq(ARTIFACT_PATH), Mockito.eq(false), Mockito.eq(false), Mockito.any());
 	}
 
 	@Test
 	void testProxyMavenArtifact_NotFoundRemote() throws Exception {
 		// Configure the mock service to throw RestClientResponseException for 404
-		Mockito.when(artifactService.retrieveArtifact(ARTIFACT_PATH))
+		Mockito.when(serveArtifact(ARTIFACT_PATH, false))
 			.thenThrow(new RestClientResponseException("Not Found", HttpStatus.NOT_FOUND.value(), "Not Found", null,
 					null, null));
 
 		mockMvc.perform(get("/spring-enterprise-proxy{artifactPath}", ARTIFACT_PATH)).andExpect(status().isNotFound());
 
-		Mockito.verify(artifactService).retrieveArtifact(ARTIFACT_PATH);
+		Mockito.verify(artifactService)
+			.serveArtifact(Mockito.eq(ARTIFACT_PATH), Mockito.eq(false), Mockito.eq(false), Mockito.any());
 	}
 
 	@Test
 	void testProxyMavenArtifact_InternalServerError() throws Exception {
 		// Configure the mock service to throw an IOException (simulating I/O issue)
-		Mockito.when(artifactService.retrieveArtifact(ARTIFACT_PATH)).thenThrow(new IOException("Disk full"));
+		Mockito.when(serveArtifact(ARTIFACT_PATH, false)).thenThrow(new IOException("Disk full"));
 
 		mockMvc.perform(get("/spring-enterprise-proxy{artifactPath}", ARTIFACT_PATH))
 			.andExpect(status().isInternalServerError());
 
-		Mockito.verify(artifactService).retrieveArtifact(ARTIFACT_PATH);
+		Mockito.verify(artifactService)
+			.serveArtifact(Mockito.eq(ARTIFACT_PATH), Mockito.eq(false), Mockito.eq(false), Mockito.any());
+	}
+
+	@Test
+	void testProxyMavenArtifact_RemoteUnavailable() throws Exception {
+		Mockito.when(serveArtifact(ARTIFACT_PATH, false))
+			.thenThrow(new UpstreamUnavailableException("Circuit breaker for the remote repository is open"));
+
+		mockMvc.perform(get("/spring-enterprise-proxy{artifactPath}", ARTIFACT_PATH))
+			.andExpect(status().isServiceUnavailable());
 	}
 
 	@Test
 	void testProxyMavenArtifact_OtherRestClientError() throws Exception {
 		// Configure the mock service to throw RestClientResponseException for a different
 		// error (e.g., 500)
-		Mockito.when(artifactService.retrieveArtifact(ARTIFACT_PATH))
+		Mockito.when(serveArtifact(ARTIFACT_PATH, false))
 			.thenThrow(new RestClientResponseException("Internal Server Error",
 					HttpStatus.INTERNAL_SERVER_ERROR.value(), "Internal Server Error", null, null, null));
 
 		mockMvc.perform(get("/spring-enterprise-proxy{artifactPath}", ARTIFACT_PATH))
 			.andExpect(status().isInternalServerError());
 
-		Mockito.verify(artifactService).retrieveArtifact(ARTIFACT_PATH);
+		Mockito.verify(artifactService)
+			.serveArtifact(Mockito.eq(ARTIFACT_PATH), Mockito.eq(false), Mockito.eq(false), Mockito.any());
 	}
 
 	@Test
@@ -103,7 +136,7 @@ class SpringEnterpriseProxyControllerTest {
 		byte[] pomContent = "<project><artifactId>artifact</artifactId></project>".getBytes();
 		Resource mockResource = new ByteArrayResource(pomContent);
 
-		Mockito.when(artifactService.retrieveArtifact(pomPath)).thenReturn(mockResource);
+		serve(pomPath, false, null, mockResource, false);
 
 		mockMvc.perform(get("/spring-enterprise-proxy{artifactPath}", pomPath))
 			.andExpect(status().isOk())
@@ -112,4 +145,180 @@ class SpringEnterpriseProxyControllerTest {
 			.andExpect(content().bytes(pomContent));
 	}
 
-}
\ No newline at end of file
+	@Test
+	void testProxyMavenArtifact_FileHandedToSendfile(@TempDir Path tempDir) throws Exception {
+		byte[] largeContent = new byte[64 * 1024];
+		Path file = Files.write(tempDir.resolve("artifact-1.0.jar"), largeContent);
+		serve(ARTIFACT_PATH, false, null, new FileSystemResource(file), false);
+
+		mockMvc
+			.perform(get("/spring-enterprise-proxy{artifactPath}", ARTIFACT_PATH)
+				.requestAttr(ZeroCopyFileSender.SENDFILE_SUPPORTED_ATTR, Boolean.TRUE))
+			.andExpect(status().isOk())
+			.andExpect(header().longValue("Content-Length", largeContent.length))
+			.andExpect(request().attribute(ZeroCopyFileSender.SENDFILE_FILENAME_ATTR, file.toFile().getCanonicalPath()))
+			.andExpect(request().attribute(ZeroCopyFileSender.SENDFILE_FILE_END_ATTR, (long) largeContent.length))
+			.andExpect(content().bytes(new byte[0]));
+	}
+
+	@Test
+	void testProxyMavenArtifact_FileCopiedWithoutSendfileSupport(@TempDir Path tempDir) throws Exception {
+		byte[] largeContent = new byte[64 * 1024];
+		Path file = Files.write(tempDir.resolve("artifact-1.0.jar"), largeContent);
+		serve(ARTIFACT_PATH, false, null, new FileSystemResource(file), false);
+
+		mockMvc.perform(get("/spring-enterprise-proxy{artifactPath}", ARTIFACT_PATH))
+			.andExpect(status().isOk())
+			.andExpect(request().attribute(ZeroCopyFileSender.SENDFILE_FILENAME_ATTR, (Object) null))
+			.andExpect(content().bytes(largeContent));
+	}
+
+	@Test
+	void testProxyMavenArtifact_IfNoneMatch_NotModified() throws Exception {
+		serve(ARTIFACT_PATH, false, cachedArtifact(), new ByteArrayResource(ARTIFACT_CONTENT), false);
+
+		mockMvc.perform(get("/spring-enterprise-proxy{artifactPath}", ARTIFACT_PATH).header("If-None-Match", ETAG))
+			.andExpect(status().isNotModified())
+			.andExpect(header().string("ETag", ETAG))
+			.andExpect(content().bytes(new byte[0]));
+	}
+
+	@Test
+	void testProxyMavenArtifact_StaleCopy_FlaggedInHeader() throws Exception {
+		serve(ARTIFACT_PATH, false, cachedArtifact(), new ByteArrayResource(ARTIFACT_CONTENT), true);
+
+		mockMvc.perform(get("/spring-enterprise-proxy{artifactPath}", ARTIFACT_PATH))
+			.andExpect(status().isOk())
+			.andExpect(header().string(SpringEnterpriseProxyController.CACHE_STALE_HEADER, "true"))
+			.andExpect(content().bytes(ARTIFACT_CONTENT));
+	}
+
+	@Test
+	void testProxyMavenArtifact_IfModifiedSince_NotModified() throws Exception {
+		serve(ARTIFACT_PATH, false, cachedArtifact(), new ByteArrayResource(ARTIFACT_CONTENT), false);
+
+		mockMvc
+			.perform(get("/spring-enterprise-proxy{artifactPath}", ARTIFACT_PATH).header("If-Modified-Since",
+					"Sat, 01 Jun 2024 12:00:00 GMT"))
+			.andExpect(status().isNotModified());
+	}
+
+	@Test
+	void testProxyMavenArtifact_ETagChanged_ReturnsContentWithValidators() throws Exception {
+		serve(ARTIFACT_PATH, false, cachedArtifact(), new ByteArrayResource(ARTIFACT_CONTENT), false);
+
+		mockMvc
+			.perform(get("/spring-enterprise-proxy{artifactPath}", ARTIFACT_PATH).header("If-None-Match",
+					"\"outdated\""))
+			.andExpect(status().isOk())
+			.andExpect(header().string("ETag", ETAG))
+			.andExpect(header().string("Last-Modified", "Sat, 01 Jun 2024 12:00:00 GMT"))
+			.andExpect(content().bytes(ARTIFACT_CONTENT));
+	}
+
+	@Test
+	void testProxyMavenArtifact_Range_ServedFromCache() throws Exception {
+		serve(ARTIFACT_PATH, false, cachedArtifact(), new ByteArrayResource(ARTIFACT_CONTENT), false);
+
+		mockMvc.perform(get("/spring-enterprise-proxy{artifactPath}", ARTIFACT_PATH).header("Range", "bytes=6-8"))
+			.andExpect(status().isPartialContent())
+			.andExpect(header().string("Content-Range", "bytes 6-8/" + ARTIFACT_CONTENT.length))
+			.andExpect(content().bytes("jar".getBytes()));
+
+		Mockito.verify(artifactService, Mockito.never()).fetchRange(Mockito.any(), Mockito.any());
+	}
+
+	@Test
+	void testProxyMavenArtifact_MultiRange_ServedFromCache() throws Exception {
+		serve(ARTIFACT_PATH, false, cachedArtifact(), new ByteArrayResource(ARTIFACT_CONTENT), false);
+
+		mockMvc.perform(get("/spring-enterprise-proxy{artifactPath}", ARTIFACT_PATH).header("Range", "bytes=0-4,6-8"))
+			.andExpect(status().isPartialContent())
+			.andExpect(content().contentTypeCompatibleWith("multipart/byteranges"))
+			.andExpect(content().string(containsString("Content-Range: bytes 0-4/" + ARTIFACT_CONTENT.length)))
+			.andExpect(content().string(containsString("Content-Range: bytes 6-8/" + ARTIFACT_CONTENT.length)));
+	}
+
+	@Test
+	void testProxyMavenArtifact_Range_NotCached_PassedUpstream() throws Exception {
+		MockClientHttpResponse upstream = new MockClientHttpResponse("dummy".getBytes(), HttpStatus.PARTIAL_CONTENT);
+		upstream.getHeaders().set("Content-Range", "bytes 0-4/" + ARTIFACT_CONTENT.length);
+		upstream.getHeaders().setContentLength(5);
+		Mockito.when(artifactService.fetchRange(ARTIFACT_PATH, "bytes=0-4")).thenReturn(UpstreamResponse.of(upstream));
+
+		mockMvc.perform(get("/spring-enterprise-proxy{artifactPath}", ARTIFACT_PATH).header("Range", "bytes=0-4"))
+			.andExpect(status().isPartialContent())
+			.andExpect(header().string("Content-Range", "bytes 0-4/" + ARTIFACT_CONTENT.length))
+			.andExpect(content().bytes("dummy".getBytes()));
+
+		Mockito.verify(artifactService)
+			.serveArtifact(Mockito.eq(ARTIFACT_PATH), Mockito.eq(false), Mockito.eq(true), Mockito.any());
+	}
+
+	@Test
+	void testProxyMavenArtifact_CompressedPom_SentGzippedWhenAccepted() throws Exception {
+		String pomPath = "/org/example/artifact/1.0/artifact-1.0.pom";
+		byte[] gzipped = { 0x1f, (byte) 0x8b, 8, 0 };
+		Artifact pom = Artifact.cached(pomPath, 1000, SHA256, "text/xml", LocalDateTime.now())
+			.withContentEncoding(ArtifactCompression.GZIP, (long) gzipped.length);
+		serve(pomPath, true, pom, new ContentEncodedResource(new ByteArrayResource(gzipped), ArtifactCompression.GZIP),
+				false);
+		serve(pomPath, false, pom, new ByteArrayResource("<project/>".getBytes()), false);
+
+		mockMvc.perform(get("/spring-enterprise-proxy{artifactPath}", pomPath).header("Accept-Encoding", "gzip, br"))
+			.andExpect(status().isOk())
+			.andExpect(content().contentType(MediaType.TEXT_XML))
+			.andExpect(header().string("Content-Encoding", "gzip"))
+			.andExpect(header().string("Vary", "Accept-Encoding"))
+			.andExpect(header().string("ETag", "\"" + SHA256 + "-gzip\""))
+			.andExpect(content().bytes(gzipped));
+
+		// Without gzip in Accept-Encoding the original body is requested
+		mockMvc.perform(get("/spring-enterprise-proxy{artifactPath}", pomPath).header("Accept-Encoding", "gzip;q=0"))
+			.andExpect(status().isOk());
+		Mockito.verify(artifactService)
+			.serveArtifact(Mockito.eq(pomPath), Mockito.eq(false), Mockito.eq(false), Mockito.any());
+	}
+
+	@Test
+	void testProxyMavenArtifact_FetchedFromRemote_NoValidators() throws Exception {
+		serve(ARTIFACT_PATH, false, null, new ByteArrayResource(ARTIFACT_CONTENT), false);
+
+		mockMvc.perform(get("/spring-enterprise-proxy{artifactPath}", ARTIFACT_PATH))
+			.andExpect(status().isOk())
+			.andExpect(header().doesNotExist("ETag"))
+			.andExpect(header().doesNotExist("Last-Modified"))
+			.andExpect(content().bytes(ARTIFACT_CONTENT));
+	}
+
+	/**
+	 * Serves an artifact, or answers 304 if the request's validators match the cached
+	 * artifact, as the service does.
+	 * @param cachedArtifact The cached artifact the body belongs to, or {@code null} if
+	 * it was fetched from the remote
+	 */
+	private void serve(String artifactPath, boolean gzipAccepted, Artifact cachedArtifact, Resource content,
+			boolean stale) throws IOException {
+		Mockito.when(serveArtifact(artifactPath, gzipAccepted)).thenAnswer(invocation -> {
+			Predicate<Artifact> notModified = invocation.getArgument(3);
+			if (cachedArtifact != null && notModified.test(cachedArtifact)) {
+				return Optional.of(ArtifactService.Served.notModified(cachedArtifact, stale));
+			}
+			return Optional.of(new ArtifactService.Served(cachedArtifact, content, stale));
+		});
+	}
+
+	private Optional<ArtifactService.Served> serveArtifact(String artifactPath, boolean gzipAccepted)
+			throws IOException {
+		return artifactService.serveArtifact(Mockito.eq(artifactPath), Mockito.eq(gzipAccepted), Mockito.anyBoolean(),
+				Mockito.any());
+	}
+
+	private Artifact cachedArtifact() {
+		LocalDateTime lastModified = LocalDateTime.ofInstant(Instant.parse("2024-06-01T12:00:00Z"),
+				ZoneId.systemDefault());
+		return Artifact.cached(ARTIFACT_PATH, ARTIFACT_CONTENT.length, SHA256, "application/java-archive",
+				lastModified);
+	}
+
+}
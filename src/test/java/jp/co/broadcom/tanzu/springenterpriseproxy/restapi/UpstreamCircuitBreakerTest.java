@@ -0,0 +1,125 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jp.co.broadcom.tanzu.springenterpriseproxy.SpringEnterpriseProxyProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class UpstreamCircuitBreakerTest {
+
+	private static final long FAST = Duration.ofMillis(10).toNanos();
+
+	private static final long SLOW = Duration.ofSeconds(2).toNanos();
+
+	@Mock
+	private SpringEnterpriseProxyProperties springEnterpriseProxyProperties;
+
+	private MeterRegistry meterRegistry;
+
+	@BeforeEach
+	void setUp() {
+		meterRegistry = new SimpleMeterRegistry();
+	}
+
+	private UpstreamCircuitBreaker circuitBreaker(Duration waitInOpenState) {
+		// Window of 4 calls, evaluated from 4 calls on; 2 trial calls
+		when(springEnterpriseProxyProperties.circuitBreaker())
+			.thenReturn(new SpringEnterpriseProxyProperties.CircuitBreaker(true, 50, 75, Duration.ofSeconds(1), 4, 4,
+					waitInOpenState, 2));
+		return new UpstreamCircuitBreaker(springEnterpriseProxyProperties, meterRegistry);
+	}
+
+	@Test
+	void opensOnFailureRate_andRejectsCalls() throws UpstreamUnavailableException {
+		UpstreamCircuitBreaker circuitBreaker = circuitBreaker(Duration.ofMinutes(1));
+
+		for (boolean failed : new boolean[] { false, true, false }) {
+			circuitBreaker.acquirePermission();
+			circuitBreaker.onResult(FAST, failed);
+		}
+		assertThat(circuitBreaker.isOpen()).isFalse();
+		circuitBreaker.acquirePermission();
+		circuitBreaker.onResult(FAST, true);
+
+		assertThat(circuitBreaker.isOpen()).isTrue();
+		assertThrows(UpstreamUnavailableException.class, circuitBreaker::acquirePermission);
+		assertThat(meterRegistry.get("spring.enterprise.proxy.upstream.calls.not.permitted").counter().count())
+			.isEqualTo(1);
+		assertThat(meterRegistry.get("spring.enterprise.proxy.upstream.circuit.state")
+			.tag("state", "open")
+			.gauge()
+			.value()).isEqualTo(1);
+	}
+
+	@Test
+	void opensOnSlowCallRate() throws UpstreamUnavailableException {
+		UpstreamCircuitBreaker circuitBreaker = circuitBreaker(Duration.ofMinutes(1));
+
+		for (long duration : new long[] { SLOW, SLOW, FAST, SLOW }) {
+			circuitBreaker.acquirePermission();
+			circuitBreaker.onResult(duration, false);
+		}
+
+		assertThat(circuitBreaker.isOpen()).isTrue();
+	}
+
+	@Test
+	void oldOutcomesLeaveTheWindow() throws UpstreamUnavailableException {
+		UpstreamCircuitBreaker circuitBreaker = circuitBreaker(Duration.ofMinutes(1));
+
+		for (boolean failed : new boolean[] { true, false, false, false, false, false, true }) {
+			circuitBreaker.acquirePermission();
+			circuitBreaker.onResult(FAST, failed);
+		}
+
+		assertThat(circuitBreaker.isOpen()).isFalse();
+		assertThat(circuitBreaker.failureRate()).isEqualTo(25);
+	}
+
+	@Test
+	void halfOpen_closesAfterSuccessfulTrialCalls() throws Exception {
+		UpstreamCircuitBreaker circuitBreaker = circuitBreaker(Duration.ofMillis(50));
+		for (int i = 0; i < 4; i++) {
+			circuitBreaker.onResult(FAST, true);
+		}
+		assertThat(circuitBreaker.isOpen()).isTrue();
+		Thread.sleep(100);
+
+		circuitBreaker.acquirePermission();
+		circuitBreaker.acquirePermission();
+		assertThat(circuitBreaker.state()).isEqualTo(UpstreamCircuitBreaker.State.HALF_OPEN);
+		assertThrows(UpstreamUnavailableException.class, circuitBreaker::acquirePermission);
+		circuitBreaker.onResult(FAST, false);
+		circuitBreaker.onResult(FAST, false);
+
+		assertThat(circuitBreaker.state()).isEqualTo(UpstreamCircuitBreaker.State.CLOSED);
+	}
+
+	@Test
+	void halfOpen_reopensAfterFailedTrialCalls() throws Exception {
+		UpstreamCircuitBreaker circuitBreaker = circuitBreaker(Duration.ofMillis(50));
+		for (int i = 0; i < 4; i++) {
+			circuitBreaker.onResult(FAST, true);
+		}
+		Thread.sleep(100);
+
+		circuitBreaker.acquirePermission();
+		circuitBreaker.acquirePermission();
+		circuitBreaker.onResult(FAST, false);
+		circuitBreaker.onResult(FAST, true);
+
+		assertThat(circuitBreaker.isOpen()).isTrue();
+	}
+
+}
@@ -0,0 +1,330 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jp.co.broadcom.tanzu.springenterpriseproxy.SpringEnterpriseProxyProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.client.RestClientResponseException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.client.ExpectedCount.times;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.header;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.method;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withStatus;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+@ExtendWith(MockitoExtension.class)
+class UpstreamClientTest {
+
+	private final String ARTIFACT_PATH = "org/example/library/1.0.0/library-1.0.0.jar";
+
+	private final String REMOTE_URL = "http://remote.maven.org/maven2/" + ARTIFACT_PATH;
+
+	private final byte[] ARTIFACT_CONTENT = "some-jar-content".getBytes();
+
+	@Mock
+	private SpringEnterpriseProxyProperties springEnterpriseProxyProperties;
+
+	private RestClient.Builder restClientBuilder;
+
+	private MockRestServiceServer server;
+
+	private MeterRegistry meterRegistry;
+
+	private UpstreamCircuitBreaker circuitBreaker;
+
+	private RedirectLocationCache redirectLocations;
+
+	@BeforeEach
+	void setUp() {
+		lenient().when(springEnterpriseProxyProperties.remoteRepoUrl()).thenReturn("http://remote.maven.org/maven2/");
+		// Opens after two failed calls
+		lenient().when(springEnterpriseProxyProperties.circuitBreaker())
+			.thenReturn(new SpringEnterpriseProxyProperties.CircuitBreaker(true, 50, 100, Duration.ofSeconds(10), 10, 2,
+					Duration.ofMinutes(1), 1));
+		lenient().when(springEnterpriseProxyProperties.upstream())
+			.thenReturn(new SpringEnterpriseProxyProperties.Upstream(Duration.ofSeconds(1), Duration.ofSeconds(1),
+					Duration.ofMinutes(1), true, 1, Duration.ofMillis(100)));
+		// Keep the mock server's request factory instead of the client's own
+		restClientBuilder = spy(RestClient.builder());
+		lenient().doReturn(restClientBuilder)
+			.when(restClientBuilder)
+			.requestFactory(any(JdkClientHttpRequestFactory.class));
+		server = MockRestServiceServer.bindTo(restClientBuilder).build();
+		meterRegistry = new SimpleMeterRegistry();
+		circuitBreaker = new UpstreamCircuitBreaker(springEnterpriseProxyProperties, meterRegistry);
+		lenient().when(springEnterpriseProxyProperties.redirectCache())
+			.thenReturn(new SpringEnterpriseProxyProperties.RedirectCache(true, 100, Duration.ofMinutes(1),
+					Duration.ofHours(1), Duration.ofSeconds(30)));
+		redirectLocations = new RedirectLocationCache(springEnterpriseProxyProperties, meterRegistry);
+	}
+
+	@Test
+	void fetch_returnsOpenResponse() throws IOException {
+		server.expect(requestTo(REMOTE_URL))
+			.andExpect(method(org.springframework.http.HttpMethod.GET))
+			.andRespond(withSuccess(ARTIFACT_CONTENT, MediaType.APPLICATION_OCTET_STREAM));
+
+		UpstreamClient upstreamClient = new UpstreamClient(springEnterpriseProxyProperties, restClientBuilder,
+				circuitBreaker, redirectLocations, meterRegistry);
+
+		try (UpstreamResponse response = upstreamClient.fetch(ARTIFACT_PATH); InputStream body = response.body()) {
+			assertThat(response.statusCode()).isEqualTo(HttpStatus.OK);
+			assertThat(body.readAllBytes()).isEqualTo(ARTIFACT_CONTENT);
+		}
+		server.verify();
+	}
+
+	@Test
+	void fetch_withRange_sendsRangeHeader() throws IOException {
+		server.expect(requestTo(REMOTE_URL))
+			.andExpect(header(HttpHeaders.RANGE, "bytes=0-3"))
+			.andRespond(withStatus(HttpStatus.PARTIAL_CONTENT).body("some")
+				.header(HttpHeaders.CONTENT_RANGE, "bytes 0-3/16"));
+
+		UpstreamClient upstreamClient = new UpstreamClient(springEnterpriseProxyProperties, restClientBuilder,
+				circuitBreaker, redirectLocations, meterRegistry);
+
+		HttpHeaders requestHeaders = new HttpHeaders();
+		requestHeaders.setRange(HttpRange.parseRanges("bytes=0-3"));
+		try (UpstreamResponse response = upstreamClient.fetch(ARTIFACT_PATH, requestHeaders)) {
+			assertThat(response.statusCode()).isEqualTo(HttpStatus.PARTIAL_CONTENT);
+			assertThat(response.headers().getFirst(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 0-3/16");
+			assertThat(response.body().readAllBytes()).isEqualTo("some".getBytes());
+		}
+		server.verify();
+	}
+
+	@Test
+	void fetch_conditional_passesNotModifiedThrough() throws IOException {
+		server.expect(requestTo(REMOTE_URL))
+			.andExpect(header(HttpHeaders.IF_NONE_MATCH, "\"v1\""))
+			.andRespond(withStatus(HttpStatus.NOT_MODIFIED));
+
+		UpstreamClient upstreamClient = new UpstreamClient(springEnterpriseProxyProperties, restClientBuilder,
+				circuitBreaker, redirectLocations, meterRegistry);
+
+		HttpHeaders requestHeaders = new HttpHeaders();
+		requestHeaders.setIfNoneMatch("\"v1\"");
+		try (UpstreamResponse response = upstreamClient.fetch(ARTIFACT_PATH, requestHeaders)) {
+			assertThat(response.statusCode()).isEqualTo(HttpStatus.NOT_MODIFIED);
+		}
+		server.verify();
+	}
+
+	@Test
+	void fetch_followsRedirectToCdn() throws IOException {
+		String cdnUrl = "https://cdn.example.com/signed/library-1.0.0.jar?X-Amz-Signature=abc";
+		server.expect(requestTo(REMOTE_URL)).andRespond(withStatus(HttpStatus.FOUND).location(URI.create(cdnUrl)));
+		server.expect(requestTo(cdnUrl)).andRespond(withSuccess(ARTIFACT_CONTENT, MediaType.APPLICATION_OCTET_STREAM));
+
+		UpstreamClient upstreamClient = new UpstreamClient(springEnterpriseProxyProperties, restClientBuilder,
+				circuitBreaker, redirectLocations, meterRegistry);
+
+		try (UpstreamResponse response = upstreamClient.fetch(ARTIFACT_PATH)) {
+			assertThat(response.body().readAllBytes()).isEqualTo(ARTIFACT_CONTENT);
+		}
+		server.verify();
+	}
+
+	@Test
+	void fetch_rememberedRedirect_goesStraightToCdn() throws IOException {
+		String cdnUrl = "https://cdn.example.com/signed/library-1.0.0.jar?X-Amz-Signature=abc";
+		server.expect(requestTo(REMOTE_URL)).andRespond(withStatus(HttpStatus.FOUND).location(URI.create(cdnUrl)));
+		server.expect(times(2), requestTo(cdnUrl))
+			.andRespond(withSuccess(ARTIFACT_CONTENT, MediaType.APPLICATION_OCTET_STREAM));
+		UpstreamClient upstreamClient = new UpstreamClient(springEnterpriseProxyProperties, restClientBuilder,
+				circuitBreaker, redirectLocations, meterRegistry);
+
+		upstreamClient.fetch(ARTIFACT_PATH).close();
+		HttpHeaders range = new HttpHeaders();
+		range.setRange(List.of(HttpRange.createByteRange(4)));
+		try (UpstreamResponse response = upstreamClient.fetch(ARTIFACT_PATH, range)) {
+			assertThat(response.body().readAllBytes()).isEqualTo(ARTIFACT_CONTENT);
+		}
+
+		// The remote was asked once
+		server.verify();
+	}
+
+	@Test
+	void fetch_rememberedRedirectRejected_asksRemoteAgain() throws IOException {
+		String expiredUrl = "https://cdn.example.com/signed/library-1.0.0.jar?X-Amz-Signature=old";
+		String freshUrl = "https://cdn.example.com/signed/library-1.0.0.jar?X-Amz-Signature=new";
+		redirectLocations.put(ARTIFACT_PATH, URI.create(expiredUrl));
+		server.expect(requestTo(expiredUrl)).andRespond(withStatus(HttpStatus.FORBIDDEN));
+		server.expect(requestTo(REMOTE_URL)).andRespond(withStatus(HttpStatus.FOUND).location(URI.create(freshUrl)));
+		server.expect(requestTo(freshUrl))
+			.andRespond(withSuccess(ARTIFACT_CONTENT, MediaType.APPLICATION_OCTET_STREAM));
+		UpstreamClient upstreamClient = new UpstreamClient(springEnterpriseProxyProperties, restClientBuilder,
+				circuitBreaker, redirectLocations, meterRegistry);
+
+		try (UpstreamResponse response = upstreamClient.fetch(ARTIFACT_PATH)) {
+			assertThat(response.body().readAllBytes()).isEqualTo(ARTIFACT_CONTENT);
+		}
+
+		server.verify();
+		assertThat(redirectLocations.get(ARTIFACT_PATH)).hasValue(URI.create(freshUrl));
+		assertThat(meterRegistry.get("spring.enterprise.proxy.upstream.redirects.invalidated").counter().count())
+			.isEqualTo(1);
+	}
+
+	@Test
+	void fetch_remoteReturnsNotFound() {
+		server.expect(requestTo(REMOTE_URL)).andRespond(withStatus(HttpStatus.NOT_FOUND));
+
+		UpstreamClient upstreamClient = new UpstreamClient(springEnterpriseProxyProperties, restClientBuilder,
+				circuitBreaker, redirectLocations, meterRegistry);
+
+		RestClientResponseException e = assertThrows(RestClientResponseException.class,
+				() -> upstreamClient.fetch(ARTIFACT_PATH));
+		assertThat(e.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+	}
+
+	@Test
+	void fetch_remoteFailing_circuitOpensAndFailsFast() {
+		server.expect(times(2), requestTo(REMOTE_URL)).andRespond(withStatus(HttpStatus.SERVICE_UNAVAILABLE));
+		UpstreamClient upstreamClient = new UpstreamClient(springEnterpriseProxyProperties, restClientBuilder,
+				circuitBreaker, redirectLocations, meterRegistry);
+
+		assertThrows(RestClientResponseException.class, () -> upstreamClient.fetch(ARTIFACT_PATH));
+		assertThrows(RestClientResponseException.class, () -> upstreamClient.fetch(ARTIFACT_PATH));
+		assertThrows(UpstreamUnavailableException.class, () -> upstreamClient.fetch(ARTIFACT_PATH));
+
+		server.verify();
+	}
+
+	@Test
+	void fetch_notFound_doesNotCountAgainstRemote() throws IOException {
+		server.expect(times(3), requestTo(REMOTE_URL)).andRespond(withStatus(HttpStatus.NOT_FOUND));
+		UpstreamClient upstreamClient = new UpstreamClient(springEnterpriseProxyProperties, restClientBuilder,
+				circuitBreaker, redirectLocations, meterRegistry);
+
+		for (int i = 0; i < 3; i++) {
+			assertThrows(RestClientResponseException.class, () -> upstreamClient.fetch(ARTIFACT_PATH));
+		}
+
+		assertThat(circuitBreaker.isOpen()).isFalse();
+		server.verify();
+	}
+
+	@Test
+	void fetch_hostAtConcurrencyCap_waitsThenFails() throws IOException {
+		server.expect(requestTo(REMOTE_URL))
+			.andRespond(withSuccess(ARTIFACT_CONTENT, MediaType.APPLICATION_OCTET_STREAM));
+		UpstreamClient upstreamClient = new UpstreamClient(springEnterpriseProxyProperties, restClientBuilder,
+				circuitBreaker, redirectLocations, meterRegistry);
+
+		try (UpstreamResponse open = upstreamClient.fetch(ARTIFACT_PATH)) {
+			assertThat(meterRegistry.get("spring.enterprise.proxy.upstream.requests.active").gauge().value())
+				.isEqualTo(1);
+			IOException e = assertThrows(IOException.class, () -> upstreamClient.fetch(ARTIFACT_PATH));
+			assertThat(e).hasMessageContaining("No free request slot for remote.maven.org");
+		}
+
+		assertThat(meterRegistry.get("spring.enterprise.proxy.upstream.requests.active").gauge().value()).isZero();
+		assertThat(meterRegistry.get("spring.enterprise.proxy.upstream.requests.rejected").counter().count())
+			.isEqualTo(1);
+		// Queueing in the proxy does not count against the remote
+		assertThat(circuitBreaker.bufferedCalls()).isEqualTo(1);
+	}
+
+	@Test
+	void fetch_redirected_holdsSlotOfCdnHostOnly() throws IOException {
+		String cdnUrl = "https://cdn.example.com/signed/library-1.0.0.jar?X-Amz-Signature=abc";
+		String pomPath = "org/example/library/1.0.0/library-1.0.0.pom";
+		server.expect(requestTo(REMOTE_URL)).andRespond(withStatus(HttpStatus.FOUND).location(URI.create(cdnUrl)));
+		server.expect(requestTo(cdnUrl)).andRespond(withSuccess(ARTIFACT_CONTENT, MediaType.APPLICATION_OCTET_STREAM));
+		server.expect(requestTo("http://remote.maven.org/maven2/" + pomPath))
+			.andRespond(withSuccess("<project/>", MediaType.APPLICATION_XML));
+		UpstreamClient upstreamClient = new UpstreamClient(springEnterpriseProxyProperties, restClientBuilder,
+				circuitBreaker, redirectLocations, meterRegistry);
+
+		try (UpstreamResponse open = upstreamClient.fetch(ARTIFACT_PATH)) {
+			assertThat(meterRegistry.get("spring.enterprise.proxy.upstream.requests.active")
+				.tag("host", "cdn.example.com")
+				.gauge()
+				.value()).isEqualTo(1);
+			// The remote itself has its slot free again
+			try (UpstreamResponse pom = upstreamClient.fetch(pomPath)) {
+				assertThat(pom.statusCode()).isEqualTo(HttpStatus.OK);
+			}
+		}
+
+		assertThat(meterRegistry.get("spring.enterprise.proxy.upstream.requests.active")
+			.tag("host", "cdn.example.com")
+			.gauge()
+			.value()).isZero();
+		server.verify();
+	}
+
+	@Test
+	void fetch_errorResponse_releasesSlot() throws IOException {
+		server.expect(requestTo(REMOTE_URL)).andRespond(withStatus(HttpStatus.NOT_FOUND));
+		server.expect(requestTo(REMOTE_URL))
+			.andRespond(withSuccess(ARTIFACT_CONTENT, MediaType.APPLICATION_OCTET_STREAM));
+		UpstreamClient upstreamClient = new UpstreamClient(springEnterpriseProxyProperties, restClientBuilder,
+				circuitBreaker, redirectLocations, meterRegistry);
+
+		assertThrows(RestClientResponseException.class, () -> upstreamClient.fetch(ARTIFACT_PATH));
+		try (UpstreamResponse response = upstreamClient.fetch(ARTIFACT_PATH)) {
+			assertThat(response.body().readAllBytes()).isEqualTo(ARTIFACT_CONTENT);
+		}
+	}
+
+	@Test
+	void fetch_transferOutlastsTotalTimeout_bodyFails() throws Exception {
+		when(springEnterpriseProxyProperties.upstream()).thenReturn(new SpringEnterpriseProxyProperties.Upstream(
+				Duration.ofSeconds(1), Duration.ofSeconds(1), Duration.ofMillis(50), true, 1, Duration.ofMillis(100)));
+		server.expect(requestTo(REMOTE_URL))
+			.andRespond(withSuccess(ARTIFACT_CONTENT, MediaType.APPLICATION_OCTET_STREAM));
+		UpstreamClient upstreamClient = new UpstreamClient(springEnterpriseProxyProperties, restClientBuilder,
+				circuitBreaker, redirectLocations, meterRegistry);
+
+		UpstreamResponse response = upstreamClient.fetch(ARTIFACT_PATH);
+		Thread.sleep(200);
+
+		// The aborted body ends early, which must not look like a complete transfer
+		assertThrows(InterruptedIOException.class, () -> response.body().readAllBytes());
+		assertThat(meterRegistry.get("spring.enterprise.proxy.upstream.requests.active").gauge().value()).isZero();
+	}
+
+	@Test
+	void withRemoteAuth_configuresRestClient() {
+		RestClient.Builder mockBuilder = mock(RestClient.Builder.class);
+		when(springEnterpriseProxyProperties.remoteRepoUsername()).thenReturn("testuser");
+		when(springEnterpriseProxyProperties.remoteRepoPassword()).thenReturn("testpass");
+		when(mockBuilder.requestFactory(any(JdkClientHttpRequestFactory.class))).thenReturn(mockBuilder);
+
+		new UpstreamClient(springEnterpriseProxyProperties, mockBuilder, circuitBreaker, redirectLocations,
+				meterRegistry);
+
+		// The client always uses its own JDK HttpClient that does not follow redirects,
+		// so that the Authorization header never reaches the CDN
+		verify(mockBuilder).requestFactory(any(JdkClientHttpRequestFactory.class));
+		verify(mockBuilder).build();
+	}
+
+}
@@ -0,0 +1,147 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jp.co.broadcom.tanzu.springenterpriseproxy.SpringEnterpriseProxyProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class WriteBehindExecutorTest {
+
+	private static final String ARTIFACT_PATH = "/org/example/lib/1.0/lib-1.0.jar";
+
+	@Mock
+	private SpringEnterpriseProxyProperties springEnterpriseProxyProperties;
+
+	@Mock
+	private ArtifactContentStore contentStore;
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	private WriteBehindExecutor writeBehind;
+
+	@AfterEach
+	void tearDown() throws InterruptedException {
+		writeBehind.destroy();
+	}
+
+	@Test
+	void execute_disabled_runsOnCaller() {
+		writeBehind = writeBehind(false, 1, DataSize.ofMegabytes(1));
+		AtomicReference<Thread> writer = new AtomicReference<>();
+
+		writeBehind.execute(ARTIFACT_PATH, 10, () -> writer.set(Thread.currentThread()));
+
+		assertThat(writer).hasValue(Thread.currentThread());
+		assertThat(meterRegistry.get("spring.enterprise.proxy.write.behind.latency").timer().count()).isEqualTo(1);
+	}
+
+	@Test
+	void execute_enabled_returnsBeforeWriteIsDone() throws InterruptedException {
+		writeBehind = writeBehind(true, 1, DataSize.ofMegabytes(1));
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch written = new CountDownLatch(1);
+
+		writeBehind.execute(ARTIFACT_PATH, 10, () -> {
+			release.await();
+			written.countDown();
+		});
+
+		assertThat(written.getCount()).isEqualTo(1);
+		assertThat(meterRegistry.get("spring.enterprise.proxy.write.behind.pending").gauge().value()).isEqualTo(1);
+		assertThat(meterRegistry.get("spring.enterprise.proxy.write.behind.pending.bytes").gauge().value())
+			.isEqualTo(10);
+		release.countDown();
+		assertThat(written.await(5, TimeUnit.SECONDS)).isTrue();
+	}
+
+	@Test
+	void execute_queueFull_runsOnCaller() throws InterruptedException {
+		writeBehind = writeBehind(true, 1, DataSize.ofMegabytes(1));
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch started = new CountDownLatch(1);
+		writeBehind.execute(ARTIFACT_PATH, 10, () -> {
+			started.countDown();
+			release.await();
+		});
+		assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+		// Fills the queue
+		writeBehind.execute(ARTIFACT_PATH, 10, () -> {
+		});
+		AtomicReference<Thread> writer = new AtomicReference<>();
+
+		writeBehind.execute(ARTIFACT_PATH, 10, () -> writer.set(Thread.currentThread()));
+
+		assertThat(writer).hasValue(Thread.currentThread());
+		assertThat(meterRegistry.get("spring.enterprise.proxy.write.behind.caller.runs").counter().count())
+			.isEqualTo(1);
+		release.countDown();
+	}
+
+	@Test
+	void execute_pendingSizeReached_runsOnCaller() throws InterruptedException {
+		writeBehind = writeBehind(true, 10, DataSize.ofBytes(100));
+		CountDownLatch release = new CountDownLatch(1);
+		// A body larger than the limit is let through when nothing else is pending
+		writeBehind.execute(ARTIFACT_PATH, 150, release::await);
+		AtomicReference<Thread> writer = new AtomicReference<>();
+
+		writeBehind.execute(ARTIFACT_PATH, 10, () -> writer.set(Thread.currentThread()));
+
+		assertThat(writer).hasValue(Thread.currentThread());
+		assertThat(meterRegistry.get("spring.enterprise.proxy.write.behind.caller.runs").counter().count())
+			.isEqualTo(1);
+		release.countDown();
+	}
+
+	@Test
+	void execute_writeFails_countedAndNotThrown() throws InterruptedException {
+		writeBehind = writeBehind(true, 1, DataSize.ofMegabytes(1));
+
+		writeBehind.execute(ARTIFACT_PATH, 10, () -> {
+			throw new IOException("Connection reset");
+		});
+		writeBehind.destroy();
+
+		assertThat(meterRegistry.get("spring.enterprise.proxy.write.behind.failed").counter().count()).isEqualTo(1);
+		assertThat(meterRegistry.get("spring.enterprise.proxy.write.behind.pending").gauge().value()).isZero();
+	}
+
+	@Test
+	void destroy_drainsPendingWrites() throws InterruptedException {
+		writeBehind = writeBehind(true, 10, DataSize.ofMegabytes(1));
+		AtomicInteger written = new AtomicInteger();
+		for (int i = 0; i < 5; i++) {
+			writeBehind.execute(ARTIFACT_PATH, 10, () -> {
+				Thread.sleep(20);
+				written.incrementAndGet();
+			});
+		}
+
+		writeBehind.destroy();
+
+		assertThat(written).hasValue(5);
+		assertThat(meterRegistry.get("spring.enterprise.proxy.write.behind.pending.bytes").gauge().value()).isZero();
+	}
+
+	private WriteBehindExecutor writeBehind(boolean enabled, int queueCapacity, DataSize maxPendingSize) {
+		when(springEnterpriseProxyProperties.writeBehind()).thenReturn(new SpringEnterpriseProxyProperties.WriteBehind(
+				enabled, 1, queueCapacity, maxPendingSize, Duration.ofSeconds(5)));
+		return new WriteBehindExecutor(springEnterpriseProxyProperties, contentStore, meterRegistry);
+	}
+
+}
@@ -0,0 +1,171 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.oauth2.jwt.JwtClaimsSet;
+import org.springframework.security.oauth2.jwt.JwtEncoder;
+import org.springframework.security.oauth2.jwt.JwtEncoderParameters;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+
+/**
+ * Compares the CPU time Tomcat's threads spend per GB when the proxy serves a cache hit
+ * that is loaded onto the heap as a {@link ByteArrayResource}, as database and memory
+ * hits are, against a file-backed hit that the {@link ZeroCopyFileSender} hands to
+ * Tomcat's sendfile support. Both go through the controller and the embedded server over
+ * a loopback connection; the client discards what it reads.
+ * <p>
+ * Request threads are platform threads here, so that their CPU time can be measured. Run
+ * with {@code mvn test -Dtest=ZeroCopyBenchmarkTest -Dbenchmark=true}.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+		properties = "spring.threads.virtual.enabled=false")
+class ZeroCopyBenchmarkTest {
+
+	private static final Logger logger = LoggerFactory.getLogger(ZeroCopyBenchmarkTest.class);
+
+	private static final String ARTIFACT_PATH = "/org/example/library/1.0.0/library-1.0.0.jar";
+
+	private static final int FILE_SIZE = 64 * 1024 * 1024;
+
+	private static final int ROUNDS = 8;
+
+	private static final double BYTES_PER_GB = 1024.0 * 1024 * 1024;
+
+	private static final String SERVER_THREAD_PREFIX = "http-nio-";
+
+	private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+
+	private final HttpClient httpClient = HttpClient.newHttpClient();
+
+	@LocalServerPort
+	private int port;
+
+	@Autowired
+	private JwtEncoder jwtEncoder;
+
+	@Autowired
+	private ArtifactAccessTracker accessTracker;
+
+	@MockitoBean
+	private ArtifactService artifactService;
+
+	@TempDir
+	private Path tempDir;
+
+	@Test
+	void zeroCopy_usesLessCpuPerGbThanByteArrayResource() throws Exception {
+		Path file = this.tempDir.resolve("library-1.0.0.jar");
+		byte[] block = new byte[1024 * 1024];
+		try (OutputStream out = Files.newOutputStream(file)) {
+			for (int i = 0; i < FILE_SIZE / block.length; i++) {
+				out.write(block);
+			}
+		}
+		Artifact artifact = Artifact.cached(ARTIFACT_PATH, FILE_SIZE, null, "application/java-archive",
+				LocalDateTime.now());
+		String token = token();
+
+		// The path used for database and memory cache hits: the body is loaded onto the
+		// heap and copied to the response stream
+		when(this.artifactService.serveArtifact(eq(ARTIFACT_PATH), anyBoolean(), anyBoolean(), any()))
+			.thenAnswer(invocation -> served(artifact, new ByteArrayResource(Files.readAllBytes(file))));
+		measure(token);
+		long byteArrayNanos = measure(token);
+
+		when(this.artifactService.serveArtifact(eq(ARTIFACT_PATH), anyBoolean(), anyBoolean(), any())).thenAnswer(
+				invocation -> served(artifact, this.accessTracker.track(artifact, new FileSystemResource(file))));
+		measure(token);
+		long zeroCopyNanos = measure(token);
+
+		double gigabytes = (double) FILE_SIZE * ROUNDS / BYTES_PER_GB;
+		logger.info("ByteArrayResource: {} ms CPU/GB, zero-copy: {} ms CPU/GB",
+				String.format("%.1f", byteArrayNanos / 1e6 / gigabytes),
+				String.format("%.1f", zeroCopyNanos / 1e6 / gigabytes));
+		assertThat(this.accessTracker.isStreaming(artifact.id())).isFalse();
+		assertThat(zeroCopyNanos).isLessThan(byteArrayNanos);
+	}
+
+	private static Optional<ArtifactService.Served> served(Artifact artifact, Resource content) {
+		return Optional.of(new ArtifactService.Served(artifact, content, false));
+	}
+
+	private String token() {
+		Instant now = Instant.now();
+		JwtClaimsSet claims = JwtClaimsSet.builder()
+			.issuer("self")
+			.issuedAt(now)
+			.expiresAt(now.plusSeconds(3600))
+			.subject("benchmark")
+			.build();
+		return this.jwtEncoder.encode(JwtEncoderParameters.from(claims)).getTokenValue();
+	}
+
+	/**
+	 * Requests the artifact {@link #ROUNDS} times.
+	 * @return The CPU time spent by the server's threads meanwhile
+	 */
+	private long measure(String token) throws Exception {
+		HttpRequest request = HttpRequest
+			.newBuilder(URI.create("http://127.0.0.1:" + this.port + "/spring-enterprise-proxy" + ARTIFACT_PATH))
+			.header(HttpHeaders.AUTHORIZATION, "Bearer " + token)
+			.build();
+		Map<Long, Long> before = serverThreadCpuTimes();
+		for (int i = 0; i < ROUNDS; i++) {
+			AtomicLong received = new AtomicLong();
+			HttpResponse<Void> response = this.httpClient.send(request, HttpResponse.BodyHandlers
+				.ofByteArrayConsumer(chunk -> chunk.ifPresent(b -> received.addAndGet(b.length))));
+			assertThat(response.statusCode()).isEqualTo(200);
+			assertThat(received.get()).isEqualTo(FILE_SIZE);
+		}
+		long cpuNanos = 0;
+		for (Map.Entry<Long, Long> thread : serverThreadCpuTimes().entrySet()) {
+			cpuNanos += thread.getValue() - before.getOrDefault(thread.getKey(), 0L);
+		}
+		return cpuNanos;
+	}
+
+	private Map<Long, Long> serverThreadCpuTimes() {
+		Map<Long, Long> cpuTimes = new HashMap<>();
+		Thread.getAllStackTraces().keySet().forEach(thread -> {
+			long cpuTime = this.threadMXBean.getThreadCpuTime(thread.getId());
+			if (thread.getName().startsWith(SERVER_THREAD_PREFIX) && cpuTime >= 0) {
+				cpuTimes.put(thread.getId(), cpuTime);
+			}
+		});
+		return cpuTimes;
+	}
+
+}
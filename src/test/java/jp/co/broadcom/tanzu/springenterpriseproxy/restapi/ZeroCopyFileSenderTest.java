@@ -0,0 +1,100 @@
+package jp.co.broadcom.tanzu.springenterpriseproxy.restapi;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jp.co.broadcom.tanzu.springenterpriseproxy.SpringEnterpriseProxyProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ZeroCopyFileSenderTest {
+
+	private static final String ARTIFACT_PATH = "/org/example/library/1.0.0/library-1.0.0.jar";
+
+	private static final int FILE_SIZE = 64 * 1024;
+
+	@Mock
+	private SpringEnterpriseProxyProperties springEnterpriseProxyProperties;
+
+	@Mock
+	private ArtifactRepository artifactRepository;
+
+	private final Artifact artifact = Artifact.cached(ARTIFACT_PATH, FILE_SIZE, null, "application/java-archive",
+			LocalDateTime.now());
+
+	private final MockHttpServletRequest request = new MockHttpServletRequest();
+
+	private final ServletRequestAttributes requestAttributes = new ServletRequestAttributes(this.request);
+
+	private ArtifactAccessTracker accessTracker;
+
+	private ZeroCopyFileSender sender;
+
+	@BeforeEach
+	void setUp() {
+		when(springEnterpriseProxyProperties.zeroCopy())
+			.thenReturn(new SpringEnterpriseProxyProperties.ZeroCopy(true, DataSize.ofKilobytes(48)));
+		accessTracker = new ArtifactAccessTracker(artifactRepository, new SimpleMeterRegistry());
+		sender = new ZeroCopyFileSender(springEnterpriseProxyProperties);
+		request.setAttribute(ZeroCopyFileSender.SENDFILE_SUPPORTED_ATTR, Boolean.TRUE);
+		RequestContextHolder.setRequestAttributes(requestAttributes);
+	}
+
+	@AfterEach
+	void tearDown() {
+		RequestContextHolder.resetRequestAttributes();
+	}
+
+	@Test
+	void trySend_trackedFile_countsAsOpenUntilRequestCompleted(@TempDir Path tempDir) throws IOException {
+		Path file = Files.write(tempDir.resolve("library-1.0.0.jar"), new byte[FILE_SIZE]);
+		Resource content = accessTracker.track(artifact, new FileSystemResource(file));
+
+		assertThat(sender.trySend(content, request)).isTrue();
+		assertThat(accessTracker.isStreaming(artifact.id())).isTrue();
+		requestAttributes.requestCompleted();
+
+		assertThat(accessTracker.isStreaming(artifact.id())).isFalse();
+	}
+
+	@Test
+	void trySend_encodedTrackedFile_countsAsOpenUntilRequestCompleted(@TempDir Path tempDir) throws IOException {
+		Path file = Files.write(tempDir.resolve("library-1.0.0.jar.gz"), new byte[FILE_SIZE]);
+		Resource content = new ContentEncodedResource(accessTracker.track(artifact, new FileSystemResource(file)),
+				"gzip");
+
+		assertThat(sender.trySend(content, request)).isTrue();
+		assertThat(accessTracker.isStreaming(artifact.id())).isTrue();
+		requestAttributes.requestCompleted();
+
+		assertThat(accessTracker.isStreaming(artifact.id())).isFalse();
+	}
+
+	@Test
+	void trySend_smallFile_notHeld(@TempDir Path tempDir) throws IOException {
+		Path file = Files.write(tempDir.resolve("library-1.0.0.jar"), new byte[1024]);
+
+		assertThat(sender.trySend(accessTracker.track(artifact, new FileSystemResource(file)), request)).isFalse();
+
+		assertThat(accessTracker.isStreaming(artifact.id())).isFalse();
+	}
+
+}